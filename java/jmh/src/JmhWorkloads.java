@@ -0,0 +1,186 @@
+/*
+ * JMH workloads
+ * =============
+ *
+ */
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import bench.Workload;
+
+/**
+ * Builds the operations of the benchmarks in the bench package on the
+ * synthetic data of ProfNetworkBench, with the same seeds, so both time
+ * the same work. Each operation cycles through INPUTS prepared inputs.
+ * The menu operations run on a database, over the samples of the ops
+ * suite of ProfNetworkBench.
+ */
+public class JmhWorkloads implements Workload.Factory {
+
+    // a power of two, so the input of call i is at i & (INPUTS - 1)
+    static final int INPUTS = 4096;
+
+    @Override
+    public Map<String, Workload> create(String suite, int size) throws Exception {
+        switch (suite) {
+            case "path": return path(size);
+            case "search": return search(size);
+            case "recommend": return recommend(size);
+            case "metrics": return metrics();
+            case "render": return render(size);
+            default: throw new IllegalArgumentException("Unknown suite: " + suite);
+        }
+    }//end create
+
+    @Override
+    public Workload.Session connect(String db, String port, String user) throws Exception {
+        ProfNetwork esql = new ProfNetwork(db, port, user, "dees");
+        try {
+            List<List<String>> users = ProfNetworkBench.sampleUsers(esql);
+            List<List<String>> pairs = ProfNetworkBench.samplePairs(esql);
+            if (users.isEmpty() || pairs.isEmpty())
+                throw new IllegalStateException(
+                        "USR or CONNECTION_USR is empty, seed " + db + " with sql/scripts/seed_bench.sh");
+            ProfNetworkBench.SentMessages sent = new ProfNetworkBench.SentMessages();
+            Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+            ProfNetworkBench.menuOps(esql, users, pairs, sent).forEach((name, op) -> ops.put(name, i -> {
+                op.run(i);
+                return null;
+            }));
+            return new Workload.Session() {
+                @Override
+                public Map<String, Workload> ops() {
+                    return ops;
+                }
+
+                @Override
+                public void close() throws Exception {
+                    try {
+                        sent.remove(esql);
+                    } finally {
+                        esql.cleanup();
+                    }
+                }
+            };
+        } catch (Exception | Error e) {
+            esql.cleanup();
+            throw e;
+        }
+    }//end connect
+
+    // users "u0" .. of a graph of the given size, at random
+    private static String[] randomUsers(SplittableRandom rnd, int users) {
+        String[] ids = new String[INPUTS];
+        for (int i = 0; i < INPUTS; ++i)
+            ids[i] = "u" + rnd.nextInt(users);
+        return ids;
+    }//end randomUsers
+
+    static Map<String, Workload> path(int users) {
+        SplittableRandom rnd = new SplittableRandom(42);
+        SocialGraph graph = ProfNetworkBench.syntheticGraph(rnd, users);
+        String[] from = randomUsers(rnd, users);
+        String[] to = randomUsers(rnd, users);
+        Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+        ops.put("3 hops", i -> graph.shortestPath(from[i & INPUTS - 1], to[i & INPUTS - 1], 3));
+        ops.put("6 hops", i -> graph.shortestPath(from[i & INPUTS - 1], to[i & INPUTS - 1], 6));
+        return ops;
+    }//end path
+
+    static Map<String, Workload> search(int users) {
+        SplittableRandom rnd = new SplittableRandom(42);
+        String[] names = new String[users];
+        UserSearchIndex index = ProfNetworkBench.syntheticIndex(rnd, names);
+        String[][] queries = ProfNetworkBench.searchQueries(rnd, names, INPUTS);
+        Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+        ops.put("1-3 char prefix", i -> index.search(queries[0][i & INPUTS - 1], 10));
+        ops.put("name + prefix", i -> index.search(queries[1][i & INPUTS - 1], 10));
+        ops.put("misspelt word", i -> index.search(queries[2][i & INPUTS - 1], 10));
+        return ops;
+    }//end search
+
+    static Map<String, Workload> recommend(int users) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(42);
+        SocialGraph graph = ProfNetworkBench.syntheticGraph(rnd, users);
+        ConnectionRecommender rec = ProfNetworkBench.syntheticRecommender(rnd, graph, users,
+                ProfNetwork.RECOMMEND_THREADS);
+        rec.recomputeAll();
+        ConnectionRecommender client = new ConnectionRecommender(graph, null, ProfNetwork.RECOMMEND_K,
+                ProfNetwork.RECOMMEND_MUTUAL_WEIGHT, ProfNetwork.RECOMMEND_COMPANY_WEIGHT,
+                ProfNetwork.RECOMMEND_INSTITUTION_WEIGHT, 1);
+        String[] from = randomUsers(rnd, users);
+        String[] to = randomUsers(rnd, users);
+        Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+        ops.put("lookup", i -> rec.recommend(from[i & INPUTS - 1]));
+        ops.put("score one", i -> client.recommend(from[i & INPUTS - 1]));
+        ops.put("edge + rescore", i -> {
+            graph.addEdge(from[i & INPUTS - 1], to[i & INPUTS - 1]);
+            rec.edgeChanged(from[i & INPUTS - 1]);
+            return rec;
+        });
+        return ops;
+    }//end recommend
+
+    static Map<String, Workload> metrics() {
+        QueryMetrics metrics = new QueryMetrics(0, null, false, 100);
+        String[] sql = ProfNetworkBench.METRICS_SQL;
+        Object[] params = {"user", "password"};
+        Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+        ops.put("record", i -> {
+            metrics.record(sql[(i & Integer.MAX_VALUE) % sql.length], System.nanoTime() - 250000, i & 31, 64, params);
+            return metrics;
+        });
+        return ops;
+    }//end metrics
+
+    // the output of a dump, thrown away; the count is for the Blackhole
+    static final class Discard extends OutputStream {
+        long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }//end Discard
+
+    static Map<String, Workload> render(int rows) {
+        Map<String, Workload> ops = new LinkedHashMap<String, Workload>();
+        ops.put("print per value", i -> {
+            Discard sink = new Discard();
+            try (PrintStream out = new PrintStream(sink, true)) {
+                ProfNetworkBench.printPerValue(ProfNetworkBench.syntheticResult(rows), out);
+            }
+            return sink.bytes;
+        });
+        ops.put("print renderer", i -> {
+            Discard sink = new Discard();
+            try (PrintStream out = new PrintStream(sink, true)) {
+                new ResultRenderer(new OutputStreamWriter(out)).render(ProfNetworkBench.syntheticResult(rows),
+                        ResultRenderer.Format.TEXT);
+            }
+            return sink.bytes;
+        });
+        for (ResultRenderer.Format format : new ResultRenderer.Format[] {ResultRenderer.Format.CSV, ResultRenderer.Format.JSON})
+            ops.put("export " + format, i -> {
+                Discard sink = new Discard();
+                try (Writer out = new OutputStreamWriter(sink, java.nio.charset.StandardCharsets.UTF_8)) {
+                    new ResultRenderer(out, ProfNetwork.EXPORT_BUFFER_SIZE).render(ProfNetworkBench.syntheticResult(rows), format);
+                }
+                return sink.bytes;
+            });
+        return ops;
+    }//end render
+
+}//end JmhWorkloads
@@ -0,0 +1,24 @@
+/*
+ * Benchmark call counter
+ * ======================
+ *
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The call counter of one benchmark thread, passed to Workload.run.
+ */
+@State(Scope.Thread)
+public class Cursor {
+
+    private int calls = 0;
+
+    int next() {
+        return calls++;
+    }//end next
+
+}//end Cursor
@@ -0,0 +1,113 @@
+/*
+ * Menu benchmark
+ * ==============
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The menu operations of the client on a local PostgreSQL seeded by
+ * sql/scripts/seed_bench.sh (the ops suite of ProfNetworkBench). Without
+ * -p db=.. port=.. user=.. the settings of java/scripts/env.sh are used:
+ * $DB_NAME, or $USER_DB, $PGPORT and $USER. The messages NewMessage
+ * writes are deleted at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MenuBenchmark {
+
+    @Param("")
+    public String db;
+
+    @Param("")
+    public String port;
+
+    @Param("")
+    public String user;
+
+    private Workload.Session session;
+    private Workload logIn;
+    private Workload friendList;
+    private Workload sendRequestCheck;
+    private Workload newMessage;
+    private Workload viewMessages;
+    private Workload viewProfile;
+
+    @Setup
+    public void setUp() throws Exception {
+        String u = or(user, System.getenv("USER"));
+        session = Workload.database(or(db, or(System.getenv("DB_NAME"), u + "_DB")),
+                or(port, or(System.getenv("PGPORT"), "5432")), u);
+        Map<String, Workload> ops = session.ops();
+        logIn = ops.get("LogIn");
+        friendList = ops.get("FriendList");
+        sendRequestCheck = ops.get("SendRequest check");
+        newMessage = ops.get("NewMessage");
+        viewMessages = ops.get("ViewMessages 2 pages");
+        viewProfile = ops.get("ViewProfile");
+    }//end setUp
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (session != null)
+            session.close();
+    }//end tearDown
+
+    // the value, or the default when it is not set
+    private static String or(String value, String dflt) {
+        return value == null || value.isEmpty() ? dflt : value;
+    }//end or
+
+    @Benchmark
+    public void logIn(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(logIn.run(c.next()));
+    }//end logIn
+
+    @Benchmark
+    public void friendList(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(friendList.run(c.next()));
+    }//end friendList
+
+    @Benchmark
+    public void sendRequestCheck(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(sendRequestCheck.run(c.next()));
+    }//end sendRequestCheck
+
+    @Benchmark
+    public void newMessage(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(newMessage.run(c.next()));
+    }//end newMessage
+
+    @Benchmark
+    public void viewMessages(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(viewMessages.run(c.next()));
+    }//end viewMessages
+
+    @Benchmark
+    public void viewProfile(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(viewProfile.run(c.next()));
+    }//end viewProfile
+
+}//end MenuBenchmark
@@ -0,0 +1,55 @@
+/*
+ * Metrics benchmark
+ * =================
+ *
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * QueryMetrics.record, the bookkeeping every data-access call pays, from
+ * one thread and from four threads over the same statements (the metrics
+ * suite of ProfNetworkBench, one record per call).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private Workload record;
+
+    @Setup
+    public void setUp() throws Exception {
+        record = Workload.suite("metrics", 0).get("record");
+    }//end setUp
+
+    @Benchmark
+    public void record(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(record.run(c.next()));
+    }//end record
+
+    @Threads(4)
+    @Benchmark
+    public void recordConcurrent(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(record.run(c.next()));
+    }//end recordConcurrent
+
+}//end MetricsBenchmark
@@ -0,0 +1,61 @@
+/*
+ * Path benchmark
+ * ==============
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SocialGraph.shortestPath between random users of a synthetic graph with a
+ * heavy-tailed out-degree, at hop limits 3 and 6 (the path suite of
+ * ProfNetworkBench).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathBenchmark {
+
+    @Param("1000000")
+    public int users;
+
+    private Workload hops3;
+    private Workload hops6;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Workload> ops = Workload.suite("path", users);
+        hops3 = ops.get("3 hops");
+        hops6 = ops.get("6 hops");
+    }//end setUp
+
+    @Benchmark
+    public void shortestPath3(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(hops3.run(c.next()));
+    }//end shortestPath3
+
+    @Benchmark
+    public void shortestPath6(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(hops6.run(c.next()));
+    }//end shortestPath6
+
+}//end PathBenchmark
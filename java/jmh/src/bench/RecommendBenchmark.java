@@ -0,0 +1,69 @@
+/*
+ * Recommendation benchmark
+ * ========================
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The people-you-may-know lists of a synthetic graph: the lookup of a list
+ * computed in setup, the scoring of one user that a client without a
+ * stored list does, and the rescore after an edge is added (the recommend
+ * suite of ProfNetworkBench). The full recompute runs once, in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommendBenchmark {
+
+    @Param("100000")
+    public int users;
+
+    private Workload lookup;
+    private Workload scoreOne;
+    private Workload edgeRescore;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Workload> ops = Workload.suite("recommend", users);
+        lookup = ops.get("lookup");
+        scoreOne = ops.get("score one");
+        edgeRescore = ops.get("edge + rescore");
+    }//end setUp
+
+    @Benchmark
+    public void lookup(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(lookup.run(c.next()));
+    }//end lookup
+
+    @Benchmark
+    public void scoreOne(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(scoreOne.run(c.next()));
+    }//end scoreOne
+
+    @Benchmark
+    public void edgeRescore(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(edgeRescore.run(c.next()));
+    }//end edgeRescore
+
+}//end RecommendBenchmark
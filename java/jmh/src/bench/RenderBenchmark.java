@@ -0,0 +1,76 @@
+/*
+ * Render benchmark
+ * ================
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Dumps of synthetic inbox rows: the per-value print loop printResult used
+ * to run, the ResultRenderer it runs now, and the CSV and JSON exports
+ * (the render suite of ProfNetworkBench). The output is discarded, so
+ * only the formatting is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param("100000")
+    public int rows;
+
+    private Workload perValue;
+    private Workload renderer;
+    private Workload csv;
+    private Workload json;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Workload> ops = Workload.suite("render", rows);
+        perValue = ops.get("print per value");
+        renderer = ops.get("print renderer");
+        csv = ops.get("export CSV");
+        json = ops.get("export JSON");
+    }//end setUp
+
+    @Benchmark
+    public void printPerValue(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(perValue.run(c.next()));
+    }//end printPerValue
+
+    @Benchmark
+    public void printRenderer(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(renderer.run(c.next()));
+    }//end printRenderer
+
+    @Benchmark
+    public void exportCsv(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(csv.run(c.next()));
+    }//end exportCsv
+
+    @Benchmark
+    public void exportJson(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(json.run(c.next()));
+    }//end exportJson
+
+}//end RenderBenchmark
@@ -0,0 +1,68 @@
+/*
+ * Search benchmark
+ * ================
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UserSearchIndex.search over synthetic users with Zipf-like names, a
+ * company and an institution each, for prefix, two word and misspelt
+ * queries (the search suite of ProfNetworkBench).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param("1000000")
+    public int users;
+
+    private Workload prefix;
+    private Workload namePrefix;
+    private Workload misspelt;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Workload> ops = Workload.suite("search", users);
+        prefix = ops.get("1-3 char prefix");
+        namePrefix = ops.get("name + prefix");
+        misspelt = ops.get("misspelt word");
+    }//end setUp
+
+    @Benchmark
+    public void prefix(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(prefix.run(c.next()));
+    }//end prefix
+
+    @Benchmark
+    public void namePrefix(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(namePrefix.run(c.next()));
+    }//end namePrefix
+
+    @Benchmark
+    public void misspelt(Cursor c, Blackhole bh) throws Exception {
+        bh.consume(misspelt.run(c.next()));
+    }//end misspelt
+
+}//end SearchBenchmark
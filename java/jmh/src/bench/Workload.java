@@ -0,0 +1,70 @@
+/*
+ * Benchmark workloads
+ * ===================
+ *
+ */
+
+package bench;
+
+import java.util.Map;
+
+/**
+ * One timed operation of a benchmark suite. The code under test is in the
+ * default package, which the benchmarks of this package cannot name, so
+ * JmhWorkloads, in the default package, builds the operations and hands
+ * them over through this interface.
+ */
+public interface Workload {
+
+    /**
+     * Runs the operation once; i numbers the calls, so the operation can
+     * cycle through its prepared inputs.
+     *
+     * @return a value for the Blackhole, so the work is not optimized away
+     */
+    Object run(int i) throws Exception;
+
+    /**
+     * Operations on a database, and the connection they share, which close
+     * releases.
+     */
+    interface Session {
+        Map<String, Workload> ops();
+
+        void close() throws Exception;
+    }//end Session
+
+    /**
+     * Builds the operations of one suite over synthetic data, or the menu
+     * operations on a database.
+     */
+    interface Factory {
+        Map<String, Workload> create(String suite, int size) throws Exception;
+
+        Session connect(String db, String port, String user) throws Exception;
+    }//end Factory
+
+    /**
+     * @param suite path, search, recommend, metrics or render
+     * @param size the users of the synthetic data, or the rows for render
+     * @return the operations of the suite by name
+     */
+    static Map<String, Workload> suite(String suite, int size) throws Exception {
+        return factory().create(suite, size);
+    }//end suite
+
+    /**
+     * @param db the database, seeded by sql/scripts/seed_bench.sh
+     * @param port the port of the server on localhost
+     * @param user the database user
+     * @return the menu operations of ProfNetworkBench.menuOps on the database
+     */
+    static Session database(String db, String port, String user) throws Exception {
+        return factory().connect(db, port, user);
+    }//end database
+
+    private static Factory factory() throws Exception {
+        return (Factory) Class.forName("JmhWorkloads").getDeclaredConstructor().newInstance();
+    }//end factory
+
+}//end Workload
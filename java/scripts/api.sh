@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#serve the operations as a JSON API over HTTP, e.g. ./api.sh 8080;
+#see java/src/ApiServer.java for the endpoints. Load test it with
+#./bench.sh api 100000, or -Dbench.api.url=http://host:8080 for a
+#server started here
+#Use your database name, port number and login
+java ProfNetwork $DB_NAME $PGPORT $USER -api ${1:-8080}
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#run the benchmarks, e.g. ./bench.sh ops 10000
+#seed the database first with sql/scripts/seed_bench.sh
+#BENCH_LABEL=v2 BENCH_BASELINE=v1 ./bench.sh all records the results in
+#results.csv and fails if an operation is slower than under v1
+#Use your database name, port number and login
+java -Dbench.out=${BENCH_OUT:-results.csv} -Dbench.label=${BENCH_LABEL:-dev} ${BENCH_BASELINE:+-Dbench.baseline=$BENCH_BASELINE} \
+	ProfNetworkBench $DB_NAME $PGPORT $USER "$@"
@@ -1,14 +1,9 @@
 #!/bin/bash
-export DB_NAME=$USER"_DB"
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
-# Indicate the path of the java compiler to use
-export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
-export PATH=$JAVA_HOME/bin:$PATH
-
-# compile the java program
-javac -d $DIR/../classes $DIR/../src/ProfNetwork.java
+source $DIR/env.sh || exit 1
+compile || exit 1
 
 #run the java program
 #Use your database name, port number and login
-java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork $DB_NAME $PGPORT $USER
+java ProfNetwork $DB_NAME $PGPORT $USER
 
@@ -0,0 +1,31 @@
+#!/bin/bash
+# Settings shared by the scripts in this directory; they source this file.
+export DB_NAME=$USER"_DB"
+JAVA_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"/..
+
+# Indicate the path of the JDK to use (11 or newer); without JAVA_HOME the
+# java on the PATH is used
+if [ -n "$JAVA_HOME" ]; then
+	export PATH=$JAVA_HOME/bin:$PATH
+fi
+
+# The programs need PostgreSQL 11 or newer (ON CONFLICT, RETURNING,
+# SKIP LOCKED, transition-table triggers, partitioned MESSAGE with a
+# default partition) and a JDBC 4.2 driver.
+# The Maven build (java/pom.xml) declares the driver, org.postgresql
+# 42.7.4, and copies it to java/app/target/lib; DRIVER_JAR, if set, is
+# used instead
+if [ -n "$DRIVER_JAR" ]; then
+	export CLASSPATH=$JAVA_DIR/app/target/classes:$DRIVER_JAR
+else
+	export CLASSPATH="$JAVA_DIR/app/target/classes:$JAVA_DIR/app/target/lib/*"
+fi
+
+# compile the java program
+compile() {
+	if ! command -v mvn > /dev/null; then
+		echo "Maven is needed to build the programs, see java/pom.xml" >&2
+		return 1
+	fi
+	mvn -B -q -f $JAVA_DIR/pom.xml -pl app -am package
+}
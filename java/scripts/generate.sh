@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#write a synthetic data set, e.g. ./generate.sh /tmp/data 10000000 42
+#load it with ./import.sh after pointing it at the same directory, or copy
+#the files to $PGDATA and run sql/src/load_data.sql
+java DataGenerator "$@"
@@ -0,0 +1,8 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#load data/*.csv into the tables created by sql/src/create_tables.sql
+#rejected rows are written to rejects.csv
+java CsvImporter $DB_NAME $PGPORT $USER $DIR/../../data rejects.csv
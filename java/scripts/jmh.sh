@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+mvn -B -q -f $JAVA_DIR/pom.xml -pl jmh -am package || exit 1
+
+#run the JMH benchmarks, e.g. ./jmh.sh Search -p users=100000 or
+#./jmh.sh -l to list them; the arguments are JMH's, see java/jmh/pom.xml.
+#Menu runs on $DB_NAME at $PGPORT, seeded by sql/scripts/seed_bench.sh
+java -jar $JAVA_DIR/jmh/target/benchmarks.jar "$@"
@@ -0,0 +1,20 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#convert a database of the char(30) userId layout to the uid keys, e.g.
+#./migrate.sh to prepare, copy and verify, then ./migrate.sh cutover to
+#switch to the new tables, keeping the old ones as *_OLD. One phase at a
+#time: prepare, copy, sizes, verify, cutover or abort; see
+#sql/src/migrate_keys.sql
+psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -q < $DIR/../../sql/src/migrate_keys.sql || exit 1
+java KeyMigration $DB_NAME $PGPORT $USER "$@" || exit 1
+#the per-user connection counts, the logs of connection and user changes
+#and the recommendations are built on the new tables
+if [ "$1" == "cutover" ]; then
+	psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -q < $DIR/../../sql/src/connection_counts.sql
+	psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -q < $DIR/../../sql/src/connection_changes.sql
+	psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -q < $DIR/../../sql/src/user_changes.sql
+	psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -q < $DIR/../../sql/src/recommendations.sql
+fi
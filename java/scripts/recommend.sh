@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+source $DIR/env.sh || exit 1
+compile || exit 1
+
+#the people-you-may-know batch job: stores every user's list, then keeps
+#them current until stopped, with a full recompute every hour. Options go
+#to java, e.g. ./recommend.sh -Dprofnetwork.recommend.intervalMs=0 stores
+#the lists once and exits, for cron.
+#Use your database name, port number and login
+java "$@" ProfNetwork $DB_NAME $PGPORT $USER -recommend
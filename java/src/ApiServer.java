@@ -0,0 +1,589 @@
+/*
+ * HTTP/JSON API
+ * =============
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the menu operations as a JSON API on the JDK's HTTP server, so
+ * programs and load tests can drive them without the console menu:
+ *
+ *   POST /login             {"userId", "password"} -> {"token"}
+ *   GET  /friends           -> {"friends": [userId]}
+ *   POST /requests          {"userId"} -> {"result"}
+ *   GET  /requests          -> {"requests": [userId]}
+ *   POST /requests/accept   {"userIds": [userId]}, all without -> {"count", "userIds"}
+ *   POST /requests/reject   the same
+ *   POST /messages          {"to", "contents"} -> {"msgId", "undelivered"}
+ *   GET  /messages?box=inbox|sent[&all=true][&beforeTime=&beforeId=]
+ *                           -> {"messages": [...], "next": {"beforeTime", "beforeId"}}
+ *   GET  /profile[?userId=] -> the profile
+ *   GET  /search?q=[&limit=] -> {"hits": [...]}
+ *
+ * Every call but /login carries the token /login returned, as
+ * "Authorization: Bearer token". A token unused for SESSION_IDLE_MS is
+ * logged out and answered 401. Errors are answered {"error"} with a 4xx
+ * or 5xx status.
+ *
+ * Each request runs on its own virtual thread where the JVM has them
+ * (Java 21 and later), and on a pool of THREADS threads otherwise. The
+ * endpoints that reach the database share DB_PERMITS permits, by default
+ * one per pooled connection that the background threads (message writer,
+ * compactor, partition manager, change refresher) do not hold, so a
+ * request that gets a permit finds a free connection instead of timing out
+ * in ConnectionPool.acquire(). Search only reads memory and uses
+ * MEMORY_PERMITS. A request that gets no permit within
+ * QUEUE_TIMEOUT_MS is answered 503.
+ *
+ * Waiting for a permit or a pooled connection parks on a j.u.c. lock and
+ * does not pin a virtual thread's carrier. A virtual thread blocked on a
+ * contended monitor does pin it before Java 24, so the token table, the
+ * profile and count caches, the message id allocator and the dispatcher
+ * queue that requests go through are guarded by ReentrantLocks rather than
+ * synchronized.
+ */
+public class ApiServer {
+
+    static final int DB_PERMITS = Integer.getInteger("profnetwork.api.dbPermits",
+            Math.max(1, ProfNetwork.POOL_SIZE - ProfNetwork.backgroundConnections()));
+    static final int MEMORY_PERMITS = Integer.getInteger("profnetwork.api.memoryPermits",
+            Runtime.getRuntime().availableProcessors() * 2);
+    static final long QUEUE_TIMEOUT_MS = Long.getLong("profnetwork.api.queueTimeoutMs", 5000L);
+    // request threads where there are no virtual threads
+    static final int THREADS = Integer.getInteger("profnetwork.api.threads", ProfNetwork.POOL_SIZE * 4);
+    // logged in users kept; the least recently active are logged out
+    static final int MAX_SESSIONS = Integer.getInteger("profnetwork.api.sessions", 100000);
+    // a token not used for this long is logged out
+    static final long SESSION_IDLE_MS = Long.getLong("profnetwork.api.sessionIdleMs", 30 * 60000L);
+    static final int MAX_BODY = 64 * 1024;
+
+    /**
+     * An error answered with an HTTP status.
+     */
+    static final class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }//end ApiException
+
+    /**
+     * One request: the caller, its parameters and the status to answer.
+     */
+    static final class Call {
+        final HttpExchange exchange;
+        final Map<String, String> query;
+        final Map<String, Object> body;
+        String userId;
+        int status = 200;
+
+        Call(HttpExchange exchange, Map<String, String> query, Map<String, Object> body) {
+            this.exchange = exchange;
+            this.query = query;
+            this.body = body;
+        }
+
+        /**
+         * @return the named parameter from the JSON body or the query
+         *         string, or null
+         */
+        String param(String name) {
+            Object v = body.get(name);
+            if (v == null)
+                v = query.get(name);
+            return v == null ? null : v.toString();
+        }
+
+        String required(String name) throws ApiException {
+            String v = param(name);
+            if (v == null || v.isEmpty())
+                throw new ApiException(400, "Missing " + name);
+            return v;
+        }
+    }//end Call
+
+    interface Endpoint {
+        Object call(Call c) throws Exception;
+    }
+
+    // a logged in user and when its token was last used
+    private static final class Session {
+        final String userId;
+        long usedAt;
+
+        Session(String userId, long usedAt) {
+            this.userId = userId;
+            this.usedAt = usedAt;
+        }
+    }//end Session
+
+    private static final class Route {
+        final String name;
+        final boolean loggedIn;
+        final Semaphore permits;
+        final Endpoint endpoint;
+
+        Route(String name, boolean loggedIn, Semaphore permits, Endpoint endpoint) {
+            this.name = name;
+            this.loggedIn = loggedIn;
+            this.permits = permits;
+            this.endpoint = endpoint;
+        }
+    }//end Route
+
+    private final ProfNetwork esql;
+    private final int port;
+    private final Semaphore dbPermits = new Semaphore(DB_PERMITS);
+    private final Semaphore memoryPermits = new Semaphore(MEMORY_PERMITS);
+    // path -> method -> route
+    private final Map<String, Map<String, Route>> routes = new LinkedHashMap<String, Map<String, Route>>();
+    private final SecureRandom random = new SecureRandom();
+
+    // token -> session, in LRU order; guarded by sessionsLock
+    private final ReentrantLock sessionsLock = new ReentrantLock();
+    private final long sessionIdleNanos = SESSION_IDLE_MS * 1000000L;
+    private final LinkedHashMap<String, Session> sessions =
+            new LinkedHashMap<String, Session>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+    private boolean virtualThreads = false;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    // metrics
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param esql the instance whose pool, caches and graph the requests use
+     * @param port the TCP port to listen on, 0 for any free one
+     */
+    public ApiServer(ProfNetwork esql, int port) {
+        this.esql = esql;
+        this.port = port;
+        route("POST", "/login", "LogIn", false, dbPermits, this::logIn);
+        route("GET", "/friends", "FriendList", true, dbPermits, c -> Collections.singletonMap("friends",
+                esql.executeQueryAndMap(ProfNetwork.SQL_FRIEND_LIST, rs -> ProfNetwork.trimmed(rs, 1), c.userId)));
+        route("POST", "/requests", "SendRequest", true, dbPermits, this::sendRequest);
+        route("GET", "/requests", "IncomingRequests", true, dbPermits, this::incomingRequests);
+        route("POST", "/requests/accept", "AcceptRequests", true, dbPermits, c -> answerRequests(c, true));
+        route("POST", "/requests/reject", "RejectRequests", true, dbPermits, c -> answerRequests(c, false));
+        route("POST", "/messages", "NewMessage", true, dbPermits, this::newMessage);
+        route("GET", "/messages", "ViewMessages", true, dbPermits, this::viewMessages);
+        route("GET", "/profile", "ViewProfile", true, dbPermits, this::viewProfile);
+        route("GET", "/search", "Search", true, memoryPermits, this::search);
+    }//end ApiServer
+
+    private void route(String method, String path, String name, boolean loggedIn, Semaphore permits, Endpoint endpoint) {
+        routes.computeIfAbsent(path, p -> new HashMap<String, Route>())
+                .put(method, new Route(name, loggedIn, permits, endpoint));
+    }//end route
+
+    /**
+     * Starts listening.
+     *
+     * @return the port listened on
+     */
+    public synchronized int start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        for (String path : routes.keySet())
+            server.createContext(path, this::dispatch);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }//end start
+
+    // one virtual thread per request if the JVM has them, looked up by
+    // reflection as the code is built for Java 11
+    private ExecutorService newExecutor() {
+        try {
+            ExecutorService e = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtualThreads = true;
+            return e;
+        } catch (ReflectiveOperationException e) {
+            virtualThreads = false;
+            return Executors.newFixedThreadPool(THREADS);
+        }
+    }//end newExecutor
+
+    /**
+     * Serves requests until the process is stopped, then prints the stats
+     * of the shared components.
+     */
+    public void run() throws IOException, InterruptedException {
+        int listening = start();
+        System.out.println("Serving the API on port " + listening
+                + (virtualThreads ? " with virtual threads" : " with " + THREADS + " threads"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop(1);
+            System.out.println(stats());
+            System.out.println(esql.getPool().stats());
+            System.out.println(esql.getProfileCache().stats());
+            System.out.println(esql.getConnectionCounts().stats());
+            System.out.println(esql.getMessageDispatcher().stats());
+            System.out.print(esql.getMetrics().report());
+        }));
+        stopped.await();
+    }//end run
+
+    /**
+     * Stops listening, giving the requests in progress up to delaySeconds.
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (server == null)
+            return;
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds + 10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        stopped.countDown();
+    }//end stop
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Map<String, Route> methods = routes.get(exchange.getRequestURI().getPath());
+            Route route = methods == null ? null : methods.get(exchange.getRequestMethod());
+            if (route == null)
+                throw new ApiException(methods == null ? 404 : 405,
+                        "No " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            Call call = new Call(exchange, query(exchange.getRequestURI().getRawQuery()), body(exchange));
+            if (route.loggedIn)
+                call.userId = user(exchange);
+            if (!route.permits.tryAcquire(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new ApiException(503, "Too busy, try again");
+            }
+            Object result;
+            try {
+                result = route.endpoint.call(call);
+            } finally {
+                route.permits.release();
+            }
+            respond(exchange, call.status, result);
+        } catch (ApiException e) {
+            if (e.status >= 500)
+                failures.incrementAndGet();
+            respond(exchange, e.status, Collections.singletonMap("error", e.getMessage()));
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            respond(exchange, 500, Collections.singletonMap("error", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }//end dispatch
+
+    private static void respond(HttpExchange exchange, int status, Object result) throws IOException {
+        byte[] bytes = Json.write(result).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }//end respond
+
+    // the parameters of a query string
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (raw == null || raw.isEmpty())
+            return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }//end query
+
+    // the fields of a JSON object body; none for an empty body
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException, ApiException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try (InputStream in = exchange.getRequestBody()) {
+            for (int n; (n = in.read(chunk)) > 0; ) {
+                if (buf.size() + n > MAX_BODY)
+                    throw new ApiException(413, "Body over " + MAX_BODY + " bytes");
+                buf.write(chunk, 0, n);
+            }
+        }
+        String text = buf.toString(StandardCharsets.UTF_8.name()).trim();
+        if (text.isEmpty())
+            return Collections.emptyMap();
+        Object value;
+        try {
+            value = Json.parse(text);
+        } catch (Json.ParseException e) {
+            throw new ApiException(400, "Bad JSON: " + e.getMessage());
+        }
+        if (!(value instanceof Map))
+            throw new ApiException(400, "The body must be a JSON object");
+        return (Map<String, Object>) value;
+    }//end body
+
+    // the user of the bearer token
+    private String user(HttpExchange exchange) throws ApiException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer "))
+            throw new ApiException(401, "Log in first");
+        String token = header.substring(7).trim();
+        long now = System.nanoTime();
+        Session session;
+        sessionsLock.lock();
+        try {
+            session = sessions.get(token);
+            if (session != null && now - session.usedAt >= sessionIdleNanos) {
+                sessions.remove(token);
+                session = null;
+            }
+            if (session != null)
+                session.usedAt = now;
+        } finally {
+            sessionsLock.unlock();
+        }
+        if (session == null)
+            throw new ApiException(401, "Unknown or expired token, log in again");
+        return session.userId;
+    }//end user
+
+    // drops the idle sessions; they are at the head in LRU order
+    private void expireSessions(long now) {
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext() && now - it.next().usedAt >= sessionIdleNanos)
+            it.remove();
+    }//end expireSessions
+
+    private Object logIn(Call c) throws Exception {
+        String userId = c.required("userId");
+        if (esql.executeQuery(ProfNetwork.SQL_LOGIN, userId, c.required("password")) == 0)
+            throw new ApiException(401, "Wrong user or password");
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes)
+            token.append(String.format("%02x", b));
+        long now = System.nanoTime();
+        sessionsLock.lock();
+        try {
+            expireSessions(now);
+            sessions.put(token.toString(), new Session(userId, now));
+        } finally {
+            sessionsLock.unlock();
+        }
+        return Collections.singletonMap("token", token.toString());
+    }//end logIn
+
+    private Object sendRequest(Call c) throws Exception {
+        String result = ProfNetwork.sendRequest(esql, c.userId, c.required("userId"));
+        if (result.equals(ProfNetwork.REQUEST_NO_SUCH_USER))
+            c.status = 404;
+        else if (result.equals(ProfNetwork.REQUEST_NOT_IN_REACH))
+            c.status = 403;
+        else if (!result.equals(ProfNetwork.REQUEST_SENT))
+            c.status = 409;
+        return Collections.singletonMap("result", result);
+    }//end sendRequest
+
+    private Object incomingRequests(Call c) throws Exception {
+        // the counter answers the common case of no pending requests; read
+        // from the table, as in IncomingRequests, not the cache
+        List<String> ids = ConnectionCounts.load(esql, c.userId).requestedBy == 0
+                ? Collections.<String>emptyList()
+                : esql.executeQueryAndMap(ProfNetwork.SQL_INCOMING_REQUESTS, rs -> rs.getString(1), c.userId);
+        return Collections.singletonMap("requests", ids);
+    }//end incomingRequests
+
+    private Object answerRequests(Call c, boolean accept) throws Exception {
+        Object value = c.body.get("userIds");
+        List<String> selected = null;
+        if (value != null) {
+            if (!(value instanceof List))
+                throw new ApiException(400, "userIds must be a list");
+            selected = new ArrayList<String>();
+            for (Object id : (List<?>) value)
+                selected.add(String.valueOf(id));
+        }
+        List<String> changed = accept
+                ? ProfNetwork.acceptRequests(esql, c.userId, selected)
+                : ProfNetwork.rejectRequests(esql, c.userId, selected);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("count", changed.size());
+        result.put("userIds", changed);
+        return result;
+    }//end answerRequests
+
+    private Object newMessage(Call c) throws Exception {
+        String to = c.required("to");
+        String contents = c.required("contents");
+        if (!ProfNetwork.areFriends(esql, c.userId, to))
+            throw new ApiException(403, "Not your friend, cannot send message");
+        int msgId = esql.nextMessageId();
+        esql.getMessageDispatcher().submit(msgId, c.userId, to, contents, Timestamp.from(Instant.now()));
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("msgId", msgId);
+        // earlier messages of the caller that the writer could not insert
+        result.put("undelivered", esql.getMessageDispatcher().takeFailures(c.userId));
+        return result;
+    }//end newMessage
+
+    private Object viewMessages(Call c) throws Exception {
+        String box = c.param("box");
+        boolean sent = "sent".equals(box);
+        if (!sent && box != null && !box.equals("inbox"))
+            throw new ApiException(400, "box must be inbox or sent");
+        Timestamp since = "true".equals(c.param("all")) ? ProfNetwork.ALL_MESSAGES : ProfNetwork.messageWindowStart();
+        String beforeTime = c.param("beforeTime");
+        ProfNetwork.RowMapper<Map<String, Object>> row = rs -> {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            m.put("msgId", rs.getInt(1));
+            m.put("userId", rs.getString(2));
+            m.put("contents", rs.getString(3));
+            m.put("sendTime", rs.getTimestamp(4).toString());
+            return m;
+        };
+        List<Map<String, Object>> page;
+        if (beforeTime == null) {
+            page = esql.executeQueryAndMap(sent ? ProfNetwork.SQL_SENT_FIRST : ProfNetwork.SQL_INBOX_FIRST,
+                    row, c.userId, since, ProfNetwork.PAGE_SIZE);
+        } else {
+            Timestamp time;
+            int id;
+            try {
+                time = Timestamp.valueOf(beforeTime);
+                id = Integer.parseInt(c.required("beforeId"));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Bad beforeTime or beforeId");
+            }
+            page = esql.executeQueryAndMap(sent ? ProfNetwork.SQL_SENT_AFTER : ProfNetwork.SQL_INBOX_AFTER,
+                    row, c.userId, since, time, id, ProfNetwork.PAGE_SIZE);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("messages", page);
+        if (page.size() == ProfNetwork.PAGE_SIZE) {
+            Map<String, Object> last = page.get(page.size() - 1);
+            Map<String, Object> next = new LinkedHashMap<String, Object>();
+            next.put("beforeTime", last.get("sendTime"));
+            next.put("beforeId", last.get("msgId"));
+            result.put("next", next);
+        }
+        return result;
+    }//end viewMessages
+
+    private Object viewProfile(Call c) throws Exception {
+        String userId = c.param("userId");
+        if (userId == null || userId.isEmpty())
+            userId = c.userId;
+        ProfileCache.Profile p = esql.getProfileCache().get(esql, userId);
+        if (p == null)
+            throw new ApiException(404, "No user: " + userId);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("userId", p.userId);
+        result.put("name", p.name);
+        result.put("email", p.email);
+        result.put("dateOfBirth", p.dateOfBirth);
+        result.put("work", rows(p.work, "company", "role", "location", "startDate", "endDate"));
+        result.put("education", rows(p.education, "institutionName", "major", "degree", "startDate", "endDate"));
+        return result;
+    }//end viewProfile
+
+    private static List<Map<String, Object>> rows(List<String[]> rows, String... names) {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(rows.size());
+        for (String[] r : rows) {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < names.length && i < r.length; ++i)
+                m.put(names[i], r[i]);
+            list.add(m);
+        }
+        return list;
+    }//end rows
+
+    private Object search(Call c) throws Exception {
+        int limit = ProfNetwork.SEARCH_RESULTS;
+        if (c.param("limit") != null) {
+            try {
+                limit = Math.max(1, Math.min(100, Integer.parseInt(c.param("limit"))));
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "Bad limit");
+            }
+        }
+        List<Map<String, Object>> hits = new ArrayList<Map<String, Object>>();
+        for (UserSearchIndex.Hit hit : esql.getSearchIndex().search(c.required("q"), limit)) {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            m.put("userId", hit.userId);
+            m.put("name", hit.name);
+            m.put("score", hit.score);
+            hits.add(m);
+        }
+        return Collections.singletonMap("hits", hits);
+    }//end search
+
+    public long getRequests() { return requests.get(); }
+    public long getFailures() { return failures.get(); }
+    public long getRejected() { return rejected.get(); }
+
+    /**
+     * @return a one-line summary of the server
+     */
+    public String stats() {
+        int logged;
+        sessionsLock.lock();
+        try {
+            expireSessions(System.nanoTime());
+            logged = sessions.size();
+        } finally {
+            sessionsLock.unlock();
+        }
+        return String.format("api: %d requests, %d failed, %d rejected when busy, %d sessions, %s",
+                requests.get(), failures.get(), rejected.get(), logged,
+                virtualThreads ? "virtual threads" : THREADS + " threads");
+    }//end stats
+
+}//end ApiServer
@@ -0,0 +1,151 @@
+/*
+ * Refresh of the in-memory state
+ * ==============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Brings the in-memory state that the sessions of this process share up to
+ * date with the changes other clients and the loaders make to the tables
+ * behind it. Each run applies the accepted connections added and removed
+ * elsewhere to the SocialGraph, hands the users whose connections changed
+ * to the listener, if one is set, adds the users created and the names
+ * changed elsewhere to the UserSearchIndex, and then deletes the rows of
+ * CONNECTION_CHANGES and USR_CHANGES older than retainMs, which every
+ * client has read by then.
+ *
+ * The first run happens when the job starts. If it fails, e.g. on a
+ * database created before sql/src/connection_changes.sql or
+ * sql/src/user_changes.sql, the job reports it and stays off; the graph
+ * and the search index are then only current as of startup.
+ */
+public class ChangeRefresher {
+
+    static final String SQL_PRUNE =
+            "DELETE FROM CONNECTION_CHANGES WHERE changedAt < now() - CAST(? AS bigint) * interval '1 millisecond'";
+    static final String SQL_PRUNE_USERS =
+            "DELETE FROM USR_CHANGES WHERE changedAt < now() - CAST(? AS bigint) * interval '1 millisecond'";
+
+    private final ProfNetwork esql;
+    private final SocialGraph graph;
+    private final UserSearchIndex index;
+    private final long retainMs;
+    private ScheduledExecutorService timer = null;
+    // told the accepting user of every change applied, e.g. the
+    // recommender of the batch job
+    private volatile Consumer<Collection<String>> listener = null;
+
+    // metrics
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong edges = new AtomicLong();
+    private final AtomicLong users = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+
+    /**
+     * @param esql the session the job uses
+     * @param graph the graph to keep current
+     * @param index the search index to keep current
+     * @param retainMs how long the rows of both logs are kept
+     */
+    public ChangeRefresher(ProfNetwork esql, SocialGraph graph, UserSearchIndex index, long retainMs) {
+        this.esql = esql;
+        this.graph = graph;
+        this.index = index;
+        this.retainMs = retainMs;
+    }//end ChangeRefresher
+
+    /**
+     * Sets the listener of the changes applied from now on.
+     */
+    public void setListener(Consumer<Collection<String>> listener) {
+        this.listener = listener;
+    }//end setListener
+
+    /**
+     * Runs the job now and then every intervalMs on a background thread.
+     */
+    public synchronized void start(long intervalMs) {
+        if (timer != null)
+            return;
+        try {
+            runOnce();
+        } catch (SQLException e) {
+            System.err.println("Changes of other clients are not applied: " + e.getMessage());
+            return;
+        }
+        if (intervalMs <= 0)
+            return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (SQLException e) {
+                System.err.println("change-refresher: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }//end start
+
+    /**
+     * Applies the changes made since the last run and prunes the log.
+     *
+     * @return the number of connection changes applied
+     * @throws java.sql.SQLException when the log cannot be read or pruned
+     */
+    public int runOnce() throws SQLException {
+        List<String> changed = graph.refresh(esql);
+        edges.addAndGet(changed.size());
+        Consumer<Collection<String>> l = listener;
+        if (l != null && !changed.isEmpty())
+            l.accept(changed);
+        users.addAndGet(index.refresh(esql));
+        if (retainMs > 0) {
+            pruned.addAndGet(esql.executeUpdate(SQL_PRUNE, retainMs));
+            pruned.addAndGet(esql.executeUpdate(SQL_PRUNE_USERS, retainMs));
+        }
+        runs.incrementAndGet();
+        return changed.size();
+    }//end runOnce
+
+    /**
+     * Stops the background job, waiting for a run in progress.
+     */
+    public synchronized void close() {
+        if (timer == null)
+            return;
+        timer.shutdown();
+        try {
+            timer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer = null;
+    }//end close
+
+    public long getRuns() { return runs.get(); }
+    public long getEdges() { return edges.get(); }
+    public long getUsers() { return users.get(); }
+
+    /**
+     * @return a one-line summary of the job
+     */
+    public String stats() {
+        return String.format("change refresher: %d runs, %d connection changes and %d user changes applied, %d log rows pruned",
+                runs.get(), edges.get(), users.get(), pruned.get());
+    }//end stats
+
+}//end ChangeRefresher
@@ -0,0 +1,198 @@
+/*
+ * Connection counts
+ * =================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded read-through cache of the per-user counts in CONNECTION_COUNTS,
+ * which the triggers of sql/src/connection_counts.sql keep current with
+ * every write to CONNECTION_USR. A lookup costs one primary key read on a
+ * miss and nothing on a hit, however many connections the user has.
+ *
+ * The sessions invalidate both users of every request, accept and reject
+ * they write; entries also expire after a TTL, for writes made by other
+ * clients. Eviction is LRU. IncomingRequests, which must not miss a
+ * request sent elsewhere within the TTL, calls load() instead.
+ */
+public class ConnectionCounts {
+
+    static final String SQL_COUNTS =
+            "SELECT accepted, requested, requestedBy FROM CONNECTION_COUNTS WHERE uid = " + ProfNetwork.USER_UID;
+
+    /**
+     * The counts of one user's CONNECTION_USR rows.
+     */
+    public static final class Counts {
+        static final Counts NONE = new Counts(0, 0, 0);
+
+        // rows (userId, *, 'Accept'): the users FriendList shows
+        public final int accepted;
+        // rows (userId, *, 'Request'): the requests the user sent
+        public final int requested;
+        // rows (*, userId, 'Request'): the requests IncomingRequests lists
+        public final int requestedBy;
+
+        Counts(int accepted, int requested, int requestedBy) {
+            this.accepted = accepted;
+            this.requested = requested;
+            this.requestedBy = requestedBy;
+        }
+    }//end Counts
+
+    private static final class Cached {
+        final Counts counts;
+        final long loadedAt;
+
+        Cached(Counts counts, long loadedAt) {
+            this.counts = counts;
+            this.loadedAt = loadedAt;
+        }
+    }//end Cached
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    // guards entries and version; a lock rather than a monitor, so the
+    // virtual threads of ApiServer that wait for it do not pin their carriers
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // in LRU order, eldest first
+    private final LinkedHashMap<String, Cached> entries;
+
+    // bumped by every invalidation, so a load that raced with one is not kept
+    private long version = 0;
+
+    // metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of cached users
+     * @param ttlMillis how long loaded counts are served before reloading
+     */
+    public ConnectionCounts(int maxSize, long ttlMillis) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > ConnectionCounts.this.maxSize;
+            }
+        };
+    }//end ConnectionCounts
+
+    /**
+     * Returns the counts of a user, loading them on a miss.
+     *
+     * @param esql the session used to load missing counts
+     * @return the counts, all 0 for a user without connections
+     * @throws java.sql.SQLException when the counts cannot be loaded
+     */
+    public Counts get(ProfNetwork esql, String userId) throws SQLException {
+        String key = userId.trim();
+        long seen;
+        lock.lock();
+        try {
+            Cached e = entries.get(key);
+            if (e != null && System.nanoTime() - e.loadedAt < ttlNanos) {
+                hits.incrementAndGet();
+                return e.counts;
+            }
+            misses.incrementAndGet();
+            seen = version;
+        } finally {
+            lock.unlock();
+        }
+
+        Counts c = load(esql, key);
+        lock.lock();
+        try {
+            if (version == seen)
+                entries.put(key, new Cached(c, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+        return c;
+    }//end get
+
+    /**
+     * Drops the cached counts of the users of a CONNECTION_USR row after it
+     * was written.
+     */
+    public void invalidate(String userId, String connectionId) {
+        lock.lock();
+        try {
+            version++;
+            if (entries.remove(userId.trim()) != null)
+                invalidations.incrementAndGet();
+            if (entries.remove(connectionId.trim()) != null)
+                invalidations.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }//end invalidate
+
+    /**
+     * Drops the cached counts of userId and of every connection in
+     * connectionIds, after a statement wrote one row per connection.
+     */
+    public void invalidate(String userId, Collection<String> connectionIds) {
+        lock.lock();
+        try {
+            version++;
+            if (entries.remove(userId.trim()) != null)
+                invalidations.incrementAndGet();
+            for (String connectionId : connectionIds)
+                if (entries.remove(connectionId.trim()) != null)
+                    invalidations.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }//end invalidate
+
+    /**
+     * Reads the counts of a user from CONNECTION_COUNTS.
+     */
+    static Counts load(ProfNetwork esql, String userId) throws SQLException {
+        Counts c = esql.executeQueryForObject(SQL_COUNTS,
+                rs -> new Counts(rs.getInt(1), rs.getInt(2), rs.getInt(3)), userId);
+        return c == null ? Counts.NONE : c;
+    }//end load
+
+    /**
+     * @return the number of cached users
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }//end size
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getInvalidations() { return invalidations.get(); }
+
+    /**
+     * @return a one-line summary of the cache metrics
+     */
+    public String stats() {
+        long h = hits.get(), m = misses.get();
+        return String.format("connection counts: %d/%d cached, %d hits, %d misses (%.1f%% hit rate), %d invalidations",
+                size(), maxSize, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), invalidations.get());
+    }//end stats
+
+}//end ConnectionCounts
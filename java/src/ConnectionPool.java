@@ -0,0 +1,455 @@
+/*
+ * Bounded JDBC connection pool
+ * ============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed upper bound of physical connections shared by all sessions.
+ * Connections are validated before they are handed out when they have been
+ * idle for a while, idle connections are closed after idleTimeout, and
+ * callers wait at most acquireTimeout for a free connection.
+ *
+ * With a leak threshold, a connection held longer than that is reported
+ * once, with the thread holding it and the last statement it prepared, and
+ * with leak tracing on also the stack that acquired it. Every statement and
+ * result set of the helpers lives between acquire() and release(), so a
+ * statement left open shows up as a held connection.
+ */
+public class ConnectionPool {
+
+    // the most prepared statements cached per connection
+    static final int STATEMENT_CACHE_SIZE = Integer.getInteger("profnetwork.pool.statements", 256);
+
+    /**
+     * A physical connection together with the prepared statements that were
+     * registered on it. Statements are only valid on the connection that
+     * prepared them, so the cache lives with the connection. It keeps the
+     * STATEMENT_CACHE_SIZE most recently used ones and closes the others,
+     * so callers passing SQL built at run time cannot grow it, or the
+     * server-side statements behind it, without bound.
+     */
+    public static class PooledConnection {
+        final Connection connection;
+        private final Map<String, PreparedStatement> _statements =
+                new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE)
+                            return false;
+                        try {
+                            eldest.getValue().close();
+                        } catch (SQLException e) {
+                            // ignored.
+                        }
+                        return true;
+                    }
+                };
+        long lastUsed;
+
+        // checkout of the current holder, read by the leak detector
+        volatile long acquiredAt;
+        volatile String holder;
+        volatile Throwable acquiredBy;
+        volatile String lastSql;
+        volatile boolean reported;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the prepared statement registered for the given SQL text,
+         * preparing it on this connection the first time it is requested.
+         *
+         * @param sql the SQL text with ? placeholders
+         * @return the cached prepared statement
+         * @throws java.sql.SQLException when the statement cannot be prepared
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = this._statements.get(sql);
+            this.lastSql = sql;
+            if (stmt == null) {
+                stmt = this.connection.prepareStatement(sql);
+                this._statements.put(sql, stmt);
+            }
+            return stmt;
+        }//end prepare
+
+        public Connection getConnection() {
+            return this.connection;
+        }
+
+        void close() {
+            for (PreparedStatement stmt : this._statements.values()) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    // ignored.
+                }
+            }
+            this._statements.clear();
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                // ignored.
+            }
+        }//end close
+    }//end PooledConnection
+
+    private final String url;
+    private final String user;
+    private final String passwd;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakTrace;
+
+    // most recently used connection on top, so idle ones sink to the bottom
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int total = 0;
+    private boolean closed = false;
+    private final ScheduledExecutorService evictor;
+
+    // connections handed out and not yet released or discarded
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+
+    // metrics
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * @param url the JDBC connection URL
+     * @param user the user name used to login to the database
+     * @param passwd the user login password
+     * @param maxSize the maximum number of physical connections
+     * @param idleTimeoutMillis idle connections older than this are closed
+     * @param acquireTimeoutMillis how long acquire() waits for a connection
+     */
+    public ConnectionPool(String url, String user, String passwd, int maxSize,
+                          long idleTimeoutMillis, long acquireTimeoutMillis) {
+        this(url, user, passwd, maxSize, idleTimeoutMillis, acquireTimeoutMillis, 0, false);
+    }//end ConnectionPool
+
+    /**
+     * @param leakThresholdMillis connections held longer than this are
+     *        reported as leaked; 0 turns the check off
+     * @param leakTrace true to record the stack of every acquire() so a
+     *        leak report shows where the connection was taken
+     */
+    public ConnectionPool(String url, String user, String passwd, int maxSize,
+                          long idleTimeoutMillis, long acquireTimeoutMillis,
+                          long leakThresholdMillis, boolean leakTrace) {
+        this.url = url;
+        this.user = user;
+        this.passwd = passwd;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validationIntervalMillis = Math.min(idleTimeoutMillis, 30000L);
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.leakTrace = leakTrace;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        if (leakThresholdMillis > 0) {
+            long check = Math.max(1000L, leakThresholdMillis / 2);
+            this.evictor.scheduleWithFixedDelay(this::detectLeaks, check, check, TimeUnit.MILLISECONDS);
+        }
+    }//end ConnectionPool
+
+    /**
+     * Hands out a healthy connection, opening a new one while the pool is
+     * below maxSize and waiting for a released one otherwise.
+     *
+     * @return a connection that must be given back through release()
+     * @throws java.sql.SQLException when no connection became available in
+     *         time or a new one could not be opened
+     */
+    public PooledConnection acquire() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.acquireTimeoutMillis);
+        while (true) {
+            PooledConnection pc = null;
+            boolean open = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed)
+                        throw new SQLException("Connection pool is closed");
+                    pc = idle.pollFirst();
+                    if (pc != null)
+                        break;
+                    if (total < maxSize) {
+                        total++;
+                        open = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new SQLException("Timed out after " + this.acquireTimeoutMillis +
+                                " ms waiting for a database connection");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (open) {
+                try {
+                    pc = new PooledConnection(DriverManager.getConnection(this.url, this.user, this.passwd));
+                    created.incrementAndGet();
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if (System.currentTimeMillis() - pc.lastUsed > this.validationIntervalMillis && !isHealthy(pc)) {
+                broken.incrementAndGet();
+                discard(pc);
+                continue;
+            }
+            recordWait(System.nanoTime() - start);
+            checkOut(pc);
+            return pc;
+        }
+    }//end acquire
+
+    /**
+     * Gives a connection back to the pool. A connection left inside a
+     * transaction is rolled back first; one that cannot be reset is closed.
+     */
+    public void release(PooledConnection pc) {
+        checkIn(pc);
+        try {
+            if (!pc.connection.getAutoCommit()) {
+                pc.connection.rollback();
+                pc.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            broken.incrementAndGet();
+            discard(pc);
+            return;
+        }
+        pc.lastUsed = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.addFirst(pc);
+                available.signal();
+                return;
+            }
+            total--;
+        } finally {
+            lock.unlock();
+        }
+        // the pool closed while the connection was out; closing it is
+        // network I/O, so it happens outside the lock
+        pc.close();
+    }//end release
+
+    /**
+     * Closes a connection that failed and frees its slot in the pool.
+     */
+    public void discard(PooledConnection pc) {
+        if (pc != null) {
+            checkIn(pc);
+            pc.close();
+        }
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }//end discard
+
+    /**
+     * Asks the driver through Connection.isValid(), which the JDBC 4
+     * PostgreSQL driver answers with an empty query.
+     */
+    private boolean isHealthy(PooledConnection pc) {
+        try {
+            return pc.connection.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }//end isHealthy
+
+    /**
+     * Closes connections that have been idle longer than idleTimeout. The
+     * least recently used ones sit at the bottom of the idle stack. They
+     * are taken out under the lock and closed after it, as a close can
+     * block on a dead peer.
+     */
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+        List<PooledConnection> victims = new ArrayList<PooledConnection>();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pc = it.next();
+                if (pc.lastUsed >= cutoff)
+                    break;
+                it.remove();
+                total--;
+                evicted.incrementAndGet();
+                victims.add(pc);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : victims)
+            pc.close();
+    }//end evictIdle
+
+    private void checkOut(PooledConnection pc) {
+        if (this.leakThresholdMillis <= 0)
+            return;
+        pc.acquiredAt = System.currentTimeMillis();
+        pc.holder = Thread.currentThread().getName();
+        pc.acquiredBy = this.leakTrace ? new Throwable("Connection acquired here") : null;
+        pc.reported = false;
+        inUse.add(pc);
+    }//end checkOut
+
+    private void checkIn(PooledConnection pc) {
+        if (this.leakThresholdMillis <= 0 || !inUse.remove(pc))
+            return;
+        if (pc.reported)
+            System.err.printf("Leaked connection returned by %s after %d ms%n",
+                    pc.holder, System.currentTimeMillis() - pc.acquiredAt);
+    }//end checkIn
+
+    /**
+     * Reports every connection held longer than the leak threshold, once
+     * per checkout.
+     */
+    void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pc : inUse) {
+            long held = now - pc.acquiredAt;
+            if (pc.reported || held < this.leakThresholdMillis)
+                continue;
+            pc.reported = true;
+            leaks.incrementAndGet();
+            System.err.printf("Possible connection leak: held by %s for %d ms, last statement: %s%n",
+                    pc.holder, held, pc.lastSql);
+            Throwable at = pc.acquiredBy;
+            if (at != null)
+                at.printStackTrace();
+        }
+    }//end detectLeaks
+
+    private void recordWait(long nanos) {
+        acquired.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }//end recordWait
+
+    /**
+     * Closes every idle connection; connections still in use are closed
+     * as they are released.
+     */
+    public void close() {
+        evictor.shutdownNow();
+        List<PooledConnection> victims = new ArrayList<PooledConnection>();
+        lock.lock();
+        try {
+            closed = true;
+            victims.addAll(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : victims)
+            pc.close();
+    }//end close
+
+    public long getAcquired() { return acquired.get(); }
+    public long getTimeouts() { return timeouts.get(); }
+    public long getCreated() { return created.get(); }
+    public long getEvicted() { return evicted.get(); }
+    public long getBroken() { return broken.get(); }
+    public long getLeaks() { return leaks.get(); }
+
+    /**
+     * @return the number of connections handed out and not given back
+     */
+    public int inUse() {
+        lock.lock();
+        try {
+            return total - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }//end inUse
+
+    /**
+     * @return a one-line summary of the pool metrics
+     */
+    public String stats() {
+        int open, free;
+        lock.lock();
+        try {
+            open = total;
+            free = idle.size();
+        } finally {
+            lock.unlock();
+        }
+        long n = acquired.get();
+        return String.format("pool: %d/%d open, %d idle, %d acquired, avg wait %.1f us, max wait %.1f us, " +
+                        "%d timeouts, %d created, %d evicted, %d broken, %d leaked",
+                open, maxSize, free, n,
+                n == 0 ? 0.0 : waitNanos.get() / 1e3 / n, maxWaitNanos.get() / 1e3,
+                timeouts.get(), created.get(), evicted.get(), broken.get(), leaks.get());
+    }//end stats
+
+}//end ConnectionPool
@@ -0,0 +1,706 @@
+/*
+ * People you may know
+ * ===================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ranks the users a user has not accepted yet by the number of mutual
+ * connections, boosted by shared companies (WORK_EXPR) and institutions
+ * (EDUCATIONAL_DETAILS), and keeps the best k of every user.
+ *
+ * The candidates of u are the users two accepted hops away; a candidate's
+ * mutual count is the number of u's connections that have accepted it.
+ * They are counted over the int adjacency arrays of SocialGraph with
+ * counter arrays reused across users, so scoring a user touches no objects.
+ *
+ * The lists are computed by a batch job, ProfNetwork's -recommend mode
+ * (java/scripts/recommend.sh). A full recompute copies the adjacency once,
+ * scores every user on a fork-join pool and stores the lists in
+ * RECOMMENDATION (sql/src/recommendations.sql). Between full recomputes the
+ * job takes in the connections the clients accepted and removed through
+ * its ChangeRefresher, and rescores and stores only the users whose
+ * two-hop neighbourhood changed. Both run on one background thread, so the
+ * refreshes queued during a full recompute are applied after it.
+ *
+ * Clients read the stored list of the logged in user, without the users
+ * accepted since it was computed. A user without a stored list, e.g. one
+ * created after the last recompute, is scored on the calling thread from
+ * the client's graph, by mutual connections alone.
+ */
+public class ConnectionRecommender {
+
+    static final String SQL_COMPANIES = UserSearchIndex.SQL_COMPANIES;
+    static final String SQL_INSTITUTIONS = UserSearchIndex.SQL_INSTITUTIONS;
+
+    // a full recompute replaces every list in one transaction; a list is
+    // written as its candidates' userIds, one per line, and the mutual
+    // counts and scores as comma-separated integers
+    static final String SQL_CLEAR = "DELETE FROM RECOMMENDATION";
+    static final String SQL_STORE =
+            "INSERT INTO RECOMMENDATION (uid, candidates, mutual, scores) " +
+            "SELECT U.uid, ARRAY(SELECT C.uid FROM unnest(string_to_array(?, chr(10))) WITH ORDINALITY L (userId, n) " +
+            "JOIN USR C ON C.userId = L.userId ORDER BY L.n), " +
+            "CAST(string_to_array(?, ',') AS integer[]), CAST(string_to_array(?, ',') AS integer[]) " +
+            "FROM USR U WHERE U.userId = ? " +
+            "ON CONFLICT (uid) DO UPDATE SET candidates = EXCLUDED.candidates, mutual = EXCLUDED.mutual, " +
+            "scores = EXCLUDED.scores, computedAt = now()";
+    // the stored list of a user, best first, without the candidates the
+    // user has accepted since
+    static final String SQL_STORED =
+            "SELECT C.userId, R.mutual[L.n], R.scores[L.n] FROM RECOMMENDATION R " +
+            "CROSS JOIN unnest(R.candidates) WITH ORDINALITY L (uid, n) JOIN USR C ON C.uid = L.uid " +
+            "WHERE R.uid = " + ProfNetwork.USER_UID + " AND NOT EXISTS (SELECT 1 FROM CONNECTION_USR A " +
+            "WHERE A.userUid = R.uid AND A.connectionUid = L.uid AND A.status = 'Accept') " +
+            "ORDER BY L.n";
+
+    private static final int[] EMPTY = new int[0];
+
+    // users scored per fork-join leaf task
+    private static final int GRAIN = 256;
+
+    /**
+     * One recommended user.
+     */
+    public static final class Recommendation {
+        public final String userId;
+        public final int mutual;
+        public final int score;
+
+        Recommendation(String userId, int mutual, int score) {
+            this.userId = userId;
+            this.mutual = mutual;
+            this.score = score;
+        }
+    }//end Recommendation
+
+    /**
+     * Scoring state of one thread, sized to the graph and reused across users.
+     * count[w] is w's mutual count while u is scored and 0 otherwise;
+     * mark[v] == stamp excludes v from u's candidates.
+     */
+    static class Scratch {
+        int[] count = EMPTY;
+        int[] touched = EMPTY;
+        int[] mark = EMPTY;
+        int stamp = 0;
+        long[] heap = new long[0];
+
+        void ensure(int n, int k) {
+            if (count.length < n) {
+                int cap = n + n / 2;
+                count = new int[cap];
+                touched = new int[cap];
+                mark = new int[cap];
+                stamp = 0;
+            }
+            if (heap.length < k)
+                heap = new long[k];
+            if (++stamp == 0) {
+                Arrays.fill(mark, 0);
+                stamp = 1;
+            }
+        }
+    }//end Scratch
+
+    // idle scoring state, about 18 MB per Scratch at 1M users, so at most
+    // SCRATCH_IDLE are kept, as in SocialGraph
+    private static final ScratchPool<Scratch> scratch = new ScratchPool<Scratch>(ProfNetwork.SCRATCH_IDLE, Scratch::new);
+
+    private final SocialGraph graph;
+    private final ProfNetwork esql;
+    private final int k;
+    private final int mutualWeight;
+    private final int companyWeight;
+    private final int institutionWeight;
+    private final int parallelism;
+
+    // sorted company and institution ids per dense user id
+    private volatile int[][] companies = new int[0][];
+    private volatile int[][] institutions = new int[0][];
+
+    // the top k of every scored user as {id, score, mutual} triples, best first
+    private volatile AtomicReferenceArray<int[]> top = new AtomicReferenceArray<int[]>(0);
+
+    // users whose accepted connections changed since the last refresh
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    // held while top is replaced or written, so recomputes and refreshes
+    // started outside the background thread do not interleave
+    private final ReentrantLock writing = new ReentrantLock();
+    // held by start() and close(); worker is read without it
+    private final ReentrantLock lifecycle = new ReentrantLock();
+    private volatile ScheduledExecutorService worker = null;
+
+    // metrics
+    private final AtomicLong users = new AtomicLong();
+    private final AtomicLong recomputes = new AtomicLong();
+    private final AtomicLong lastRecomputeNanos = new AtomicLong();
+    private final AtomicLong refreshed = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+
+    /**
+     * @param graph the accepted connections
+     * @param esql the session used to read companies and institutions and
+     *        to store and read the lists, or null to score by mutual
+     *        connections only and keep the lists in memory
+     * @param k recommendations kept per user
+     * @param mutualWeight points per mutual connection
+     * @param companyWeight points per shared company
+     * @param institutionWeight points per shared institution
+     * @param parallelism threads of a full recompute
+     */
+    public ConnectionRecommender(SocialGraph graph, ProfNetwork esql, int k, int mutualWeight,
+                                 int companyWeight, int institutionWeight, int parallelism) {
+        this.graph = graph;
+        this.esql = esql;
+        this.k = Math.max(1, k);
+        this.mutualWeight = mutualWeight;
+        this.companyWeight = companyWeight;
+        this.institutionWeight = institutionWeight;
+        this.parallelism = Math.max(1, parallelism);
+    }//end ConnectionRecommender
+
+    /**
+     * Starts the batch job's background thread with a full recompute,
+     * repeated every intervalMs; 0 recomputes only once.
+     */
+    public void start(long intervalMs) {
+        lifecycle.lock();
+        try {
+            if (worker != null)
+                return;
+            ScheduledExecutorService w = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "recommendations");
+                t.setDaemon(true);
+                return t;
+            });
+            Runnable full = () -> {
+                try {
+                    recomputeAll();
+                } catch (SQLException e) {
+                    System.err.println("recommendations: " + e.getMessage());
+                }
+            };
+            if (intervalMs > 0)
+                w.scheduleWithFixedDelay(full, 0, intervalMs, TimeUnit.MILLISECONDS);
+            else
+                w.execute(full);
+            worker = w;
+        } finally {
+            lifecycle.unlock();
+        }
+    }//end start
+
+    /**
+     * Reloads the companies and institutions and scores every user of the
+     * graph on a fork-join pool, then publishes the new lists at once and
+     * stores them in place of the old ones.
+     *
+     * @return the number of users scored
+     * @throws java.sql.SQLException when the affiliations cannot be read
+     */
+    public int recomputeAll() throws SQLException {
+        writing.lock();
+        try {
+            return recompute();
+        } finally {
+            writing.unlock();
+        }
+    }//end recomputeAll
+
+    private int recompute() throws SQLException {
+        long start = System.nanoTime();
+        if (esql != null)
+            loadAffiliations();
+        // a trimmed copy of the adjacency, so writers are not blocked while
+        // the pool works; the ids of existing users never change
+        String[][] userIds = new String[1][];
+        int[][] out = graph.read((size, o, outDeg, i, inDeg, names) -> {
+            userIds[0] = names;
+            int[][] copy = new int[size][];
+            for (int u = 0; u < size; ++u)
+                copy[u] = outDeg[u] == 0 ? EMPTY : Arrays.copyOf(o[u], outDeg[u]);
+            return copy;
+        });
+        int n = out.length;
+        int[] deg = new int[n];
+        for (int u = 0; u < n; ++u)
+            deg[u] = out[u].length;
+        AtomicReferenceArray<int[]> result = new AtomicReferenceArray<int[]>(n);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ScoreRange(out, deg, n, result, 0, n));
+        } finally {
+            pool.shutdown();
+        }
+        top = result;
+        if (esql != null) {
+            int[] scored = new int[n];
+            int[][] lists = new int[n][];
+            int m = 0;
+            for (int u = 0; u < n; ++u) {
+                // users without candidates have no list, as before the first run
+                if (result.get(u).length > 0) {
+                    scored[m] = u;
+                    lists[m++] = result.get(u);
+                }
+            }
+            store(userIds[0], Arrays.copyOf(scored, m), Arrays.copyOf(lists, m), true);
+        }
+        users.set(n);
+        recomputes.incrementAndGet();
+        lastRecomputeNanos.set(System.nanoTime() - start);
+        return n;
+    }//end recompute
+
+    /**
+     * Writes the lists of users, as {id, score, mutual} triples over the
+     * dense ids that names maps to userIds, to RECOMMENDATION in one
+     * transaction. With replace, every other stored list is deleted.
+     */
+    private void store(String[] names, int[] users, int[][] lists, boolean replace) throws SQLException {
+        List<Object[]> rows = new ArrayList<Object[]>(users.length);
+        StringBuilder candidates = new StringBuilder(), mutual = new StringBuilder(), scores = new StringBuilder();
+        for (int i = 0; i < users.length; ++i) {
+            int[] list = lists[i];
+            candidates.setLength(0);
+            mutual.setLength(0);
+            scores.setLength(0);
+            for (int j = 0; j < list.length; j += 3) {
+                if (j > 0) {
+                    candidates.append('\n');
+                    mutual.append(',');
+                    scores.append(',');
+                }
+                candidates.append(names[list[j]]);
+                scores.append(list[j + 1]);
+                mutual.append(list[j + 2]);
+            }
+            rows.add(new Object[] {candidates.toString(), mutual.toString(), scores.toString(), names[users[i]]});
+        }
+        Map<String, List<Object[]>> batches = new LinkedHashMap<String, List<Object[]>>();
+        if (replace)
+            batches.put(SQL_CLEAR, Collections.singletonList(new Object[0]));
+        batches.put(SQL_STORE, rows);
+        esql.executeBatch(batches);
+        stored.addAndGet(users.length);
+    }//end store
+
+    /**
+     * Scores the users [lo, hi), splitting the range until it is small
+     * enough for one task.
+     */
+    private final class ScoreRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] out;
+        private final int[] deg;
+        private final int n;
+        private final AtomicReferenceArray<int[]> result;
+        private final int lo, hi;
+
+        ScoreRange(int[][] out, int[] deg, int n, AtomicReferenceArray<int[]> result, int lo, int hi) {
+            this.out = out;
+            this.deg = deg;
+            this.n = n;
+            this.result = result;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                Scratch sc = scratch.take();
+                try {
+                    for (int u = lo; u < hi; ++u)
+                        result.set(u, score(u, out, deg, n, sc));
+                } finally {
+                    scratch.give(sc);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ScoreRange(out, deg, n, result, lo, mid),
+                    new ScoreRange(out, deg, n, result, mid, hi));
+        }
+    }//end ScoreRange
+
+    /**
+     * Scores the candidates of u and keeps the best k in a min-heap of
+     * score << 32 | (MAX_VALUE - id), so equal scores favour lower ids.
+     *
+     * @return {id, score, mutual} triples, best first
+     */
+    int[] score(int u, int[][] out, int[] deg, int n, Scratch sc) {
+        sc.ensure(n, k);
+        int[] count = sc.count, touched = sc.touched, mark = sc.mark;
+        int stamp = sc.stamp;
+        int[] friends = out[u];
+        int d = deg[u];
+        mark[u] = stamp;
+        for (int i = 0; i < d; ++i)
+            mark[friends[i]] = stamp;
+
+        int t = 0;
+        for (int i = 0; i < d; ++i) {
+            int v = friends[i];
+            int[] adj = out[v];
+            for (int j = 0, dv = deg[v]; j < dv; ++j) {
+                int w = adj[j];
+                if (mark[w] != stamp && count[w]++ == 0)
+                    touched[t++] = w;
+            }
+        }
+        if (t == 0)
+            return EMPTY;
+
+        int[][] comp = companies, inst = institutions;
+        int[] myComp = u < comp.length && comp[u] != null ? comp[u] : EMPTY;
+        int[] myInst = u < inst.length && inst[u] != null ? inst[u] : EMPTY;
+        long[] heap = sc.heap;
+        int h = 0;
+        for (int i = 0; i < t; ++i) {
+            int w = touched[i];
+            int score = count[w] * mutualWeight;
+            if (myComp.length > 0 && w < comp.length)
+                score += companyWeight * common(myComp, comp[w]);
+            if (myInst.length > 0 && w < inst.length)
+                score += institutionWeight * common(myInst, inst[w]);
+            long key = (long) score << 32 | (Integer.MAX_VALUE - w);
+            if (h < k) {
+                heap[h] = key;
+                siftUp(heap, h++);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, h);
+            }
+        }
+        Arrays.sort(heap, 0, h);
+        int[] row = new int[h * 3];
+        for (int i = 0; i < h; ++i) {
+            long key = heap[h - 1 - i];
+            int w = Integer.MAX_VALUE - (int) key;
+            row[i * 3] = w;
+            row[i * 3 + 1] = (int) (key >> 32);
+            row[i * 3 + 2] = count[w];
+        }
+        for (int i = 0; i < t; ++i)
+            count[touched[i]] = 0;
+        return row;
+    }//end score
+
+    // the number of values two sorted arrays share
+    private static int common(int[] a, int[] b) {
+        if (b == null)
+            return 0;
+        int i = 0, j = 0, c = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                ++i;
+            else if (a[i] > b[j])
+                ++j;
+            else {
+                ++c; ++i; ++j;
+            }
+        }
+        return c;
+    }//end common
+
+    private static void siftUp(long[] heap, int i) {
+        long x = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (heap[p] <= x)
+                break;
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = x;
+    }//end siftUp
+
+    private static void siftDown(long[] heap, int size) {
+        long x = heap[0];
+        int i = 0;
+        for (int c = 1; c < size; c = 2 * i + 1) {
+            if (c + 1 < size && heap[c + 1] < heap[c])
+                ++c;
+            if (heap[c] >= x)
+                break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = x;
+    }//end siftDown
+
+    /**
+     * Reads the companies and institutions of every user in the graph.
+     */
+    void loadAffiliations() throws SQLException {
+        List<String> compUsers = new ArrayList<String>(), instUsers = new ArrayList<String>();
+        List<String> compNames = new ArrayList<String>(), instNames = new ArrayList<String>();
+        esql.executeQueryAndStream(SQL_COMPANIES, 10000, rs -> {
+            compUsers.add(rs.getString(1));
+            compNames.add(rs.getString(2));
+        });
+        esql.executeQueryAndStream(SQL_INSTITUTIONS, 10000, rs -> {
+            instUsers.add(rs.getString(1));
+            instNames.add(rs.getString(2));
+        });
+        int[][][] ids = graph.read((size, o, outDeg, i, inDeg, names) ->
+                new int[][][] { byUser(compUsers, compNames, size), byUser(instUsers, instNames, size) });
+        setAffiliations(ids[0], ids[1]);
+    }//end loadAffiliations
+
+    // the interned values of every user id in the graph, sorted per user;
+    // called under the graph's read lock
+    private int[][] byUser(List<String> users, List<String> values, int size) {
+        Map<String, Integer> interned = new HashMap<String, Integer>();
+        int[] deg = new int[size];
+        int[] uid = new int[users.size()];
+        int[] vid = new int[users.size()];
+        for (int r = 0; r < users.size(); ++r) {
+            uid[r] = users.get(r) == null ? -1 : graph.id(users.get(r));
+            if (uid[r] < 0 || values.get(r) == null)
+                continue;
+            String v = values.get(r).trim().toLowerCase();
+            Integer id = interned.get(v);
+            if (id == null) {
+                id = interned.size();
+                interned.put(v, id);
+            }
+            vid[r] = id;
+            deg[uid[r]]++;
+        }
+        int[][] byUser = new int[size][];
+        for (int u = 0; u < size; ++u)
+            byUser[u] = deg[u] == 0 ? EMPTY : new int[deg[u]];
+        int[] fill = new int[size];
+        for (int r = 0; r < users.size(); ++r)
+            if (uid[r] >= 0 && values.get(r) != null)
+                byUser[uid[r]][fill[uid[r]]++] = vid[r];
+        for (int u = 0; u < size; ++u)
+            Arrays.sort(byUser[u]);
+        return byUser;
+    }//end byUser
+
+    /**
+     * Sets the sorted company and institution ids of every dense user id,
+     * e.g. for synthetic benchmarks.
+     */
+    void setAffiliations(int[][] companies, int[][] institutions) {
+        this.companies = companies;
+        this.institutions = institutions;
+    }//end setAffiliations
+
+    /**
+     * Queues a rescore of the users affected by a change to the accepted
+     * connections of userId: userId and the users that have accepted it.
+     * Their lists are stored again if the recommender has a session.
+     */
+    public void edgeChanged(String userId) {
+        edgesChanged(Collections.singleton(userId));
+    }//end edgeChanged
+
+    /**
+     * Queues one rescore for changes to the accepted connections of every
+     * user in userIds, e.g. after a batch of requests was accepted.
+     */
+    public void edgesChanged(Collection<String> userIds) {
+        dirty.addAll(userIds);
+        ScheduledExecutorService w = worker;
+        if (w == null) {
+            refresh();
+        } else if (refreshQueued.compareAndSet(false, true)) {
+            w.execute(() -> {
+                refreshQueued.set(false);
+                refresh();
+            });
+        }
+    }//end edgesChanged
+
+    /**
+     * Rescores the users affected by the changes queued so far.
+     *
+     * @return the number of users rescored
+     */
+    int refresh() {
+        writing.lock();
+        try {
+            return rescore();
+        } finally {
+            writing.unlock();
+        }
+    }//end refresh
+
+    private int rescore() {
+        List<String> changed = new ArrayList<String>(dirty);
+        dirty.removeAll(changed);
+        if (changed.isEmpty())
+            return 0;
+        String[][] userIds = new String[1][];
+        int[][] rows = graph.read((size, out, outDeg, in, inDeg, names) -> {
+            userIds[0] = names;
+            Set<Integer> users = new LinkedHashSet<Integer>();
+            for (String userId : changed) {
+                int u = graph.id(userId);
+                if (u < 0)
+                    continue;
+                users.add(u);
+                for (int i = 0; i < inDeg[u]; ++i)
+                    users.add(in[u][i]);
+            }
+            int[][] scored = new int[users.size()][];
+            Scratch sc = scratch.take();
+            try {
+                int i = 0;
+                for (int u : users)
+                    scored[i++] = concat(u, score(u, out, outDeg, size, sc));
+            } finally {
+                scratch.give(sc);
+            }
+            return scored;
+        });
+        AtomicReferenceArray<int[]> t = top;
+        int max = -1;
+        for (int[] r : rows)
+            max = Math.max(max, r[0]);
+        if (max >= t.length()) {
+            AtomicReferenceArray<int[]> grown = new AtomicReferenceArray<int[]>(max + 1 + max / 2);
+            for (int u = 0; u < t.length(); ++u)
+                grown.set(u, t.get(u));
+            t = grown;
+            top = grown;
+        }
+        int[] scored = new int[rows.length];
+        int[][] lists = new int[rows.length][];
+        for (int i = 0; i < rows.length; ++i) {
+            scored[i] = rows[i][0];
+            lists[i] = Arrays.copyOfRange(rows[i], 1, rows[i].length);
+            t.set(scored[i], lists[i]);
+        }
+        if (esql != null) {
+            try {
+                store(userIds[0], scored, lists, false);
+            } catch (SQLException e) {
+                System.err.println("recommendations: " + e.getMessage());
+            }
+        }
+        refreshed.addAndGet(rows.length);
+        return rows.length;
+    }//end rescore
+
+    private static int[] concat(int u, int[] row) {
+        int[] r = new int[row.length + 1];
+        r[0] = u;
+        System.arraycopy(row, 0, r, 1, row.length);
+        return r;
+    }//end concat
+
+    /**
+     * @return the stored list of userId, best first, without the users
+     *         userId has accepted since it was computed; empty if there is
+     *         none
+     * @throws java.sql.SQLException when the list cannot be read
+     */
+    public List<Recommendation> stored(String userId) throws SQLException {
+        return esql.executeQueryAndMap(SQL_STORED,
+                rs -> new Recommendation(ProfNetwork.trimmed(rs, 1), rs.getInt(2), rs.getInt(3)), userId);
+    }//end stored
+
+    /**
+     * @return the best recommendations for userId, at most k, from the
+     *         lists in memory. Users not scored yet, e.g. every user of a
+     *         client that does not run the batch job, are scored on the
+     *         calling thread.
+     */
+    public List<Recommendation> recommend(String userId) {
+        AtomicReferenceArray<int[]> t = top;
+        return graph.read((size, out, outDeg, in, inDeg, names) -> {
+            int u = graph.id(userId);
+            if (u < 0)
+                return new ArrayList<Recommendation>();
+            int[] row = u < t.length() ? t.get(u) : null;
+            if (row == null) {
+                Scratch sc = scratch.take();
+                try {
+                    row = score(u, out, outDeg, size, sc);
+                } finally {
+                    scratch.give(sc);
+                }
+            }
+            List<Recommendation> list = new ArrayList<Recommendation>(row.length / 3);
+            for (int i = 0; i < row.length; i += 3)
+                list.add(new Recommendation(names[row[i]], row[i + 2], row[i + 1]));
+            return list;
+        });
+    }//end recommend
+
+    /**
+     * Waits until the background thread is stopped, e.g. by close() from a
+     * shutdown hook.
+     */
+    public void join() throws InterruptedException {
+        ScheduledExecutorService w = worker;
+        if (w != null)
+            w.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }//end join
+
+    /**
+     * Stops the background thread, waiting for a recompute in progress.
+     */
+    public void close() {
+        lifecycle.lock();
+        try {
+            if (worker == null)
+                return;
+            worker.shutdown();
+            try {
+                worker.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        } finally {
+            lifecycle.unlock();
+        }
+    }//end close
+
+    public long getRecomputes() { return recomputes.get(); }
+    public long getRefreshed() { return refreshed.get(); }
+
+    /**
+     * @return a one-line summary of the recommender
+     */
+    public String stats() {
+        return String.format("recommendations: %d users, %d full recomputes (last %.1f s), %d users rescored, "
+                + "%d lists stored", users.get(), recomputes.get(), lastRecomputeNanos.get() / 1e9, refreshed.get(),
+                stored.get());
+    }//end stats
+
+}//end ConnectionRecommender
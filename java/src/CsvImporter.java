@@ -0,0 +1,549 @@
+/*
+ * Bulk CSV import
+ * ===============
+ *
+ * Loads the data/*.csv files from the client side, instead of the
+ * server-side COPY of sql/src/load_data.sql.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Streams each CSV file through a buffered NIO reader in chunks of lines.
+ * The chunks are parsed and validated in parallel on a worker pool and then
+ * written in file order with JDBC batches, one transaction per chunk.
+ *
+ * Rows that fail validation (bad dates, end before start, missing or too
+ * long values, duplicate keys, unknown users) are written to a reject file
+ * together with their line number and the reason; they never stop the load.
+ * USR is loaded first, the tables that reference it are then loaded
+ * concurrently on separate connections.
+ */
+public class CsvImporter {
+
+    // USER is a userId in the file, stored as the user's uid
+    enum Type { TEXT, INT, DATE, TIMESTAMP, USER }
+
+    static class Column {
+        final String name;
+        final Type type;
+        final int maxLength;
+        final boolean required;
+
+        Column(String name, Type type, int maxLength, boolean required) {
+            this.name = name;
+            this.type = type;
+            this.maxLength = maxLength;
+            this.required = required;
+        }
+    }//end Column
+
+    /**
+     * A table specific rule on a parsed row.
+     */
+    interface RowCheck {
+        /** @return why the row is invalid, or null if it is fine */
+        String check(Object[] row);
+    }
+
+    static class Table {
+        final String name;
+        final String file;
+        final Column[] columns;
+        final int[] key;
+        final int[] userRefs;
+        final RowCheck check;
+
+        Table(String name, String file, Column[] columns, int[] key, int[] userRefs, RowCheck check) {
+            this.name = name;
+            this.file = file;
+            this.columns = columns;
+            this.key = key;
+            this.userRefs = userRefs;
+            this.check = check;
+        }
+
+        String insertSql() {
+            StringBuilder cols = new StringBuilder();
+            StringBuilder marks = new StringBuilder();
+            for (int i = 0; i < columns.length; ++i) {
+                if (i > 0) {
+                    cols.append(", ");
+                    marks.append(", ");
+                }
+                cols.append(columns[i].name);
+                marks.append(columns[i].type == Type.USER ? ProfNetwork.USER_UID : "?");
+            }
+            return "INSERT INTO " + name + " (" + cols + ") VALUES (" + marks + ")";
+        }
+    }//end Table
+
+    static final RowCheck DATE_ORDER = row -> {
+        Date start = (Date) row[row.length - 2], end = (Date) row[row.length - 1];
+        return start != null && end != null && end.before(start) ? "end date before start date" : null;
+    };
+
+    static final Table USR = new Table("USR", "USR.csv", new Column[] {
+            new Column("userId", Type.TEXT, 30, true),
+            new Column("password", Type.TEXT, 30, true),
+            new Column("email", Type.TEXT, 0, true),
+            new Column("name", Type.TEXT, 50, false),
+            new Column("dateOfBirth", Type.DATE, 0, false)},
+            new int[] {0}, new int[0], null);
+
+    static final Table WORK_EXPR = new Table("WORK_EXPR", "Work_Ex.csv", new Column[] {
+            new Column("userUid", Type.USER, 30, true),
+            new Column("company", Type.TEXT, 50, true),
+            new Column("role", Type.TEXT, 50, true),
+            new Column("location", Type.TEXT, 50, false),
+            new Column("startDate", Type.DATE, 0, true),
+            new Column("endDate", Type.DATE, 0, false)},
+            new int[] {0, 1, 2, 4}, new int[] {0}, DATE_ORDER);
+
+    static final Table EDUCATIONAL_DETAILS = new Table("EDUCATIONAL_DETAILS", "Edu_Det.csv", new Column[] {
+            new Column("userUid", Type.USER, 30, true),
+            new Column("instituitionName", Type.TEXT, 50, true),
+            new Column("major", Type.TEXT, 50, true),
+            new Column("degree", Type.TEXT, 50, true),
+            new Column("startdate", Type.DATE, 0, false),
+            new Column("enddate", Type.DATE, 0, false)},
+            new int[] {0, 2, 3}, new int[] {0}, DATE_ORDER);
+
+    static final Table CONNECTION_USR = new Table("CONNECTION_USR", "Connection.csv", new Column[] {
+            new Column("userUid", Type.USER, 30, true),
+            new Column("connectionUid", Type.USER, 30, true),
+            new Column("status", Type.TEXT, 30, true)},
+            new int[] {0, 1}, new int[] {0, 1}, row -> {
+                String status = (String) row[2];
+                return status.equals("Request") || status.equals("Accept") || status.equals("Reject")
+                        ? null : "unknown status " + status;
+            });
+
+    static final Table MESSAGE = new Table("MESSAGE", "Message.csv", new Column[] {
+            new Column("msgId", Type.INT, 0, true),
+            new Column("senderUid", Type.USER, 30, true),
+            new Column("receiverUid", Type.USER, 30, true),
+            new Column("contents", Type.TEXT, 500, true),
+            new Column("sendTime", Type.TIMESTAMP, 0, true),
+            new Column("deleteStatus", Type.INT, 0, false),
+            new Column("status", Type.TEXT, 30, true)},
+            new int[] {0}, new int[] {1, 2}, row -> {
+                Integer deleteStatus = (Integer) row[5];
+                return deleteStatus != null && (deleteStatus < 0 || deleteStatus > 3)
+                        ? "deleteStatus out of range" : null;
+            });
+
+    // the tables that reference USR, loaded concurrently after it
+    static final Table[] DEPENDENT = {WORK_EXPR, EDUCATIONAL_DETAILS, CONNECTION_USR, MESSAGE};
+
+    static final int CHUNK_SIZE = Integer.getInteger("import.chunk", 2000);
+    static final int THREADS = Integer.getInteger("import.threads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * One block of consecutive lines, parsed. rows[i] is null when line i
+     * was rejected, and reasons[i] says why.
+     */
+    static class Chunk {
+        final int firstLine;
+        final List<String> lines;
+        final Object[][] rows;
+        final String[] reasons;
+
+        Chunk(int firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+            this.rows = new Object[lines.size()][];
+            this.reasons = new String[lines.size()];
+        }
+    }//end Chunk
+
+    // marks the end of a table's chunk queue
+    private static final Future<Chunk> END = CompletableFuture.completedFuture(null);
+
+    private final ConnectionPool pool;
+    private final ExecutorService workers;
+    private final Writer rejects;
+
+    public CsvImporter(ConnectionPool pool, Writer rejects) {
+        this.pool = pool;
+        this.rejects = rejects;
+        this.workers = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }//end CsvImporter
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println (
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            CsvImporter.class.getName () +
+                            " <dbname> <port> <user> [data dir] [reject file]");
+            return;
+        }//end if
+        Path dir = Paths.get(args.length > 3 ? args[3] : "data");
+        Path rejectFile = Paths.get(args.length > 4 ? args[4] : "rejects.csv");
+
+        ConnectionPool pool = null;
+        try (Writer rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+            pool = new ConnectionPool(ProfNetwork.connectionUrl(args[0], args[1]), args[2], "dees",
+                    DEPENDENT.length + 1, 60000L, 60000L);
+            rejects.write("table,line,reason,row\n");
+            new CsvImporter(pool, rejects).importAll(dir);
+            System.out.println("Rejected rows written to " + rejectFile);
+        } catch (Exception e) {
+            System.err.println (e.getMessage ());
+        } finally {
+            if (pool != null)
+                pool.close();
+        }
+    }//end main
+
+    /**
+     * Loads USR and then the tables that reference it from dir, skipping
+     * files that do not exist, and refreshes the message id sequence and
+     * the planner statistics afterwards.
+     */
+    public void importAll(Path dir) throws Exception {
+        long start = System.nanoTime();
+        Set<String> users = ConcurrentHashMap.newKeySet();
+        long total = load(USR, dir, null, users);
+
+        ExecutorService tables = Executors.newFixedThreadPool(DEPENDENT.length);
+        try {
+            List<Future<Long>> loads = new ArrayList<Future<Long>>();
+            for (Table t : DEPENDENT)
+                loads.add(tables.submit(() -> load(t, dir, users, null)));
+            for (Future<Long> f : loads)
+                total += f.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            tables.shutdown();
+            workers.shutdown();
+        }
+
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (Statement stmt = pc.getConnection().createStatement()) {
+            // messages of months without a partition went to the default one
+            stmt.execute("SELECT message_split_default()");
+            stmt.execute("SELECT message_check_ids()");
+            stmt.execute("SELECT setval('MESSAGE_MSGID_SEQ', COALESCE(MAX(msgId), 0) + 1, false) FROM MESSAGE");
+            stmt.execute("ANALYZE");
+        } finally {
+            pool.release(pc);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Total: %d rows in %.2f s (%.0f rows/s)%n", total, secs, total / secs);
+    }//end importAll
+
+    /**
+     * Loads one table. The calling thread writes; a reader thread feeds
+     * chunks to the workers and queues their futures in file order.
+     *
+     * @param users the known user ids that userRefs must point to, or null
+     * @param loadedKeys collects the first key column of every loaded row, or null
+     * @return the number of rows loaded
+     */
+    long load(Table t, Path dir, Set<String> users, Set<String> loadedKeys) throws Exception {
+        Path file = dir.resolve(t.file);
+        if (!Files.exists(file)) {
+            System.out.println(t.name + ": " + file + " not found, skipped");
+            return 0;
+        }
+        long start = System.nanoTime();
+        BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<Future<Chunk>>(THREADS * 2);
+        Thread reader = new Thread(() -> read(t, file, chunks), "import-reader-" + t.name);
+        reader.setDaemon(true);
+        reader.start();
+
+        Set<String> keys = new HashSet<String>();
+        long loaded = 0, rejected = 0;
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try {
+            Connection conn = pc.getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = pc.prepare(t.insertSql());
+            while (true) {
+                Future<Chunk> f = chunks.take();
+                if (f == END)
+                    break;
+                Chunk c = f.get();
+                if (c == null)
+                    throw new IOException("Failed to read " + file);
+
+                // checks that need the rows before this one
+                List<Integer> batch = new ArrayList<Integer>(c.lines.size());
+                for (int i = 0; i < c.rows.length; ++i) {
+                    Object[] row = c.rows[i];
+                    if (row != null) {
+                        String reason = null;
+                        for (int ref : t.userRefs) {
+                            if (!users.contains(row[ref])) {
+                                reason = "unknown user " + row[ref];
+                                break;
+                            }
+                        }
+                        if (reason == null && !keys.add(key(t, row)))
+                            reason = "duplicate key";
+                        if (reason != null) {
+                            c.rows[i] = null;
+                            c.reasons[i] = reason;
+                        }
+                    }
+                    if (c.rows[i] == null) {
+                        reject(t, c.firstLine + i, c.reasons[i], c.lines.get(i));
+                        rejected++;
+                    } else {
+                        bind(stmt, t, c.rows[i]);
+                        stmt.addBatch();
+                        batch.add(i);
+                    }
+                }
+                int written = write(t, conn, stmt, c, batch);
+                loaded += written;
+                rejected += batch.size() - written;
+                if (loadedKeys != null)
+                    for (int i : batch)
+                        if (c.rows[i] != null)
+                            loadedKeys.add((String) c.rows[i][0]);
+            }
+        } finally {
+            pool.release(pc);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d rows loaded, %d rejected in %.2f s (%.0f rows/s)%n",
+                t.name, loaded, rejected, secs, (loaded + rejected) / secs);
+        return loaded;
+    }//end load
+
+    /**
+     * Sends one chunk's batch and commits it. If the database refuses the
+     * batch, the chunk is rolled back and its rows are retried one by one
+     * in autocommit, so only the offending rows are rejected.
+     *
+     * @return the number of rows written; rows that failed are nulled out
+     */
+    private int write(Table t, Connection conn, PreparedStatement stmt, Chunk c, List<Integer> batch) throws SQLException, IOException {
+        if (batch.isEmpty())
+            return 0;
+        try {
+            stmt.executeBatch();
+            conn.commit();
+            return batch.size();
+        } catch (SQLException e) {
+            conn.rollback();
+            stmt.clearBatch();
+        }
+        int written = 0;
+        conn.setAutoCommit(true);
+        try {
+            for (int i : batch) {
+                try {
+                    bind(stmt, t, c.rows[i]);
+                    stmt.executeUpdate();
+                    written++;
+                } catch (SQLException e) {
+                    reject(t, c.firstLine + i, e.getMessage(), c.lines.get(i));
+                    c.rows[i] = null;
+                }
+            }
+        } finally {
+            conn.setAutoCommit(false);
+        }
+        return written;
+    }//end write
+
+    /**
+     * Reads the file in chunks of CHUNK_SIZE lines and queues a parse task
+     * for each; the END marker follows the last one.
+     */
+    private void read(Table t, Path file, BlockingQueue<Future<Chunk>> chunks) {
+        try {
+            try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                r.readLine(); // header
+                // number of the line after the last one read
+                int lineNo = 2;
+                List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+                String line;
+                while ((line = r.readLine()) != null) {
+                    lines.add(line);
+                    lineNo++;
+                    if (lines.size() == CHUNK_SIZE) {
+                        chunks.put(submit(t, lineNo - lines.size(), lines));
+                        lines = new ArrayList<String>(CHUNK_SIZE);
+                    }
+                }
+                if (!lines.isEmpty())
+                    chunks.put(submit(t, lineNo - lines.size(), lines));
+            } catch (IOException e) {
+                chunks.put(CompletableFuture.completedFuture(null));
+            }
+            chunks.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }//end read
+
+    private Future<Chunk> submit(Table t, int firstLine, List<String> lines) {
+        return workers.submit(() -> parse(t, new Chunk(firstLine, lines)));
+    }//end submit
+
+    /**
+     * Parses and validates every line of a chunk on a worker thread.
+     */
+    static Chunk parse(Table t, Chunk c) {
+        for (int i = 0; i < c.lines.size(); ++i) {
+            try {
+                List<String> fields = split(c.lines.get(i));
+                if (fields.size() != t.columns.length)
+                    throw new IllegalArgumentException("expected " + t.columns.length + " fields, found " + fields.size());
+                Object[] row = new Object[fields.size()];
+                for (int j = 0; j < row.length; ++j)
+                    row[j] = value(t.columns[j], fields.get(j));
+                String reason = t.check == null ? null : t.check.check(row);
+                if (reason != null)
+                    throw new IllegalArgumentException(reason);
+                c.rows[i] = row;
+            } catch (IllegalArgumentException | DateTimeException e) {
+                c.reasons[i] = e.getMessage();
+            }
+        }
+        return c;
+    }//end parse
+
+    /**
+     * Converts one field to the column's Java type.
+     */
+    static Object value(Column col, String field) {
+        String v = field.trim();
+        if (v.isEmpty()) {
+            if (col.required)
+                throw new IllegalArgumentException(col.name + " is missing");
+            return null;
+        }
+        switch (col.type) {
+            case INT:
+                try {
+                    return Integer.valueOf(v);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(col.name + " is not a number: " + v);
+                }
+            case DATE:
+                return Date.valueOf(date(col, v));
+            case TIMESTAMP:
+                String ts = v.replace('T', ' ');
+                int space = ts.indexOf(' ');
+                LocalDate day = date(col, space < 0 ? ts : ts.substring(0, space));
+                try {
+                    return space < 0 ? Timestamp.valueOf(day.atStartOfDay())
+                            : Timestamp.valueOf(day + ts.substring(space));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(col.name + " is not a timestamp: " + v);
+                }
+            default:
+                if (col.maxLength > 0 && v.length() > col.maxLength)
+                    throw new IllegalArgumentException(col.name + " is longer than " + col.maxLength);
+                return v;
+        }
+    }//end value
+
+    /**
+     * Accepts yyyy-mm-dd and the yyyy/mm/dd form used by the bundled files.
+     */
+    static LocalDate date(Column col, String v) {
+        String[] parts = v.split("[-/]");
+        if (parts.length != 3)
+            throw new IllegalArgumentException(col.name + " is not a date: " + v);
+        try {
+            return LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException | DateTimeException e) {
+            throw new IllegalArgumentException(col.name + " is not a date: " + v);
+        }
+    }//end date
+
+    /**
+     * Splits a CSV line, honouring double-quoted fields with "" escapes.
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>(8);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); ++i) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+        if (quoted)
+            throw new IllegalArgumentException("unterminated quote");
+        fields.add(field.toString());
+        return fields;
+    }//end split
+
+    static String key(Table t, Object[] row) {
+        if (t.key.length == 1)
+            return String.valueOf(row[t.key[0]]);
+        StringBuilder sb = new StringBuilder();
+        for (int k : t.key)
+            sb.append(row[k]).append('\u0000');
+        return sb.toString();
+    }//end key
+
+    static void bind(PreparedStatement stmt, Table t, Object[] row) throws SQLException {
+        for (int j = 0; j < row.length; ++j) {
+            Object v = row[j];
+            if (v == null) {
+                switch (t.columns[j].type) {
+                    case INT: stmt.setNull(j + 1, Types.INTEGER); break;
+                    case DATE: stmt.setNull(j + 1, Types.DATE); break;
+                    case TIMESTAMP: stmt.setNull(j + 1, Types.TIMESTAMP); break;
+                    default: stmt.setNull(j + 1, Types.VARCHAR); break;
+                }
+            } else {
+                stmt.setObject(j + 1, v);
+            }
+        }
+    }//end bind
+
+    private void reject(Table t, int line, String reason, String raw) throws IOException {
+        String r = reason == null ? "" : reason.replace('"', '\'').replace('\n', ' ');
+        synchronized (rejects) {
+            rejects.write(t.name + "," + line + ",\"" + r + "\"," + raw + "\n");
+        }
+    }//end reject
+
+}//end CsvImporter
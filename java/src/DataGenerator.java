@@ -0,0 +1,360 @@
+/*
+ * Synthetic data generator
+ * ========================
+ *
+ * Writes data sets in the CSV format of data/*.csv and
+ * sql/src/load_data.sql, at any number of users.
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+/**
+ * Generates USR, WORK_EXPR, EDUCATIONAL_DETAILS, CONNECTION_USR and MESSAGE
+ * rows for a social network of a given size.
+ *
+ * Every value of user u is drawn from a random generator seeded with
+ * (seed, u) only, and user ids are a function of u, so a row never depends
+ * on rows generated before it. Users are generated in blocks on a worker
+ * pool and written in block order, which makes the output identical for a
+ * seed whatever the number of threads, and keeps only the blocks in flight
+ * in memory.
+ *
+ * Out-degrees follow a Pareto distribution and connection targets favour
+ * low user numbers, so both in- and out-degrees are heavy tailed. Messages
+ * are sent along accepted connections only, as NewMessage requires.
+ */
+public class DataGenerator {
+
+    // users generated per task
+    static final int BLOCK_SIZE = Integer.getInteger("gen.block", 2000);
+    static final int THREADS = Integer.getInteger("gen.threads", Runtime.getRuntime().availableProcessors());
+
+    // connections: Pareto(alpha) out-degree with this minimum, mean about
+    // alpha / (alpha - 1) * minimum, and the share of each status
+    static final double DEGREE_ALPHA = 2.2;
+    static final int DEGREE_MIN = Integer.getInteger("gen.degree.min", 4);
+    static final int DEGREE_MAX = 1000;
+    static final double ACCEPT_SHARE = 0.60;
+    static final double REQUEST_SHARE = 0.25;
+
+    // messages: msgId = user * MESSAGE_SLOTS + n, so each sender owns a range
+    static final int MESSAGE_SLOTS = 32;
+    static final double MESSAGES_PER_ACCEPT = 1.5;
+
+    static final String[] FILES = {"USR.csv", "Work_Ex.csv", "Edu_Det.csv", "Connection.csv", "Message.csv"};
+    static final String[] HEADERS = {
+            "User Id,Password,email,Full Name,dateofbirth",
+            "userId,company,role,location,startDate,endDate",
+            "userid,instituitionName,major,degree,startdate,enddate",
+            "userid,connectionid,status",
+            "msgId,senderId,receiverId,contents,sendTime,deleteStatus,status"};
+    static final int USR = 0, WORK = 1, EDU = 2, CONNECTION = 3, MESSAGE = 4;
+
+    static final String[] FIRST_NAMES = {
+            "Aida", "Arjun", "Ayden", "Bella", "Carlos", "Chen", "Dana", "Diego", "Elena", "Emeka",
+            "Fatima", "Forrest", "Giovani", "Hana", "Ivan", "Jamal", "Jane", "John", "Kallie", "Kenji",
+            "Lorine", "Luis", "Magnus", "Makenna", "Maria", "Mei", "Nadia", "Omar", "Priya", "Quinn",
+            "Rosa", "Sam", "Sofia", "Tariq", "Uma", "Victor", "Wei", "Xavier", "Yara", "Zoe"};
+    static final String[] SYLLABLES = {
+            "an", "be", "ca", "da", "el", "fi", "go", "ha", "jo", "ka", "li", "ma",
+            "ne", "or", "pa", "ri", "sa", "te", "vi", "wy", "lo", "mi", "ru", "son"};
+    static final String[] ROLES = {
+            "Software Engineer", "Senior Developer", "Data Analyst", "Product Manager", "Designer",
+            "Financial Advisor", "Accountant", "Nurse", "Teacher", "Consultant", "Sales Manager", "Intern"};
+    static final String[] CITIES = {
+            "Riverside", "Los Angeles", "San Jose", "Seattle", "Austin", "New York", "Chicago", "Boston",
+            "Toronto", "London", "Berlin", "Bangalore", "Singapore", "Sydney", "Xishaqiao", "Lagos"};
+    static final String[] MAJORS = {
+            "computer science", "history", "biology", "economics", "mathematics", "physics",
+            "mechanical engineering", "chemistry", "psychology", "mbbs", "law", "art"};
+    static final String[] DEGREES = {"bachelor", "master", "phd"};
+    static final String[] COMPANY_SUFFIXES = {"Labs", "Inc", "Systems", "Group", "Works", "Bank"};
+    static final String[] WORDS = {
+            "hello", "thanks", "for", "the", "connection", "meeting", "next", "week", "project", "update",
+            "are", "you", "free", "to", "talk", "about", "role", "team", "great", "see", "soon",
+            "let", "me", "know", "when", "call", "resume", "interview", "congrats", "on", "new", "job"};
+
+    private final Path dir;
+    private final long users;
+    private final long seed;
+
+    public DataGenerator(Path dir, long users, long seed) {
+        this.dir = dir;
+        this.users = users;
+        this.seed = seed;
+    }//end DataGenerator
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println (
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            DataGenerator.class.getName () +
+                            " <output dir> [users] [seed]");
+            return;
+        }//end if
+        try{
+            long users = args.length > 1 ? Long.parseLong(args[1]) : 1000000L;
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+            if (users < 2 || users > Integer.MAX_VALUE / MESSAGE_SLOTS)
+                throw new IllegalArgumentException("users must be between 2 and " + Integer.MAX_VALUE / MESSAGE_SLOTS);
+            new DataGenerator(Paths.get(args[0]), users, seed).run();
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+        }
+    }//end main
+
+    /**
+     * Generates all blocks on THREADS workers and writes them in order,
+     * with at most 2 * THREADS blocks in memory.
+     */
+    public void run() throws Exception {
+        Files.createDirectories(dir);
+        OutputStream[] out = new OutputStream[FILES.length];
+        long[] rows = new long[FILES.length];
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < FILES.length; ++t) {
+                out[t] = new BufferedOutputStream(Files.newOutputStream(dir.resolve(FILES[t])), 1 << 20);
+                out[t].write((HEADERS[t] + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            long blocks = (users + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+            long next = 0, done = 0;
+            while (done < blocks) {
+                while (next < blocks && pending.size() < THREADS * 2) {
+                    long first = next++ * BLOCK_SIZE;
+                    long last = Math.min(users, first + BLOCK_SIZE);
+                    pending.add(workers.submit(() -> block(first, last)));
+                }
+                Block b = pending.poll().get();
+                for (int t = 0; t < FILES.length; ++t) {
+                    out[t].write(b.data[t]);
+                    rows[t] += b.rows[t];
+                }
+                if (++done % 500 == 0 || done == blocks)
+                    System.out.printf("%d / %d users, %.0f users/s%n", Math.min(users, done * BLOCK_SIZE), users,
+                            Math.min(users, done * BLOCK_SIZE) / ((System.nanoTime() - start) / 1e9));
+            }
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            workers.shutdownNow();
+            for (OutputStream o : out)
+                if (o != null)
+                    o.close();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        for (int t = 0; t < FILES.length; ++t)
+            System.out.printf("%-15s %12d rows%n", FILES[t], rows[t]);
+        System.out.printf("Generated %d users in %.1f s into %s%n", users, secs, dir);
+    }//end run
+
+    /**
+     * The CSV text of users [first, last) for every file.
+     */
+    static final class Block {
+        final byte[][] data = new byte[FILES.length][];
+        final long[] rows = new long[FILES.length];
+    }//end Block
+
+    Block block(long first, long last) {
+        StringBuilder[] sb = new StringBuilder[FILES.length];
+        for (int t = 0; t < FILES.length; ++t)
+            sb[t] = new StringBuilder((int) (last - first) * 128);
+        Block b = new Block();
+        int[] targets = new int[DEGREE_MAX];
+        for (long u = first; u < last; ++u) {
+            SplittableRandom rnd = new SplittableRandom(mix(seed, u));
+            String id = userId(u);
+            user(sb[USR], rnd, u, id);
+            b.rows[USR]++;
+            b.rows[WORK] += work(sb[WORK], rnd, id);
+            b.rows[EDU] += education(sb[EDU], rnd, id);
+
+            // connections and the messages along the accepted ones
+            int degree = distinctTargets(rnd, u, targets);
+            int slot = 0;
+            for (int i = 0; i < degree; ++i) {
+                String to = userId(targets[i]);
+                double p = rnd.nextDouble();
+                String status = p < ACCEPT_SHARE ? "Accept" : p < ACCEPT_SHARE + REQUEST_SHARE ? "Request" : "Reject";
+                sb[CONNECTION].append(id).append(',').append(to).append(',').append(status).append('\n');
+                b.rows[CONNECTION]++;
+                if (status.equals("Accept")) {
+                    // geometric number of messages with the configured mean
+                    while (slot < MESSAGE_SLOTS && rnd.nextDouble() < MESSAGES_PER_ACCEPT / (1 + MESSAGES_PER_ACCEPT)) {
+                        message(sb[MESSAGE], rnd, (int) u * MESSAGE_SLOTS + slot++, id, to);
+                        b.rows[MESSAGE]++;
+                    }
+                }
+            }
+        }
+        for (int t = 0; t < FILES.length; ++t)
+            b.data[t] = sb[t].toString().getBytes(StandardCharsets.UTF_8);
+        return b;
+    }//end block
+
+    /**
+     * @return the user id of user u, unique and at most 30 characters
+     */
+    String userId(long u) {
+        SplittableRandom rnd = new SplittableRandom(mix(seed ^ 0x5bd1e995L, u));
+        return FIRST_NAMES[rnd.nextInt(FIRST_NAMES.length)] + "_" + lastName(rnd) + u;
+    }//end userId
+
+    private static String lastName(SplittableRandom rnd) {
+        StringBuilder w = new StringBuilder();
+        for (int k = 2 + rnd.nextInt(2); k > 0; --k)
+            w.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+        w.setCharAt(0, Character.toUpperCase(w.charAt(0)));
+        return w.toString();
+    }//end lastName
+
+    private void user(StringBuilder sb, SplittableRandom rnd, long u, String id) {
+        int sep = id.indexOf('_');
+        String firstName = id.substring(0, sep);
+        String lastName = id.substring(sep + 1, id.length() - Long.toString(u).length());
+        sb.append(id).append(',')
+                .append(lastName(rnd).toLowerCase()).append(rnd.nextInt(10000)).append(',')
+                .append(firstName).append('.').append(lastName).append(u).append('@')
+                .append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]).append(SYLLABLES[rnd.nextInt(SYLLABLES.length)])
+                .append(rnd.nextBoolean() ? ".com" : ".org").append(',')
+                .append(firstName).append(' ').append(lastName).append(',');
+        date(sb, LocalDate.of(1950, 1, 1).plusDays(rnd.nextInt(55 * 365)), '/');
+        sb.append('\n');
+    }//end user
+
+    private static int work(StringBuilder sb, SplittableRandom rnd, String id) {
+        int jobs = rnd.nextInt(4);
+        LocalDate start = LocalDate.of(1990, 1, 1).plusDays(rnd.nextInt(20 * 365));
+        for (int j = 0; j < jobs; ++j) {
+            LocalDate end = start.plusDays(180 + rnd.nextInt(5 * 365));
+            boolean current = j == jobs - 1 && rnd.nextBoolean();
+            sb.append(id).append(',').append(company(rnd)).append(',')
+                    .append(ROLES[rnd.nextInt(ROLES.length)]).append(',')
+                    .append(CITIES[rnd.nextInt(CITIES.length)]).append(',');
+            date(sb, start, '/');
+            sb.append(',');
+            if (!current)
+                date(sb, end, '/');
+            sb.append('\n');
+            start = end.plusDays(1 + rnd.nextInt(90));
+        }
+        return jobs;
+    }//end work
+
+    private static int education(StringBuilder sb, SplittableRandom rnd, String id) {
+        int degrees = rnd.nextInt(3);
+        LocalDate start = LocalDate.of(1975, 9, 1).plusYears(rnd.nextInt(30));
+        for (int d = 0; d < degrees; ++d) {
+            LocalDate end = start.plusYears(d == 0 ? 4 : 2);
+            sb.append(id).append(',').append(institution(rnd)).append(',')
+                    .append(MAJORS[rnd.nextInt(MAJORS.length)]).append(',')
+                    .append(DEGREES[d]).append(',');
+            date(sb, start, '-');
+            sb.append(',');
+            date(sb, end, '-');
+            sb.append('\n');
+            start = end.plusMonths(3);
+        }
+        return degrees;
+    }//end education
+
+    private static void message(StringBuilder sb, SplittableRandom rnd, int msgId, String from, String to) {
+        sb.append(msgId).append(',').append(from).append(',').append(to).append(',');
+        for (int w = 3 + rnd.nextInt(20); w > 0; --w) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+            if (w > 1)
+                sb.append(' ');
+        }
+        sb.append(',');
+        LocalDate day = LocalDate.of(2019, 1, 1).plusDays(rnd.nextInt(3 * 365));
+        date(sb, day, '-');
+        int secs = rnd.nextInt(86400);
+        sb.append(' ');
+        pad2(sb, secs / 3600).append(':');
+        pad2(sb, secs / 60 % 60).append(':');
+        pad2(sb, secs % 60);
+        double p = rnd.nextDouble();
+        sb.append(',').append(p < 0.85 ? 0 : p < 0.90 ? 1 : p < 0.95 ? 2 : 3).append(",Sent\n");
+    }//end message
+
+    /**
+     * Fills targets with the distinct connection targets of user u and
+     * returns how many there are. Half of the targets are drawn with a
+     * strong bias towards low user numbers, which gives a few users a very
+     * large number of incoming connections.
+     */
+    private int distinctTargets(SplittableRandom rnd, long u, int[] targets) {
+        int degree = (int) Math.min(Math.min(DEGREE_MAX, users - 1),
+                DEGREE_MIN / Math.pow(1 - rnd.nextDouble(), 1 / DEGREE_ALPHA));
+        for (int i = 0; i < degree; ++i) {
+            long v = rnd.nextBoolean()
+                    ? (long) (users * Math.pow(rnd.nextDouble(), 3))
+                    : rnd.nextLong(users);
+            targets[i] = (int) (v == u ? (v + 1) % users : v);
+        }
+        Arrays.sort(targets, 0, degree);
+        int n = 0;
+        for (int i = 0; i < degree; ++i)
+            if (n == 0 || targets[n - 1] != targets[i])
+                targets[n++] = targets[i];
+        return n;
+    }//end distinctTargets
+
+    private static String company(SplittableRandom rnd) {
+        // 10000 companies, the first ones far more common
+        int c = (int) (10000 * Math.pow(rnd.nextDouble(), 2));
+        return capitalized(c) + " " + COMPANY_SUFFIXES[c % COMPANY_SUFFIXES.length];
+    }//end company
+
+    private static String institution(SplittableRandom rnd) {
+        int c = (int) (2000 * Math.pow(rnd.nextDouble(), 2));
+        return (c % 2 == 0 ? "University of " : "") + capitalized(c) + (c % 2 == 0 ? "" : " College");
+    }//end institution
+
+    // a name made from the syllables of n, the same for the same n
+    private static String capitalized(int n) {
+        StringBuilder w = new StringBuilder();
+        do {
+            w.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while (n > 0);
+        w.append(SYLLABLES[w.length() % SYLLABLES.length]);
+        w.setCharAt(0, Character.toUpperCase(w.charAt(0)));
+        return w.toString();
+    }//end capitalized
+
+    private static void date(StringBuilder sb, LocalDate d, char sep) {
+        sb.append(d.getYear()).append(sep);
+        pad2(sb, d.getMonthValue()).append(sep);
+        pad2(sb, d.getDayOfMonth());
+    }//end date
+
+    private static StringBuilder pad2(StringBuilder sb, int v) {
+        if (v < 10)
+            sb.append('0');
+        return sb.append(v);
+    }//end pad2
+
+    // a well mixed generator seed for (seed, u)
+    static long mix(long seed, long u) {
+        long z = seed * 0x9e3779b97f4a7c15L + u;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }//end mix
+
+}//end DataGenerator
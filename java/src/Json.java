@@ -0,0 +1,278 @@
+/*
+ * JSON for the HTTP API
+ * =====================
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The little JSON that ApiServer and its load test need, without a
+ * library on the class path. Values are read into Map (objects, in field
+ * order), List, String, Long or Double, Boolean and null, and the same
+ * types are written back, as are arrays of strings. Non-finite numbers
+ * are written as null.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Thrown for input that is not valid JSON.
+     */
+    static final class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ParseException(String message, int at) {
+            super(message + " at offset " + at);
+        }
+    }//end ParseException
+
+    /**
+     * @return the value of a JSON document
+     * @throws Json.ParseException when text is not valid JSON
+     */
+    static Object parse(String text) throws ParseException {
+        Parser p = new Parser(text);
+        p.space();
+        Object value = p.value();
+        p.space();
+        if (p.at < text.length())
+            throw new ParseException("Trailing characters", p.at);
+        return value;
+    }//end parse
+
+    /**
+     * @return a JSON document holding value
+     */
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder(128);
+        write(sb, value);
+        return sb.toString();
+    }//end write
+
+    static void write(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            quote(sb, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            // JSON has no NaN or Infinity
+            sb.append(Double.isFinite(d) ? value.toString() : "null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                quote(sb, String.valueOf(e.getKey()));
+                sb.append(':');
+                write(sb, e.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            Iterable<?> items = value instanceof Object[]
+                    ? Arrays.asList((Object[]) value) : (Collection<?>) value;
+            sb.append('[');
+            boolean first = true;
+            for (Object item : items) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                write(sb, item);
+            }
+            sb.append(']');
+        } else {
+            quote(sb, value.toString());
+        }
+    }//end write
+
+    static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }//end quote
+
+    private static final class Parser {
+        private final String s;
+        private int at = 0;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        void space() {
+            while (at < s.length() && Character.isWhitespace(s.charAt(at)))
+                ++at;
+        }
+
+        Object value() throws ParseException {
+            if (at >= s.length())
+                throw new ParseException("Unexpected end", at);
+            char c = s.charAt(at);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9'))
+                        return number();
+                    throw new ParseException("Unexpected '" + c + "'", at);
+            }
+        }
+
+        private Map<String, Object> object() throws ParseException {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            ++at;
+            space();
+            if (peek() == '}') {
+                ++at;
+                return map;
+            }
+            while (true) {
+                space();
+                if (peek() != '"')
+                    throw new ParseException("Expected a field name", at);
+                String key = string();
+                space();
+                expect(':');
+                space();
+                map.put(key, value());
+                space();
+                if (peek() == ',') {
+                    ++at;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() throws ParseException {
+            List<Object> list = new ArrayList<Object>();
+            ++at;
+            space();
+            if (peek() == ']') {
+                ++at;
+                return list;
+            }
+            while (true) {
+                space();
+                list.add(value());
+                space();
+                if (peek() == ',') {
+                    ++at;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() throws ParseException {
+            StringBuilder sb = new StringBuilder();
+            ++at;
+            while (at < s.length()) {
+                char c = s.charAt(at++);
+                if (c == '"')
+                    return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (at >= s.length())
+                    break;
+                char e = s.charAt(at++);
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append(e); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (at + 4 > s.length())
+                            throw new ParseException("Bad escape", at);
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(at, at + 4), 16));
+                        } catch (NumberFormatException x) {
+                            throw new ParseException("Bad escape", at);
+                        }
+                        at += 4;
+                        break;
+                    default: throw new ParseException("Bad escape", at - 1);
+                }
+            }
+            throw new ParseException("Unterminated string", at);
+        }
+
+        private Object number() throws ParseException {
+            int start = at;
+            if (peek() == '-')
+                ++at;
+            boolean integral = true;
+            while (at < s.length()) {
+                char c = s.charAt(at);
+                if (c >= '0' && c <= '9') {
+                    ++at;
+                } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    integral = false;
+                    ++at;
+                } else {
+                    break;
+                }
+            }
+            String n = s.substring(start, at);
+            try {
+                return integral ? (Object) Long.valueOf(n) : (Object) Double.valueOf(n);
+            } catch (NumberFormatException e) {
+                throw new ParseException("Bad number " + n, start);
+            }
+        }
+
+        private Object literal(String word, Object value) throws ParseException {
+            if (!s.startsWith(word, at))
+                throw new ParseException("Unexpected token", at);
+            at += word.length();
+            return value;
+        }
+
+        private char peek() {
+            return at < s.length() ? s.charAt(at) : '\0';
+        }
+
+        private void expect(char c) throws ParseException {
+            if (peek() != c)
+                throw new ParseException("Expected '" + c + "'", at);
+            ++at;
+        }
+    }//end Parser
+
+}//end Json
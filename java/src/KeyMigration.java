@@ -0,0 +1,289 @@
+/*
+ * Key migration
+ * =============
+ *
+ * Converts a database of the char(30) userId layout to the integer uid
+ * keys of sql/src/create_tables.sql while the application keeps running.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the phases of sql/src/migrate_keys.sql, which has to be loaded
+ * into the database first (java/scripts/migrate.sh does both):
+ *
+ *   prepare  creates the *_NEW tables and the triggers that keep them in
+ *            step with the old ones
+ *   copy     copies the existing rows in primary key order, BATCH rows
+ *            of one table or partition per transaction, USR first
+ *   sizes    prints the size of every table in both layouts
+ *   verify   compares the row counts of both layouts
+ *   cutover  verifies, then renames the old tables to *_OLD and the new
+ *            ones to the old names
+ *   abort    drops what prepare created
+ *
+ * Without a phase, prepare, copy, sizes and verify run in that order; the
+ * cutover is never run without being asked for. The copy can be stopped
+ * and run again; rows already copied are skipped. The process exits with
+ * status 1 when a phase fails or the counts do not match.
+ */
+public class KeyMigration {
+
+    // rows copied per transaction, and the pause between transactions
+    static final int BATCH = Integer.getInteger("profnetwork.migrate.batch", 10000);
+    static final long PAUSE_MS = Long.getLong("profnetwork.migrate.pauseMs", 0L);
+
+    // in copy order: every other table references USR
+    static final String[] TABLES = {
+        "USR", "WORK_EXPR", "EDUCATIONAL_DETAILS", "CONNECTION_USR", "MESSAGE", "MESSAGE_ARCHIVE"
+    };
+
+    static final String SQL_PREPARE = "SELECT migrate_keys_prepare()";
+    static final String SQL_COPY =
+        "SELECT copied, last_key FROM migrate_keys_copy(?, CAST(? AS regclass), CAST(? AS text[]), ?)";
+    static final String SQL_VERIFY = "SELECT tab, old_rows, skipped, new_rows FROM migrate_keys_verify()";
+    static final String SQL_CUTOVER = "SELECT migrate_keys_cutover()";
+    static final String SQL_ABORT = "SELECT migrate_keys_abort()";
+    // the table itself or, if it is partitioned, its partitions
+    static final String SQL_SOURCES =
+        "SELECT CAST(c.oid AS regclass)::text FROM pg_class c WHERE c.oid = to_regclass(?) AND c.relkind = 'r' " +
+        "UNION ALL " +
+        "SELECT CAST(i.inhrelid AS regclass)::text FROM pg_inherits i WHERE i.inhparent = to_regclass(?)";
+    // total and index size of a table and its partitions; 0 if it does not exist
+    static final String SQL_SIZE =
+        "SELECT COALESCE(SUM(pg_total_relation_size(r)), 0), COALESCE(SUM(pg_indexes_size(r)), 0) " +
+        "FROM (SELECT to_regclass(?) AS r UNION ALL " +
+        "SELECT CAST(inhrelid AS regclass) FROM pg_inherits WHERE inhparent = to_regclass(?)) s " +
+        "WHERE r IS NOT NULL";
+
+    private final ConnectionPool pool;
+
+    public KeyMigration(ConnectionPool pool) {
+        this.pool = pool;
+    }//end KeyMigration
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println (
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            KeyMigration.class.getName () +
+                            " <dbname> <port> <user> [prepare|copy|sizes|verify|cutover|abort]");
+            return;
+        }//end if
+        String phase = args.length > 3 ? args[3] : "all";
+
+        ConnectionPool pool = null;
+        boolean ok = false;
+        try {
+            pool = new ConnectionPool(ProfNetwork.connectionUrl(args[0], args[1]), args[2], "dees",
+                    1, 60000L, 60000L);
+            KeyMigration m = new KeyMigration(pool);
+            switch (phase) {
+                case "all":
+                    m.sizes();
+                    m.prepare();
+                    m.copy();
+                    m.sizes();
+                    ok = m.verify();
+                    if (ok)
+                        System.out.println("Run the cutover phase to switch to the new tables");
+                    break;
+                case "prepare": m.prepare(); ok = true; break;
+                case "copy": m.copy(); ok = true; break;
+                case "sizes": m.sizes(); ok = true; break;
+                case "verify": ok = m.verify(); break;
+                case "cutover": m.cutover(); ok = true; break;
+                case "abort": m.call(SQL_ABORT); ok = true; break;
+                default:
+                    System.err.println("Unknown phase " + phase);
+            }
+        } catch (Exception e) {
+            System.err.println (e.getMessage ());
+        } finally {
+            if (pool != null)
+                pool.close();
+        }
+        if (!ok)
+            System.exit(1);
+    }//end main
+
+    /**
+     * Creates the tables of the new layout and starts copying every change
+     * to the old tables into them.
+     */
+    public void prepare() throws SQLException {
+        call(SQL_PREPARE);
+        System.out.println("Prepared the *_NEW tables");
+    }//end prepare
+
+    /**
+     * Copies the rows of every table, USR first, walking each table or
+     * partition by primary key. Rows written meanwhile are copied by the
+     * triggers.
+     *
+     * @return the number of rows copied
+     */
+    public long copy() throws SQLException, InterruptedException {
+        long total = 0;
+        for (String table : TABLES) {
+            long start = System.nanoTime();
+            long rows = 0;
+            for (String src : sources(table)) {
+                String[] after = null;
+                do {
+                    long[] copied = new long[1];
+                    after = copyBatch(table, src, after, copied);
+                    rows += copied[0];
+                    if (PAUSE_MS > 0)
+                        Thread.sleep(PAUSE_MS);
+                } while (after != null);
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d rows copied in %.2f s%n", table, rows, secs);
+            total += rows;
+        }
+        return total;
+    }//end copy
+
+    // the relations holding the rows of table
+    private List<String> sources(String table) throws SQLException {
+        List<String> list = new ArrayList<String>();
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (PreparedStatement ps = pc.getConnection().prepareStatement(SQL_SOURCES)) {
+            ps.setString(1, table);
+            ps.setString(2, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    list.add(rs.getString(1));
+            }
+        } finally {
+            pool.release(pc);
+        }
+        return list;
+    }//end sources
+
+    /**
+     * Copies the BATCH rows of src after the key after, or from the first
+     * if it is null, and adds the rows copied to copied[0].
+     *
+     * @return the key of the last row of the batch, or null when src is done
+     */
+    private String[] copyBatch(String table, String src, String[] after, long[] copied) throws SQLException {
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (PreparedStatement ps = pc.getConnection().prepareStatement(SQL_COPY)) {
+            ps.setString(1, table);
+            ps.setString(2, src);
+            if (after == null)
+                ps.setNull(3, Types.ARRAY);
+            else
+                ps.setArray(3, pc.getConnection().createArrayOf("text", after));
+            ps.setInt(4, BATCH);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next())
+                    return null;
+                copied[0] += rs.getLong(1);
+                Array last = rs.getArray(2);
+                return last == null ? null : (String[]) last.getArray();
+            }
+        } finally {
+            pool.release(pc);
+        }
+    }//end copyBatch
+
+    /**
+     * Prints the size of every table, with its indexes, in the current
+     * layout and, once prepared, in the new one.
+     */
+    public void sizes() throws SQLException {
+        System.out.printf("%-20s %12s %12s %12s %12s%n", "table", "total_kB", "index_kB", "new_total_kB", "new_index_kB");
+        long[] sum = new long[4];
+        for (String table : TABLES) {
+            long[] old = size(table);
+            long[] neu = size(table + "_NEW");
+            System.out.printf("%-20s %12d %12d %12d %12d%n", table,
+                    old[0] / 1024, old[1] / 1024, neu[0] / 1024, neu[1] / 1024);
+            sum[0] += old[0];
+            sum[1] += old[1];
+            sum[2] += neu[0];
+            sum[3] += neu[1];
+        }
+        System.out.printf("%-20s %12d %12d %12d %12d%n", "all",
+                sum[0] / 1024, sum[1] / 1024, sum[2] / 1024, sum[3] / 1024);
+    }//end sizes
+
+    private long[] size(String table) throws SQLException {
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (PreparedStatement ps = pc.getConnection().prepareStatement(SQL_SIZE)) {
+            ps.setString(1, table);
+            ps.setString(2, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new long[] { rs.getLong(1), rs.getLong(2) };
+            }
+        } finally {
+            pool.release(pc);
+        }
+    }//end size
+
+    /**
+     * Prints, for every table, the rows of the old layout, the rows the copy
+     * skipped because they reference a userId missing from USR, and the
+     * rows of the new layout.
+     *
+     * @return true when every table has as many new rows as old rows that
+     *         were not skipped
+     */
+    public boolean verify() throws SQLException {
+        boolean ok = true;
+        System.out.printf("%-20s %12s %12s %12s %12s%n", "table", "old_rows", "skipped", "new_rows", "missing");
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (Statement stmt = pc.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(SQL_VERIFY)) {
+            while (rs.next()) {
+                long old = rs.getLong(2), skipped = rs.getLong(3), neu = rs.getLong(4);
+                long missing = old - skipped - neu;
+                System.out.printf("%-20s %12d %12d %12d %12d%n", rs.getString(1), old, skipped, neu, missing);
+                if (missing != 0)
+                    ok = false;
+            }
+        } finally {
+            pool.release(pc);
+        }
+        if (!ok)
+            System.err.println("Row counts differ: run the copy again, or abort");
+        return ok;
+    }//end verify
+
+    /**
+     * Swaps the new tables in if verify() passes, keeping the old ones as
+     * *_OLD. Clients should reconnect afterwards.
+     */
+    public void cutover() throws SQLException {
+        if (!verify())
+            throw new SQLException("Not cut over: the row counts differ");
+        long start = System.nanoTime();
+        call(SQL_CUTOVER);
+        System.out.printf("Cut over to the uid layout in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }//end cutover
+
+    private void call(String sql) throws SQLException {
+        ConnectionPool.PooledConnection pc = pool.acquire();
+        try (Statement stmt = pc.getConnection().createStatement()) {
+            stmt.execute(sql);
+        } finally {
+            pool.release(pc);
+        }
+    }//end call
+
+}//end KeyMigration
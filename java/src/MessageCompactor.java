@@ -0,0 +1,129 @@
+/*
+ * Message compaction
+ * ==================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes messages that both the sender and the receiver have deleted
+ * (deleteStatus = 3) from MESSAGE, moving them to MESSAGE_ARCHIVE or
+ * dropping them. Such rows are never shown again, but would otherwise keep
+ * MESSAGE and its indexes growing.
+ *
+ * Rows go in batches of batchSize, each its own short transaction, so the
+ * job never holds many row locks and vacuum can reclaim the space as it
+ * goes. SKIP LOCKED lets the compactors of several clients run at the same
+ * time without waiting on each other.
+ */
+public class MessageCompactor {
+
+    // one batch of messages deleted by both sides, found through
+    // MESSAGE_DELETED_IDX; removed by their full key (msgId, sendTime), so
+    // each row is looked up in its own partition only
+    static final String SQL_BATCH =
+            "SELECT msgId, sendTime FROM MESSAGE WHERE deleteStatus = 3 LIMIT ? FOR UPDATE SKIP LOCKED";
+    static final String SQL_ARCHIVE =
+            "WITH gone AS (DELETE FROM MESSAGE WHERE (msgId, sendTime) IN (" + SQL_BATCH + ") " +
+            "RETURNING msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+            "INSERT INTO MESSAGE_ARCHIVE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+            "SELECT msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status FROM gone";
+    static final String SQL_PURGE =
+            "DELETE FROM MESSAGE WHERE (msgId, sendTime) IN (" + SQL_BATCH + ")";
+
+    private final ProfNetwork esql;
+    private final int batchSize;
+    private final boolean archive;
+    private ScheduledExecutorService timer = null;
+
+    // metrics
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    /**
+     * @param esql the session the job uses
+     * @param batchSize the most messages removed per transaction
+     * @param archive true to move the messages to MESSAGE_ARCHIVE, false to
+     *        delete them
+     */
+    public MessageCompactor(ProfNetwork esql, int batchSize, boolean archive) {
+        this.esql = esql;
+        this.batchSize = Math.max(1, batchSize);
+        this.archive = archive;
+    }//end MessageCompactor
+
+    /**
+     * Runs the job every intervalMs on a background thread.
+     */
+    public synchronized void start(long intervalMs) {
+        if (timer != null)
+            return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (SQLException e) {
+                System.err.println("message-compactor: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }//end start
+
+    /**
+     * Removes batches until none of the messages deleted by both sides is
+     * left.
+     *
+     * @return the number of messages removed
+     * @throws java.sql.SQLException when a batch fails; earlier batches stay
+     *         committed
+     */
+    public int runOnce() throws SQLException {
+        String sql = archive ? SQL_ARCHIVE : SQL_PURGE;
+        int total = 0;
+        int n;
+        do {
+            n = esql.executeUpdate(sql, batchSize);
+            total += n;
+            removed.addAndGet(n);
+        } while (n == batchSize);
+        runs.incrementAndGet();
+        return total;
+    }//end runOnce
+
+    /**
+     * Stops the background job, waiting for a batch in progress.
+     */
+    public synchronized void close() {
+        if (timer == null)
+            return;
+        timer.shutdown();
+        try {
+            timer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer = null;
+    }//end close
+
+    public long getRemoved() { return removed.get(); }
+    public long getRuns() { return runs.get(); }
+
+    /**
+     * @return a one-line summary of the job
+     */
+    public String stats() {
+        return String.format("message compaction: %d messages %s in %d runs",
+                removed.get(), archive ? "archived" : "purged", runs.get());
+    }//end stats
+
+}//end MessageCompactor
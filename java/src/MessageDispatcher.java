@@ -0,0 +1,299 @@
+/*
+ * Message delivery
+ * ================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes sent messages to MESSAGE in the background. NewMessage hands a
+ * message to a bounded queue and returns; a single writer thread drains the
+ * queue into JDBC batches and commits each batch as one transaction. While a
+ * batch commits, new messages pile up in the queue and go out together in
+ * the next one, so under load many messages share a commit.
+ *
+ * Rows are inserted as 'Delivered', as the commit of their batch is what
+ * delivers them; the driver rewrites a batch into multi-row INSERTs, so
+ * each message is written once. Messages that cannot be inserted are
+ * counted, logged, and kept for their sender, whose session shows them
+ * through takeFailures().
+ *
+ * When the queue stays full the sender writes its message itself, which
+ * slows senders down to what the database can take. Messages still queued
+ * when the process dies are lost; close() delivers them on a normal
+ * shutdown.
+ */
+public class MessageDispatcher {
+
+    private final ProfNetwork esql;
+    private final BlockingQueue<Object[]> queue;
+    private final long offerTimeoutMs;
+    private final Thread writer;
+
+    // senders hold the read lock from the closed check to the enqueue, so
+    // close() cannot slip in between and strand a message in the queue
+    private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    // messages handed to the writer and messages it has finished with;
+    // guarded by counting, and done is signalled when they meet. Locks
+    // rather than monitors, as senders may run on virtual threads
+    private final ReentrantLock counting = new ReentrantLock();
+    private final Condition done = counting.newCondition();
+    private long queued = 0;
+    private long finished = 0;
+
+    // the most undelivered messages kept per sender
+    static final int MAX_FAILURES_PER_SENDER = 100;
+
+    // senderId -> the messages of the sender that could not be inserted,
+    // oldest first; guarded by failing
+    private final Map<String, Deque<String>> failures = new HashMap<String, Deque<String>>();
+    private final ReentrantLock failing = new ReentrantLock();
+
+    // metrics
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong direct = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batched = new AtomicLong();
+
+    // the rows of the batch being written that write() has stored or
+    // reported as failed, which are its first rows; writer thread only
+    private int handled;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param esql the session the writer uses
+     * @param capacity the most messages waiting for the writer
+     * @param offerTimeoutMs how long a sender waits for room before writing
+     *        its message itself
+     */
+    public MessageDispatcher(ProfNetwork esql, int capacity, long offerTimeoutMs) {
+        this.esql = esql;
+        this.queue = new ArrayBlockingQueue<Object[]>(capacity);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.writer = new Thread(this::drain, "message-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }//end MessageDispatcher
+
+    /**
+     * Sends a message. Normally it is only queued; when the queue is full
+     * for offerTimeoutMs, or the dispatcher is closed, it is inserted before
+     * this returns.
+     *
+     * @throws java.sql.SQLException when the message had to be written
+     *         directly and that failed
+     */
+    public void submit(int msgId, String senderId, String receiverId, String contents, Timestamp sendTime)
+            throws SQLException {
+        Object[] row = {msgId, senderId, receiverId, contents, sendTime};
+        closing.readLock().lock();
+        try {
+            if (!closed && offer(row))
+                return;
+        } finally {
+            closing.readLock().unlock();
+        }
+        direct.incrementAndGet();
+        esql.executeUpdate(ProfNetwork.SQL_NEW_MESSAGE, row);
+        delivered.incrementAndGet();
+    }//end submit
+
+    // queues a row, waiting up to offerTimeoutMs for room
+    private boolean offer(Object[] row) {
+        counting.lock();
+        try {
+            queued++;
+        } finally {
+            counting.unlock();
+        }
+        try {
+            if (queue.offer(row, offerTimeoutMs, TimeUnit.MILLISECONDS))
+                return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        counting.lock();
+        try {
+            queued--;
+            if (finished == queued)
+                done.signalAll();
+        } finally {
+            counting.unlock();
+        }
+        return false;
+    }//end offer
+
+    // the writer thread: one batch per iteration until closed and empty
+    private void drain() {
+        List<Object[]> batch = new ArrayList<Object[]>(ProfNetwork.BATCH_SIZE);
+        while (true) {
+            try {
+                Object[] first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed)
+                        return;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, ProfNetwork.BATCH_SIZE - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                if (closed)
+                    return;
+            } catch (RuntimeException e) {
+                // the rows already stored or reported are not failed again
+                for (Object[] row : batch.subList(handled, batch.size()))
+                    failed(row, e);
+            } finally {
+                if (!batch.isEmpty())
+                    finished(batch.size());
+                batch.clear();
+                handled = 0;
+            }
+        }
+    }//end drain
+
+    /**
+     * Inserts a batch in one transaction. If that fails, the messages are
+     * retried one at a time so a single bad row only loses itself. Counts
+     * the rows it is done with in handled.
+     */
+    private void write(List<Object[]> batch) {
+        try {
+            esql.executeBatch(ProfNetwork.SQL_NEW_MESSAGE, batch);
+            handled = batch.size();
+            delivered.addAndGet(batch.size());
+            batches.incrementAndGet();
+            batched.addAndGet(batch.size());
+        } catch (SQLException e) {
+            for (Object[] row : batch) {
+                try {
+                    esql.executeUpdate(ProfNetwork.SQL_NEW_MESSAGE, row);
+                    delivered.incrementAndGet();
+                } catch (SQLException x) {
+                    failed(row, x);
+                }
+                handled++;
+            }
+        }
+    }//end write
+
+    // counts, logs and keeps for its sender a message that was not inserted
+    private void failed(Object[] row, Exception e) {
+        failed.incrementAndGet();
+        System.err.printf("Message %s from %s to %s not delivered: %s%n", row[0], row[1], row[2], e.getMessage());
+        String note = String.format("message %s to %s: %s", row[0], row[2], e.getMessage());
+        failing.lock();
+        try {
+            Deque<String> notes = failures.computeIfAbsent(((String) row[1]).trim(), k -> new ArrayDeque<String>());
+            if (notes.size() == MAX_FAILURES_PER_SENDER)
+                notes.pollFirst();
+            notes.addLast(note);
+        } finally {
+            failing.unlock();
+        }
+    }//end failed
+
+    /**
+     * Returns and forgets the messages of a sender that could not be
+     * delivered since the last call, oldest first.
+     */
+    public List<String> takeFailures(String senderId) {
+        Deque<String> notes;
+        failing.lock();
+        try {
+            if (failures.isEmpty())
+                return Collections.emptyList();
+            notes = failures.remove(senderId.trim());
+        } finally {
+            failing.unlock();
+        }
+        return notes == null ? Collections.<String>emptyList() : new ArrayList<String>(notes);
+    }//end takeFailures
+
+    private void finished(int n) {
+        counting.lock();
+        try {
+            finished += n;
+            if (finished == queued)
+                done.signalAll();
+        } finally {
+            counting.unlock();
+        }
+    }//end finished
+
+    /**
+     * Waits until every message queued so far has been written or has
+     * failed.
+     */
+    public void flush() throws InterruptedException {
+        counting.lock();
+        try {
+            while (finished < queued)
+                done.await();
+        } finally {
+            counting.unlock();
+        }
+    }//end flush
+
+    /**
+     * Stops accepting messages into the queue, delivers the ones waiting and
+     * stops the writer. Later sends are written directly.
+     */
+    public void close() {
+        closing.writeLock().lock();
+        closed = true;
+        closing.writeLock().unlock();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }//end close
+
+    /**
+     * @return the number of messages waiting for the writer
+     */
+    public int pending() {
+        return queue.size();
+    }//end pending
+
+    public long getDelivered() { return delivered.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getDirect() { return direct.get(); }
+    public long getBatches() { return batches.get(); }
+
+    /**
+     * @return a one-line summary of the delivery metrics
+     */
+    public String stats() {
+        long b = batches.get();
+        return String.format("messages: %d delivered, %d failed, %d pending, " +
+                        "%d written directly, %d batches (%.1f per batch)",
+                delivered.get(), failed.get(), pending(), direct.get(), b,
+                b == 0 ? 0.0 : (double) batched.get() / b);
+    }//end stats
+
+}//end MessageDispatcher
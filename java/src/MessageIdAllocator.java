@@ -0,0 +1,58 @@
+/*
+ * Message id allocation
+ * =====================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out MESSAGE.msgId values from blocks reserved on the
+ * MESSAGE_MSGID_SEQ sequence. One nextval() reserves BLOCK_SIZE ids, which
+ * are then given out from memory, so sending a message needs no MAX(msgId)
+ * scan and concurrent senders never race for the same id.
+ *
+ * Ids are unique but not gap free: the unused rest of a block is lost when
+ * the process exits.
+ */
+public class MessageIdAllocator {
+
+    // must match INCREMENT BY of MESSAGE_MSGID_SEQ in create_tables.sql
+    public static final int BLOCK_SIZE = 100;
+
+    static final String SEQUENCE = "message_msgid_seq";
+
+    private final ProfNetwork esql;
+    // guards next and limit. Held across the nextval() round trip, so a
+    // lock rather than a monitor: a virtual thread waiting on the database
+    // under a monitor would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next = 0;
+    private int limit = 0;
+
+    public MessageIdAllocator(ProfNetwork esql) {
+        this.esql = esql;
+    }//end MessageIdAllocator
+
+    /**
+     * @return an id that no other sender has been or will be given
+     * @throws java.sql.SQLException when a new block cannot be reserved
+     */
+    public int next() throws SQLException {
+        lock.lock();
+        try {
+            if (next == limit) {
+                int base = esql.getNextSeqVal(SEQUENCE);
+                next = base;
+                limit = base + BLOCK_SIZE;
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }//end next
+
+}//end MessageIdAllocator
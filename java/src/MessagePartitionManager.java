@@ -0,0 +1,134 @@
+/*
+ * Message partition upkeep
+ * ========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the monthly partitions of MESSAGE in step with the calendar, using
+ * the functions of sql/src/message_partitions.sql. Each run creates the
+ * partitions of the current month and of the aheadMonths after it, so new
+ * messages never land in the default partition, and with retainMonths set
+ * detaches the partitions of older months into the MESSAGE_HISTORY schema.
+ *
+ * The first run happens when the job starts. If it fails, e.g. on a
+ * database created before MESSAGE was partitioned, the job reports it and
+ * stays off.
+ */
+public class MessagePartitionManager {
+
+    static final String SQL_PARTITION = "SELECT message_partition(CAST(? AS date))";
+    static final String SQL_ARCHIVE = "SELECT message_archive_before(CAST(? AS date))";
+
+    private final ProfNetwork esql;
+    private final int aheadMonths;
+    private final int retainMonths;
+    private ScheduledExecutorService timer = null;
+
+    // metrics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong archived = new AtomicLong();
+
+    /**
+     * @param esql the session the job uses
+     * @param aheadMonths months after the current one to create partitions for
+     * @param retainMonths months, the current one included, whose partitions
+     *        stay attached; 0 keeps every partition
+     */
+    public MessagePartitionManager(ProfNetwork esql, int aheadMonths, int retainMonths) {
+        this.esql = esql;
+        this.aheadMonths = Math.max(0, aheadMonths);
+        this.retainMonths = Math.max(0, retainMonths);
+    }//end MessagePartitionManager
+
+    /**
+     * Runs the job now and then every intervalMs on a background thread.
+     */
+    public synchronized void start(long intervalMs) {
+        if (timer != null)
+            return;
+        try {
+            runOnce();
+        } catch (SQLException e) {
+            System.err.println("MESSAGE partitions are not maintained: " + e.getMessage());
+            return;
+        }
+        if (intervalMs <= 0)
+            return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-partitions");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (SQLException e) {
+                System.err.println("message-partitions: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }//end start
+
+    /**
+     * Creates the missing partitions from the current month on and
+     * archives the expired ones.
+     *
+     * @return the number of partitions created
+     * @throws java.sql.SQLException when a partition cannot be created or
+     *         detached
+     */
+    public int runOnce() throws SQLException {
+        LocalDate month = LocalDate.now().withDayOfMonth(1);
+        int n = 0;
+        for (int i = 0; i <= aheadMonths; ++i) {
+            Boolean made = esql.executeQueryForObject(SQL_PARTITION, rs -> rs.getBoolean(1),
+                    Date.valueOf(month.plusMonths(i)));
+            if (Boolean.TRUE.equals(made))
+                ++n;
+        }
+        created.addAndGet(n);
+        if (retainMonths > 0) {
+            Integer gone = esql.executeQueryForObject(SQL_ARCHIVE, rs -> rs.getInt(1),
+                    Date.valueOf(month.minusMonths(retainMonths - 1)));
+            if (gone != null)
+                archived.addAndGet(gone);
+        }
+        return n;
+    }//end runOnce
+
+    /**
+     * Stops the background job, waiting for a run in progress.
+     */
+    public synchronized void close() {
+        if (timer == null)
+            return;
+        timer.shutdown();
+        try {
+            timer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer = null;
+    }//end close
+
+    public long getCreated() { return created.get(); }
+    public long getArchived() { return archived.get(); }
+
+    /**
+     * @return a one-line summary of the job
+     */
+    public String stats() {
+        return String.format("message partitions: %d created, %d archived", created.get(), archived.get());
+    }//end stats
+
+}//end MessagePartitionManager
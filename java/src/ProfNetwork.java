@@ -1,743 +1,1914 @@
-/*
- * Template JAVA User Interface
- * =============================
- *
- * Database Management Systems
- * Department of Computer Science &amp; Engineering
- * University of California - Riverside
- *
- * Target DBMS: 'Postgres'
- *
- */
-
-import java.io.*;
-import java.sql.*;
-import java.time.Instant;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.regex.Pattern;
-
-/**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
- *
- */
-
-public class ProfNetwork {
-
-    // reference to physical database connection.
-    private Connection _connection = null;
-
-    // handling the keyboard inputs through a BufferedReader
-    // This variable can be global for convenience.
-    static BufferedReader in = new BufferedReader(
-            new InputStreamReader(System.in));
-
-    /**
-     * Creates a new instance of Messenger
-     *
-     * @param hostname the MySQL or PostgreSQL server hostname
-     * @param database the name of the database
-     * @param username the user name used to login to the database
-     * @param password the user login password
-     * @throws java.sql.SQLException when failed to make a connection.
-     */
-    public ProfNetwork (String dbname, String dbport, String user, String passwd) throws SQLException {
-
-        System.out.print("Connecting to database...");
-        try{
-            // constructs the connection URL
-            String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-            System.out.println ("Connection URL: " + url + "\n");
-
-            // obtain a physical connection
-            this._connection = DriverManager.getConnection(url, user, passwd);
-            System.out.println("Done");
-        }catch (Exception e){
-            System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-            System.out.println("Make sure you started postgres on this machine");
-            System.exit(-1);
-        }//end catch
-    }//end ProfNetwork
-
-    /**
-     * Method to execute an update SQL statement.  Update SQL instructions
-     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-     *
-     * @param sql the input SQL string
-     * @throws java.sql.SQLException when update failed
-     */
-    public void executeUpdate (String sql) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
-
-        // issues the update instruction
-        stmt.executeUpdate (sql);
-
-        // close the instruction
-        stmt.close ();
-    }//end executeUpdate
-
-    /**
-     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-     * method issues the query to the DBMS and outputs the results to
-     * standard out.
-     *
-     * @param query the input query string
-     * @return the number of rows returned
-     * @throws java.sql.SQLException when failed to execute the query
-     */
-    public int executeQueryAndPrintResult (String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery (query);
-
-        /*
-         ** obtains the metadata object for the returned result set.  The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-
-        // iterates through the result set and output them to standard out.
-        boolean outputHeader = true;
-        while (rs.next()){
-            if(outputHeader){
-                for(int i = 1; i <= numCol; i++){
-                    System.out.print(rsmd.getColumnName(i) + "\t");
-                }
-                System.out.println();
-                outputHeader = false;
-            }
-            for (int i=1; i<=numCol; ++i)
-                System.out.print (rs.getString (i) + "\t");
-            System.out.println ();
-            ++rowCount;
-        }//end while
-        stmt.close ();
-        return rowCount;
-    }//end executeQuery
-
-    /**
-     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-     * method issues the query to the DBMS and returns the results as
-     * a list of records. Each record in turn is a list of attribute values
-     *
-     * @param query the input query string
-     * @return the query result as a list of records
-     * @throws java.sql.SQLException when failed to execute the query
-     */
-    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery (query);
-
-        /*
-         ** obtains the metadata object for the returned result set.  The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-
-        // iterates through the result set and saves the data returned by the query.
-        boolean outputHeader = false;
-        List<List<String>> result  = new ArrayList<List<String>>();
-        while (rs.next()){
-            List<String> record = new ArrayList<String>();
-            for (int i=1; i<=numCol; ++i)
-                record.add(rs.getString (i));
-            result.add(record);
-        }//end while
-        stmt.close ();
-        return result;
-    }//end executeQueryAndReturnResult
-
-    /**
-     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-     * method issues the query to the DBMS and returns the number of results
-     *
-     * @param query the input query string
-     * @return the number of rows returned
-     * @throws java.sql.SQLException when failed to execute the query
-     */
-    public int executeQuery (String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery (query);
-
-        int rowCount = 0;
-
-        // iterates through the result set and count nuber of results.
-        if(rs.next()){
-            rowCount++;
-        }//end while
-        stmt.close ();
-        return rowCount;
-    }
-
-    /**
-     * Method to fetch the last value from sequence. This
-     * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
-     *
-     * @param sequence name of the DB sequence
-     * @return current value of a sequence
-     * @throws java.sql.SQLException when failed to execute the query
-     */
-    public int getCurrSeqVal(String sequence) throws SQLException {
-        Statement stmt = this._connection.createStatement ();
-
-        ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-        if (rs.next())
-            return rs.getInt(1);
-        return -1;
-    }
-
-    /**
-     * Method to close the physical connection if it is open.
-     */
-    public void cleanup(){
-        try{
-            if (this._connection != null){
-                this._connection.close ();
-            }//end if
-        }catch (SQLException e){
-            // ignored.
-        }//end try
-    }//end cleanup
-
-    /**
-     * The main execution method
-     *
-     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
-     */
-    //Making authorised user a global variable
-    String authorisedUser;
-    public static void main (String[] args) {
-        if (args.length != 3) {
-            System.err.println (
-                    "Usage: " +
-                            "java [-classpath <classpath>] " +
-                            ProfNetwork.class.getName () +
-                            " <dbname> <port> <user>");
-            return;
-        }//end if
-
-        Greeting();
-        ProfNetwork esql = null;
-        try{
-            // use postgres JDBC driver.
-            Class.forName ("org.postgresql.Driver").newInstance ();
-            // instantiate the Messenger object and creates a physical
-            // connection.
-            String dbname = args[0];
-            String dbport = args[1];
-            String user = args[2];
-            esql = new ProfNetwork (dbname, dbport, user, "dees");
-
-            boolean keepon = true;
-            while(keepon) {
-                // These are sample SQL statements
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. Create user");
-                System.out.println("2. Log in");
-                System.out.println("9. < EXIT");
-                String authorisedUser = null;
-                switch (readChoice()){
-                    case 1: CreateUser(esql); break;
-                    case 2: esql.authorisedUser = LogIn(esql); break; // Change made
-                    case 9: keepon = false; break;
-                    default : System.out.println("Unrecognized choice!"); break;
-                }//end switch
-                if (esql.authorisedUser != null) {
-                    boolean usermenu = true;
-                    while(usermenu) {
-                        System.out.println("MAIN MENU");
-                        System.out.println("---------");
-                        System.out.println("1. Goto Friend List");
-                        System.out.println("2. Update Profile");
-                        System.out.println("3. Write a new message");
-                        System.out.println("4. Send Friend Request");
-                        System.out.println("5. Search Users by Name");
-                        System.out.println("6. View Message Inbox");
-                        System.out.println("7. View Incoming Requests");
-                        System.out.println("8. View a Profile");
-                        System.out.println(".........................");
-                        System.out.println("9. Log out");
-                        switch (readChoice()){
-                            case 1: FriendList(esql); break;
-                            case 2: updateProfile(esql); break;
-                            case 3: NewMessage(esql); break;
-                            case 4: SendRequest(esql); break;
-                            case 5: Search(esql); break;
-                            case 6: ViewMessages(esql, esql.authorisedUser); break;
-                            case 7: IncomingRequests(esql, esql.authorisedUser); break;
-                            case 8: ViewProfile(esql, esql.authorisedUser); break;
-                            case 9: usermenu = false; break;
-                            default : System.out.println("Unrecognized choice!"); break;
-                        }
-                    }
-                }
-            }//end while
-        }catch(Exception e) {
-            System.err.println (e.getMessage ());
-        }finally{
-            // make sure to cleanup the created table and close the connection.
-            try{
-                if(esql != null) {
-                    System.out.print("Disconnecting from database...");
-                    esql.cleanup ();
-                    System.out.println("Done\n\nBye !");
-                }//end if
-            }catch (Exception e) {
-                // ignored.
-            }//end try
-        }//end try
-    }//end main
-
-    public static void Greeting(){
-        System.out.println(
-                "\n\n*******************************************************\n" +
-                        "              User Interface      	               \n" +
-                        "*******************************************************\n");
-    }//end Greeting
-
-    /*
-     * Reads the users choice given from the keyboard
-     * @int
-     **/
-    public static int readChoice() {
-        int input;
-        // returns only if a correct value is given.
-        do {
-            System.out.print("Please make your choice: ");
-            try { // read the integer, parse it and break.
-                input = Integer.parseInt(in.readLine());
-                break;
-            }catch (Exception e) {
-                System.out.println("Your input is invalid!");
-                continue;
-            }//end try
-        }while (true);
-        return input;
-    }//end readChoice
-
-    /*
-     * Creates a new user with privided login, passowrd and phoneNum
-     * An empty block and contact list would be generated and associated with a user
-     **/
-    public static void CreateUser(ProfNetwork esql){
-        try{
-            System.out.print("\tEnter user login: ");
-            String login = in.readLine();
-            System.out.print("\tEnter user password: ");
-            String password = in.readLine();
-            System.out.print("\tEnter user email: ");
-            String email = in.readLine();
-
-            //Creating empty contact\block lists for a user
-            String query = String.format("INSERT INTO USR (userId, password, email) VALUES ('%s','%s','%s')", login, password, email);
-
-            esql.executeUpdate(query);
-            System.out.println ("User successfully created!");
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-        }
-    }//end
-
-    /*
-     * Check log in credentials for an existing user
-     * @return User login or null is the user does not exist
-     **/
-    public static String LogIn(ProfNetwork esql){
-        try{
-            System.out.print("\tEnter user login: ");
-            String login = in.readLine();
-            System.out.print("\tEnter user password: ");
-            String password = in.readLine();
-
-            String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-            int userNum = esql.executeQuery(query);
-            if (userNum > 0)
-                return login;
-            return null;
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return null;
-        }
-    }//end
-
-// Rest of the functions definition go in here
-
-    public static class UpdateProfile {
-        private ProfNetwork esql;
-
-        UpdateProfile(ProfNetwork esql) {
-            this.esql = esql;
-        }
-
-        public void password() throws Exception{
-            Console console = System.console();
-            System.out.print("\tEnter new password: ");
-            String password = in.readLine();
-            System.out.print("\tEnter confirm password: ");
-            String cpassword = in.readLine();
-            if(password.compareTo(cpassword) == 0){
-                String query = String.format("UPDATE usr set password = '%s' WHERE userId = '%s'", password, esql.authorisedUser);
-                esql.executeUpdate(query);
-                System.out.println("****** PASSWORD UPDATED ******");
-            }else{
-                System.out.println("Password doesn't match");
-            }
-            halt();
-        }
-        public void email() throws Exception {
-            System.out.print("\tEnter Email: ");
-            String email = in.readLine();
-            String emailRegex = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@" +
-                    "(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
-            if(Pattern.compile(emailRegex).matcher(email).matches()) {
-                String query = String.format("UPDATE usr set email = '%s' WHERE userId = '%s'", email, esql.authorisedUser);
-                System.out.println(query);
-                esql.executeUpdate(query);
-                System.out.println("****** EMAIL UPDATED ******");
-            } else {
-                System.out.println("NOT A VALID INPUT");
-            }
-            halt();
-        }
-        public void fullName() throws Exception {
-            System.out.print("\tEnter Full Name: ");
-            String fullName = in.readLine();
-            String query = String.format("UPDATE usr set name = '%s' WHERE userId = '%s'", fullName, esql.authorisedUser);
-            esql.executeUpdate(query);
-            System.out.println("****** FULL NAME UPDATED ******");
-            halt();
-        }
-        public void dateOfBirth() throws Exception {
-            System.out.print("\tEnter Date of Birth: ");
-            String dateOfBirth = in.readLine();
-            String query = String.format("UPDATE usr set dateOfBirth = '%s' WHERE userId = '%s'", dateOfBirth, esql.authorisedUser);
-            System.out.println(query);
-            esql.executeUpdate(query);
-            System.out.println("****** DATE of BIRTH UPDATED ******");
-            halt();
-        }
-    }
-    public static void FriendList(ProfNetwork esql) throws Exception{
-        String query = String.format("select connectionId from connection_usr where userId = '%s' and status ='Accept'", esql.authorisedUser);
-        int numOfFriends = esql.executeQueryAndPrintResult(query);
-        System.out.println("Total number of friends: " + numOfFriends);
-        halt();
-    }
-    public static void updateProfile(ProfNetwork esql) throws Exception{
-        UpdateProfile update = new UpdateProfile(esql);
-        do{
-            System.out.println("UPDATE MENU");
-            System.out.println("------------");
-            System.out.println("1. Update Password");
-            System.out.println("2. Update Email");
-            System.out.println("3. Update Full name");
-            System.out.println("4. Update Date of Birth");
-            System.out.println("..........................");
-            System.out.println("9. Back to main menu");
-            switch(readChoice()){
-                case 1: update.password();return;
-                case 2: update.email(); return;
-                case 3: update.fullName();return;
-                case 4: update.dateOfBirth();return;
-                case 9: return;
-                default: System.out.println("Invalid Choice");halt();return;
-            }
-        }while(true);
-    }
-    public static void NewMessage(ProfNetwork esql) throws Exception{
-
-        System.out.print("\tEnter your friend ID : ");
-        String friendId = in.readLine();
-        String queryToCheckFriend = String.format("Select count(*) from connection_usr where userid = '%s' AND userId IN " +
-                "(Select connectionId from connection_usr where userId = '%s' AND status = 'Accept')", friendId, esql.authorisedUser);
-        int check = esql.executeQuery(queryToCheckFriend);
-        if(check > 0){
-            // Can Send message
-            String queryToGetMsgId = String.format("Select MAX(msgId) from message");
-            List<List<String>> res = esql.executeQueryAndReturnResult(queryToGetMsgId);
-            int msgId = Integer.parseInt(res.get(0).get(0)) + 1;
-            System.out.print("\tEnter message : ");
-            String message = in.readLine();
-            String timestamp = (java.sql.Timestamp.from(Instant.now())).toString();
-            String query = String.format("INSERT into message (msgId,senderId,receiverId,contents,sendTime,deleteStatus,status) " +
-                    "values('%s','%s','%s','%s','%s','0','Sent')",
-                    msgId, esql.authorisedUser, friendId, message, timestamp);
-            esql.executeUpdate(query);
-            System.out.println("****** MESSAGE SENT ******");
-        }else{
-            System.out.println("Not your Friend, cannot send message");
-        }
-        halt();
-    }
-    public static void SendRequest(ProfNetwork esql) throws Exception{
-        System.out.print("\tEnter the user id to send request : ");
-        String newConnection = in.readLine();
-        String queryToCheckIfUserExists = String.format("Select * from usr where userid = '%s'", newConnection);
-        int check1 = esql.executeQuery(queryToCheckIfUserExists);
-        if(check1 == 0){
-            System.out.println("Connecion ID does not exist");
-            halt();
-            return;
-        }
-        String queryToCheckIfAlreadySent = String.format("Select * from connection_usr where userid = '%s' AND connectionid = '%s'", esql.authorisedUser, newConnection);
-        List<List<String>> res = esql.executeQueryAndReturnResult(queryToCheckIfAlreadySent);
-//        System.out.println(res.size());
-        if(res.size() > 0){
-            System.out.println("Friend Request is already sent");
-            System.out.format("Status of friend request to %s is %s \n", newConnection, res.get(0).get(2));
-            halt();
-            return;
-        }
-        String queryToCheckNoOfFriends = String.format("Select * from connection_usr where userid = '%s'", esql.authorisedUser);
-        int check2 = esql.executeQuery(queryToCheckNoOfFriends);
-        if(check2 < 5){
-            // Send request
-            String query = String.format("insert into connection_usr values('%s','%s','Request')", esql.authorisedUser, newConnection);
-            esql.executeUpdate(query);
-            System.out.println("****** FRIEND REQUEST SENT ******");
-        } else {
-            String queryToCheckIfCanSend = String.format("select count(*) from connection_usr where userid = '%s' and userid IN " +
-                    "(select connectionid from connection_usr where userid IN " +
-                    "(select connectionid from connection_usr where userid='%s'))", newConnection, esql.authorisedUser);
-            int check3 = esql.executeQuery(queryToCheckIfCanSend);
-            if(check3 > 0) {
-                //Send Request
-                String query = String.format("insert into connection_usr values('%s','%s','Request')", esql.authorisedUser, newConnection);
-                esql.executeUpdate(query);
-                System.out.println("****** FRIEND REQUEST SENT ******");
-            } else {
-                System.out.println("Cannot Send Request");
-            }
-        }
-        halt();
-    }
-    public static void halt() throws Exception{
-        System.out.println("Press any key to continue");
-        in.read();
-    }
-
-    public static void Search(ProfNetwork esql){
-        try{
-            System.out.print("\tEnter a name to search: ");
-            String name = in.readLine();
-
-            String query = String.format("SELECT U.userid, U.name FROM USR U WHERE U.name = '%s'", name);
-            //String query = String.format("SELECT U.userid, U.name FROM USR U WHERE U.userid EXISTS IN (SELECT C.userid FROM Connection C WHERE C.userid EXISTS IN (SELECT U1.userid FROM User U1 WHERE U1.name LIKE %" + name + "%))");
-            int userNum = esql.executeQueryAndPrintResult(query);
-            if (userNum <= 0){
-                System.out.printf("\nNo results for: %s\n", name);
-                return;
-            }
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return;
-        }
-    }
-
-
-    public static void ViewProfile(ProfNetwork esql, String auth){
-        try{
-            boolean select = true;
-            while(select){
-                System.out.println("1. View Your Profile ");
-                System.out.println("2. View a Friend's Profile");
-                System.out.println("9. Cancel");
-
-                switch(readChoice()){
-                    case 1:
-                        String query = String.format("SELECT U.userid, U.name, U.email, U.dateofbirth FROM USR U WHERE U.userid = '%s'", auth);
-                        esql.executeQueryAndPrintResult(query);
-                        String query1 = String.format("SELECT W.company, W.role, W.location, W.startdate, W.enddate FROM WORK_EXPR W WHERE W.userid = '%s'", auth);
-                        esql.executeQueryAndPrintResult(query1);
-                        String query2 = String.format("SELECT E.instituitionname, E.major, E.degree, E.startdate, E.enddate FROM EDUCATIONAL_DETAILS E WHERE E.userid = '%s'", auth);
-                        esql.executeQueryAndPrintResult(query2);
-                        select = false;
-                        break;
-                    case 2:
-                        System.out.print("\tEnter the username for the profile you want to view: ");
-                        String name = in.readLine();
-
-         	   /*String query3 = String.format("SELECT U.userid, U.name FROM USR U WHERE U.userid EXISTS IN (SELECT C.userid FROM Connection C WHERE C.userid EXISTS IN (SELECT U1.userid FROM User U1 WHERE U1.name LIKE %" + name + "%))");
-         	   int userNum = esql.executeQueryAndPrintResult(query3);
-         	   if (userNum <= 0){
-            	      System.out.printf("\nNo results for: %s\n", name);
-            	   return;
-         	   }*/
-                        String query3 = String.format("SELECT U.userid, U.name, U.email, U.dateofbirth FROM USR U WHERE U.userid = '%s'", name);
-                        esql.executeQueryAndPrintResult(query3);
-                        String query4 = String.format("SELECT W.company, W.role, W.location, W.startdate, W.enddate FROM WORK_EXPR W WHERE W.userid = '%s'", name);
-                        esql.executeQueryAndPrintResult(query4);
-                        String query5 = String.format("SELECT E.instituitionname, E.major, E.degree, E.startdate, E.enddate FROM EDUCATIONAL_DETAILS E WHERE E.userid = '%s'", name);
-                        esql.executeQueryAndPrintResult(query5);
-                        select = false;
-                        break;
-                    case 9:
-                        select = false;
-                        break;
-                }
-            }
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return;
-        }
-    }
-
-    public static void ViewMessages(ProfNetwork esql, String auth){
-        try{
-            boolean select = true;
-            while(select){
-                System.out.println("1. View Messages in Inbox ");
-                System.out.println("2. View Sent Messages");
-                System.out.println("3. Write a New Message");
-                System.out.println("9. Cancel");
-
-                switch(readChoice()){
-                    case 1:
-                        System.out.print("\n\tMessages in inbox: \n");
-                        String query = String.format("SELECT M.msgid, M.senderid, M.contents FROM Message M WHERE M.receiverid = '%s' AND (M.deleteStatus = 0 OR M.deleteStatus = 2)", auth);
-                        esql.executeQueryAndPrintResult(query);
-                        DeleteMessage(esql, auth, "rec");
-                        select = false;
-                        break;
-                    case 2:
-                        System.out.print("\n\tMessages you've sent: \n");
-                        String query2 = String.format("SELECT M.msgid, M.receiverid, M.contents FROM Message M WHERE M.senderid = '%s' AND (M.deleteStatus = 0 OR M.deleteStatus = 1)", auth);
-                        esql.executeQueryAndPrintResult(query2);
-                        DeleteMessage(esql, auth, "sender");
-                        select = false;
-                        break;
-                    case 3:
-                        System.out.println("See");
-                        break;
-                    case 9:
-                        System.out.println("Cancel");
-                        select = false;
-                        break;
-                }
-            }
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return;
-        }
-    }
-
-    public static void DeleteMessage(ProfNetwork esql, String auth, String who){
-        try{
-            boolean select = true;
-            while(select){
-                System.out.println("Would you like to delete a message?");
-                System.out.println("1. Delete a message");
-                System.out.println("2. Return to Main Menu");
-                switch(readChoice()){
-                    case 1:
-                        System.out.print("\tEnter the Message ID which you want to delete: \n");
-                        String delMsg = in.readLine();
-                        String query = String.format("SELECT M.deleteStatus FROM MESSAGE M WHERE M.msgid = '%s'", delMsg);
-                        List<List<String>> status = new ArrayList<List<String>>(esql.executeQueryAndReturnResult(query));
-                        if(who == "sender") {
-                            if(Integer.parseInt(status.get(0).get(0)) == 0){         // 0 = nobody deleted
-                                String query0 = String.format("UPDATE Message SET deleteStatus = 2 WHERE msgid = '%s'", delMsg);
-                                esql.executeUpdate(query0);
-                            }
-                            else if(Integer.parseInt(status.get(0).get(0)) == 1){	// 1 = receiver deleted
-                                String query1 = String.format("UPDATE Message SET deleteStatus = 3 WHERE msgid = '%s'", delMsg);
-                                esql.executeUpdate(query1);
-                            }							// 2 = sender deleted
-                            else {							// 3 = all deleted
-                                System.out.println("This message has already been deleted");
-                            }
-                        }
-                        else {
-                            if(Integer.parseInt(status.get(0).get(0)) == 0){	// 0 = nobody deleted
-                                String query0 = String.format("UPDATE Message SET deleteStatus = 1 WHERE msgid = '%s'", delMsg);
-                                esql.executeUpdate(query0);
-                            }
-                            else if(Integer.parseInt(status.get(0).get(0)) == 2){	// 2 = sender deleted
-                                String query2 = String.format("UPDATE Message SET deleteStatus = 3 WHERE msgid = '%s'", delMsg);
-                                esql.executeUpdate(query2);
-                            }							// 1 = reciever deleted
-                            else {							// 3 = all deleted
-                                System.out.println("This message has already been deleted");
-                            }
-                        }
-                        break;
-                    case 2:
-                        select = false;
-                        break;
-                }
-            }
-            //System.out.print("\tEnter the Message ID which you want to delete: \n");
-            //String delMsg = in.readLine();
-
-            //String query = String.format("SELECT M.msgid, M.senderid, M.contents FROM Message M WHERE M.receiverid = '%s'", auth);
-            //int userNum = esql.executeQueryAndPrintResult(query);
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return;
-        }
-    }
-
-    public static void IncomingRequests(ProfNetwork esql, String auth){
-        try{
-            System.out.print("\tIncoming Requests: ");
-
-            String query = String.format("SELECT C.connectionid FROM Connection_USR C WHERE C.userid = '%s' AND C.status = 'Request'", auth);
-            int userNum = esql.executeQueryAndPrintResult(query);
-
-            System.out.println("\tEnter a connection id to accept/reject their request status: ");
-            String connect = in.readLine();
-            // todo: add lookup to check whether input is valid
-            String stat = "Request";
-            boolean select = true;
-            while(select){
-                System.out.printf("\n\tFor %s, would you like to accept or reject their request?", connect);
-                System.out.println("\n\t1. Accept ");
-                System.out.println("\t2. Reject ");
-                System.out.println("\n\t9. Cancel ");
-
-                switch(readChoice()){
-                    case 1:
-                        String accQuery = String.format("UPDATE Connection_usr SET status = 'Accept' WHERE userid = '%s' AND connectionid = '%s'", auth, connect);
-                        esql.executeQuery(accQuery);
-                        select = false;
-                        break;
-                    case 2:
-                        String rejQuery = String.format("UPDATE Connection_usr SET status = 'Reject' WHERE userid = '%s' AND connectionid = '%s'", auth, connect);
-                        esql.executeQuery(rejQuery);
-                        select = false;
-                        break;
-                    case 9:
-                        select = false;
-                        break;
-                    default:
-                        System.out.println("\tYour choice is not recognized");
-                        break;
-                }
-            }
-        }catch(Exception e){
-            System.err.println (e.getMessage ());
-            return;
-        }
-    }
-
-
-
-}//end ProfNetwork
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class defines a simple embedded SQL utility class that is designed to
+ * work with PostgreSQL JDBC drivers.
+ *
+ */
+
+public class ProfNetwork {
+
+    // pool of physical database connections, shared by every session.
+    // Each pooled connection keeps the prepared statements registered on it,
+    // so an operation's query is parsed and planned once per connection.
+    private final ConnectionPool _pool;
+
+    // only the instance that created the pool closes it in cleanup()
+    private final boolean _ownsPool;
+
+    // message ids reserved in blocks from MESSAGE_MSGID_SEQ, shared by all sessions
+    private final MessageIdAllocator _msgIds;
+
+    // accepted connections held in memory, shared by all sessions
+    private final SocialGraph _graph;
+
+    // applies what other clients changed to the graph, shared by all sessions
+    private final ChangeRefresher _refresher;
+
+    // words of user ids, names, companies and institutions, shared by all sessions
+    private final UserSearchIndex _search;
+
+    // people-you-may-know lists: read from RECOMMENDATION, computed there by
+    // the -recommend batch job; shared by all sessions
+    private final ConnectionRecommender _recommender;
+
+    // assembled profiles for ViewProfile, shared by all sessions
+    private final ProfileCache _profiles;
+
+    // per-user counts of accepted and pending connections, shared by all sessions
+    private final ConnectionCounts _counts;
+
+    // background writer of sent messages, shared by all sessions
+    private final MessageDispatcher _messages;
+
+    // background purge of messages deleted by both sides
+    private final MessageCompactor _compactor;
+
+    // creates and retires the monthly partitions of MESSAGE
+    private final MessagePartitionManager _partitions;
+
+    // latency, row and size histograms of every statement run, shared by all sessions
+    private final QueryMetrics _metrics;
+
+    // writes printed results through one buffer, per session; _console is
+    // the System.out its sink wraps
+    private final ResultRenderer _renderer = new ResultRenderer (null);
+    private PrintStream _console = null;
+
+    // a request may be sent to users this many accepted hops away
+    static final int REQUEST_HOPS = 2;
+
+    // users with fewer accepted and pending connections than this may send
+    // a request to anyone
+    static final int REQUEST_OPEN_BELOW = 5;
+
+    // what sendRequest did, unless there already was a row, whose status
+    // it returns instead
+    static final String REQUEST_SENT = "Sent";
+    static final String REQUEST_NO_SUCH_USER = "NoSuchUser";
+    static final String REQUEST_NOT_IN_REACH = "NotInReach";
+
+    // messages shown per inbox / sent box page
+    static final int PAGE_SIZE = Integer.getInteger("profnetwork.page.size", 20);
+
+    // months of messages the inbox and sent box show before the user asks
+    // for older ones: the current month and the ones before it
+    static final int MESSAGE_WINDOW_MONTHS = Integer.getInteger("profnetwork.messages.windowMonths", 3);
+
+    // sendTime bound that shows every message
+    static final Timestamp ALL_MESSAGES = new Timestamp(0);
+
+    // longest chain of connections ConnectionPath looks for
+    static final int PATH_MAX_HOPS = Integer.getInteger("profnetwork.path.maxHops", 6);
+
+    // users listed by Search
+    static final int SEARCH_RESULTS = Integer.getInteger("profnetwork.search.results", 10);
+
+    // people you may know: users kept per list, points per mutual
+    // connection, shared company and shared institution, and the threads
+    // of a full recompute and how often the -recommend batch job runs one
+    // (0 runs one and exits)
+    static final int RECOMMEND_K = Integer.getInteger("profnetwork.recommend.k", 10);
+    static final int RECOMMEND_MUTUAL_WEIGHT = Integer.getInteger("profnetwork.recommend.mutualWeight", 4);
+    static final int RECOMMEND_COMPANY_WEIGHT = Integer.getInteger("profnetwork.recommend.companyWeight", 3);
+    static final int RECOMMEND_INSTITUTION_WEIGHT = Integer.getInteger("profnetwork.recommend.institutionWeight", 2);
+    static final int RECOMMEND_THREADS =
+            Integer.getInteger("profnetwork.recommend.threads", Runtime.getRuntime().availableProcessors());
+    static final long RECOMMEND_INTERVAL_MS = Long.getLong("profnetwork.recommend.intervalMs", 3600000L);
+
+    // profile cache settings
+    static final int PROFILE_CACHE_SIZE = Integer.getInteger("profnetwork.profiles.size", 10000);
+    static final long PROFILE_CACHE_TTL_MS = Long.getLong("profnetwork.profiles.ttlMs", 60000L);
+
+    // connection counts cache settings
+    static final int COUNTS_CACHE_SIZE = Integer.getInteger("profnetwork.counts.size", 100000);
+    static final long COUNTS_CACHE_TTL_MS = Long.getLong("profnetwork.counts.ttlMs", 60000L);
+
+    // background purge of messages both sides deleted; an interval of 0
+    // turns it off, archive=false deletes them instead of archiving
+    static final long COMPACTION_INTERVAL_MS = Long.getLong("profnetwork.compaction.intervalMs", 60000L);
+    static final int COMPACTION_BATCH = Integer.getInteger("profnetwork.compaction.batch", 1000);
+    static final boolean COMPACTION_ARCHIVE =
+            Boolean.parseBoolean(System.getProperty("profnetwork.compaction.archive", "true"));
+
+    // MESSAGE partition upkeep: months created ahead of time, months kept
+    // attached (0 keeps all), and how often it runs
+    static final int PARTITION_AHEAD_MONTHS = Integer.getInteger("profnetwork.partitions.aheadMonths", 2);
+    static final int PARTITION_RETAIN_MONTHS = Integer.getInteger("profnetwork.partitions.retainMonths", 0);
+    static final long PARTITION_INTERVAL_MS = Long.getLong("profnetwork.partitions.intervalMs", 3600000L);
+
+    // how often the graph takes in the connections other clients and the
+    // loaders changed (0 only at startup), and how long the log of those
+    // changes is kept
+    static final long REFRESH_INTERVAL_MS = Long.getLong("profnetwork.refresh.intervalMs", 5000L);
+    static final long REFRESH_RETAIN_MS = Long.getLong("profnetwork.refresh.retainMs", 86400000L);
+
+    // message delivery settings: queued messages, and how long a sender
+    // waits for room in a full queue before writing its message itself
+    static final int MESSAGE_QUEUE_SIZE = Integer.getInteger("profnetwork.messages.queue", 10000);
+    static final long MESSAGE_OFFER_TIMEOUT_MS = Long.getLong("profnetwork.messages.offerTimeoutMs", 100L);
+
+    // SQL of every menu operation. Literal filters such as status = 'Accept'
+    // stay inline so the planner can match them against partial indexes.
+    // The operations name users by userId; the tables store USR's integer
+    // uid, looked up with USER_UID in place of each userId parameter and
+    // joined back to USR where a userId is returned.
+    static final String USER_UID = "(SELECT uid FROM USR WHERE userId = ?)";
+    static final String SQL_CREATE_USER =
+            "INSERT INTO USR (userId, password, email) VALUES (?, ?, ?)";
+    static final String SQL_LOGIN =
+            "SELECT userId FROM USR WHERE userId = ? AND password = ?";
+    static final String SQL_UPDATE_PASSWORD =
+            "UPDATE USR SET password = ? WHERE userId = ?";
+    static final String SQL_UPDATE_EMAIL =
+            "UPDATE USR SET email = ? WHERE userId = ?";
+    static final String SQL_UPDATE_NAME =
+            "UPDATE USR SET name = ? WHERE userId = ?";
+    static final String SQL_UPDATE_DOB =
+            "UPDATE USR SET dateOfBirth = CAST(? AS date) WHERE userId = ?";
+    static final String SQL_FRIEND_LIST =
+            "SELECT F.userId AS connectionId FROM CONNECTION_USR C JOIN USR F ON F.uid = C.connectionUid " +
+            "WHERE C.userUid = " + USER_UID + " AND C.status = 'Accept'";
+    // MessageDispatcher inserts a message as 'Delivered': no one sees the
+    // row before the transaction that inserts it commits, and that commit
+    // is what delivers it
+    static final String SQL_NEW_MESSAGE =
+            "INSERT INTO MESSAGE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+            "VALUES (?, " + USER_UID + ", " + USER_UID + ", ?, ?, 0, 'Delivered')";
+    static final String SQL_USER_EXISTS =
+            "SELECT userId FROM USR WHERE userId = ?";
+    // columns userId, connectionId, status
+    static final String SQL_CONNECTION =
+            "SELECT U.userId, F.userId AS connectionId, C.status FROM CONNECTION_USR C " +
+            "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid " +
+            "WHERE C.userUid = " + USER_UID + " AND C.connectionUid = " + USER_UID;
+    static final String SQL_CONNECTIONS_OF =
+            "SELECT U.userId, F.userId AS connectionId, C.status FROM CONNECTION_USR C " +
+            "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid " +
+            "WHERE C.userUid = " + USER_UID;
+    static final String SQL_SEND_REQUEST =
+            "INSERT INTO CONNECTION_USR (userUid, connectionUid, status) " +
+            "VALUES (" + USER_UID + ", " + USER_UID + ", 'Request')";
+    // inbox and sent box pages, newest first, of the messages sent since
+    // the second parameter; MESSAGE is partitioned by month of sendTime, so
+    // only the partitions from then on are scanned. The _AFTER variants
+    // continue below the (sendTime, msgId) key of the last row of the
+    // previous page.
+    static final String SQL_INBOX_FIRST =
+            "SELECT M.msgid, O.userId AS senderid, M.contents, M.sendtime " +
+            "FROM MESSAGE M JOIN USR O ON O.uid = M.senderUid " +
+            "WHERE M.receiverUid = " + USER_UID + " AND M.deleteStatus IN (0, 2) AND M.sendtime >= ? " +
+            "ORDER BY M.sendtime DESC, M.msgid DESC LIMIT ?";
+    static final String SQL_INBOX_AFTER =
+            "SELECT M.msgid, O.userId AS senderid, M.contents, M.sendtime " +
+            "FROM MESSAGE M JOIN USR O ON O.uid = M.senderUid " +
+            "WHERE M.receiverUid = " + USER_UID + " AND M.deleteStatus IN (0, 2) AND M.sendtime >= ? " +
+            "AND (M.sendtime, M.msgid) < (?, ?) " +
+            "ORDER BY M.sendtime DESC, M.msgid DESC LIMIT ?";
+    static final String SQL_SENT_FIRST =
+            "SELECT M.msgid, O.userId AS receiverid, M.contents, M.sendtime " +
+            "FROM MESSAGE M JOIN USR O ON O.uid = M.receiverUid " +
+            "WHERE M.senderUid = " + USER_UID + " AND M.deleteStatus IN (0, 1) AND M.sendtime >= ? " +
+            "ORDER BY M.sendtime DESC, M.msgid DESC LIMIT ?";
+    static final String SQL_SENT_AFTER =
+            "SELECT M.msgid, O.userId AS receiverid, M.contents, M.sendtime " +
+            "FROM MESSAGE M JOIN USR O ON O.uid = M.receiverUid " +
+            "WHERE M.senderUid = " + USER_UID + " AND M.deleteStatus IN (0, 1) AND M.sendtime >= ? " +
+            "AND (M.sendtime, M.msgid) < (?, ?) " +
+            "ORDER BY M.sendtime DESC, M.msgid DESC LIMIT ?";
+    // DeleteMessage sets the caller's bit of deleteStatus in one statement,
+    // on a message in their box that they have not deleted yet. No row back
+    // means there was no such message. Concurrent deletes by the sender and
+    // the receiver set different bits and cannot overwrite each other. The
+    // message is addressed by its full key (msgId, sendTime), taken from the
+    // page it was listed on, so only the partition of its month is scanned.
+    static final String SQL_DELETE_AS_RECEIVER =
+            "UPDATE MESSAGE SET deleteStatus = deleteStatus | 1 " +
+            "WHERE msgid = ? AND sendTime = ? AND receiverUid = " + USER_UID + " AND deleteStatus & 1 = 0 " +
+            "RETURNING deleteStatus";
+    static final String SQL_DELETE_AS_SENDER =
+            "UPDATE MESSAGE SET deleteStatus = deleteStatus | 2 " +
+            "WHERE msgid = ? AND sendTime = ? AND senderUid = " + USER_UID + " AND deleteStatus & 2 = 0 " +
+            "RETURNING deleteStatus";
+    // SendRequest writes (sender, target, 'Request'), so the requests sent
+    // to a user are the rows with the user as connectionUid
+    static final String SQL_INCOMING_REQUESTS =
+            "SELECT F.userId AS connectionid FROM CONNECTION_USR C JOIN USR F ON F.uid = C.userUid " +
+            "WHERE C.connectionUid = " + USER_UID + " AND C.status = 'Request'";
+    // IncomingRequests answers pending requests with one statement, for
+    // all of them or for the userIds passed as one newline-separated
+    // parameter. Only requests sent to the user match, never the ones the
+    // user sent. Accepting also upserts the user's reciprocal 'Accept'
+    // row in the same statement, so the connection shows in both friend
+    // lists; the UPDATE and the INSERT touch disjoint rows. Both return
+    // the userIds of the senders of the requests they changed.
+    static final String SELECTED_UIDS =
+            "(SELECT uid FROM USR WHERE userId = ANY (string_to_array(?, chr(10))))";
+    static final String SQL_ACCEPT_ALL =
+            "WITH accepted AS (UPDATE CONNECTION_USR SET status = 'Accept' " +
+            "WHERE connectionUid = " + USER_UID + " AND status = 'Request' AND userUid <> connectionUid " +
+            "RETURNING userUid, connectionUid), " +
+            "reciprocal AS (INSERT INTO CONNECTION_USR (userUid, connectionUid, status) " +
+            "SELECT connectionUid, userUid, 'Accept' FROM accepted " +
+            "ON CONFLICT (userUid, connectionUid) DO UPDATE SET status = 'Accept' " +
+            "WHERE CONNECTION_USR.status <> 'Accept') " +
+            "SELECT F.userId FROM accepted A JOIN USR F ON F.uid = A.userUid";
+    static final String SQL_ACCEPT_SELECTED =
+            "WITH accepted AS (UPDATE CONNECTION_USR SET status = 'Accept' " +
+            "WHERE connectionUid = " + USER_UID + " AND status = 'Request' AND userUid <> connectionUid " +
+            "AND userUid IN " + SELECTED_UIDS + " " +
+            "RETURNING userUid, connectionUid), " +
+            "reciprocal AS (INSERT INTO CONNECTION_USR (userUid, connectionUid, status) " +
+            "SELECT connectionUid, userUid, 'Accept' FROM accepted " +
+            "ON CONFLICT (userUid, connectionUid) DO UPDATE SET status = 'Accept' " +
+            "WHERE CONNECTION_USR.status <> 'Accept') " +
+            "SELECT F.userId FROM accepted A JOIN USR F ON F.uid = A.userUid";
+    static final String SQL_REJECT_ALL =
+            "UPDATE CONNECTION_USR C SET status = 'Reject' FROM USR F " +
+            "WHERE F.uid = C.userUid AND C.connectionUid = " + USER_UID + " AND C.status = 'Request' " +
+            "RETURNING F.userId";
+    static final String SQL_REJECT_SELECTED =
+            "UPDATE CONNECTION_USR C SET status = 'Reject' FROM USR F " +
+            "WHERE F.uid = C.userUid AND C.connectionUid = " + USER_UID + " AND C.status = 'Request' " +
+            "AND C.userUid IN " + SELECTED_UIDS + " " +
+            "RETURNING F.userId";
+
+    // names the statements above in the query metrics
+    static {
+        QueryMetrics.name (SQL_CREATE_USER, "CreateUser");
+        QueryMetrics.name (SQL_LOGIN, "LogIn");
+        QueryMetrics.name (SQL_UPDATE_PASSWORD, "UpdatePassword");
+        QueryMetrics.name (SQL_UPDATE_EMAIL, "UpdateEmail");
+        QueryMetrics.name (SQL_UPDATE_NAME, "UpdateName");
+        QueryMetrics.name (SQL_UPDATE_DOB, "UpdateDateOfBirth");
+        QueryMetrics.name (SQL_FRIEND_LIST, "FriendList");
+        QueryMetrics.name (SQL_NEW_MESSAGE, "NewMessage");
+        QueryMetrics.name (SQL_USER_EXISTS, "UserExists");
+        QueryMetrics.name (SQL_CONNECTION, "Connection");
+        QueryMetrics.name (SQL_CONNECTIONS_OF, "ConnectionsOf");
+        QueryMetrics.name (SQL_SEND_REQUEST, "SendRequest");
+        QueryMetrics.name (SQL_INBOX_FIRST, "Inbox");
+        QueryMetrics.name (SQL_INBOX_AFTER, "InboxNextPage");
+        QueryMetrics.name (SQL_SENT_FIRST, "Sent");
+        QueryMetrics.name (SQL_SENT_AFTER, "SentNextPage");
+        QueryMetrics.name (SQL_DELETE_AS_RECEIVER, "DeleteReceived");
+        QueryMetrics.name (SQL_DELETE_AS_SENDER, "DeleteSent");
+        QueryMetrics.name (SQL_INCOMING_REQUESTS, "IncomingRequests");
+        QueryMetrics.name (SQL_ACCEPT_ALL, "AcceptAllRequests");
+        QueryMetrics.name (SQL_ACCEPT_SELECTED, "AcceptRequests");
+        QueryMetrics.name (SQL_REJECT_ALL, "RejectAllRequests");
+        QueryMetrics.name (SQL_REJECT_SELECTED, "RejectRequests");
+        QueryMetrics.name (ProfileCache.SQL_PROFILE, "ViewProfile");
+        QueryMetrics.name (ConnectionCounts.SQL_COUNTS, "ConnectionCounts");
+        QueryMetrics.name (ConnectionRecommender.SQL_STORED, "Recommendations");
+        QueryMetrics.name (ConnectionRecommender.SQL_STORE, "StoreRecommendations");
+    }
+
+    // query metrics settings: statements taking at least slowQueryMs are
+    // logged with their parameters to slowQueryLog (stderr if unset);
+    // 0 turns the log off. metrics.jmx=false keeps them out of JMX.
+    // Past metrics.maxStatements distinct SQL texts the rest are counted together.
+    static final long SLOW_QUERY_MS = Long.getLong("profnetwork.slowQueryMs", 200L);
+    static final String SLOW_QUERY_LOG = System.getProperty("profnetwork.slowQueryLog");
+    static final boolean METRICS_JMX = Boolean.parseBoolean(System.getProperty("profnetwork.metrics.jmx", "true"));
+    static final int METRICS_MAX_STATEMENTS = Integer.getInteger("profnetwork.metrics.maxStatements", 500);
+
+    // handling the keyboard inputs through a BufferedReader
+    // This variable can be global for convenience.
+    static BufferedReader in = new BufferedReader(
+            new InputStreamReader(System.in));
+
+    // pool settings, overridable with -Dprofnetwork.pool.size=... etc.
+    static final int POOL_SIZE = Integer.getInteger("profnetwork.pool.size", 8);
+    static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("profnetwork.pool.idleTimeoutMs", 300000L);
+    static final long POOL_ACQUIRE_TIMEOUT_MS = Long.getLong("profnetwork.pool.acquireTimeoutMs", 5000L);
+    // a connection held longer than leakThresholdMs is reported (0 = off);
+    // leakTrace=true adds the stack that acquired it, at a cost per acquire
+    static final long POOL_LEAK_THRESHOLD_MS = Long.getLong("profnetwork.pool.leakThresholdMs", 60000L);
+    static final boolean POOL_LEAK_TRACE = Boolean.getBoolean("profnetwork.pool.leakTrace");
+
+    // idle working state that SocialGraph and ConnectionRecommender each
+    // keep for the next query: about as many as run at once, one per
+    // pooled connection or recommender thread
+    static final int SCRATCH_IDLE = Integer.getInteger("profnetwork.scratch.idle",
+            Math.max(POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * @return the most pooled connections the background threads hold at
+     *         once, one each: the message writer and, when they run
+     *         periodically, the compactor, the partition manager and the
+     *         change refresher. The rest of the pool serves the sessions.
+     */
+    static int backgroundConnections () {
+        return 1 + (COMPACTION_INTERVAL_MS > 0 ? 1 : 0) + (PARTITION_INTERVAL_MS > 0 ? 1 : 0)
+                + (REFRESH_INTERVAL_MS > 0 ? 1 : 0);
+    }//end backgroundConnections
+
+    /**
+     * Creates a new instance of Messenger
+     *
+     * @param hostname the MySQL or PostgreSQL server hostname
+     * @param database the name of the database
+     * @param username the user name used to login to the database
+     * @param password the user login password
+     * @throws java.sql.SQLException when failed to make a connection.
+     */
+    public ProfNetwork (String dbname, String dbport, String user, String passwd) throws SQLException {
+
+        System.out.print("Connecting to database...");
+        ConnectionPool pool = null;
+        try{
+            // constructs the connection URL
+            String url = connectionUrl (dbname, dbport);
+            System.out.println ("Connection URL: " + url + "\n");
+
+            // obtain a physical connection up front so a bad URL fails here
+            pool = new ConnectionPool(url, user, passwd, POOL_SIZE, POOL_IDLE_TIMEOUT_MS, POOL_ACQUIRE_TIMEOUT_MS,
+                    POOL_LEAK_THRESHOLD_MS, POOL_LEAK_TRACE);
+            ConnectionPool.PooledConnection pc = pool.acquire();
+            DatabaseMetaData md = pc.connection.getMetaData();
+            System.out.println("Driver: " + md.getDriverName() + " " + md.getDriverVersion());
+            int server = md.getDatabaseMajorVersion();
+            String serverVersion = md.getDatabaseProductVersion();
+            pool.release(pc);
+            if (server < MIN_SERVER_VERSION)
+                throw new SQLException("PostgreSQL " + MIN_SERVER_VERSION + " or newer is required, the server is "
+                        + serverVersion);
+            System.out.println("Done");
+        }catch (Exception e){
+            System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
+            System.out.println("Make sure you started postgres on this machine");
+            System.exit(-1);
+        }//end catch
+        this._pool = pool;
+        this._ownsPool = true;
+        this._metrics = new QueryMetrics (SLOW_QUERY_MS, SLOW_QUERY_LOG, METRICS_JMX, METRICS_MAX_STATEMENTS);
+        this._msgIds = new MessageIdAllocator (this);
+        this._graph = SocialGraph.load (this);
+        this._search = UserSearchIndex.load (this);
+        this._refresher = new ChangeRefresher (this, this._graph, this._search, REFRESH_RETAIN_MS);
+        this._refresher.start (REFRESH_INTERVAL_MS);
+        this._recommender = new ConnectionRecommender (this._graph, this, RECOMMEND_K, RECOMMEND_MUTUAL_WEIGHT,
+                RECOMMEND_COMPANY_WEIGHT, RECOMMEND_INSTITUTION_WEIGHT, RECOMMEND_THREADS);
+        this._profiles = new ProfileCache (PROFILE_CACHE_SIZE, PROFILE_CACHE_TTL_MS);
+        this._counts = new ConnectionCounts (COUNTS_CACHE_SIZE, COUNTS_CACHE_TTL_MS);
+        this._partitions = new MessagePartitionManager (this, PARTITION_AHEAD_MONTHS, PARTITION_RETAIN_MONTHS);
+        this._partitions.start (PARTITION_INTERVAL_MS);
+        this._messages = new MessageDispatcher (this, MESSAGE_QUEUE_SIZE, MESSAGE_OFFER_TIMEOUT_MS);
+        this._compactor = new MessageCompactor (this, COMPACTION_BATCH, COMPACTION_ARCHIVE);
+        if (COMPACTION_INTERVAL_MS > 0)
+            this._compactor.start (COMPACTION_INTERVAL_MS);
+    }//end ProfNetwork
+
+    // the oldest server with everything the statements and the schema use:
+    // ON CONFLICT, SKIP LOCKED, transition-table triggers, and a MESSAGE
+    // partitioned by month with a primary key and a default partition
+    static final int MIN_SERVER_VERSION = 11;
+
+    // driver options appended to the connection URL. prepareThreshold=1 asks
+    // for a named server-side statement from the first execution of every
+    // cached statement, reWriteBatchedInserts=true sends a batch of INSERTs
+    // as multi-row INSERTs, binaryTransfer=true moves values in binary.
+    // Drivers that do not know an option ignore it.
+    static final String JDBC_OPTIONS = System.getProperty("profnetwork.jdbc.options",
+            "prepareThreshold=1&reWriteBatchedInserts=true&binaryTransfer=true");
+
+    // rows sent per executeBatch round trip
+    static final int BATCH_SIZE = Integer.getInteger("profnetwork.batch.size", 500);
+
+    // executeQueryAndExport: rows fetched per round trip, and chars
+    // buffered per write to the file
+    static final int EXPORT_FETCH_SIZE = Integer.getInteger("profnetwork.export.fetchSize", 10000);
+    static final int EXPORT_BUFFER_SIZE = Integer.getInteger("profnetwork.export.bufferSize", 64 * 1024);
+
+    /**
+     * @return the JDBC URL of the database on this machine
+     */
+    static String connectionUrl (String dbname, String dbport) {
+        return "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?" + JDBC_OPTIONS;
+    }//end connectionUrl
+
+    /**
+     * Creates a new session that shares the connection pool of another
+     * instance but has its own logged in user.
+     *
+     * @param shared the instance whose pool is used
+     */
+    private ProfNetwork (ProfNetwork shared) {
+        this._pool = shared._pool;
+        this._ownsPool = false;
+        this._metrics = shared._metrics;
+        this._msgIds = shared._msgIds;
+        this._graph = shared._graph;
+        this._refresher = shared._refresher;
+        this._search = shared._search;
+        this._recommender = shared._recommender;
+        this._profiles = shared._profiles;
+        this._counts = shared._counts;
+        this._messages = shared._messages;
+        this._compactor = shared._compactor;
+        this._partitions = shared._partitions;
+    }//end ProfNetwork
+
+    /**
+     * @return a new session on the same connection pool
+     */
+    public ProfNetwork newSession () {
+        return new ProfNetwork (this);
+    }//end newSession
+
+    /**
+     * @return a new, unique MESSAGE.msgId
+     * @throws java.sql.SQLException when a new block of ids cannot be reserved
+     */
+    public int nextMessageId () throws SQLException {
+        return this._msgIds.next ();
+    }//end nextMessageId
+
+    /**
+     * @return the in-memory graph of accepted connections
+     */
+    public SocialGraph getGraph () {
+        return this._graph;
+    }//end getGraph
+
+    /**
+     * @return the job that applies the changes of other clients to the graph
+     */
+    public ChangeRefresher getRefresher () {
+        return this._refresher;
+    }//end getRefresher
+
+    /**
+     * @return the in-memory index used by Search
+     */
+    public UserSearchIndex getSearchIndex () {
+        return this._search;
+    }//end getSearchIndex
+
+    /**
+     * @return the people-you-may-know lists
+     */
+    public ConnectionRecommender getRecommender () {
+        return this._recommender;
+    }//end getRecommender
+
+    /**
+     * @return the cache used by ViewProfile
+     */
+    public ProfileCache getProfileCache () {
+        return this._profiles;
+    }//end getProfileCache
+
+    /**
+     * @return the per-user connection counts used by SendRequest and
+     *         IncomingRequests
+     */
+    public ConnectionCounts getConnectionCounts () {
+        return this._counts;
+    }//end getConnectionCounts
+
+    /**
+     * @return the writer NewMessage hands messages to
+     */
+    public MessageDispatcher getMessageDispatcher () {
+        return this._messages;
+    }//end getMessageDispatcher
+
+    /**
+     * @return the background purge of deleted messages
+     */
+    public MessageCompactor getCompactor () {
+        return this._compactor;
+    }//end getCompactor
+
+    /**
+     * @return the upkeep job of the MESSAGE partitions
+     */
+    public MessagePartitionManager getPartitionManager () {
+        return this._partitions;
+    }//end getPartitionManager
+
+    /**
+     * @return the histograms of every statement run through the pool
+     */
+    public QueryMetrics getMetrics () {
+        return this._metrics;
+    }//end getMetrics
+
+    /**
+     * @return the connection pool used by this session
+     */
+    public ConnectionPool getPool () {
+        return this._pool;
+    }//end getPool
+
+    /**
+     * Method to execute an update SQL statement.  Update SQL instructions
+     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+     *
+     * @param sql the input SQL string
+     * @throws java.sql.SQLException when update failed
+     */
+    public void executeUpdate (String sql) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        // the statement is closed even when the update fails
+        try (Statement stmt = pc.connection.createStatement ()) {
+            // issues the update instruction
+            rowCount = stmt.executeUpdate (sql);
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (sql, start, rowCount, 0, null);
+        }
+    }//end executeUpdate
+
+    /**
+     * Method to execute a parameterized update SQL statement through the
+     * prepared statement cached for it.
+     *
+     * @param sql the input SQL string with ? placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows affected
+     * @throws java.sql.SQLException when update failed
+     */
+    public int executeUpdate (String sql, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try {
+            rowCount = bind (pc, sql, params).executeUpdate ();
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (sql, start, rowCount, 0, params);
+        }
+    }//end executeUpdate
+
+    /**
+     * Method to execute a parameterized update SQL statement once for every
+     * row of parameters, as JDBC batches of BATCH_SIZE rows in a single
+     * transaction. Either all rows are applied or, on an error, none.
+     *
+     * @param sql the input SQL string with ? placeholders
+     * @param rows the values bound to the placeholders, one array per execution
+     * @return the number of rows affected per execution, or
+     *         Statement.SUCCESS_NO_INFO where the driver rewrote the batch
+     * @throws java.sql.SQLException when update failed
+     */
+    public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+        int[] counts = new int[rows.size ()];
+        if (rows.isEmpty ())
+            return counts;
+        long start = System.nanoTime ();
+        boolean committed = false;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try {
+            pc.connection.setAutoCommit (false);
+            int done = 0;
+            while (done < rows.size ()){
+                int end = Math.min (rows.size (), done + BATCH_SIZE);
+                PreparedStatement stmt = null;
+                for (int i = done; i < end; ++i){
+                    stmt = bind (pc, sql, rows.get (i));
+                    stmt.addBatch ();
+                }//end for
+                int[] part = executeBatch (stmt);
+                System.arraycopy (part, 0, counts, done, part.length);
+                done = end;
+            }//end while
+            pc.connection.commit ();
+            committed = true;
+            return counts;
+        } finally {
+            // release() rolls back a batch that failed half way
+            this._pool.release (pc);
+            this._metrics.record (sql, start, committed ? rows.size () : -1, 0, null);
+        }
+    }//end executeBatch
+
+    /**
+     * Method to execute several parameterized update SQL statements, each
+     * with its own rows of parameters, in a single transaction.
+     *
+     * @param batches SQL string with ? placeholders -> rows of values, run in
+     *        iteration order
+     * @return the total number of rows affected, counting rewritten batches
+     *         as one row per execution
+     * @throws java.sql.SQLException when update failed
+     */
+    public int executeBatch (Map<String, List<Object[]>> batches) throws SQLException {
+        // SQL -> {nanoseconds spent, rows} of the statements run, recorded
+        // once the outcome of the transaction is known
+        Map<String, long[]> timings = new LinkedHashMap<String, long[]> ();
+        boolean committed = false;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try {
+            pc.connection.setAutoCommit (false);
+            int total = 0;
+            for (Map.Entry<String, List<Object[]>> batch : batches.entrySet ()){
+                List<Object[]> rows = batch.getValue ();
+                if (rows.isEmpty ())
+                    continue;
+                long start = System.nanoTime ();
+                long[] timing = {0, rows.size ()};
+                timings.put (batch.getKey (), timing);
+                try {
+                    for (int done = 0; done < rows.size (); done += BATCH_SIZE){
+                        PreparedStatement stmt = null;
+                        for (int i = done; i < Math.min (rows.size (), done + BATCH_SIZE); ++i){
+                            stmt = bind (pc, batch.getKey (), rows.get (i));
+                            stmt.addBatch ();
+                        }//end for
+                        for (int count : executeBatch (stmt))
+                            total += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                    }//end for
+                } finally {
+                    timing[0] = System.nanoTime () - start;
+                }
+            }//end for
+            pc.connection.commit ();
+            committed = true;
+            return total;
+        } finally {
+            // release() rolls back a batch that failed half way
+            this._pool.release (pc);
+            // a failed transaction counts as an error for every statement
+            // in it, as none of their rows were applied
+            long now = System.nanoTime ();
+            for (Map.Entry<String, long[]> timing : timings.entrySet ())
+                this._metrics.record (timing.getKey (), now - timing.getValue ()[0],
+                        committed ? timing.getValue ()[1] : -1, 0, null);
+        }
+    }//end executeBatch
+
+    /**
+     * Runs a statement's batch, reporting the server's error rather than the
+     * driver's generic "batch entry failed".
+     */
+    private static int[] executeBatch (PreparedStatement stmt) throws SQLException {
+        try {
+            return stmt.executeBatch ();
+        } catch (BatchUpdateException e) {
+            SQLException cause = e.getNextException ();
+            throw cause != null ? cause : e;
+        }
+    }//end executeBatch
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT).  This
+     * method issues the query to the DBMS and outputs the results to
+     * standard out.
+     *
+     * @param query the input query string
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndPrintResult (String query) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        long[] chars = new long[1];
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (Statement stmt = pc.connection.createStatement ();
+             ResultSet rs = stmt.executeQuery (query)) {
+            rowCount = printResult (rs, chars);
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, rowCount, chars[0], null);
+        }
+    }//end executeQuery
+
+    /**
+     * Prepared variant of {@link #executeQueryAndPrintResult(String)}.
+     *
+     * @param query the input query string with ? placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        long[] chars = new long[1];
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        // the cached statement stays open, only its result set is closed
+        try (ResultSet rs = bind (pc, query, params).executeQuery ()) {
+            rowCount = printResult (rs, chars);
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, rowCount, chars[0], params);
+        }
+    }//end executeQueryAndPrintResult
+
+    /**
+     * Outputs every row of the result set to standard out, preceded by a
+     * header line with the column names. The rows go through the session's
+     * ResultRenderer, so standard out sees a few large writes instead of
+     * two calls per value, and char(n) values lose their padding.
+     *
+     * @param chars its first element is set to the length of the values
+     *        printed
+     * @return the number of rows printed
+     */
+    private int printResult (ResultSet rs, long[] chars) throws SQLException {
+        synchronized (this._renderer){
+            // SessionServer may have replaced System.out by a stream that
+            // routes to the calling thread's socket
+            PrintStream out = System.out;
+            if (this._console != out){
+                this._console = out;
+                this._renderer.setSink (new OutputStreamWriter (out));
+            }//end if
+            try {
+                int rowCount = this._renderer.render (rs, ResultRenderer.Format.TEXT);
+                chars[0] = this._renderer.getChars ();
+                return rowCount;
+            } catch (IOException e) {
+                throw new SQLException ("Cannot print the result: " + e.getMessage (), e);
+            }
+        }
+    }//end printResult
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT).  This
+     * method issues the query to the DBMS and returns the results as
+     * a list of records. Each record in turn is a list of attribute values
+     *
+     * @param query the input query string
+     * @return the query result as a list of records
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+        long start = System.nanoTime ();
+        List<List<String>> result = null;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (Statement stmt = pc.connection.createStatement ();
+             ResultSet rs = stmt.executeQuery (query)) {
+            result = collectResult (rs);
+            return result;
+        } finally {
+            this._pool.release (pc);
+            recordResult (query, start, result, null);
+        }
+    }//end executeQueryAndReturnResult
+
+    /**
+     * Prepared variant of {@link #executeQueryAndReturnResult(String)}.
+     * Every column of every row is copied into a String; hot paths read
+     * typed values with {@link #executeQueryAndMap} instead.
+     *
+     * @param query the input query string with ? placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the query result as a list of records
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        List<List<String>> result = null;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, query, params).executeQuery ()) {
+            result = collectResult (rs);
+            return result;
+        } finally {
+            this._pool.release (pc);
+            recordResult (query, start, result, params);
+        }
+    }//end executeQueryAndReturnResult
+
+    /**
+     * Records a call of executeQueryAndReturnResult with the number of
+     * characters returned; a null result means the query failed.
+     */
+    private void recordResult (String query, long start, List<List<String>> result, Object[] params) {
+        if (result == null){
+            this._metrics.record (query, start, -1, 0, params);
+            return;
+        }//end if
+        long chars = 0;
+        for (List<String> record : result)
+            for (String value : record)
+                if (value != null)
+                    chars += value.length ();
+        this._metrics.record (query, start, result.size (), chars, params);
+    }//end recordResult
+
+    /**
+     * Copies every row of the result set into a list of attribute values.
+     */
+    private static List<List<String>> collectResult (ResultSet rs) throws SQLException {
+        /*
+         ** obtains the metadata object for the returned result set.  The metadata
+         ** contains row and column info.
+         */
+        ResultSetMetaData rsmd = rs.getMetaData ();
+        int numCol = rsmd.getColumnCount ();
+
+        // iterates through the result set and saves the data returned by the query.
+        List<List<String>> result  = new ArrayList<List<String>>();
+        while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i)
+                record.add(rs.getString (i));
+            result.add(record);
+        }//end while
+        return result;
+    }//end collectResult
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT).  This
+     * method issues the query to the DBMS and returns the number of results
+     *
+     * @param query the input query string
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQuery (String query) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (Statement stmt = pc.connection.createStatement ();
+             ResultSet rs = stmt.executeQuery (query)) {
+            // whether the query returned any row
+            rowCount = rs.next () ? 1 : 0;
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, rowCount, 0, null);
+        }
+    }//end executeQuery
+
+    /**
+     * Prepared variant of {@link #executeQuery(String)}.
+     *
+     * @param query the input query string with ? placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQuery (String query, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, query, params).executeQuery ()) {
+            rowCount = rs.next () ? 1 : 0;
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, rowCount, 0, params);
+        }
+    }//end executeQuery
+
+    /**
+     * Receives the rows of a streamed query one at a time.
+     */
+    public interface RowHandler {
+        void row (ResultSet rs) throws SQLException;
+    }//end RowHandler
+
+    /**
+     * Turns the current row of a result set into a value, reading the
+     * columns with the typed getters (getInt, getLong, getTimestamp ...)
+     * instead of going through strings.
+     */
+    public interface RowMapper<T> {
+        T map (ResultSet rs) throws SQLException;
+    }//end RowMapper
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) and
+     * return one mapped value per row.
+     *
+     * @param query the input query string with ? placeholders
+     * @param mapper called once per row
+     * @param params the values bound to the placeholders, in order
+     * @return the mapped rows, in order
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public <T> List<T> executeQueryAndMap (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        List<T> result = new ArrayList<T>();
+        executeQueryAndForEach (query, rs -> result.add (mapper.map (rs)), params);
+        return result;
+    }//end executeQueryAndMap
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) that
+     * returns at most one row of interest, and map that row.
+     *
+     * @param query the input query string with ? placeholders
+     * @param mapper called for the first row
+     * @param params the values bound to the placeholders, in order
+     * @return the mapped first row, or null if there is none
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public <T> T executeQueryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int rowCount = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, query, params).executeQuery ()) {
+            if (!rs.next ()){
+                rowCount = 0;
+                return null;
+            }//end if
+            T value = mapper.map (rs);
+            rowCount = 1;
+            return value;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, rowCount, 0, params);
+        }
+    }//end executeQueryForObject
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+     * every row to handler without building a list. Unlike
+     * {@link #executeQueryAndStream} it runs in autocommit without a cursor,
+     * which is cheaper for the short results of the menu operations.
+     *
+     * @param query the input query string with ? placeholders
+     * @param handler called once per row
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndForEach (String query, RowHandler handler, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int recorded = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, query, params).executeQuery ()) {
+            int rowCount = 0;
+            while (rs.next ()){
+                handler.row (rs);
+                ++rowCount;
+            }//end while
+            recorded = rowCount;
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, recorded, 0, params);
+        }
+    }//end executeQueryAndForEach
+
+    /**
+     * Reads a char(n) column without its blank padding.
+     *
+     * @return the value with trailing blanks removed, or null
+     */
+    static String trimmed (ResultSet rs, int column) throws SQLException {
+        String s = rs.getString (column);
+        if (s == null)
+            return null;
+        int end = s.length ();
+        while (end > 0 && s.charAt (end - 1) == ' ')
+            --end;
+        return end == s.length () ? s : s.substring (0, end);
+    }//end trimmed
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+     * every row to handler as it arrives. The query runs inside a read-only
+     * transaction with the given fetch size, so the driver uses a cursor and
+     * holds at most fetchSize rows in memory.
+     *
+     * @param query the input query string with ? placeholders
+     * @param fetchSize the number of rows fetched per round trip
+     * @param handler called once per row
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+        long start = System.nanoTime ();
+        int recorded = -1;
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try {
+            // cursors only stream outside autocommit
+            pc.connection.setAutoCommit (false);
+            PreparedStatement stmt = bind (pc, query, params);
+            stmt.setFetchSize (fetchSize);
+            int rowCount = 0;
+            try (ResultSet rs = stmt.executeQuery ()) {
+                while (rs.next ()){
+                    handler.row (rs);
+                    ++rowCount;
+                }//end while
+            } finally {
+                stmt.setFetchSize (0);
+            }
+            pc.connection.commit ();
+            recorded = rowCount;
+            return rowCount;
+        } finally {
+            this._pool.release (pc);
+            this._metrics.record (query, start, recorded, 0, params);
+        }
+    }//end executeQueryAndStream
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) and
+     * write its result to a file as CSV or JSON. The rows are streamed
+     * through a cursor of EXPORT_FETCH_SIZE rows and a ResultRenderer, so
+     * results of any size are exported in constant memory.
+     *
+     * @param query the input query string with ? placeholders
+     * @param format ResultRenderer.Format.CSV or JSON; TEXT writes the
+     *        menus' tab-separated layout
+     * @param file the file written, replaced if it exists
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows exported
+     * @throws java.sql.SQLException when failed to execute the query
+     * @throws java.io.IOException when the file cannot be written
+     */
+    public int executeQueryAndExport (String query, ResultRenderer.Format format, File file, Object... params)
+            throws SQLException, IOException {
+        try (Writer out = new OutputStreamWriter (new FileOutputStream (file), StandardCharsets.UTF_8)) {
+            ResultRenderer renderer = new ResultRenderer (out, EXPORT_BUFFER_SIZE);
+            renderer.start (format);
+            try {
+                executeQueryAndStream (query, EXPORT_FETCH_SIZE, rs -> {
+                    try {
+                        renderer.row (rs);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException (e);
+                    }
+                }, params);
+            } catch (UncheckedIOException e) {
+                throw e.getCause ();
+            }
+            return renderer.finish ();
+        }
+    }//end executeQueryAndExport
+
+    /**
+     * Binds the parameters, in order, to the statement cached for sql on the
+     * given pooled connection.
+     */
+    private static PreparedStatement bind (ConnectionPool.PooledConnection pc, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = pc.prepare (sql);
+        for (int i = 0; i < params.length; ++i)
+            stmt.setObject (i + 1, params[i]);
+        return stmt;
+    }//end bind
+
+    /**
+     * Method to fetch the last value from sequence. This
+     * method issues the query to the DBMS and returns the current
+     * value of sequence used for autogenerated keys
+     *
+     * @param sequence name of the DB sequence
+     * @return current value of a sequence
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int getCurrSeqVal(String sequence) throws SQLException {
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, "SELECT currval(CAST(? AS regclass))", sequence).executeQuery ()) {
+            if (rs.next())
+                return rs.getInt(1);
+            return -1;
+        } finally {
+            this._pool.release (pc);
+        }
+    }
+
+    /**
+     * Method to advance a sequence. This method issues the query to the
+     * DBMS and returns the next value of the sequence
+     *
+     * @param sequence name of the DB sequence
+     * @return next value of a sequence
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int getNextSeqVal(String sequence) throws SQLException {
+        ConnectionPool.PooledConnection pc = this._pool.acquire ();
+        try (ResultSet rs = bind (pc, "SELECT nextval(CAST(? AS regclass))", sequence).executeQuery ()) {
+            if (rs.next())
+                return rs.getInt(1);
+            return -1;
+        } finally {
+            this._pool.release (pc);
+        }
+    }
+
+    /**
+     * Method to deliver queued messages and close the physical connections
+     * if this instance owns the pool.
+     */
+    public void cleanup(){
+        if (this._ownsPool && this._pool != null){
+            // deliver the messages still queued while the pool is open
+            this._messages.close ();
+            this._recommender.close ();
+            this._compactor.close ();
+            this._partitions.close ();
+            this._refresher.close ();
+            this._pool.close ();
+        }//end if
+    }//end cleanup
+
+    /**
+     * The main execution method
+     *
+     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+     */
+    //Making authorised user a global variable
+    String authorisedUser;
+    public static void main (String[] args) {
+        boolean serve = args.length == 5 && args[3].equals("-serve");
+        boolean api = args.length == 5 && args[3].equals("-api");
+        boolean export = args.length == 7 && args[3].equals("-export");
+        boolean recommend = args.length == 4 && args[3].equals("-recommend");
+        if (args.length != 3 && !serve && !api && !export && !recommend) {
+            System.err.println (
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            ProfNetwork.class.getName () +
+                            " <dbname> <port> <user> [-serve <listen port> | -api <http port> |\n" +
+                            "         -export <csv|json> <file> <query> | -recommend]");
+            return;
+        }//end if
+
+        if (!api && !export && !recommend)
+            Greeting();
+        ProfNetwork esql = null;
+        try{
+            // the postgres JDBC 4 driver on the class path registers itself
+            // instantiate the Messenger object and creates a physical
+            // connection.
+            String dbname = args[0];
+            String dbport = args[1];
+            String user = args[2];
+            esql = new ProfNetwork (dbname, dbport, user, "dees");
+
+            if (serve) {
+                // every client connection runs its own session on the pool
+                new SessionServer (esql, Integer.parseInt(args[4]), POOL_SIZE * 4).run ();
+            } else if (api) {
+                // the operations as JSON over HTTP, until the process is stopped
+                new ApiServer (esql, Integer.parseInt(args[4])).run ();
+            } else if (recommend) {
+                recommend (esql);
+            } else if (export) {
+                long start = System.nanoTime ();
+                int rows = esql.executeQueryAndExport (args[6],
+                        ResultRenderer.Format.valueOf (args[4].toUpperCase ()), new File (args[5]));
+                System.out.printf ("Exported %d rows to %s in %.1f s%n", rows, args[5], (System.nanoTime () - start) / 1e9);
+            } else {
+                runSession (esql);
+            }
+        }catch(Exception e) {
+            System.err.println (e.getMessage ());
+        }finally{
+            // make sure to cleanup the created table and close the connection.
+            try{
+                if(esql != null) {
+                    System.out.print("Disconnecting from database...");
+                    esql.cleanup ();
+                    System.out.println("Done\n\nBye !");
+                }//end if
+            }catch (Exception e) {
+                // ignored.
+            }//end try
+        }//end try
+    }//end main
+
+    /**
+     * The people-you-may-know batch job. Stores the lists of every user
+     * with a full recompute, then, unless RECOMMEND_INTERVAL_MS is 0, keeps
+     * running: the lists of the users whose two-hop neighbourhood the
+     * clients change are rescored as the change refresher takes the
+     * changes in, and a full recompute runs every RECOMMEND_INTERVAL_MS.
+     */
+    static void recommend (ProfNetwork esql) throws Exception {
+        ConnectionRecommender recommender = esql.getRecommender ();
+        if (RECOMMEND_INTERVAL_MS <= 0){
+            long start = System.nanoTime ();
+            int users = recommender.recomputeAll ();
+            System.out.printf ("Stored the recommendations of %d users in %.1f s%n", users,
+                    (System.nanoTime () - start) / 1e9);
+            return;
+        }//end if
+        esql.getRefresher ().setListener (recommender::edgesChanged);
+        recommender.start (RECOMMEND_INTERVAL_MS);
+        recommender.join ();
+    }//end recommend
+
+    /**
+     * Runs the interactive menu until the user exits. Reads from in and
+     * writes to System.out, which SessionServer routes per client thread.
+     *
+     * @param esql the session to run the operations on
+     */
+    public static void runSession (ProfNetwork esql) throws Exception {
+        boolean keepon = true;
+        while(keepon) {
+            // These are sample SQL statements
+            System.out.println("MAIN MENU");
+            System.out.println("---------");
+            System.out.println("1. Create user");
+            System.out.println("2. Log in");
+            System.out.println("9. < EXIT");
+            switch (readChoice()){
+                case 1: CreateUser(esql); break;
+                case 2: esql.authorisedUser = LogIn(esql); break; // Change made
+                case 9: keepon = false; break;
+                default : System.out.println("Unrecognized choice!"); break;
+            }//end switch
+            if (esql.authorisedUser != null) {
+                boolean usermenu = true;
+                while(usermenu) {
+                    for (String failure : esql.getMessageDispatcher().takeFailures(esql.authorisedUser))
+                        System.out.println("Message not delivered: " + failure);
+                    System.out.println("MAIN MENU");
+                    System.out.println("---------");
+                    System.out.println("1. Goto Friend List");
+                    System.out.println("2. Update Profile");
+                    System.out.println("3. Write a new message");
+                    System.out.println("4. Send Friend Request");
+                    System.out.println("5. Search Users by Name");
+                    System.out.println("6. View Message Inbox");
+                    System.out.println("7. View Incoming Requests");
+                    System.out.println("8. View a Profile");
+                    System.out.println("10. Find How You Are Connected");
+                    System.out.println("11. People You May Know");
+                    System.out.println(".........................");
+                    System.out.println("9. Log out");
+                    switch (readChoice()){
+                        case 1: FriendList(esql); break;
+                        case 2: updateProfile(esql); break;
+                        case 3: NewMessage(esql); break;
+                        case 4: SendRequest(esql); break;
+                        case 5: Search(esql); break;
+                        case 6: ViewMessages(esql, esql.authorisedUser); break;
+                        case 7: IncomingRequests(esql, esql.authorisedUser); break;
+                        case 8: ViewProfile(esql, esql.authorisedUser); break;
+                        case 10: ConnectionPath(esql, esql.authorisedUser); break;
+                        case 11: Recommendations(esql, esql.authorisedUser); break;
+                        case 9: usermenu = false; break;
+                        default : System.out.println("Unrecognized choice!"); break;
+                    }
+                }
+                esql.authorisedUser = null;
+            }
+        }//end while
+    }//end runSession
+
+    public static void Greeting(){
+        System.out.println(
+                "\n\n*******************************************************\n" +
+                        "              User Interface      	               \n" +
+                        "*******************************************************\n");
+    }//end Greeting
+
+    /*
+     * Reads the users choice given from the keyboard
+     * @int
+     **/
+    public static int readChoice() {
+        int input;
+        // returns only if a correct value is given.
+        do {
+            System.out.print("Please make your choice: ");
+            String line;
+            try {
+                line = in.readLine();
+            }catch (IOException e) {
+                line = null;
+            }//end try
+            // the session is over once its input is closed
+            if (line == null)
+                throw new IllegalStateException("Input closed");
+            try { // parse the integer and break.
+                input = Integer.parseInt(line.trim());
+                break;
+            }catch (Exception e) {
+                System.out.println("Your input is invalid!");
+                continue;
+            }//end try
+        }while (true);
+        return input;
+    }//end readChoice
+
+    /*
+     * Creates a new user with privided login, passowrd and phoneNum
+     * An empty block and contact list would be generated and associated with a user
+     **/
+    public static void CreateUser(ProfNetwork esql){
+        try{
+            System.out.print("\tEnter user login: ");
+            String login = in.readLine();
+            System.out.print("\tEnter user password: ");
+            String password = in.readLine();
+            System.out.print("\tEnter user email: ");
+            String email = in.readLine();
+
+            //Creating empty contact\block lists for a user
+            esql.executeUpdate(SQL_CREATE_USER, login, password, email);
+            esql.getSearchIndex().add(login, null);
+            System.out.println ("User successfully created!");
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+        }
+    }//end
+
+    /*
+     * Check log in credentials for an existing user
+     * @return User login or null is the user does not exist
+     **/
+    public static String LogIn(ProfNetwork esql){
+        try{
+            System.out.print("\tEnter user login: ");
+            String login = in.readLine();
+            System.out.print("\tEnter user password: ");
+            String password = in.readLine();
+
+            int userNum = esql.executeQuery(SQL_LOGIN, login, password);
+            if (userNum > 0)
+                return login;
+            return null;
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return null;
+        }
+    }//end
+
+// Rest of the functions definition go in here
+
+    public static class UpdateProfile {
+        private ProfNetwork esql;
+
+        UpdateProfile(ProfNetwork esql) {
+            this.esql = esql;
+        }
+
+        public void password() throws Exception{
+            Console console = System.console();
+            System.out.print("\tEnter new password: ");
+            String password = in.readLine();
+            System.out.print("\tEnter confirm password: ");
+            String cpassword = in.readLine();
+            if(password.compareTo(cpassword) == 0){
+                esql.executeUpdate(SQL_UPDATE_PASSWORD, password, esql.authorisedUser);
+                esql.getProfileCache().invalidate(esql.authorisedUser);
+                System.out.println("****** PASSWORD UPDATED ******");
+            }else{
+                System.out.println("Password doesn't match");
+            }
+            halt();
+        }
+        public void email() throws Exception {
+            System.out.print("\tEnter Email: ");
+            String email = in.readLine();
+            String emailRegex = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@" +
+                    "(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
+            if(Pattern.compile(emailRegex).matcher(email).matches()) {
+                esql.executeUpdate(SQL_UPDATE_EMAIL, email, esql.authorisedUser);
+                esql.getProfileCache().invalidate(esql.authorisedUser);
+                System.out.println("****** EMAIL UPDATED ******");
+            } else {
+                System.out.println("NOT A VALID INPUT");
+            }
+            halt();
+        }
+        public void fullName() throws Exception {
+            System.out.print("\tEnter Full Name: ");
+            String fullName = in.readLine();
+            if(esql.executeUpdate(SQL_UPDATE_NAME, fullName, esql.authorisedUser) > 0)
+                esql.getSearchIndex().rename(esql.authorisedUser, fullName);
+            esql.getProfileCache().invalidate(esql.authorisedUser);
+            System.out.println("****** FULL NAME UPDATED ******");
+            halt();
+        }
+        public void dateOfBirth() throws Exception {
+            System.out.print("\tEnter Date of Birth: ");
+            String dateOfBirth = in.readLine();
+            esql.executeUpdate(SQL_UPDATE_DOB, dateOfBirth, esql.authorisedUser);
+            esql.getProfileCache().invalidate(esql.authorisedUser);
+            System.out.println("****** DATE of BIRTH UPDATED ******");
+            halt();
+        }
+    }
+    public static void FriendList(ProfNetwork esql) throws Exception{
+        // from the table, an index-only scan, so it is always current
+        int numOfFriends = esql.executeQueryAndPrintResult(SQL_FRIEND_LIST, esql.authorisedUser);
+        System.out.println("Total number of friends: " + numOfFriends);
+        halt();
+    }
+    public static void updateProfile(ProfNetwork esql) throws Exception{
+        UpdateProfile update = new UpdateProfile(esql);
+        do{
+            System.out.println("UPDATE MENU");
+            System.out.println("------------");
+            System.out.println("1. Update Password");
+            System.out.println("2. Update Email");
+            System.out.println("3. Update Full name");
+            System.out.println("4. Update Date of Birth");
+            System.out.println("..........................");
+            System.out.println("9. Back to main menu");
+            switch(readChoice()){
+                case 1: update.password();return;
+                case 2: update.email(); return;
+                case 3: update.fullName();return;
+                case 4: update.dateOfBirth();return;
+                case 9: return;
+                default: System.out.println("Invalid Choice");halt();return;
+            }
+        }while(true);
+    }
+    public static void NewMessage(ProfNetwork esql) throws Exception{
+
+        System.out.print("\tEnter your friend ID : ");
+        String friendId = in.readLine();
+        if(areFriends(esql, esql.authorisedUser, friendId)){
+            // Can Send message
+            int msgId = esql.nextMessageId();
+            System.out.print("\tEnter message : ");
+            String message = in.readLine();
+            Timestamp timestamp = Timestamp.from(Instant.now());
+            esql.getMessageDispatcher().submit(msgId, esql.authorisedUser, friendId, message, timestamp);
+            System.out.println("****** MESSAGE SENT ******");
+        }else{
+            System.out.println("Not your Friend, cannot send message");
+        }
+        halt();
+    }
+
+    /**
+     * @return true if from has accepted to. A yes from the graph is final;
+     *         a no is checked against CONNECTION_USR, as the connection may
+     *         have been accepted by another client since the graph's last
+     *         refresh, and then added to the graph.
+     * @throws java.sql.SQLException when the check fails
+     */
+    static boolean areFriends(ProfNetwork esql, String from, String to) throws SQLException{
+        if(esql.getGraph().areFriends(from, to))
+            return true;
+        String status = esql.executeQueryForObject(SQL_CONNECTION, rs -> trimmed(rs, 3), from, to);
+        if(!"Accept".equals(status))
+            return false;
+        esql.getGraph().addEdge(from, to);
+        return true;
+    }//end areFriends
+    public static void SendRequest(ProfNetwork esql) throws Exception{
+        System.out.print("\tEnter the user id to send request : ");
+        String newConnection = in.readLine();
+        String result = sendRequest(esql, esql.authorisedUser, newConnection);
+        if(result.equals(REQUEST_SENT)){
+            System.out.println("****** FRIEND REQUEST SENT ******");
+        }else if(result.equals(REQUEST_NO_SUCH_USER)){
+            System.out.println("Connecion ID does not exist");
+        }else if(result.equals(REQUEST_NOT_IN_REACH)){
+            System.out.println("Cannot Send Request");
+        }else{
+            System.out.println("Friend Request is already sent");
+            System.out.format("Status of friend request to %s is %s \n", newConnection, result);
+        }
+        halt();
+    }
+
+    /**
+     * Sends a connection request from auth to target, if target exists and
+     * auth has no row for them yet. Users with fewer than
+     * REQUEST_OPEN_BELOW accepted and pending connections may ask anyone,
+     * the others only users within REQUEST_HOPS.
+     *
+     * @return REQUEST_SENT, REQUEST_NO_SUCH_USER, REQUEST_NOT_IN_REACH or
+     *         the status of the row auth already has for target
+     * @throws java.sql.SQLException when a check or the insert fails
+     */
+    static String sendRequest(ProfNetwork esql, String auth, String target) throws SQLException{
+        if(esql.executeQuery(SQL_USER_EXISTS, target) == 0)
+            return REQUEST_NO_SUCH_USER;
+        String status = esql.executeQueryForObject(SQL_CONNECTION, rs -> trimmed(rs, 3), auth, target);
+        if(status != null)
+            return status;
+        ConnectionCounts.Counts counts = esql.getConnectionCounts().get(esql, auth);
+        // friend of a friend, over accepted connections
+        if(counts.accepted + counts.requested >= REQUEST_OPEN_BELOW
+                && !esql.getGraph().withinHops(auth, target, REQUEST_HOPS))
+            return REQUEST_NOT_IN_REACH;
+        esql.executeUpdate(SQL_SEND_REQUEST, auth, target);
+        esql.getConnectionCounts().invalidate(auth, target);
+        return REQUEST_SENT;
+    }//end sendRequest
+    public static void halt() throws Exception{
+        System.out.println("Press any key to continue");
+        in.read();
+    }
+
+    public static void Search(ProfNetwork esql){
+        try{
+            System.out.print("\tEnter a name, user id, company or institution to search: ");
+            String name = in.readLine();
+
+            // ranked matches on any word prefix, from the in-memory index
+            List<UserSearchIndex.Hit> hits = esql.getSearchIndex().search(name, SEARCH_RESULTS);
+            if (hits.isEmpty()){
+                System.out.printf("\nNo results for: %s\n", name);
+                return;
+            }
+            System.out.println("userid\tname\t");
+            for (UserSearchIndex.Hit hit : hits)
+                System.out.println(hit.userId + "\t" + hit.name + "\t");
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+
+    /*
+     * Prints the shortest chain of accepted connections from the logged in
+     * user to another user, up to PATH_MAX_HOPS connections long
+     **/
+    public static void ConnectionPath(ProfNetwork esql, String auth){
+        try{
+            System.out.print("\tEnter the user id you want to reach: ");
+            String target = in.readLine();
+
+            List<String> path = esql.getGraph().shortestPath(auth, target, PATH_MAX_HOPS);
+            if (path == null){
+                System.out.printf("\nYou are not connected to %s within %d hops\n", target, PATH_MAX_HOPS);
+                return;
+            }
+            System.out.println(String.join(" -> ", path));
+            System.out.printf("%d hop(s)\n", path.size() - 1);
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    /*
+     * Lists the users the logged in user may know, most mutual connections
+     * and shared companies and institutions first, from the list the batch
+     * job stored; without one, only the logged in user is scored, by
+     * mutual connections
+     **/
+    public static void Recommendations(ProfNetwork esql, String auth){
+        try{
+            List<ConnectionRecommender.Recommendation> list = esql.getRecommender().stored(auth);
+            if (list.isEmpty())
+                list = esql.getRecommender().recommend(auth);
+            if (list.isEmpty()){
+                System.out.println("\nNo recommendations yet, accept some connections first");
+                return;
+            }
+            System.out.println("userid\tmutual connections\tscore");
+            for (ConnectionRecommender.Recommendation r : list)
+                System.out.println(r.userId + "\t" + r.mutual + "\t" + r.score);
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    public static void ViewProfile(ProfNetwork esql, String auth){
+        try{
+            boolean select = true;
+            while(select){
+                System.out.println("1. View Your Profile ");
+                System.out.println("2. View a Friend's Profile");
+                System.out.println("9. Cancel");
+
+                switch(readChoice()){
+                    case 1:
+                        printProfile(esql, auth);
+                        select = false;
+                        break;
+                    case 2:
+                        System.out.print("\tEnter the username for the profile you want to view: ");
+                        String name = in.readLine();
+
+         	   /*String query3 = String.format("SELECT U.userid, U.name FROM USR U WHERE U.userid EXISTS IN (SELECT C.userid FROM Connection C WHERE C.userid EXISTS IN (SELECT U1.userid FROM User U1 WHERE U1.name LIKE %" + name + "%))");
+         	   int userNum = esql.executeQueryAndPrintResult(query3);
+         	   if (userNum <= 0){
+            	      System.out.printf("\nNo results for: %s\n", name);
+            	   return;
+         	   }*/
+                        printProfile(esql, name);
+                        select = false;
+                        break;
+                    case 9:
+                        select = false;
+                        break;
+                }
+            }
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    // prints a profile from the cache, loading it on a miss
+    private static void printProfile(ProfNetwork esql, String userId) throws SQLException{
+        ProfileCache.Profile profile = esql.getProfileCache().get(esql, userId);
+        if (profile == null){
+            System.out.printf("\nNo user: %s\n", userId);
+            return;
+        }
+        profile.print();
+    }
+
+    public static void ViewMessages(ProfNetwork esql, String auth){
+        try{
+            boolean select = true;
+            while(select){
+                System.out.println("1. View Messages in Inbox ");
+                System.out.println("2. View Sent Messages");
+                System.out.println("3. Write a New Message");
+                System.out.println("9. Cancel");
+
+                switch(readChoice()){
+                    case 1:
+                        System.out.print("\n\tMessages in inbox: \n");
+                        PageMessages(esql, auth, SQL_INBOX_FIRST, SQL_INBOX_AFTER, SQL_DELETE_AS_RECEIVER);
+                        select = false;
+                        break;
+                    case 2:
+                        System.out.print("\n\tMessages you've sent: \n");
+                        PageMessages(esql, auth, SQL_SENT_FIRST, SQL_SENT_AFTER, SQL_DELETE_AS_SENDER);
+                        select = false;
+                        break;
+                    case 3:
+                        System.out.println("See");
+                        break;
+                    case 9:
+                        System.out.println("Cancel");
+                        select = false;
+                        break;
+                }
+            }
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    /*
+     * Shows a message box PAGE_SIZE messages at a time, newest first. Pages
+     * are addressed by the (sendTime, msgId) key of the row before them, so
+     * every page is an index range scan no matter how deep it is.
+     **/
+    public static void PageMessages(ProfNetwork esql, String auth, String firstSql, String afterSql, String deleteSql) throws Exception{
+        // start keys of the pages before the current one, for "previous"
+        List<Object[]> previous = new ArrayList<Object[]>();
+        Object[] start = null;
+        // recent messages only, until the user asks for older ones
+        Timestamp since = messageWindowStart();
+        boolean select = true;
+        while(select){
+            Object[] last = new Object[2];
+            boolean[] header = {true};
+            // msgId -> sendTime of the rows on the page, for DeleteMessage
+            Map<Integer, Timestamp> shown = new HashMap<Integer, Timestamp>();
+            RowHandler printRow = rs -> {
+                if (header[0]){
+                    System.out.println("msgid\tuserid\tcontents\tsendtime\t");
+                    header[0] = false;
+                }
+                last[0] = rs.getTimestamp(4);
+                last[1] = rs.getInt(1);
+                shown.put(rs.getInt(1), (Timestamp) last[0]);
+                System.out.println(rs.getInt(1) + "\t" + rs.getString(2) + "\t" + rs.getString(3) + "\t" + last[0] + "\t");
+            };
+            int rows = start == null
+                    ? esql.executeQueryAndStream(firstSql, PAGE_SIZE, printRow, auth, since, PAGE_SIZE)
+                    : esql.executeQueryAndStream(afterSql, PAGE_SIZE, printRow, auth, since, start[0], start[1], PAGE_SIZE);
+            System.out.printf("Page %d, %d message(s)\n", previous.size() + 1, rows);
+            boolean hasOlder = since != ALL_MESSAGES;
+            if (hasOlder && rows < PAGE_SIZE)
+                System.out.printf("No more messages since %tF\n", since);
+
+            boolean hasNext = rows == PAGE_SIZE;
+            boolean hasPrevious = !previous.isEmpty();
+            if (hasNext)
+                System.out.println("1. Next page");
+            if (hasPrevious)
+                System.out.println("2. Previous page");
+            System.out.println("3. Delete a message");
+            if (hasOlder)
+                System.out.println("4. Include older messages");
+            System.out.println("9. Return to Main Menu");
+            switch(readChoice()){
+                case 1:
+                    if (hasNext){
+                        previous.add(start);
+                        start = last;
+                    }
+                    break;
+                case 2:
+                    if (hasPrevious)
+                        start = previous.remove(previous.size() - 1);
+                    break;
+                case 3:
+                    DeleteMessage(esql, auth, deleteSql, shown);
+                    break;
+                case 4:
+                    // same page, without the lower bound
+                    since = ALL_MESSAGES;
+                    break;
+                case 9:
+                    select = false;
+                    break;
+                default:
+                    System.out.println("Unrecognized choice!");
+                    break;
+            }
+        }
+    }
+
+    /*
+     * Start of the MESSAGE_WINDOW_MONTHS months the message boxes show by
+     * default: the first day of the current month, MESSAGE_WINDOW_MONTHS - 1
+     * months back
+     **/
+    static Timestamp messageWindowStart(){
+        return Timestamp.valueOf(LocalDate.now().withDayOfMonth(1)
+                .minusMonths(Math.max(1, MESSAGE_WINDOW_MONTHS) - 1).atStartOfDay());
+    }
+
+    /*
+     * Deletes a message from the inbox or sent box that deleteSql
+     * (SQL_DELETE_AS_RECEIVER or SQL_DELETE_AS_SENDER) belongs to. The
+     * message stays in the other user's box until they delete it too. Only
+     * the messages of the page shown can be deleted; shown maps their ids
+     * to their sendTime.
+     **/
+    public static void DeleteMessage(ProfNetwork esql, String auth, String deleteSql, Map<Integer, Timestamp> shown){
+        try{
+            boolean select = true;
+            while(select){
+                System.out.println("Would you like to delete a message?");
+                System.out.println("1. Delete a message");
+                System.out.println("2. Return to Main Menu");
+                switch(readChoice()){
+                    case 1:
+                        System.out.print("\tEnter the Message ID which you want to delete: \n");
+                        int delMsg = Integer.parseInt(in.readLine().trim());
+                        Timestamp sent = shown.get(delMsg);
+                        if(sent == null){
+                            System.out.println("Message " + delMsg + " is not on this page");
+                        }else if(esql.executeQuery(deleteSql, delMsg, sent, auth) == 0){
+                            System.out.println("No such message, or it has already been deleted");
+                        }else{
+                            System.out.println("****** MESSAGE DELETED ******");
+                        }
+                        break;
+                    case 2:
+                        select = false;
+                        break;
+                }
+            }
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    public static void IncomingRequests(ProfNetwork esql, String auth){
+        try{
+            System.out.print("\tIncoming Requests: ");
+
+            // the counter answers the common case of no pending requests. It
+            // is read from the table, not the cache, whose TTL would hide a
+            // request another client has just sent
+            if (ConnectionCounts.load(esql, auth).requestedBy == 0){
+                System.out.println("none");
+                return;
+            }
+            int userNum = esql.executeQueryAndPrintResult(SQL_INCOMING_REQUESTS, auth);
+
+            boolean select = true;
+            while(select){
+                System.out.println("\n\t1. Accept requests ");
+                System.out.println("\t2. Reject requests ");
+                System.out.printf("\t3. Accept all %d requests %n", userNum);
+                System.out.printf("\t4. Reject all %d requests %n", userNum);
+                System.out.println("\n\t9. Cancel ");
+
+                int choice = readChoice();
+                List<String> selected = null;
+                switch(choice){
+                    case 1:
+                    case 2:
+                        System.out.println("\tEnter the connection ids, separated by spaces or commas: ");
+                        selected = new ArrayList<String>();
+                        for (String id : in.readLine().trim().split("[\\s,]+"))
+                            if (!id.isEmpty())
+                                selected.add(id);
+                        if (selected.isEmpty())
+                            continue;
+                        break;
+                    case 3:
+                    case 4:
+                        break;
+                    case 9:
+                        select = false;
+                        continue;
+                    default:
+                        System.out.println("\tYour choice is not recognized");
+                        continue;
+                }
+                int asked = selected == null ? userNum : selected.size();
+                if (choice == 1 || choice == 3){
+                    List<String> accepted = acceptRequests(esql, auth, selected);
+                    System.out.printf("\tAccepted %d of %d requests%n", accepted.size(), asked);
+                }else{
+                    List<String> rejected = rejectRequests(esql, auth, selected);
+                    System.out.printf("\tRejected %d of %d requests%n", rejected.size(), asked);
+                }
+                select = false;
+            }
+        }catch(Exception e){
+            System.err.println (e.getMessage ());
+            return;
+        }
+    }
+
+    /**
+     * Accepts the pending requests the selected users sent to auth, or all
+     * requests sent to auth if selected is null, in one statement that also
+     * writes the reciprocal rows, and brings the graph and the cached
+     * counts up to date. Requests auth sent are never
+     * matched, so no one can accept their own request.
+     *
+     * @return the userIds whose requests were accepted
+     * @throws java.sql.SQLException when the requests cannot be updated
+     */
+    static List<String> acceptRequests(ProfNetwork esql, String auth, List<String> selected) throws SQLException {
+        List<String> accepted = selected == null
+                ? esql.executeQueryAndMap(SQL_ACCEPT_ALL, rs -> rs.getString(1), auth)
+                : esql.executeQueryAndMap(SQL_ACCEPT_SELECTED, rs -> rs.getString(1), auth, String.join("\n", selected));
+        if (!accepted.isEmpty()){
+            esql.getConnectionCounts().invalidate(auth, accepted);
+            esql.getGraph().addMutualEdges(auth, accepted);
+        }//end if
+        return accepted;
+    }//end acceptRequests
+
+    /**
+     * Rejects the pending requests the selected users sent to auth, or all
+     * requests sent to auth if selected is null, in one statement. Pending
+     * requests are not edges of the graph, so only the cached counts change.
+     *
+     * @return the userIds whose requests were rejected
+     * @throws java.sql.SQLException when the requests cannot be updated
+     */
+    static List<String> rejectRequests(ProfNetwork esql, String auth, List<String> selected) throws SQLException {
+        List<String> rejected = selected == null
+                ? esql.executeQueryAndMap(SQL_REJECT_ALL, rs -> rs.getString(1), auth)
+                : esql.executeQueryAndMap(SQL_REJECT_SELECTED, rs -> rs.getString(1), auth, String.join("\n", selected));
+        if (!rejected.isEmpty())
+            esql.getConnectionCounts().invalidate(auth, rejected);
+        return rejected;
+    }//end rejectRequests
+
+
+
+}//end ProfNetwork
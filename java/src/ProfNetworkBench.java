@@ -0,0 +1,1573 @@
+/*
+ * Benchmarks for the ProfNetwork data-access paths
+ * ================================================
+ *
+ * Runs against the same database as the interactive client and reports
+ * per-call latency of each operation. Seed the database with
+ * sql/scripts/seed_bench.sh for comparable runs.
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line benchmark driver. Each suite times the same operation through
+ * the different code paths of ProfNetwork so they can be compared directly;
+ * the "ops" suite times every menu operation as the client runs it now.
+ *
+ * With -Dbench.out=results.csv every result is appended to a CSV file under
+ * the label -Dbench.label, e.g. a release tag. With -Dbench.baseline the
+ * results are compared against the rows of another label in that file, and
+ * the run fails if an operation got slower than the tolerance.
+ */
+public class ProfNetworkBench {
+
+    // contents of every message written by a benchmark, removed afterwards
+    static final String BENCH_MARKER = "ProfNetworkBench";
+
+    // concurrent callers of the multi-threaded suites
+    static final int THREADS = Integer.getInteger("bench.threads", ProfNetwork.POOL_SIZE);
+
+    // result recording and regression checks
+    static final String OUT = System.getProperty("bench.out");
+    static final String LABEL = System.getProperty("bench.label", "dev");
+    static final String BASELINE = System.getProperty("bench.baseline");
+    static final double TOLERANCE = Double.parseDouble(System.getProperty("bench.tolerance", "0.10"));
+
+    static final String CSV_HEADER = "label,time,name,ops_per_s,mean_us,p50_us,p90_us,p99_us,p999_us,max_us";
+
+    // results of this run, in order
+    static final List<String[]> results = new ArrayList<String[]>();
+
+    // soak suite: samples taken, and the growth allowed between the first
+    // sample after warm-up and the last
+    static final int SOAK_SAMPLES = 10;
+    static final double SOAK_TOLERANCE = Double.parseDouble(System.getProperty("bench.soak.tolerance", "0.20"));
+    static boolean soakFailed = false;
+
+    // send suite: the end-to-end message rate of the dispatcher asked for,
+    // in messages per second; a run below it fails
+    static final int MESSAGE_TARGET = Integer.getInteger("bench.messages.target", 50000);
+    static boolean targetMissed = false;
+
+    /**
+     * A single timed call; i is the iteration number.
+     */
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    public static void main (String[] args) {
+        if (args.length >= 1 && args[0].equals("metrics")) {
+            // no database needed
+            try{
+                metrics(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                if (!finish())
+                    System.exit(1);
+            }catch(Exception e) {
+                System.err.println (e.getMessage ());
+            }
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("render")) {
+            // dumps a synthetic result, no database needed
+            try{
+                render(args.length > 2 ? Integer.parseInt(args[2]) : 1000000,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 5);
+                if (!finish())
+                    System.exit(1);
+            }catch(Exception e) {
+                System.err.println (e.getMessage ());
+            }
+            return;
+        }
+        if (args.length >= 1 && (args[0].equals("path") || args[0].equals("search")
+                || args[0].equals("recommend"))) {
+            // runs on synthetic data, no database needed
+            int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+            int users = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+            try{
+                if (args[0].equals("path"))
+                    path(users, iterations);
+                else if (args[0].equals("recommend"))
+                    recommend(users, iterations);
+                else
+                    search(users, iterations);
+                if (!finish())
+                    System.exit(1);
+            }catch(Exception e) {
+                System.err.println (e.getMessage ());
+            }
+            return;
+        }
+        if (args.length < 3) {
+            System.err.println (
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            ProfNetworkBench.class.getName () +
+                            " <dbname> <port> <user> [suite] [iterations]\n" +
+                            "       suites: ops (default), statements, send, graph, profile, alloc, all,\n" +
+                            "               history (writes 111 x bench.history rows, use a scratch database),\n" +
+                            "               soak (1000000 mixed operations by default),\n" +
+                            "               requests (10 rounds over bench.requests pending requests by default),\n" +
+                            "               api (HTTP load test, bench.threads clients, against bench.api.url if set)\n" +
+                            "       java [-classpath <classpath>] " +
+                            ProfNetworkBench.class.getName () +
+                            " path|search|recommend [iterations] [users]\n" +
+                            "       java [-classpath <classpath>] " +
+                            ProfNetworkBench.class.getName () +
+                            " metrics [iterations]\n" +
+                            "       java [-classpath <classpath>] " +
+                            ProfNetworkBench.class.getName () +
+                            " render [rounds] [rows]");
+            return;
+        }//end if
+
+        ProfNetwork esql = null;
+        boolean regressed = false;
+        try{
+            esql = new ProfNetwork (args[0], args[1], args[2], "dees");
+            String suite = args.length > 3 ? args[3] : "ops";
+            int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+
+            switch (suite) {
+                case "ops": ops(esql, iterations); break;
+                case "statements": statements(esql, iterations); break;
+                case "send": send(esql, iterations); break;
+                case "graph": graph(esql, iterations); break;
+                case "profile": profile(esql, iterations); break;
+                case "alloc": alloc(esql, iterations); break;
+                case "history": history(esql, iterations); break;
+                case "api": api(esql, iterations); break;
+                case "requests": requests(esql, args.length > 4 ? iterations : 10); break;
+                case "soak": soakFailed = !soak(esql, args.length > 4 ? iterations : 1000000); break;
+                case "all":
+                    ops(esql, iterations);
+                    statements(esql, iterations);
+                    send(esql, iterations);
+                    graph(esql, iterations);
+                    profile(esql, iterations);
+                    alloc(esql, iterations);
+                    break;
+                default: System.err.println("Unknown suite: " + suite); break;
+            }
+            regressed = !finish() || soakFailed || targetMissed;
+            System.out.print(esql.getMetrics().report());
+        }catch(Exception e) {
+            System.err.println (e.getMessage ());
+        }finally{
+            if (esql != null)
+                esql.cleanup ();
+        }
+        if (regressed)
+            System.exit(1);
+    }//end main
+
+    // userIds of accepted connections
+    static final String SQL_ACCEPTED_PAIRS =
+            "SELECT U.userId, F.userId FROM CONNECTION_USR C " +
+            "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid WHERE C.status = 'Accept'";
+
+    /**
+     * @return up to 1000 random users as {userId, password, name}
+     */
+    static List<List<String>> sampleUsers(ProfNetwork esql) throws SQLException {
+        return esql.executeQueryAndReturnResult(
+                "SELECT userId, password, name FROM USR ORDER BY random() LIMIT 1000");
+    }//end sampleUsers
+
+    /**
+     * @return up to 1000 random accepted connections as {userId, userId}
+     */
+    static List<List<String>> samplePairs(ProfNetwork esql) throws SQLException {
+        return esql.executeQueryAndReturnResult(SQL_ACCEPTED_PAIRS + " ORDER BY random() LIMIT 1000");
+    }//end samplePairs
+
+    /**
+     * The menu operations as the client runs them, over samples from
+     * sampleUsers and samplePairs, which must not be empty: LogIn,
+     * FriendList, SendRequest check, NewMessage, ViewMessages 2 pages and
+     * ViewProfile. Call i works on user i of the sample, cyclically. The
+     * messages NewMessage queues are recorded in sent, to be removed by
+     * its remove. The ops suite and the JMH benchmarks time these.
+     */
+    static Map<String, Op> menuOps(ProfNetwork esql, List<List<String>> users, List<List<String>> pairs,
+                                   SentMessages sent) {
+        int n = users.size();
+        int m = pairs.size();
+        SocialGraph graph = esql.getGraph();
+        ConnectionCounts counts = esql.getConnectionCounts();
+        MessageDispatcher messages = esql.getMessageDispatcher();
+        ProfileCache cache = esql.getProfileCache();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp since = ProfNetwork.messageWindowStart();
+        Map<String, Op> ops = new LinkedHashMap<String, Op>();
+        ops.put("LogIn", i -> {
+            List<String> u = users.get(i % n);
+            esql.executeQuery(ProfNetwork.SQL_LOGIN, u.get(0), u.get(1));
+        });
+        ops.put("FriendList", i ->
+                esql.executeQueryAndReturnResult(ProfNetwork.SQL_FRIEND_LIST, users.get(i % n).get(0)));
+        ops.put("SendRequest check", i -> {
+            String me = users.get(i % n).get(0);
+            String target = users.get((i * 7 + 1) % n).get(0);
+            if (esql.executeQuery(ProfNetwork.SQL_USER_EXISTS, target) > 0
+                    && esql.executeQueryAndReturnResult(ProfNetwork.SQL_CONNECTION, me, target).isEmpty()) {
+                ConnectionCounts.Counts c = counts.get(esql, me);
+                if (c.accepted + c.requested >= ProfNetwork.REQUEST_OPEN_BELOW)
+                    graph.withinHops(me, target, ProfNetwork.REQUEST_HOPS);
+            }
+        });
+        ops.put("NewMessage", i -> {
+            List<String> p = pairs.get(i % m);
+            if (ProfNetwork.areFriends(esql, p.get(0), p.get(1))) {
+                int msgId = esql.nextMessageId();
+                messages.submit(msgId, p.get(0), p.get(1), BENCH_MARKER, now);
+                sent.add(msgId, now, p.get(1));
+            }
+        });
+        ops.put("ViewMessages 2 pages", i -> {
+            String me = users.get(i % n).get(0);
+            List<List<String>> page = esql.executeQueryAndReturnResult(
+                    ProfNetwork.SQL_INBOX_FIRST, me, since, ProfNetwork.PAGE_SIZE);
+            if (page.size() == ProfNetwork.PAGE_SIZE) {
+                List<String> last = page.get(page.size() - 1);
+                esql.executeQueryAndReturnResult(ProfNetwork.SQL_INBOX_AFTER, me, since,
+                        Timestamp.valueOf(last.get(3)), Integer.parseInt(last.get(0)), ProfNetwork.PAGE_SIZE);
+            }
+        });
+        ops.put("ViewProfile", i -> cache.get(esql, users.get(i % n).get(0)));
+        return ops;
+    }//end menuOps
+
+    static final String SQL_DELETE_SENT = "DELETE FROM MESSAGE WHERE msgId = ? AND sendTime = ?";
+
+    /**
+     * The keys of the messages a benchmark sends, so that they are deleted
+     * by primary key afterwards rather than by their contents, which has no
+     * index and may be a real user's text too.
+     */
+    static final class SentMessages {
+        // {msgId, sendTime, receiverId}
+        private final Queue<Object[]> keys = new ConcurrentLinkedQueue<Object[]>();
+
+        void add(int msgId, Timestamp sendTime, String receiverId) {
+            keys.add(new Object[] {msgId, sendTime, receiverId});
+        }
+
+        /**
+         * @return the messages recorded so far as {msgId, sendTime, receiverId}
+         */
+        List<Object[]> list() {
+            return new ArrayList<Object[]>(keys);
+        }
+
+        /**
+         * Writes the messages still queued by the dispatcher of esql and
+         * deletes every message recorded.
+         */
+        void remove(ProfNetwork esql) throws SQLException, InterruptedException {
+            esql.getMessageDispatcher().flush();
+            List<Object[]> rows = new ArrayList<Object[]>();
+            Object[] key;
+            while ((key = keys.poll()) != null)
+                rows.add(new Object[] {key[0], key[1]});
+            esql.executeBatch(SQL_DELETE_SENT, rows);
+        }
+    }//end SentMessages
+
+    /**
+     * Times every menu operation the way the client runs it, one call per
+     * iteration over a sample of real users.
+     */
+    static void ops(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> users = sampleUsers(esql);
+        List<List<String>> pairs = samplePairs(esql);
+        if (users.isEmpty() || pairs.isEmpty()) {
+            System.err.println("USR or CONNECTION_USR is empty, load the data first");
+            return;
+        }
+        int n = users.size();
+        SentMessages sent = new SentMessages();
+        Map<String, Op> menu = menuOps(esql, users, pairs, sent);
+
+        run("LogIn", iterations, menu.get("LogIn"));
+        run("FriendList", iterations, menu.get("FriendList"));
+        ConnectionCounts counts = esql.getConnectionCounts();
+        run("SendRequest check", iterations, menu.get("SendRequest check"));
+        // what the SendRequest check used to cost: every row of the user
+        run("Connections rows", iterations, i ->
+                esql.executeQueryAndReturnResult(ProfNetwork.SQL_CONNECTIONS_OF, users.get(i % n).get(0)).size());
+        run("Connections count", iterations, i -> ConnectionCounts.load(esql, users.get(i % n).get(0)));
+        run("Connections cached", iterations, i -> counts.get(esql, users.get(i % n).get(0)));
+        MessageDispatcher messages = esql.getMessageDispatcher();
+        try {
+            run("NewMessage", iterations, menu.get("NewMessage"));
+            messages.flush();
+            List<Object[]> written = sent.list();
+            int k = written.size();
+            if (k > 0)
+                run("DeleteMessage", iterations, i -> {
+                    Object[] msg = written.get(i % k);
+                    esql.executeQuery(ProfNetwork.SQL_DELETE_AS_RECEIVER, msg[0], msg[1], msg[2]);
+                });
+        } finally {
+            sent.remove(esql);
+        }
+        run("ViewMessages 2 pages", iterations, menu.get("ViewMessages 2 pages"));
+        run("ViewProfile uncached", iterations, i -> ProfileCache.load(esql, users.get(i % n).get(0)));
+        run("ViewProfile", iterations, menu.get("ViewProfile"));
+        UserSearchIndex index = esql.getSearchIndex();
+        // a name changed in the table, as by another client, reaches the
+        // index through the change refresher
+        String renamed = users.get(0).get(0);
+        esql.executeUpdate(ProfNetwork.SQL_UPDATE_NAME, "Qxbench Refreshcheck", renamed);
+        try {
+            esql.getRefresher().runOnce();
+            List<UserSearchIndex.Hit> hits = index.search("qxbench refreshcheck", 1);
+            if (hits.isEmpty() || !hits.get(0).userId.equals(renamed.trim()))
+                throw new IllegalStateException("A name changed elsewhere is missing from the search index");
+        } finally {
+            esql.executeUpdate(ProfNetwork.SQL_UPDATE_NAME, users.get(0).get(2), renamed);
+            esql.getRefresher().runOnce();
+        }
+        run("Search", iterations, i -> {
+            String name = users.get(i % n).get(2);
+            String query = name == null ? users.get(i % n).get(0) : name.trim();
+            // the first word and the start of the second, as typed
+            index.search(query.substring(0, Math.min(query.length(), query.indexOf(' ') + 3)), ProfNetwork.SEARCH_RESULTS);
+        });
+    }//end ops
+
+    // memory of the backend running the query, PostgreSQL 14 and later
+    static final String SQL_BACKEND_MEMORY =
+            "SELECT sum(total_bytes) FROM pg_backend_memory_contexts";
+    static final String SQL_OPEN_CURSORS = "SELECT count(*) FROM pg_cursors";
+
+    /**
+     * Runs iterations operations mixed over every data-access helper, the
+     * unprepared ones included, and checks that nothing accumulates: the
+     * heap after a full GC, the memory and open cursors of the backend, the
+     * connections held and the statements tracked by the metrics must stay
+     * flat between the first sample after warm-up and the last.
+     *
+     * The run is single-threaded, so the pool keeps handing out the same
+     * connection and the backend sampled is the one doing the work.
+     *
+     * @return false if anything grew beyond SOAK_TOLERANCE
+     */
+    static boolean soak(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> users = esql.executeQueryAndReturnResult(
+                "SELECT userId, password FROM USR ORDER BY random() LIMIT 1000");
+        if (users.isEmpty()) {
+            System.err.println("USR is empty, load the data first");
+            return true;
+        }
+        int n = users.size();
+        Timestamp since = ProfNetwork.messageWindowStart();
+        ProfileCache cache = esql.getProfileCache();
+        PrintStream stdout = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        });
+        Op[] mix = {
+            i -> esql.executeQuery(ProfNetwork.SQL_LOGIN, users.get(i % n).get(0), users.get(i % n).get(1)),
+            i -> esql.executeQuery("SELECT userId FROM USR WHERE userId = 'user" + (i % 100) + "'"),
+            i -> esql.executeQueryAndReturnResult(ProfNetwork.SQL_FRIEND_LIST, users.get(i % n).get(0)),
+            i -> esql.executeQueryAndReturnResult("SELECT count(*) FROM CONNECTION_USR WHERE status = 'Request'"),
+            i -> esql.executeQueryAndReturnResult(ProfNetwork.SQL_INBOX_FIRST, users.get(i % n).get(0), since,
+                    ProfNetwork.PAGE_SIZE),
+            i -> esql.executeQueryAndMap(ProfNetwork.SQL_SENT_FIRST, rs -> rs.getInt(1), users.get(i % n).get(0),
+                    since, ProfNetwork.PAGE_SIZE),
+            i -> esql.executeQueryForObject(ProfNetwork.SQL_USER_EXISTS, rs -> rs.getString(1), users.get(i % n).get(0)),
+            i -> esql.executeQuery(ProfNetwork.SQL_DELETE_AS_RECEIVER, -1 - i, since, users.get(i % n).get(0)),
+            i -> esql.executeQueryAndMap(ProfNetwork.SQL_ACCEPT_SELECTED, rs -> rs.getString(1), users.get(i % n).get(0), BENCH_MARKER),
+            i -> esql.executeUpdate("UPDATE USR SET email = email WHERE userId = '" + BENCH_MARKER + "'"),
+            i -> {
+                System.setOut(discard);
+                try {
+                    esql.executeQueryAndPrintResult(ProfNetwork.SQL_CONNECTIONS_OF, users.get(i % n).get(0));
+                } finally {
+                    System.setOut(stdout);
+                }
+            },
+            i -> cache.get(esql, users.get(i % n).get(0)),
+            i -> {
+                // a failing statement must release its resources too
+                try {
+                    esql.executeQuery("SELECT no_such_column FROM USR");
+                } catch (SQLException e) {
+                    // expected
+                }
+            },
+        };
+
+        int every = Math.max(1, iterations / SOAK_SAMPLES);
+        long[][] samples = new long[SOAK_SAMPLES + 1][];
+        long start = System.nanoTime();
+        for (int i = 0, s = 0; i < iterations; ++i) {
+            mix[i % mix.length].run(i);
+            if ((i + 1) % every == 0 && s <= SOAK_SAMPLES) {
+                samples[s] = soakSample(esql);
+                System.out.printf("  %9d ops  %8.1f s  heap %8.1f MB  backend %8.1f MB  cursors %d  in use %d  statements %d%n",
+                        i + 1, (System.nanoTime() - start) / 1e9, samples[s][0] / 1e6, samples[s][1] / 1e6,
+                        samples[s][2], samples[s][3], samples[s][4]);
+                ++s;
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("soak: %d operations in %.1f s (%.0f ops/s)%n", iterations, secs, iterations / secs);
+        System.out.println("  " + esql.getPool().stats());
+
+        // the first sample includes warm-up, so compare from the second on
+        long[] first = samples[1];
+        long[] last = null;
+        for (long[] sample : samples)
+            if (sample != null)
+                last = sample;
+        if (first == null || last == null) {
+            System.out.println("  too few operations to compare samples");
+            return true;
+        }
+        boolean ok = true;
+        String[] names = {"heap", "backend memory", "open cursors", "connections in use", "metrics statements"};
+        for (int k = 0; k < names.length; ++k) {
+            if (first[k] < 0 || last[k] < 0)
+                continue;
+            boolean grew = last[k] > first[k] * (1 + SOAK_TOLERANCE) && last[k] - first[k] > (k < 2 ? 1000000 : 0);
+            System.out.printf("  %-20s %12d -> %12d%s%n", names[k], first[k], last[k], grew ? "  GREW" : "");
+            ok &= !grew;
+        }
+        if (esql.getPool().getLeaks() > 0) {
+            System.out.println("  leaked connections: " + esql.getPool().getLeaks());
+            ok = false;
+        }
+        return ok;
+    }//end soak
+
+    /**
+     * @return heap used after a full GC, backend memory (-1 before
+     *         PostgreSQL 14), open cursors, connections in use and SQL texts
+     *         tracked by the metrics
+     */
+    static long[] soakSample(ProfNetwork esql) throws SQLException {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory();
+        long backend;
+        try {
+            Long bytes = esql.executeQueryForObject(SQL_BACKEND_MEMORY, rs -> rs.getLong(1));
+            backend = bytes == null ? -1 : bytes;
+        } catch (SQLException e) {
+            backend = -1;
+        }
+        Long cursors = esql.executeQueryForObject(SQL_OPEN_CURSORS, rs -> rs.getLong(1));
+        return new long[] {heap, backend, cursors == null ? 0 : cursors,
+                esql.getPool().inUse(), esql.getMetrics().size()};
+    }//end soakSample
+
+    /**
+     * Compares String.format SQL on a fresh Statement against the cached
+     * prepared statements for the LogIn, FriendList and inbox queries.
+     */
+    static void statements(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> users = esql.executeQueryAndReturnResult(
+                "SELECT userId, password FROM USR LIMIT 1000");
+        if (users.isEmpty()) {
+            System.err.println("USR is empty, load the data first");
+            return;
+        }
+        int n = users.size();
+
+        run("LogIn       String.format", iterations, i -> {
+            List<String> u = users.get(i % n);
+            esql.executeQuery(String.format(
+                    "SELECT userId FROM USR WHERE userId = '%s' AND password = '%s'", u.get(0), u.get(1)));
+        });
+        run("LogIn       prepared", iterations, i -> {
+            List<String> u = users.get(i % n);
+            esql.executeQuery(ProfNetwork.SQL_LOGIN, u.get(0), u.get(1));
+        });
+        run("FriendList  String.format", iterations, i -> {
+            esql.executeQueryAndReturnResult(String.format(
+                    "SELECT F.userId FROM CONNECTION_USR C JOIN USR F ON F.uid = C.connectionUid " +
+                    "WHERE C.userUid = (SELECT uid FROM USR WHERE userId = '%s') AND C.status = 'Accept'",
+                    users.get(i % n).get(0)));
+        });
+        run("FriendList  prepared", iterations, i -> {
+            esql.executeQueryAndReturnResult(ProfNetwork.SQL_FRIEND_LIST, users.get(i % n).get(0));
+        });
+        run("Inbox       String.format", iterations, i -> {
+            esql.executeQueryAndReturnResult(String.format(
+                    "SELECT M.msgid, S.userId, M.contents, M.sendtime FROM MESSAGE M JOIN USR S ON S.uid = M.senderUid " +
+                    "WHERE M.receiverUid = (SELECT uid FROM USR WHERE userId = '%s') AND M.deleteStatus IN (0, 2) " +
+                    "ORDER BY M.sendtime DESC, M.msgid DESC LIMIT %d",
+                    users.get(i % n).get(0), ProfNetwork.PAGE_SIZE));
+        });
+        run("Inbox       prepared", iterations, i -> {
+            esql.executeQueryAndReturnResult(ProfNetwork.SQL_INBOX_FIRST, users.get(i % n).get(0),
+                    ProfNetwork.ALL_MESSAGES, ProfNetwork.PAGE_SIZE);
+        });
+    }//end statements
+
+    /**
+     * Sends messages from THREADS concurrent senders, first with the old
+     * MAX(msgId) + 1 allocation retried on duplicate keys, then with the
+     * sequence-backed allocator, then through the MessageDispatcher queue.
+     * Reports throughput and msgId collisions, and for the dispatcher the
+     * end-to-end rate until the last message is committed, which fails the
+     * run when it is below MESSAGE_TARGET. Use enough iterations for the
+     * rate to settle, e.g. 500000.
+     */
+    static void send(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> pairs = esql.executeQueryAndReturnResult(
+                SQL_ACCEPTED_PAIRS + " LIMIT 1000");
+        if (pairs.isEmpty()) {
+            System.err.println("CONNECTION_USR has no accepted connections, load the data first");
+            return;
+        }
+        int n = pairs.size();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        AtomicLong maxCollisions = new AtomicLong();
+        AtomicLong seqCollisions = new AtomicLong();
+        SentMessages sent = new SentMessages();
+        try {
+            runConcurrent("NewMessage  MAX(msgId)+1", THREADS, iterations, i -> {
+                List<String> p = pairs.get(i % n);
+                while (true) {
+                    int msgId = Integer.parseInt(esql.executeQueryAndReturnResult(
+                            "SELECT COALESCE(MAX(msgId), 0) FROM MESSAGE").get(0).get(0)) + 1;
+                    try {
+                        esql.executeUpdate(ProfNetwork.SQL_NEW_MESSAGE, msgId, p.get(0), p.get(1), BENCH_MARKER, now);
+                        sent.add(msgId, now, p.get(1));
+                        return;
+                    } catch (SQLException e) {
+                        if (!isDuplicateKey(e))
+                            throw e;
+                        maxCollisions.incrementAndGet();
+                    }
+                }
+            });
+            System.out.println("  msgId collisions: " + maxCollisions.get());
+
+            runConcurrent("NewMessage  allocator", THREADS, iterations, i -> {
+                List<String> p = pairs.get(i % n);
+                int msgId = esql.nextMessageId();
+                try {
+                    esql.executeUpdate(ProfNetwork.SQL_NEW_MESSAGE, msgId, p.get(0), p.get(1), BENCH_MARKER, now);
+                    sent.add(msgId, now, p.get(1));
+                } catch (SQLException e) {
+                    if (!isDuplicateKey(e))
+                        throw e;
+                    seqCollisions.incrementAndGet();
+                }
+            });
+            System.out.println("  msgId collisions: " + seqCollisions.get());
+
+            MessageDispatcher messages = new MessageDispatcher(esql,
+                    ProfNetwork.MESSAGE_QUEUE_SIZE, ProfNetwork.MESSAGE_OFFER_TIMEOUT_MS);
+            try {
+                long start = System.nanoTime();
+                runConcurrent("NewMessage  dispatcher", THREADS, iterations, i -> {
+                    List<String> p = pairs.get(i % n);
+                    int msgId = esql.nextMessageId();
+                    messages.submit(msgId, p.get(0), p.get(1), BENCH_MARKER, now);
+                    sent.add(msgId, now, p.get(1));
+                });
+                messages.flush();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double rate = iterations / seconds;
+                targetMissed = rate < MESSAGE_TARGET;
+                System.out.printf("  delivered %d in %.0f ms, %.0f msg/s end to end, target %d msg/s %s%n",
+                        iterations, seconds * 1e3, rate, MESSAGE_TARGET, targetMissed ? "MISSED" : "met");
+                System.out.println("  " + messages.stats());
+            } finally {
+                messages.close();
+            }
+        } finally {
+            sent.remove(esql);
+        }
+    }//end send
+
+    static final String SQL_SET_STATUS =
+            "UPDATE CONNECTION_USR SET status = ? " +
+            "WHERE userUid = " + ProfNetwork.USER_UID + " AND connectionUid = " + ProfNetwork.USER_UID;
+
+    /**
+     * Compares the SQL friendship and friend-of-friend checks that
+     * NewMessage and SendRequest used to run with the in-memory graph.
+     *
+     * Before timing, checks that a connection rejected and accepted again
+     * in the table, as another client would, reaches the graph through the
+     * change refresher.
+     */
+    static void graph(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> accepted = esql.executeQueryAndReturnResult(SQL_ACCEPTED_PAIRS + " LIMIT 1");
+        if (!accepted.isEmpty()) {
+            String from = accepted.get(0).get(0), to = accepted.get(0).get(1);
+            ChangeRefresher refresher = esql.getRefresher();
+            esql.executeUpdate(SQL_SET_STATUS, "Reject", from, to);
+            try {
+                refresher.runOnce();
+                if (esql.getGraph().areFriends(from, to))
+                    throw new IllegalStateException("A connection rejected elsewhere is still in the graph");
+            } finally {
+                esql.executeUpdate(SQL_SET_STATUS, "Accept", from, to);
+            }
+            refresher.runOnce();
+            if (!esql.getGraph().areFriends(from, to))
+                throw new IllegalStateException("A connection accepted elsewhere is missing from the graph");
+        }
+        List<List<String>> pairs = esql.executeQueryAndReturnResult(
+                "SELECT U.userId, F.userId FROM CONNECTION_USR C " +
+                "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid ORDER BY random() LIMIT 1000");
+        if (pairs.isEmpty()) {
+            System.err.println("CONNECTION_USR is empty, load the data first");
+            return;
+        }
+        int n = pairs.size();
+        SocialGraph graph = esql.getGraph();
+
+        run("areFriends  SQL", iterations, i -> {
+            List<String> p = pairs.get(i % n);
+            esql.executeQuery(
+                    "SELECT userUid FROM CONNECTION_USR WHERE userUid = " + ProfNetwork.USER_UID + " AND userUid IN " +
+                    "(SELECT connectionUid FROM CONNECTION_USR WHERE userUid = " + ProfNetwork.USER_UID + " AND status = 'Accept')",
+                    p.get(1), p.get(0));
+        });
+        run("areFriends  graph", iterations, i -> {
+            List<String> p = pairs.get(i % n);
+            graph.areFriends(p.get(0), p.get(1));
+        });
+        run("2 hops      SQL", iterations, i -> {
+            List<String> p = pairs.get(i % n);
+            esql.executeQuery(
+                    "SELECT userUid FROM CONNECTION_USR WHERE userUid = " + ProfNetwork.USER_UID + " AND userUid IN " +
+                    "(SELECT connectionUid FROM CONNECTION_USR WHERE userUid IN " +
+                    "(SELECT connectionUid FROM CONNECTION_USR WHERE userUid = " + ProfNetwork.USER_UID + "))",
+                    pairs.get((i + 1) % n).get(1), p.get(0));
+        });
+        run("2 hops      graph", iterations, i -> {
+            List<String> p = pairs.get(i % n);
+            graph.withinHops(p.get(0), pairs.get((i + 1) % n).get(1), 2);
+        });
+        run("friends     graph", iterations, i -> {
+            graph.friends(pairs.get(i % n).get(0));
+        });
+    }//end graph
+
+    /**
+     * Compares the three per-table profile queries ViewProfile used to run
+     * with the single UNION ALL load and with the profile cache, for views
+     * skewed towards a few popular users.
+     */
+    static void profile(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> users = esql.executeQueryAndReturnResult(
+                "SELECT userId FROM USR ORDER BY random() LIMIT 10000");
+        if (users.isEmpty()) {
+            System.err.println("USR is empty, load the data first");
+            return;
+        }
+        int n = users.size();
+        SplittableRandom rnd = new SplittableRandom(42);
+        String[] viewed = new String[iterations + iterations / 10];
+        for (int i = 0; i < viewed.length; ++i)
+            viewed[i] = users.get((int) (n * Math.pow(rnd.nextDouble(), 3))).get(0);
+
+        run("ViewProfile 3 queries", iterations, i -> {
+            esql.executeQueryAndReturnResult(
+                    "SELECT U.userid, U.name, U.email, U.dateofbirth FROM USR U WHERE U.userid = ?", viewed[i]);
+            esql.executeQueryAndReturnResult(
+                    "SELECT W.company, W.role, W.location, W.startdate, W.enddate FROM WORK_EXPR W " +
+                    "WHERE W.userUid = " + ProfNetwork.USER_UID, viewed[i]);
+            esql.executeQueryAndReturnResult(
+                    "SELECT E.instituitionname, E.major, E.degree, E.startdate, E.enddate FROM EDUCATIONAL_DETAILS E " +
+                    "WHERE E.userUid = " + ProfNetwork.USER_UID, viewed[i]);
+        });
+        run("ViewProfile 1 query", iterations, i -> ProfileCache.load(esql, viewed[i]));
+        ProfileCache cache = new ProfileCache(n / 10, ProfNetwork.PROFILE_CACHE_TTL_MS);
+        run("ViewProfile cache", iterations, i -> cache.get(esql, viewed[i]));
+        System.out.println("  " + cache.stats());
+    }//end profile
+
+    // a single int column, as DeleteMessage read it before the conditional update
+    static final String SQL_DELETE_STATUS = "SELECT M.deleteStatus FROM MESSAGE M WHERE M.msgid = ?";
+
+    /**
+     * An inbox row read with the typed getters.
+     */
+    static final class MessageRow {
+        final int msgId;
+        final String userId;
+        final String contents;
+        final Timestamp sendTime;
+
+        MessageRow(int msgId, String userId, String contents, Timestamp sendTime) {
+            this.msgId = msgId;
+            this.userId = userId;
+            this.contents = contents;
+            this.sendTime = sendTime;
+        }
+    }//end MessageRow
+
+    /**
+     * Compares the heap allocated per call by executeQueryAndReturnResult,
+     * which copies every column into nested lists of strings, with the typed
+     * row mapper and for-each variants, for the FriendList, inbox and
+     * DeleteMessage status queries. The driver's own allocation is included
+     * in both.
+     */
+    static void alloc(ProfNetwork esql, int iterations) throws Exception {
+        List<String> users = esql.executeQueryAndMap(
+                "SELECT U.userId FROM USR U WHERE EXISTS (SELECT 1 FROM MESSAGE M WHERE M.receiverUid = U.uid) " +
+                "ORDER BY random() LIMIT 1000", rs -> rs.getString(1));
+        List<Integer> msgIds = esql.executeQueryAndMap(
+                "SELECT msgId FROM MESSAGE ORDER BY random() LIMIT 1000", rs -> rs.getInt(1));
+        if (users.isEmpty() || msgIds.isEmpty()) {
+            System.err.println("MESSAGE is empty, load the data first");
+            return;
+        }
+        int n = users.size();
+        int k = msgIds.size();
+        long[] sink = new long[1];
+
+        allocated("FriendList  List<List<String>>", iterations, i -> {
+            for (List<String> row : esql.executeQueryAndReturnResult(ProfNetwork.SQL_FRIEND_LIST, users.get(i % n)))
+                sink[0] += row.get(0).trim().length();
+        });
+        allocated("FriendList  forEach", iterations, i -> {
+            esql.executeQueryAndForEach(ProfNetwork.SQL_FRIEND_LIST,
+                    rs -> sink[0] += ProfNetwork.trimmed(rs, 1).length(), users.get(i % n));
+        });
+        allocated("Inbox       List<List<String>>", iterations, i -> {
+            for (List<String> row : esql.executeQueryAndReturnResult(ProfNetwork.SQL_INBOX_FIRST, users.get(i % n),
+                    ProfNetwork.ALL_MESSAGES, ProfNetwork.PAGE_SIZE))
+                sink[0] += Integer.parseInt(row.get(0)) + Timestamp.valueOf(row.get(3)).getTime();
+        });
+        allocated("Inbox       RowMapper", iterations, i -> {
+            for (MessageRow m : esql.executeQueryAndMap(ProfNetwork.SQL_INBOX_FIRST,
+                    rs -> new MessageRow(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getTimestamp(4)),
+                    users.get(i % n), ProfNetwork.ALL_MESSAGES, ProfNetwork.PAGE_SIZE))
+                sink[0] += m.msgId + m.sendTime.getTime();
+        });
+        allocated("DeleteStatus List<List<String>>", iterations, i -> {
+            sink[0] += Integer.parseInt(esql.executeQueryAndReturnResult(SQL_DELETE_STATUS, msgIds.get(i % k)).get(0).get(0));
+        });
+        allocated("DeleteStatus RowMapper", iterations, i -> {
+            sink[0] += esql.executeQueryForObject(SQL_DELETE_STATUS, rs -> rs.getInt(1), msgIds.get(i % k));
+        });
+        System.out.println("  checksum: " + sink[0]);
+    }//end alloc
+
+    static final ThreadMXBean THREADS_MX = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Like {@link #run} but also prints the bytes the calling thread
+     * allocated per call, on JVMs that report it.
+     */
+    static void allocated(String name, int iterations, Op op) throws Exception {
+        long before = allocatedBytes();
+        run(name, iterations, op);
+        long after = allocatedBytes();
+        if (before >= 0 && after >= 0)
+            System.out.printf("  allocated: %d bytes/call%n", (after - before) / (iterations + Math.max(1, iterations / 10)));
+    }//end allocated
+
+    static long allocatedBytes() {
+        if (!(THREADS_MX instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) THREADS_MX).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }//end allocatedBytes
+
+    // bench.history messages to the first 10000 users, with negative
+    // msgIds so they can be told apart and removed; the second parameter
+    // is the first msgId negated, the third the bound of the time range
+    static final String SQL_HISTORY_SAMPLE =
+            "(SELECT array_agg(uid ORDER BY userId) AS a, count(*) AS n " +
+            "FROM (SELECT uid, userId FROM USR ORDER BY userId LIMIT 10000) s) u";
+    static final String SQL_RECENT_MESSAGES =
+            "INSERT INTO MESSAGE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+            "SELECT -(? + g), u.a[1 + CAST(g * 7919 % u.n AS int)], u.a[1 + CAST(g % u.n AS int)], '" + BENCH_MARKER + "', " +
+            "now() - random() * (now() - CAST(? AS timestamp)), 0, 'Delivered' " +
+            "FROM generate_series(1, CAST(? AS bigint)) g, " + SQL_HISTORY_SAMPLE;
+    static final String SQL_OLD_MESSAGES =
+            "INSERT INTO MESSAGE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+            "SELECT -(? + g), u.a[1 + CAST(g * 7919 % u.n AS int)], u.a[1 + CAST(g % u.n AS int)], '" + BENCH_MARKER + "', " +
+            "CAST(? AS timestamp) - random() * interval '36 months', 0, 'Delivered' " +
+            "FROM generate_series(1, CAST(? AS bigint)) g, " + SQL_HISTORY_SAMPLE;
+
+    /**
+     * Shows that the inbox does not slow down as history piles up. Puts
+     * bench.history messages into the default message window, then grows
+     * the 36 months before the window to 1x, 10x and 100x that, timing the
+     * first inbox page with the window and over all history after each
+     * step. The added messages are removed at the end.
+     */
+    static void history(ProfNetwork esql, int iterations) throws Exception {
+        int base = Integer.getInteger("bench.history", 100000);
+        List<String> users = esql.executeQueryAndMap(
+                "SELECT userId FROM USR ORDER BY userId LIMIT 10000", rs -> rs.getString(1));
+        if (users.isEmpty()) {
+            System.err.println("USR is empty, load the data first");
+            return;
+        }
+        int n = users.size();
+        Timestamp since = ProfNetwork.messageWindowStart();
+        java.time.LocalDate month = since.toLocalDateTime().toLocalDate();
+        for (int m = 0; m <= 37 + ProfNetwork.MESSAGE_WINDOW_MONTHS; ++m)
+            esql.executeQuery(MessagePartitionManager.SQL_PARTITION, java.sql.Date.valueOf(month.minusMonths(37).plusMonths(m)));
+
+        long added = 0;
+        try {
+            added += insertMessages(esql, SQL_RECENT_MESSAGES, since, added, base);
+            long old = 0;
+            for (int factor : new int[] {1, 10, 100}) {
+                long rows = (long) base * factor - old;
+                added += insertMessages(esql, SQL_OLD_MESSAGES, since, added, rows);
+                old += rows;
+                esql.executeUpdate("ANALYZE MESSAGE");
+                System.out.printf("%d messages in the window, %d before it%n", base, old);
+                run("Inbox window  " + factor + "x history", iterations, i ->
+                        esql.executeQueryAndForEach(ProfNetwork.SQL_INBOX_FIRST, rs -> { },
+                                users.get(i % n), since, ProfNetwork.PAGE_SIZE));
+                run("Inbox all     " + factor + "x history", iterations, i ->
+                        esql.executeQueryAndForEach(ProfNetwork.SQL_INBOX_FIRST, rs -> { },
+                                users.get(i % n), ProfNetwork.ALL_MESSAGES, ProfNetwork.PAGE_SIZE));
+            }
+        } finally {
+            esql.executeUpdate("DELETE FROM MESSAGE WHERE msgId < 0");
+        }
+    }//end history
+
+    // inserts rows messages with sql in statements of at most a million rows
+    static long insertMessages(ProfNetwork esql, String sql, Timestamp bound, long firstId, long rows) throws SQLException {
+        for (long done = 0; done < rows; done += 1000000)
+            esql.executeUpdate(sql, firstId + done, bound, Math.min(1000000, rows - done));
+        return rows;
+    }//end insertMessages
+
+    // requests suite: the users sending BENCH_MARKER their requests, and
+    // the rows reset to pending before every timed round
+    static final String SQL_REQUEST_USERS =
+            "INSERT INTO USR (userId, password, email) " +
+            "SELECT 'bench_req_' || g, 'bench', 'bench' FROM generate_series(0, ?) g " +
+            "UNION ALL SELECT '" + BENCH_MARKER + "', 'bench', 'bench' ON CONFLICT (userId) DO NOTHING";
+    static final String SQL_BENCH_UIDS =
+            "SELECT uid FROM USR WHERE userId LIKE 'bench\\_req\\_%' OR userId = '" + BENCH_MARKER + "'";
+    static final String SQL_CLEAR_REQUESTS =
+            "DELETE FROM CONNECTION_USR WHERE userUid IN (" + SQL_BENCH_UIDS + ") OR connectionUid IN (" + SQL_BENCH_UIDS + ")";
+    static final String SQL_PENDING_REQUESTS =
+            "INSERT INTO CONNECTION_USR (userUid, connectionUid, status) " +
+            "SELECT R.uid, B.uid, 'Request' FROM USR B, USR R " +
+            "WHERE B.userId = '" + BENCH_MARKER + "' AND R.userId LIKE 'bench\\_req\\_%'";
+
+    /**
+     * Compares answering bench.requests pending requests one statement per
+     * request, as IncomingRequests did, with the set-based accept all,
+     * accept selected and reject all. Every round times one full pass over
+     * the requests, which are reset to pending in between; iterations is
+     * the number of rounds. The bench users are removed at the end.
+     *
+     * Before timing, checks that the senders cannot accept or reject their
+     * own requests and that BENCH_MARKER can accept them.
+     */
+    static void requests(ProfNetwork esql, int iterations) throws Exception {
+        int pending = Integer.getInteger("bench.requests", 1000);
+        List<String> ids = new ArrayList<String>(pending);
+        for (int i = 0; i < pending; ++i)
+            ids.add("bench_req_" + i);
+        esql.executeUpdate(SQL_REQUEST_USERS, pending - 1);
+        try {
+            esql.executeUpdate(SQL_CLEAR_REQUESTS);
+            esql.executeUpdate(SQL_PENDING_REQUESTS);
+            List<String> marker = Collections.singletonList(BENCH_MARKER);
+            if (!ProfNetwork.acceptRequests(esql, ids.get(0), marker).isEmpty()
+                    || !ProfNetwork.acceptRequests(esql, ids.get(0), null).isEmpty()
+                    || !ProfNetwork.rejectRequests(esql, ids.get(0), null).isEmpty())
+                throw new IllegalStateException("A sender answered their own connection request");
+            if (!ProfNetwork.acceptRequests(esql, BENCH_MARKER, ids.subList(0, 1)).equals(ids.subList(0, 1)))
+                throw new IllegalStateException("The receiver could not accept a connection request");
+            Map<String, Op> ways = new LinkedHashMap<String, Op>();
+            ways.put("Requests  one by one", i -> {
+                for (String id : ids)
+                    ProfNetwork.acceptRequests(esql, BENCH_MARKER, Collections.singletonList(id));
+            });
+            ways.put("Requests  accept selected", i -> ProfNetwork.acceptRequests(esql, BENCH_MARKER, ids));
+            ways.put("Requests  accept all", i -> ProfNetwork.acceptRequests(esql, BENCH_MARKER, null));
+            ways.put("Requests  reject all", i -> ProfNetwork.rejectRequests(esql, BENCH_MARKER, null));
+            for (Map.Entry<String, Op> way : ways.entrySet()) {
+                long[] samples = new long[iterations];
+                long total = 0;
+                for (int i = 0; i < iterations; ++i) {
+                    esql.executeUpdate(SQL_CLEAR_REQUESTS);
+                    esql.executeUpdate(SQL_PENDING_REQUESTS);
+                    long t0 = System.nanoTime();
+                    way.getValue().run(i);
+                    samples[i] = System.nanoTime() - t0;
+                    total += samples[i];
+                }
+                report(way.getKey() + " " + pending, samples, total);
+            }
+        } finally {
+            esql.executeUpdate(SQL_CLEAR_REQUESTS);
+            esql.executeUpdate("DELETE FROM CONNECTION_COUNTS WHERE uid IN (" + SQL_BENCH_UIDS + ")");
+            esql.executeUpdate("DELETE FROM USR WHERE uid IN (" + SQL_BENCH_UIDS + ")");
+        }
+    }//end requests
+
+    // api suite: the endpoints in the proportions the clients call them
+    static final String[] API_MIX = {
+        "FriendList", "ViewMessages", "ViewProfile", "Search",
+        "FriendList", "ViewMessages", "ViewProfile", "Search",
+        "IncomingRequests", "NewMessage", "SendRequest", "LogIn"
+    };
+
+    /**
+     * Closed-loop load test of the HTTP API. bench.threads clients each log
+     * in as a user with an accepted connection and send their next request
+     * as soon as the last one is answered, going round API_MIX, until
+     * iterations requests are done after a warm-up tenth. Reports the
+     * throughput and latency of every endpoint and of all of them.
+     *
+     * The requests go to -Dbench.api.url, or to an ApiServer started in
+     * this process on a free port. SendRequest asks for a user that does
+     * not exist, so it runs the checks but writes nothing; NewMessage sends
+     * BENCH_MARKER messages, which are removed afterwards. The server picks
+     * their keys, so they are found by their contents among the messages
+     * sent since the suite started, which keeps the delete to the current
+     * partition.
+     */
+    static void api(ProfNetwork esql, int iterations) throws Exception {
+        List<List<String>> clients = esql.executeQueryAndReturnResult(
+                "SELECT U.userId, U.password, F.userId FROM CONNECTION_USR C " +
+                "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid " +
+                "WHERE C.status = 'Accept' ORDER BY random() LIMIT 1000");
+        if (clients.isEmpty()) {
+            System.err.println("CONNECTION_USR has no accepted connections, load the data first");
+            return;
+        }
+        String url = System.getProperty("bench.api.url");
+        ApiServer server = null;
+        if (url == null) {
+            server = new ApiServer(esql, 0);
+            url = "http://localhost:" + server.start();
+        }
+        String base = url;
+        // a minute of slack for the clock of a server elsewhere
+        Timestamp began = new Timestamp(System.currentTimeMillis() - 60000L);
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        int warmup = Math.max(1, iterations / 10);
+        long[] samples = new long[iterations];
+        int[] kinds = new int[iterations];
+        AtomicInteger counter = new AtomicInteger();
+        AtomicLong failed = new AtomicLong();
+        Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[THREADS];
+        long[] started = new long[1];
+        try {
+            for (int t = 0; t < THREADS; ++t) {
+                List<String> me = clients.get(t % clients.size());
+                workers[t] = new Thread(() -> {
+                    try {
+                        String token = apiToken(http, base, me);
+                        int i;
+                        while ((i = counter.getAndIncrement()) < warmup + iterations) {
+                            if (i == warmup)
+                                started[0] = System.nanoTime();
+                            int kind = i % API_MIX.length;
+                            long t0 = System.nanoTime();
+                            int status = http.send(apiRequest(base, API_MIX[kind], me, token),
+                                    HttpResponse.BodyHandlers.discarding()).statusCode();
+                            long took = System.nanoTime() - t0;
+                            if (status >= 500)
+                                failed.incrementAndGet();
+                            if (i >= warmup) {
+                                samples[i - warmup] = took;
+                                kinds[i - warmup] = kind;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers)
+                w.join();
+            long total = System.nanoTime() - started[0];
+            if (failure[0] != null)
+                throw new Exception("api failed: " + failure[0].getMessage(), failure[0]);
+
+            Map<String, List<Long>> byName = new TreeMap<String, List<Long>>();
+            for (int i = 0; i < iterations; ++i)
+                byName.computeIfAbsent(API_MIX[kinds[i]], k -> new ArrayList<Long>()).add(samples[i]);
+            for (Map.Entry<String, List<Long>> e : byName.entrySet()) {
+                long[] s = new long[e.getValue().size()];
+                for (int i = 0; i < s.length; ++i)
+                    s[i] = e.getValue().get(i);
+                report("API " + e.getKey(), s, total);
+            }
+            report("API all", samples, total);
+            System.out.printf("  %d clients, %d server errors%n", THREADS, failed.get());
+            if (server != null)
+                System.out.println("  " + server.stats());
+        } finally {
+            if (server != null) {
+                server.stop(0);
+                esql.getMessageDispatcher().flush();
+            }
+            esql.executeUpdate("DELETE FROM MESSAGE WHERE sendTime >= ? AND contents = ?", began, BENCH_MARKER);
+        }
+    }//end api
+
+    // logs a client in, returning its bearer token
+    static String apiToken(HttpClient http, String base, List<String> me) throws Exception {
+        Map<String, Object> login = new LinkedHashMap<String, Object>();
+        login.put("userId", me.get(0));
+        login.put("password", me.get(1));
+        HttpResponse<String> r = http.send(HttpRequest.newBuilder(URI.create(base + "/login"))
+                .POST(HttpRequest.BodyPublishers.ofString(Json.write(login))).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (r.statusCode() != 200)
+            throw new Exception("login of " + me.get(0) + " failed: " + r.body());
+        return (String) ((Map<?, ?>) Json.parse(r.body())).get("token");
+    }//end apiToken
+
+    // the request of one endpoint by the client me = {userId, password, friend}
+    static HttpRequest apiRequest(String base, String endpoint, List<String> me, String token) {
+        String friend = me.get(2);
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        String path;
+        switch (endpoint) {
+            case "LogIn":
+                body.put("userId", me.get(0));
+                body.put("password", me.get(1));
+                path = "/login";
+                break;
+            case "SendRequest":
+                body.put("userId", BENCH_MARKER);
+                path = "/requests";
+                break;
+            case "NewMessage":
+                body.put("to", friend);
+                body.put("contents", BENCH_MARKER);
+                path = "/messages";
+                break;
+            case "FriendList": path = "/friends"; break;
+            case "ViewMessages": path = "/messages?box=inbox"; break;
+            case "ViewProfile": path = "/profile?userId=" + URLEncoder.encode(friend, StandardCharsets.UTF_8); break;
+            case "Search":
+                path = "/search?q=" + URLEncoder.encode(friend.substring(0, Math.min(3, friend.length())), StandardCharsets.UTF_8);
+                break;
+            case "IncomingRequests": path = "/requests"; break;
+            default: throw new IllegalArgumentException(endpoint);
+        }
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path))
+                .header("Authorization", "Bearer " + token);
+        return (body.isEmpty() ? b.GET() : b.POST(HttpRequest.BodyPublishers.ofString(Json.write(body)))).build();
+    }//end apiRequest
+
+    // QueryMetrics.record calls per timed call of the metrics suite, so
+    // the per-record cost is well above the timer's resolution
+    static final int RECORDS_PER_CALL = 1000;
+
+    // the statements the metrics suite records, a few of each kind
+    static final String[] METRICS_SQL = {ProfNetwork.SQL_LOGIN, ProfNetwork.SQL_INBOX_FIRST,
+            ProfNetwork.SQL_NEW_MESSAGE, ProfNetwork.SQL_FRIEND_LIST, ProfileCache.SQL_PROFILE};
+
+    /**
+     * Times QueryMetrics.record, the bookkeeping every data-access call now
+     * pays, from one thread and from THREADS threads over the same
+     * statements. Latencies are per RECORDS_PER_CALL records, so a p50 of
+     * 1000 us would be 1 us per query.
+     */
+    static void metrics(int iterations) throws Exception {
+        QueryMetrics metrics = new QueryMetrics(0, null, false, 100);
+        String[] sql = METRICS_SQL;
+        Object[] params = {"user", "password"};
+        int calls = Math.max(1, iterations / RECORDS_PER_CALL);
+        allocated("record      x" + RECORDS_PER_CALL, calls, i -> {
+            for (int j = 0; j < RECORDS_PER_CALL; ++j)
+                metrics.record(sql[j % sql.length], System.nanoTime() - 250000, j & 31, 64, params);
+        });
+        runConcurrent("record      x" + RECORDS_PER_CALL + " concurrent", THREADS, calls, i -> {
+            for (int j = 0; j < RECORDS_PER_CALL; ++j)
+                metrics.record(sql[j % sql.length], System.nanoTime() - 250000, j & 31, 64, params);
+        });
+        System.out.print(metrics.report());
+    }//end metrics
+
+    /**
+     * Times shortestPath between random users of a synthetic graph with a
+     * heavy-tailed out-degree (mean about 10), at hop limits 3 and 6.
+     */
+    static void path(int users, int iterations) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(42);
+        SocialGraph graph = syntheticGraph(rnd, users);
+
+        String[] from = new String[iterations];
+        String[] to = new String[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            from[i] = "u" + rnd.nextInt(users);
+            to[i] = "u" + rnd.nextInt(users);
+        }
+        int[] found = new int[1];
+        for (int hops : new int[] {3, 6}) {
+            found[0] = 0;
+            run("shortestPath " + hops + " hops", iterations, i -> {
+                if (graph.shortestPath(from[i], to[i], hops) != null)
+                    found[0]++;
+            });
+            System.out.println("  paths found: " + found[0] + " (incl. warm-up)");
+            // withinHops shares the free list of scratch state but only
+            // sizes its forward arrays; both searches must still agree
+            for (int i = 0; i < Math.min(iterations, 1000); ++i)
+                if (graph.withinHops(from[i], to[i], hops) != (graph.shortestPath(from[i], to[i], hops) != null))
+                    throw new IllegalStateException("withinHops and shortestPath disagree on " + from[i] + " -> " + to[i]);
+        }
+    }//end path
+
+    /**
+     * @return a graph of users "u0" .. with a heavy-tailed out-degree
+     *         (Pareto, mean about 10) to random users
+     */
+    static SocialGraph syntheticGraph(SplittableRandom rnd, int users) {
+        int[] degree = new int[users];
+        long m = 0;
+        for (int u = 0; u < users; ++u) {
+            // Pareto(alpha = 2) with minimum 5, capped at 5000
+            degree[u] = (int) Math.min(5000, 5 / Math.sqrt(1 - rnd.nextDouble()));
+            m += degree[u];
+        }
+        int[] src = new int[(int) m];
+        int[] dst = new int[(int) m];
+        int e = 0;
+        for (int u = 0; u < users; ++u) {
+            for (int k = 0; k < degree[u]; ++k) {
+                src[e] = u;
+                dst[e++] = rnd.nextInt(users);
+            }
+        }
+        long t0 = System.nanoTime();
+        SocialGraph graph = SocialGraph.fromEdges(users, src, dst, u -> "u" + u);
+        System.out.printf("built graph of %d users, %d edges in %.0f ms%n",
+                users, m, (System.nanoTime() - t0) / 1e6);
+        return graph;
+    }//end syntheticGraph
+
+    /**
+     * Times a full recompute of the people-you-may-know lists of a
+     * synthetic graph, with a company and an institution per user, the
+     * lookup of a computed list, the scoring of one user that a client
+     * without a stored list does, then the incremental rescore after
+     * single edges are added.
+     */
+    static void recommend(int users, int iterations) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(42);
+        SocialGraph graph = syntheticGraph(rnd, users);
+        ConnectionRecommender rec = syntheticRecommender(rnd, graph, users, ProfNetwork.RECOMMEND_THREADS);
+
+        long t0 = System.nanoTime();
+        rec.recomputeAll();
+        System.out.printf("full recompute of %d users on %d threads in %.1f s%n",
+                users, ProfNetwork.RECOMMEND_THREADS, (System.nanoTime() - t0) / 1e9);
+
+        String[] from = new String[iterations];
+        String[] to = new String[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            from[i] = "u" + rnd.nextInt(users);
+            to[i] = "u" + rnd.nextInt(users);
+        }
+        int[] listed = new int[1];
+        run("recommend   lookup", iterations, i -> listed[0] += rec.recommend(from[i]).size());
+        ConnectionRecommender client = new ConnectionRecommender(graph, null, ProfNetwork.RECOMMEND_K,
+                ProfNetwork.RECOMMEND_MUTUAL_WEIGHT, ProfNetwork.RECOMMEND_COMPANY_WEIGHT,
+                ProfNetwork.RECOMMEND_INSTITUTION_WEIGHT, 1);
+        run("recommend   score one", iterations, i -> listed[0] += client.recommend(from[i]).size());
+        run("recommend   edge + rescore", iterations, i -> {
+            graph.addEdge(from[i], to[i]);
+            rec.edgeChanged(from[i]);
+        });
+        System.out.println("  " + rec.stats());
+    }//end recommend
+
+    /**
+     * @return a recommender over the synthetic graph of users "u0" .. on
+     *         threads threads, with a company and an institution per user
+     */
+    static ConnectionRecommender syntheticRecommender(SplittableRandom rnd, SocialGraph graph, int users, int threads) {
+        int[][] companies = new int[users][];
+        int[][] schools = new int[users][];
+        for (int u = 0; u < users; ++u) {
+            companies[u] = new int[] {rnd.nextInt(Math.max(1, users / 200))};
+            schools[u] = new int[] {rnd.nextInt(Math.max(1, users / 500))};
+        }
+        ConnectionRecommender rec = new ConnectionRecommender(graph, null, ProfNetwork.RECOMMEND_K,
+                ProfNetwork.RECOMMEND_MUTUAL_WEIGHT, ProfNetwork.RECOMMEND_COMPANY_WEIGHT,
+                ProfNetwork.RECOMMEND_INSTITUTION_WEIGHT, threads);
+        rec.setAffiliations(companies, schools);
+        return rec;
+    }//end syntheticRecommender
+
+    /**
+     * Times UserSearchIndex.search over synthetic users with Zipf-like
+     * first and last names, a company and an institution each, for prefix,
+     * two word and misspelt queries.
+     */
+    static void search(int users, int iterations) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(42);
+        long t0 = System.nanoTime();
+        String[] names = new String[users];
+        UserSearchIndex index = syntheticIndex(rnd, names);
+        System.out.printf("indexed %d users in %.0f ms%n", users, (System.nanoTime() - t0) / 1e6);
+
+        String[][] queries = searchQueries(rnd, names, iterations);
+        String[] prefix = queries[0];
+        String[] twoWords = queries[1];
+        String[] typo = queries[2];
+        int[] hits = new int[1];
+        run("search      1-3 char prefix", iterations, i -> hits[0] += index.search(prefix[i], 10).size());
+        run("search      name + prefix", iterations, i -> hits[0] += index.search(twoWords[i], 10).size());
+        run("search      misspelt word", iterations, i -> hits[0] += index.search(typo[i], 10).size());
+        System.out.println("  hits: " + hits[0] + " (incl. warm-up)");
+    }//end search
+
+    /**
+     * Indexes users "user0" .. with Zipf-like first and last names, a
+     * company and an institution each, one per element of names, and sets
+     * names to their full names.
+     */
+    static UserSearchIndex syntheticIndex(SplittableRandom rnd, String[] names) {
+        String[] first = syllableWords(rnd, 3000);
+        String[] last = syllableWords(rnd, 20000);
+        String[] companies = syllableWords(rnd, 5000);
+        String[] schools = syllableWords(rnd, 2000);
+        UserSearchIndex index = new UserSearchIndex();
+        for (int u = 0; u < names.length; ++u) {
+            names[u] = skewed(rnd, first) + " " + skewed(rnd, last);
+            index.add("user" + u, names[u]);
+            index.addField("user" + u, UserSearchIndex.COMPANY, skewed(rnd, companies) + " Inc");
+            index.addField("user" + u, UserSearchIndex.INSTITUTION, "University of " + skewed(rnd, schools));
+        }
+        return index;
+    }//end syntheticIndex
+
+    /**
+     * @return n queries of each kind over random names: 1-3 character
+     *         prefixes, a first name and the start of the last, and last
+     *         names with one letter replaced
+     */
+    static String[][] searchQueries(SplittableRandom rnd, String[] names, int n) {
+        String[] prefix = new String[n];
+        String[] twoWords = new String[n];
+        String[] typo = new String[n];
+        for (int i = 0; i < n; ++i) {
+            String name = names[rnd.nextInt(names.length)];
+            int space = name.indexOf(' ');
+            prefix[i] = name.substring(0, Math.min(space, 1 + rnd.nextInt(3)));
+            twoWords[i] = name.substring(0, Math.min(name.length(), space + 2 + rnd.nextInt(2)));
+            String word = name.substring(space + 1);
+            int at = rnd.nextInt(word.length());
+            typo[i] = word.substring(0, at) + 'x' + word.substring(Math.min(word.length(), at + 1));
+        }
+        return new String[][] {prefix, twoWords, typo};
+    }//end searchQueries
+
+    /**
+     * Dumps synthetic inbox rows (msgid, char(30) senderid, contents,
+     * sendtime) with the per-value System.out.print loop printResult used
+     * to run, through the ResultRenderer it runs now, and as CSV and JSON
+     * exports, each to a scratch file. A round is one full dump; reports
+     * the rounds and the rows and megabytes written per second.
+     */
+    static void render(int rows, int rounds) throws Exception {
+        File file = File.createTempFile("render", ".out");
+        file.deleteOnExit();
+        Map<String, Op> ways = new LinkedHashMap<String, Op>();
+        ways.put("Print    per value", i -> {
+            try (PrintStream out = new PrintStream(new FileOutputStream(file), true)) {
+                printPerValue(syntheticResult(rows), out);
+            }
+        });
+        ways.put("Print    renderer", i -> {
+            try (PrintStream out = new PrintStream(new FileOutputStream(file), true)) {
+                new ResultRenderer(new OutputStreamWriter(out)).render(syntheticResult(rows), ResultRenderer.Format.TEXT);
+            }
+        });
+        for (ResultRenderer.Format format : new ResultRenderer.Format[] {ResultRenderer.Format.CSV, ResultRenderer.Format.JSON})
+            ways.put("Export   " + format, i -> {
+                try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                    new ResultRenderer(out, ProfNetwork.EXPORT_BUFFER_SIZE).render(syntheticResult(rows), format);
+                }
+            });
+        try {
+            for (Map.Entry<String, Op> way : ways.entrySet()) {
+                way.getValue().run(0);
+                long[] samples = new long[rounds];
+                long total = 0;
+                for (int r = 0; r < rounds; ++r) {
+                    long t0 = System.nanoTime();
+                    way.getValue().run(r);
+                    samples[r] = System.nanoTime() - t0;
+                    total += samples[r];
+                }
+                report(way.getKey() + " " + rows, samples, total);
+                double seconds = total / 1e9;
+                System.out.printf("  %.0f rows/s, %.1f MB/s%n",
+                        (double) rows * rounds / seconds, file.length() * (double) rounds / seconds / 1e6);
+            }
+        } finally {
+            file.delete();
+        }
+    }//end render
+
+    // printResult before the renderer: two PrintStream calls per value
+    static void printPerValue(java.sql.ResultSet rs, PrintStream out) throws SQLException {
+        java.sql.ResultSetMetaData rsmd = rs.getMetaData();
+        int numCol = rsmd.getColumnCount();
+        boolean outputHeader = true;
+        while (rs.next()) {
+            if (outputHeader) {
+                for (int i = 1; i <= numCol; i++)
+                    out.print(rsmd.getColumnName(i) + "\t");
+                out.println();
+                outputHeader = false;
+            }
+            for (int i = 1; i <= numCol; ++i)
+                out.print(rs.getString(i) + "\t");
+            out.println();
+        }
+    }//end printPerValue
+
+    static final String[] SYNTHETIC_COLUMNS = {"msgid", "senderid", "contents", "sendtime"};
+    static final int[] SYNTHETIC_TYPES = {java.sql.Types.INTEGER, java.sql.Types.CHAR,
+            java.sql.Types.VARCHAR, java.sql.Types.TIMESTAMP};
+
+    /**
+     * A forward-only result of rows inbox-like rows, answering only what
+     * ResultRenderer and printPerValue call. The values come from a small
+     * pool, so the dump rather than their creation is measured.
+     */
+    static java.sql.ResultSet syntheticResult(int rows) {
+        SplittableRandom rnd = new SplittableRandom(7);
+        String[][] pool = new String[1024][];
+        for (int i = 0; i < pool.length; ++i)
+            pool[i] = new String[] {
+                Integer.toString(i),
+                String.format("%-30s", "user" + rnd.nextInt(1000000)),
+                "Hello, how are you doing? \"quoted\" " + rnd.nextInt(),
+                new Timestamp(1600000000000L + rnd.nextLong(100000000000L)).toString()};
+        java.sql.ResultSetMetaData md = (java.sql.ResultSetMetaData) java.lang.reflect.Proxy.newProxyInstance(
+                ProfNetworkBench.class.getClassLoader(), new Class<?>[] {java.sql.ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount": return SYNTHETIC_COLUMNS.length;
+                        case "getColumnName":
+                        case "getColumnLabel": return SYNTHETIC_COLUMNS[(Integer) args[0] - 1];
+                        case "getColumnType": return SYNTHETIC_TYPES[(Integer) args[0] - 1];
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] row = {-1};
+        return (java.sql.ResultSet) java.lang.reflect.Proxy.newProxyInstance(
+                ProfNetworkBench.class.getClassLoader(), new Class<?>[] {java.sql.ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next": return ++row[0] < rows;
+                        case "getString": return pool[row[0] & 1023][(Integer) args[0] - 1];
+                        case "getMetaData": return md;
+                        case "close": return null;
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }//end syntheticResult
+
+    /**
+     * @return n distinct pronounceable words
+     */
+    static String[] syllableWords(SplittableRandom rnd, int n) {
+        String[] syllables = {"an", "be", "ca", "da", "el", "fi", "go", "ha", "jo", "ka", "li", "ma",
+                "ne", "or", "pa", "ri", "sa", "te", "vi", "wy", "lo", "mi", "ru", "son"};
+        java.util.Set<String> words = new java.util.LinkedHashSet<String>();
+        while (words.size() < n) {
+            StringBuilder w = new StringBuilder();
+            for (int k = 2 + rnd.nextInt(3); k > 0; --k)
+                w.append(syllables[rnd.nextInt(syllables.length)]);
+            w.setCharAt(0, Character.toUpperCase(w.charAt(0)));
+            words.add(w.toString());
+        }
+        return words.toArray(new String[n]);
+    }//end syllableWords
+
+    /**
+     * @return an element of words, low indexes far more often than high
+     */
+    static String skewed(SplittableRandom rnd, String[] words) {
+        return words[(int) (words.length * Math.pow(rnd.nextDouble(), 3))];
+    }//end skewed
+
+    static boolean isDuplicateKey(SQLException e) {
+        return "23505".equals(e.getSQLState());
+    }//end isDuplicateKey
+
+    /**
+     * Runs iterations calls of op spread over the given number of threads,
+     * and prints the overall throughput and latency distribution.
+     */
+    static void runConcurrent(String name, int threads, int iterations, Op op) throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        long[] samples = new long[iterations];
+        Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; ++t) {
+            workers[t] = new Thread(() -> {
+                int i;
+                while ((i = counter.getAndIncrement()) < iterations) {
+                    long t0 = System.nanoTime();
+                    try {
+                        op.run(i);
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                        return;
+                    }
+                    samples[i] = System.nanoTime() - t0;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        long total = System.nanoTime() - start;
+        if (failure[0] != null)
+            throw new Exception(name + " failed: " + failure[0].getMessage(), failure[0]);
+        report(name, samples, total);
+    }//end runConcurrent
+
+    /**
+     * Runs op for a warm-up round and then iterations timed calls, and prints
+     * the latency distribution in microseconds.
+     */
+    static void run(String name, int iterations, Op op) throws Exception {
+        int warmup = Math.max(1, iterations / 10);
+        for (int i = 0; i < warmup; ++i)
+            op.run(i);
+
+        long[] samples = new long[iterations];
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            long t0 = System.nanoTime();
+            op.run(i);
+            samples[i] = System.nanoTime() - t0;
+        }
+        long total = System.nanoTime() - start;
+        report(name, samples, total);
+    }//end run
+
+    static void report(String name, long[] samples, long totalNanos) {
+        Arrays.sort(samples);
+        double[] r = {
+                samples.length / (totalNanos / 1e9),
+                totalNanos / 1e3 / samples.length,
+                percentile(samples, 0.50) / 1e3,
+                percentile(samples, 0.90) / 1e3,
+                percentile(samples, 0.99) / 1e3,
+                percentile(samples, 0.999) / 1e3,
+                samples[samples.length - 1] / 1e3};
+        System.out.printf("%-28s %10.0f ops/s  mean %8.1f us  p50 %8.1f us  p90 %8.1f us  p99 %8.1f us  " +
+                        "p99.9 %8.1f us  max %8.1f us%n",
+                name, r[0], r[1], r[2], r[3], r[4], r[5], r[6]);
+        String[] row = new String[3 + r.length];
+        row[0] = LABEL;
+        row[1] = Instant.now().toString();
+        row[2] = name.replaceAll("\\s+", " ").replace(',', ';');
+        for (int i = 0; i < r.length; ++i)
+            row[3 + i] = String.format("%.1f", r[i]);
+        results.add(row);
+    }//end report
+
+    /**
+     * Appends the results of this run to bench.out and compares them with
+     * bench.baseline.
+     *
+     * @return false if an operation regressed beyond the tolerance
+     */
+    static boolean finish() throws IOException {
+        if (OUT != null) {
+            File file = new File(OUT);
+            boolean fresh = !file.exists() || file.length() == 0;
+            try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+                if (fresh)
+                    out.println(CSV_HEADER);
+                for (String[] row : results)
+                    out.println(String.join(",", row));
+            }
+            System.out.println("Appended " + results.size() + " result(s) to " + OUT + " as " + LABEL);
+        }
+        if (BASELINE == null)
+            return true;
+
+        // the latest baseline row of every operation
+        String file = OUT != null ? OUT : "results.csv";
+        Map<String, String[]> base = new HashMap<String, String[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length == CSV_HEADER.split(",").length && row[0].equals(BASELINE))
+                    base.put(row[2], row);
+            }
+        }
+        boolean ok = true;
+        System.out.printf("Compared with %s (tolerance %.0f%%):%n", BASELINE, TOLERANCE * 100);
+        for (String[] row : results) {
+            String[] b = base.get(row[2]);
+            if (b == null)
+                continue;
+            double opsChange = Double.parseDouble(row[3]) / Double.parseDouble(b[3]) - 1;
+            double p99Change = Double.parseDouble(row[7]) / Double.parseDouble(b[7]) - 1;
+            boolean slower = opsChange < -TOLERANCE || p99Change > TOLERANCE;
+            System.out.printf("  %-28s ops/s %+6.1f%%  p99 %+6.1f%%%s%n",
+                    row[2], opsChange * 100, p99Change * 100, slower ? "  REGRESSION" : "");
+            ok &= !slower;
+        }
+        return ok;
+    }//end finish
+
+    static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }//end percentile
+
+}//end ProfNetworkBench
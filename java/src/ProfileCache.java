@@ -0,0 +1,333 @@
+/*
+ * Profile cache
+ * =============
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded read-through cache of assembled profiles for ViewProfile.
+ *
+ * A miss loads the user, work experience and education rows with one UNION
+ * ALL query instead of three round trips. Entries expire after a TTL and are
+ * invalidated by the UpdateProfile methods.
+ *
+ * Eviction follows W-TinyLFU: new entries go to a small LRU window, and an
+ * entry leaving the window displaces the least recently used main entry only
+ * if a count-min sketch of recent lookups shows it was asked for more often.
+ * A profile viewed once does not push out a popular one.
+ */
+public class ProfileCache {
+
+    // the profile rows of one user; kind is U (user), W (work) or E (education).
+    // Every column is cast to text for the branches to line up.
+    static final String SQL_PROFILE =
+            "SELECT CAST('U' AS text) AS kind, CAST(U.userid AS text), CAST(U.name AS text), " +
+            "CAST(U.email AS text), CAST(U.dateofbirth AS text), CAST(NULL AS text) " +
+            "FROM USR U WHERE U.userid = ? " +
+            "UNION ALL " +
+            "SELECT 'W', CAST(W.company AS text), CAST(W.role AS text), CAST(W.location AS text), " +
+            "CAST(W.startdate AS text), CAST(W.enddate AS text) " +
+            "FROM WORK_EXPR W WHERE W.userUid = " + ProfNetwork.USER_UID + " " +
+            "UNION ALL " +
+            "SELECT 'E', CAST(E.instituitionname AS text), CAST(E.major AS text), CAST(E.degree AS text), " +
+            "CAST(E.startdate AS text), CAST(E.enddate AS text) " +
+            "FROM EDUCATIONAL_DETAILS E WHERE E.userUid = " + ProfNetwork.USER_UID;
+
+    /**
+     * A user's profile as ViewProfile prints it.
+     */
+    public static final class Profile {
+        public final String userId;
+        public final String name;
+        public final String email;
+        public final String dateOfBirth;
+        // company, role, location, startdate, enddate
+        public final List<String[]> work;
+        // instituitionname, major, degree, startdate, enddate
+        public final List<String[]> education;
+
+        Profile(String userId, String name, String email, String dateOfBirth,
+                List<String[]> work, List<String[]> education) {
+            this.userId = userId;
+            this.name = name;
+            this.email = email;
+            this.dateOfBirth = dateOfBirth;
+            this.work = Collections.unmodifiableList(work);
+            this.education = Collections.unmodifiableList(education);
+        }
+
+        /**
+         * Prints the profile in the layout of the per-table queries it
+         * replaces: a header and rows per table, nothing for an empty one.
+         */
+        public void print() {
+            System.out.println("userid\tname\temail\tdateofbirth\t");
+            System.out.println(userId + "\t" + name + "\t" + email + "\t" + dateOfBirth + "\t");
+            printRows("company\trole\tlocation\tstartdate\tenddate\t", work);
+            printRows("instituitionname\tmajor\tdegree\tstartdate\tenddate\t", education);
+        }
+
+        private static void printRows(String header, List<String[]> rows) {
+            if (rows.isEmpty())
+                return;
+            System.out.println(header);
+            for (String[] row : rows) {
+                for (String value : row)
+                    System.out.print(value + "\t");
+                System.out.println();
+            }
+        }
+    }//end Profile
+
+    private static final class Entry {
+        final Profile profile;
+        final long loadedAt;
+
+        Entry(Profile profile, long loadedAt) {
+            this.profile = profile;
+            this.loadedAt = loadedAt;
+        }
+    }//end Entry
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final int windowSize;
+
+    // guards the maps, the sketch and version. A lock rather than a
+    // monitor, so the virtual threads of ApiServer that wait for it do not
+    // pin their carriers.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // both in LRU order, eldest first
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> main = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    // bumped by every invalidation, so a load that raced with one is not kept
+    private long version = 0;
+
+    // metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of cached profiles
+     * @param ttlMillis how long a loaded profile is served before reloading
+     */
+    public ProfileCache(int maxSize, long ttlMillis) {
+        this.maxSize = Math.max(2, maxSize);
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.windowSize = Math.max(1, this.maxSize / 100);
+        this.sketch = new FrequencySketch(this.maxSize);
+    }//end ProfileCache
+
+    /**
+     * Returns the profile of a user, loading it on a miss.
+     *
+     * @param esql the session used to load a missing profile
+     * @return the profile, or null if the user does not exist
+     * @throws java.sql.SQLException when the profile cannot be loaded
+     */
+    public Profile get(ProfNetwork esql, String userId) throws SQLException {
+        String key = userId.trim();
+        long seen;
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Entry e = window.get(key);
+            if (e == null)
+                e = main.get(key);
+            if (e != null) {
+                if (System.nanoTime() - e.loadedAt < ttlNanos) {
+                    hits.incrementAndGet();
+                    return e.profile;
+                }
+                window.remove(key);
+                main.remove(key);
+                expirations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            seen = version;
+        } finally {
+            lock.unlock();
+        }
+
+        Profile p = load(esql, key);
+        if (p == null)
+            return null;
+        lock.lock();
+        try {
+            if (version == seen && !window.containsKey(key) && !main.containsKey(key)) {
+                window.put(key, new Entry(p, System.nanoTime()));
+                if (window.size() > windowSize)
+                    evictWindow();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return p;
+    }//end get
+
+    /**
+     * Drops the cached profile of a user after it changed.
+     */
+    public void invalidate(String userId) {
+        String key = userId.trim();
+        lock.lock();
+        try {
+            version++;
+            boolean cached = window.remove(key) != null;
+            cached |= main.remove(key) != null;
+            if (cached)
+                invalidations.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }//end invalidate
+
+    // moves the eldest window entry to main if TinyLFU admits it; caller holds lock
+    private void evictWindow() {
+        Iterator<Map.Entry<String, Entry>> it = window.entrySet().iterator();
+        Map.Entry<String, Entry> candidate = it.next();
+        it.remove();
+        if (main.size() < maxSize - windowSize) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> victims = main.entrySet().iterator();
+        Map.Entry<String, Entry> victim = victims.next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            victims.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions.incrementAndGet();
+    }//end evictWindow
+
+    /**
+     * Loads a profile with one query, reading the rows straight into the
+     * profile instead of through an intermediate list.
+     *
+     * @return the profile, or null if the user does not exist
+     */
+    static Profile load(ProfNetwork esql, String userId) throws SQLException {
+        String[][] found = new String[1][];
+        List<String[]> work = new ArrayList<String[]>();
+        List<String[]> education = new ArrayList<String[]>();
+        esql.executeQueryAndForEach(SQL_PROFILE, rs -> {
+            String[] row = {rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6)};
+            switch (rs.getString(1)) {
+                case "U": found[0] = row; break;
+                case "W": work.add(row); break;
+                case "E": education.add(row); break;
+            }
+        }, userId, userId, userId);
+        String[] user = found[0];
+        if (user == null)
+            return null;
+        return new Profile(user[0], user[1], user[2], user[3], work, education);
+    }//end load
+
+    /**
+     * @return the number of cached profiles
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return window.size() + main.size();
+        } finally {
+            lock.unlock();
+        }
+    }//end size
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getExpirations() { return expirations.get(); }
+    public long getInvalidations() { return invalidations.get(); }
+
+    /**
+     * @return a one-line summary of the cache metrics
+     */
+    public String stats() {
+        long h = hits.get(), m = misses.get();
+        return String.format("profile cache: %d/%d cached, %d hits, %d misses (%.1f%% hit rate), " +
+                        "%d evictions, %d expirations, %d invalidations",
+                size(), maxSize, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m),
+                evictions.get(), expirations.get(), invalidations.get());
+    }//end stats
+
+    /**
+     * A count-min sketch of 4-bit counters, four per key, halved every
+     * 10 * maxSize increments so old popularity fades.
+     */
+    static final class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int maxSize) {
+            int width = Integer.highestOneBit(Math.max(16, maxSize) - 1) << 1;
+            this.table = new long[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * maxSize;
+        }
+
+        void increment(String key) {
+            int h = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; ++i) {
+                int index = index(h, i);
+                int shift = counter(h, i) << 2;
+                if (((table[index] >>> shift) & 0xfL) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; ++i)
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int h = spread(key.hashCode());
+            int min = 15;
+            for (int i = 0; i < 4; ++i)
+                min = Math.min(min, (int) ((table[index(h, i)] >>> (counter(h, i) << 2)) & 0xfL));
+            return min;
+        }
+
+        private int index(int h, int i) {
+            return spread(h + i * 0x9e3779b9) & mask;
+        }
+
+        // which of the 16 counters in the long; row i uses counters 4i .. 4i+3
+        private static int counter(int h, int i) {
+            return (i << 2) + ((h >>> (i << 3)) & 3);
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x45d9f3b;
+            return h ^ (h >>> 16);
+        }
+    }//end FrequencySketch
+
+}//end ProfileCache
@@ -0,0 +1,376 @@
+/*
+ * Query metrics
+ * =============
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency, row and size histograms per SQL statement, recorded by the
+ * data-access methods of ProfNetwork, plus a log of the statements slower
+ * than a threshold with their bound parameters.
+ *
+ * Statements are keyed by their SQL text. The SQL constants of the menu
+ * operations are named with {@link #name}, and the others are reported
+ * under the start of their text. SQL with inline literals makes a new
+ * text per call, so past maxStatements texts the rest share one entry.
+ * Every statement is also exported over JMX as
+ * ProfNetwork:type=Query,name=...; jconsole or any JMX agent can read it
+ * there.
+ *
+ * Recording is lock free: two nanoTime calls, a map lookup and a few
+ * atomic increments. The slow-query log formats only the slow statements
+ * and hands each line to one writer thread through a bounded queue, so the
+ * request threads never wait on the log's I/O; lines that find the queue
+ * full are counted and dropped.
+ */
+public class QueryMetrics {
+
+    // slow-query lines that can wait to be written
+    static final int SLOW_LOG_QUEUE = 4096;
+
+    // operation names of known SQL texts, registered once by their owners
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Reports statements with this SQL text under the given operation name.
+     */
+    public static void name(String sql, String operation) {
+        NAMES.put(sql, operation);
+    }//end name
+
+    /**
+     * A log-linear histogram of non-negative longs: exact below 16, then
+     * 16 buckets per power of two, so any recorded value is off by less
+     * than 1/16 (about 6%). Values are counted with atomic increments and
+     * can be recorded from any thread.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long v) {
+            if (v < 0)
+                v = 0;
+            counts.incrementAndGet(index(v));
+            count.increment();
+            sum.add(v);
+            long m = max.get();
+            while (v > m && !max.compareAndSet(m, v))
+                m = max.get();
+        }
+
+        static int index(long v) {
+            if (v < SUB)
+                return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            return (e - SUB_BITS + 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        }
+
+        // the largest value that falls in bucket i
+        static long highest(int i) {
+            if (i < SUB)
+                return i;
+            int e = i / SUB + SUB_BITS - 1;
+            long low = (long) (SUB + i % SUB) << (e - SUB_BITS);
+            return low + (1L << (e - SUB_BITS)) - 1;
+        }
+
+        long count() { return count.sum(); }
+        long sum() { return sum.sum(); }
+        long max() { return max.get(); }
+
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @return the value at or below which the fraction p of the
+         *         recorded values fall, to the histogram's precision
+         */
+        long percentile(double p) {
+            long n = count.sum();
+            if (n == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); ++i) {
+                seen += counts.get(i);
+                if (seen >= rank)
+                    return Math.min(highest(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); ++i)
+                counts.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }//end Histogram
+
+    /**
+     * The JMX view of one statement.
+     */
+    public interface QueryStatsMBean {
+        String getSql();
+        long getCount();
+        long getErrors();
+        long getSlow();
+        double getMeanMicros();
+        long getP50Micros();
+        long getP90Micros();
+        long getP99Micros();
+        long getP999Micros();
+        long getMaxMicros();
+        double getMeanRows();
+        long getMaxRows();
+        long getTotalBytes();
+        void reset();
+    }//end QueryStatsMBean
+
+    /**
+     * Everything recorded for one SQL text.
+     */
+    public static final class QueryStats implements QueryStatsMBean {
+        final String sql;
+        final String name;
+        final Histogram latency = new Histogram();
+        final Histogram rows = new Histogram();
+        final Histogram bytes = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder slow = new LongAdder();
+
+        QueryStats(String sql, String name) {
+            this.sql = sql;
+            this.name = name;
+        }
+
+        public String getSql() { return sql; }
+        public long getCount() { return latency.count(); }
+        public long getErrors() { return errors.sum(); }
+        public long getSlow() { return slow.sum(); }
+        public double getMeanMicros() { return latency.mean() / 1e3; }
+        public long getP50Micros() { return latency.percentile(0.50) / 1000; }
+        public long getP90Micros() { return latency.percentile(0.90) / 1000; }
+        public long getP99Micros() { return latency.percentile(0.99) / 1000; }
+        public long getP999Micros() { return latency.percentile(0.999) / 1000; }
+        public long getMaxMicros() { return latency.max() / 1000; }
+        public double getMeanRows() { return rows.mean(); }
+        public long getMaxRows() { return rows.max(); }
+        public long getTotalBytes() { return bytes.sum(); }
+
+        public void reset() {
+            latency.reset();
+            rows.reset();
+            bytes.reset();
+            errors.reset();
+            slow.reset();
+        }
+    }//end QueryStats
+
+    private final ConcurrentHashMap<String, QueryStats> stats = new ConcurrentHashMap<String, QueryStats>();
+    private final int maxStatements;
+    private final QueryStats other = new QueryStats("", "(other statements)");
+    private final long slowNanos;
+    private final PrintStream slowLog;
+    // slow-query lines waiting for the writer thread
+    private final BlockingQueue<String> slowLines = new ArrayBlockingQueue<String>(SLOW_LOG_QUEUE);
+    private final LongAdder slowDropped = new LongAdder();
+    private final boolean jmx;
+
+    /**
+     * @param slowMillis statements taking at least this long are logged;
+     *        0 or less turns the log off
+     * @param slowLogFile file the slow statements are appended to, or null
+     *        for standard error
+     * @param jmx true to export every statement over JMX
+     * @param maxStatements the most SQL texts tracked separately
+     */
+    public QueryMetrics(long slowMillis, String slowLogFile, boolean jmx, int maxStatements) {
+        this.maxStatements = Math.max(1, maxStatements);
+        this.slowNanos = slowMillis > 0 ? slowMillis * 1000000L : Long.MAX_VALUE;
+        PrintStream log = System.err;
+        if (slowLogFile != null) {
+            try {
+                log = new PrintStream(new FileOutputStream(slowLogFile, true), true, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Slow-query log " + slowLogFile + " unavailable, using stderr: " + e.getMessage());
+            }
+        }
+        this.slowLog = log;
+        this.jmx = jmx;
+        if (slowMillis > 0) {
+            Thread writer = new Thread(this::writeSlow, "slow-query-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }//end QueryMetrics
+
+    /**
+     * Records one execution.
+     *
+     * @param sql the SQL text as passed to the data-access method
+     * @param startNanos System.nanoTime() when the call started
+     * @param rows rows returned or affected, or a negative number if the
+     *        statement failed
+     * @param bytes characters of text returned, 0 if not measured
+     * @param params the bound values, shown in the slow-query log
+     */
+    public void record(String sql, long startNanos, long rows, long bytes, Object[] params) {
+        long nanos = System.nanoTime() - startNanos;
+        QueryStats s = stats.get(sql);
+        if (s == null)
+            s = register(sql);
+        s.latency.record(nanos);
+        if (rows < 0) {
+            s.errors.increment();
+        } else {
+            s.rows.record(rows);
+            s.bytes.record(bytes);
+        }
+        if (nanos >= slowNanos) {
+            s.slow.increment();
+            logSlow(s, sql, nanos, rows, params);
+        }
+    }//end record
+
+    private QueryStats register(String sql) {
+        if (stats.size() >= maxStatements)
+            return other;
+        QueryStats s = new QueryStats(sql, label(sql));
+        QueryStats prev = stats.putIfAbsent(sql, s);
+        if (prev != null)
+            return prev;
+        if (jmx) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName on = new ObjectName("ProfNetwork:type=Query,name=" + ObjectName.quote(s.name));
+                if (!server.isRegistered(on))
+                    server.registerMBean(s, on);
+            } catch (JMException e) {
+                // metrics still work without JMX
+            }
+        }
+        return s;
+    }//end register
+
+    // the registered name of a statement, or the start of its text
+    static String label(String sql) {
+        String name = NAMES.get(sql);
+        if (name != null)
+            return name;
+        String text = sql.replaceAll("\\s+", " ").trim();
+        return text.length() <= 60 ? text : text.substring(0, 57) + "...";
+    }//end label
+
+    private void logSlow(QueryStats s, String sql, long nanos, long rows, Object[] params) {
+        String line = String.format("%s slow query %s: %.1f ms, %s: %s",
+                Instant.now(), s.name, nanos / 1e6,
+                rows < 0 ? "failed" : rows + " row(s)", bound(sql, params));
+        if (!slowLines.offer(line))
+            slowDropped.increment();
+    }//end logSlow
+
+    // the writer thread: the only one that prints to slowLog
+    private void writeSlow() {
+        try {
+            while (true)
+                slowLog.println(slowLines.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }//end writeSlow
+
+    /**
+     * @return sql with every ? replaced by the matching parameter as a SQL
+     *         literal. Statements touching passwords show ? instead.
+     */
+    static String bound(String sql, Object[] params) {
+        if (params == null || params.length == 0 || sql.toLowerCase().contains("password"))
+            return sql;
+        StringBuilder sb = new StringBuilder(sql.length() + 16 * params.length);
+        int p = 0;
+        for (int i = 0; i < sql.length(); ++i) {
+            char c = sql.charAt(i);
+            if (c != '?' || p >= params.length) {
+                sb.append(c);
+                continue;
+            }
+            Object v = params[p++];
+            if (v == null)
+                sb.append("NULL");
+            else if (v instanceof Number || v instanceof Boolean)
+                sb.append(v);
+            else
+                sb.append('\'').append(v.toString().replace("'", "''")).append('\'');
+        }
+        return sb.toString();
+    }//end bound
+
+    /**
+     * @return the statistics of every statement run so far
+     */
+    public List<QueryStats> all() {
+        List<QueryStats> list = new ArrayList<QueryStats>(stats.values());
+        if (other.getCount() > 0)
+            list.add(other);
+        return list;
+    }//end all
+
+    /**
+     * @return the number of SQL texts tracked separately
+     */
+    public int size() {
+        return stats.size();
+    }//end size
+
+    /**
+     * @return a table of every statement, slowest p99 first
+     */
+    public String report() {
+        List<QueryStats> list = all();
+        list.sort((a, b) -> Long.compare(b.latency.percentile(0.99), a.latency.percentile(0.99)));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %8s %6s %9s %9s %9s %9s %8s %10s%n",
+                "query", "calls", "errors", "mean_us", "p50_us", "p99_us", "max_us", "rows", "bytes"));
+        for (QueryStats s : list) {
+            sb.append(String.format("%-40s %8d %6d %9.1f %9d %9d %9d %8.1f %10d%n",
+                    s.name.length() <= 40 ? s.name : s.name.substring(0, 37) + "...",
+                    s.getCount(), s.getErrors(), s.getMeanMicros(), s.getP50Micros(),
+                    s.getP99Micros(), s.getMaxMicros(), s.getMeanRows(), s.getTotalBytes()));
+        }
+        long dropped = slowDropped.sum();
+        if (dropped > 0)
+            sb.append(String.format("%d slow-query line(s) dropped with the log queue full%n", dropped));
+        return sb.toString();
+    }//end report
+
+}//end QueryMetrics
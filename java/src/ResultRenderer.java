@@ -0,0 +1,329 @@
+/*
+ * Result rendering
+ * ================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Writes the rows of a result set as they are read, as the tab-separated
+ * text the menus print, as CSV or as a JSON array of objects. Everything
+ * goes through one char buffer that is reused from result to result and
+ * handed to the sink only when it is full and at the end of a result, so
+ * a row costs no stream calls, locks or flushes of its own.
+ *
+ * The column names, types and, for JSON, the quoted keys are read once
+ * per result. The blank padding of char(n) columns is trimmed by writing
+ * a shorter range of the value, without copying it.
+ *
+ * A renderer is not thread-safe; ProfNetwork keeps one per session.
+ */
+public class ResultRenderer {
+
+    public enum Format {
+        // "name\t" per column and row, as the menus have always printed
+        TEXT,
+        // RFC 4180, with a header row
+        CSV,
+        // an array with one object per row
+        JSON
+    }//end Format
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final char[] buf;
+    private int pos = 0;
+    private Writer sink;
+
+    // the result being rendered
+    private Format format;
+    private int columns;
+    private String[] names = new String[0];
+    private String[] keys = new String[0];
+    private boolean[] padded = new boolean[0];
+    private boolean[] numeric = new boolean[0];
+    private boolean begun;
+    private int rows;
+    private long chars;
+
+    /**
+     * @param sink receives the rendered text, e.g. a file or console writer
+     */
+    public ResultRenderer(Writer sink) {
+        this(sink, BUFFER_SIZE);
+    }//end ResultRenderer
+
+    public ResultRenderer(Writer sink, int bufferSize) {
+        this.sink = sink;
+        this.buf = new char[Math.max(64, bufferSize)];
+    }//end ResultRenderer
+
+    /**
+     * Points the renderer at another sink, keeping its buffer.
+     */
+    public void setSink(Writer sink) {
+        this.sink = sink;
+    }//end setSink
+
+    public Writer getSink() {
+        return sink;
+    }//end getSink
+
+    /**
+     * Renders every remaining row of rs.
+     *
+     * @return the number of rows rendered
+     */
+    public int render(ResultSet rs, Format format) throws SQLException, IOException {
+        start(format);
+        while (rs.next())
+            row(rs);
+        return finish();
+    }//end render
+
+    /**
+     * Starts a result; row is called for each row and finish at the end.
+     * TEXT and CSV write the header with the first row, so an empty result
+     * prints nothing, as the menus expect; JSON writes [].
+     */
+    public void start(Format format) {
+        this.format = format;
+        // whatever an earlier result left after a failed write
+        this.pos = 0;
+        this.begun = false;
+        this.rows = 0;
+        this.chars = 0;
+    }//end start
+
+    /**
+     * Renders the current row of rs.
+     */
+    public void row(ResultSet rs) throws SQLException, IOException {
+        if (!begun)
+            begin(rs.getMetaData());
+        switch (format) {
+            case TEXT:
+                for (int i = 0; i < columns; ++i) {
+                    String v = rs.getString(i + 1);
+                    if (v == null) {
+                        write("null");
+                    } else {
+                        int end = end(v, i);
+                        write(v, end);
+                        chars += end;
+                    }
+                    write('\t');
+                }
+                write('\n');
+                break;
+            case CSV:
+                for (int i = 0; i < columns; ++i) {
+                    if (i > 0)
+                        write(',');
+                    String v = rs.getString(i + 1);
+                    if (v != null) {
+                        int end = end(v, i);
+                        csv(v, end);
+                        chars += end;
+                    }
+                }
+                write('\r');
+                write('\n');
+                break;
+            case JSON:
+                write(rows == 0 ? "\n{" : ",\n{");
+                for (int i = 0; i < columns; ++i) {
+                    write(keys[i]);
+                    String v = rs.getString(i + 1);
+                    if (v == null) {
+                        write("null");
+                    } else {
+                        int end = end(v, i);
+                        // NaN and Infinity are not JSON numbers
+                        if (numeric[i] && end > 0 && Character.isDigit(v.charAt(end - 1)))
+                            write(v, end);
+                        else
+                            json(v, end);
+                        chars += end;
+                    }
+                }
+                write('}');
+                break;
+        }
+        ++rows;
+    }//end row
+
+    /**
+     * Ends the result and hands everything buffered to the sink, which is
+     * flushed.
+     *
+     * @return the number of rows rendered
+     */
+    public int finish() throws IOException {
+        if (format == Format.JSON)
+            write(begun ? "\n]\n" : "[]\n");
+        flush();
+        sink.flush();
+        return rows;
+    }//end finish
+
+    /**
+     * @return the characters of the values of the last result, without
+     *         padding, for the query metrics
+     */
+    public long getChars() {
+        return chars;
+    }//end getChars
+
+    // reads the columns and writes the header
+    private void begin(ResultSetMetaData md) throws SQLException, IOException {
+        begun = true;
+        columns = md.getColumnCount();
+        if (names.length < columns) {
+            names = new String[columns];
+            keys = new String[columns];
+            padded = new boolean[columns];
+            numeric = new boolean[columns];
+        }
+        for (int i = 0; i < columns; ++i) {
+            names[i] = md.getColumnName(i + 1);
+            int type = md.getColumnType(i + 1);
+            padded[i] = type == Types.CHAR || type == Types.NCHAR;
+            numeric[i] = isNumeric(type);
+            StringBuilder key = new StringBuilder(names[i].length() + 4);
+            if (i > 0)
+                key.append(',');
+            Json.quote(key, names[i]);
+            keys[i] = key.append(':').toString();
+        }
+        switch (format) {
+            case TEXT:
+                for (int i = 0; i < columns; ++i) {
+                    write(names[i]);
+                    write('\t');
+                }
+                write('\n');
+                break;
+            case CSV:
+                for (int i = 0; i < columns; ++i) {
+                    if (i > 0)
+                        write(',');
+                    csv(names[i], names[i].length());
+                }
+                write('\r');
+                write('\n');
+                break;
+            case JSON:
+                write('[');
+                break;
+        }
+    }//end begin
+
+    private static boolean isNumeric(int type) {
+        switch (type) {
+            case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+            case Types.REAL: case Types.FLOAT: case Types.DOUBLE: case Types.NUMERIC: case Types.DECIMAL:
+                return true;
+            default:
+                return false;
+        }
+    }//end isNumeric
+
+    // the length of v without the padding of a char(n) column
+    private int end(String v, int column) {
+        int end = v.length();
+        if (padded[column])
+            while (end > 0 && v.charAt(end - 1) == ' ')
+                --end;
+        return end;
+    }//end end
+
+    // v[0, end) quoted if it holds a separator, quote or line break
+    private void csv(String v, int end) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < end && !quote; ++i) {
+            char c = v.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            write(v, end);
+            return;
+        }
+        write('"');
+        for (int i = 0; i < end; ++i) {
+            char c = v.charAt(i);
+            if (c == '"')
+                write('"');
+            write(c);
+        }
+        write('"');
+    }//end csv
+
+    // v[0, end) as a JSON string
+    private void json(String v, int end) throws IOException {
+        write('"');
+        int from = 0;
+        for (int i = 0; i < end; ++i) {
+            char c = v.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            write(v, from, i);
+            switch (c) {
+                case '"': write("\\\""); break;
+                case '\\': write("\\\\"); break;
+                case '\n': write("\\n"); break;
+                case '\r': write("\\r"); break;
+                case '\t': write("\\t"); break;
+                default:
+                    write("\\u00");
+                    write(Character.forDigit(c >> 4, 16));
+                    write(Character.forDigit(c & 15, 16));
+            }
+            from = i + 1;
+        }
+        write(v, from, end);
+        write('"');
+    }//end json
+
+    private void write(char c) throws IOException {
+        if (pos == buf.length)
+            flush();
+        buf[pos++] = c;
+    }//end write
+
+    private void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }//end write
+
+    private void write(String s, int end) throws IOException {
+        write(s, 0, end);
+    }//end write
+
+    // copies s[from, end) into the buffer, a buffer's worth at a time
+    private void write(String s, int from, int end) throws IOException {
+        while (from < end) {
+            if (pos == buf.length)
+                flush();
+            int n = Math.min(end - from, buf.length - pos);
+            s.getChars(from, from + n, buf, pos);
+            pos += n;
+            from += n;
+        }
+    }//end write
+
+    private void flush() throws IOException {
+        if (pos > 0) {
+            sink.write(buf, 0, pos);
+            pos = 0;
+        }
+    }//end flush
+
+}//end ResultRenderer
@@ -0,0 +1,74 @@
+/*
+ * Scratch free list
+ * =================
+ *
+ */
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded free list of per-query working state, such as the BFS arrays
+ * of SocialGraph and the scoring arrays of ConnectionRecommender. A free
+ * list rather than a ThreadLocal, so the virtual threads of ApiServer, one
+ * per request, reuse the state as well, and a thread does not keep its
+ * own for life.
+ *
+ * At most maxIdle objects are kept, most recently used first, so the warm
+ * ones are taken again. A burst of concurrent queries allocates what it
+ * needs, and give() drops the extras afterwards instead of leaving the peak
+ * count on the heap.
+ */
+public class ScratchPool<T> {
+
+    private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<T>();
+    // idle.size() is linear, so the count is kept apart; it can be off by
+    // one or two while a take() and a give() overlap, which only moves the
+    // bound a little
+    private final AtomicInteger count = new AtomicInteger();
+    private final int maxIdle;
+    private final Supplier<T> factory;
+
+    /**
+     * @param maxIdle the most objects kept between uses
+     * @param factory makes a new object when none is idle
+     */
+    public ScratchPool(int maxIdle, Supplier<T> factory) {
+        this.maxIdle = maxIdle;
+        this.factory = factory;
+    }//end ScratchPool
+
+    /**
+     * @return an idle object, or a new one when there is none
+     */
+    public T take() {
+        T t = idle.pollFirst();
+        if (t == null)
+            return factory.get();
+        count.decrementAndGet();
+        return t;
+    }//end take
+
+    /**
+     * Keeps an object for the next take(), or drops it when maxIdle are
+     * kept already. Does nothing for null.
+     */
+    public void give(T t) {
+        if (t == null)
+            return;
+        if (count.incrementAndGet() > maxIdle) {
+            count.decrementAndGet();
+            return;
+        }
+        idle.offerFirst(t);
+    }//end give
+
+    /**
+     * @return the number of objects kept
+     */
+    public int idle() {
+        return count.get();
+    }//end idle
+
+}//end ScratchPool
@@ -0,0 +1,254 @@
+/*
+ * Multi-session server mode
+ * =========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the ProfNetwork menu to many clients at once (e.g. telnet or nc).
+ * Every accepted socket runs ProfNetwork.runSession on its own thread and
+ * its own session, and the sessions share one connection pool, so a slow
+ * query only holds up the session that issued it.
+ *
+ * The menu code reads from ProfNetwork.in and prints to System.out. Both are
+ * replaced by streams that forward to the socket bound to the calling
+ * thread, and to the console for every other thread. Every session prints
+ * through a PrintStream of its own, so a client that stops reading only
+ * blocks its own session, and not the others or the background threads
+ * that log to System.err. A write to a socket that makes no progress for
+ * WRITE_TIMEOUT_MS closes it, which ends the session and returns its
+ * pooled connection.
+ */
+public class SessionServer {
+
+    // how long a write to a client may block before its socket is closed
+    static final long WRITE_TIMEOUT_MS = Long.getLong("profnetwork.session.writeTimeoutMs", 10000L);
+
+    // the socket streams of the session running on the current thread
+    private static final ThreadLocal<BufferedReader> sessionIn = new ThreadLocal<BufferedReader>();
+    private static final ThreadLocal<PrintStream> sessionOut = new ThreadLocal<PrintStream>();
+
+    // closes the sockets whose writes have blocked for WRITE_TIMEOUT_MS
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ProfNetwork esql;
+    private final int port;
+    private final int maxSessions;
+
+    /**
+     * @param esql the instance whose connection pool the sessions share
+     * @param port the TCP port to listen on
+     * @param maxSessions the maximum number of sessions served concurrently;
+     *        further clients wait until a session ends
+     */
+    public SessionServer(ProfNetwork esql, int port, int maxSessions) {
+        this.esql = esql;
+        this.port = port;
+        this.maxSessions = maxSessions;
+    }//end SessionServer
+
+    /**
+     * Accepts clients until the process is stopped.
+     */
+    public void run() throws IOException {
+        final BufferedReader console = ProfNetwork.in;
+        final PrintStream stdout = System.out;
+        final PrintStream stderr = System.err;
+        // prompts are printed without a newline, so the session's output
+        // is flushed before every read
+        ProfNetwork.in = new BufferedReader(new StringReader("")) {
+            @Override
+            public String readLine() throws IOException {
+                System.out.flush();
+                return reader(console).readLine();
+            }
+            @Override
+            public int read() throws IOException {
+                System.out.flush();
+                return reader(console).read();
+            }
+        };
+        System.setOut(new SessionPrintStream(stdout));
+        System.setErr(new SessionPrintStream(stderr));
+
+        ExecutorService sessions = Executors.newFixedThreadPool(this.maxSessions);
+        ServerSocket server = new ServerSocket(this.port);
+        stdout.println("Serving sessions on port " + this.port);
+        try {
+            while (true) {
+                final Socket client = server.accept();
+                sessions.execute(() -> serve(client));
+            }
+        } finally {
+            server.close();
+            sessions.shutdown();
+            this.watchdog.shutdown();
+            try {
+                sessions.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stdout.println(this.esql.getPool().stats());
+            stdout.println(this.esql.getProfileCache().stats());
+            stdout.println(this.esql.getConnectionCounts().stats());
+            stdout.println(this.esql.getRecommender().stats());
+            stdout.println(this.esql.getMessageDispatcher().stats());
+            stdout.println(this.esql.getCompactor().stats());
+            stdout.println(this.esql.getPartitionManager().stats());
+            stdout.println(this.esql.getRefresher().stats());
+            stdout.print(this.esql.getMetrics().report());
+        }
+    }//end run
+
+    /**
+     * Runs one client's session with the thread's I/O bound to its socket.
+     */
+    private void serve(Socket client) {
+        ScheduledFuture<?> check = null;
+        try {
+            sessionIn.set(new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), StandardCharsets.UTF_8)));
+            TimedOutputStream socket = new TimedOutputStream(client.getOutputStream());
+            check = this.watchdog.scheduleWithFixedDelay(() -> {
+                if (socket.blockedMs() > WRITE_TIMEOUT_MS) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // ignored.
+                    }
+                }
+            }, WRITE_TIMEOUT_MS, WRITE_TIMEOUT_MS / 4 + 1, TimeUnit.MILLISECONDS);
+            sessionOut.set(new PrintStream(new BufferedOutputStream(socket), true));
+            ProfNetwork.Greeting();
+            ProfNetwork.runSession(this.esql.newSession());
+        } catch (Exception e) {
+            // the client went away or the session failed; end it quietly
+        } finally {
+            PrintStream out = sessionOut.get();
+            if (out != null)
+                out.flush();
+            if (check != null)
+                check.cancel(false);
+            sessionIn.remove();
+            sessionOut.remove();
+            try {
+                client.close();
+            } catch (IOException e) {
+                // ignored.
+            }
+        }
+    }//end serve
+
+    private static BufferedReader reader(BufferedReader fallback) {
+        BufferedReader r = sessionIn.get();
+        return r != null ? r : fallback;
+    }//end reader
+
+    /**
+     * Prints to the current session's own PrintStream, or to the console
+     * stream for threads that do not run a session. Every method forwards,
+     * so no call takes a lock shared by the sessions.
+     */
+    private static class SessionPrintStream extends PrintStream {
+        private final PrintStream fallback;
+
+        SessionPrintStream(PrintStream fallback) {
+            super(fallback, true);
+            this.fallback = fallback;
+        }
+
+        private PrintStream target() {
+            PrintStream out = sessionOut.get();
+            return out != null ? out : fallback;
+        }
+
+        @Override public void write(int b) { target().write(b); }
+        @Override public void write(byte[] b, int off, int len) { target().write(b, off, len); }
+        @Override public void write(byte[] b) throws IOException { target().write(b); }
+        @Override public void flush() { target().flush(); }
+        @Override public void close() { target().close(); }
+        @Override public boolean checkError() { return target().checkError(); }
+        @Override public void print(boolean b) { target().print(b); }
+        @Override public void print(char c) { target().print(c); }
+        @Override public void print(int i) { target().print(i); }
+        @Override public void print(long l) { target().print(l); }
+        @Override public void print(float f) { target().print(f); }
+        @Override public void print(double d) { target().print(d); }
+        @Override public void print(char[] s) { target().print(s); }
+        @Override public void print(String s) { target().print(s); }
+        @Override public void print(Object obj) { target().print(obj); }
+        @Override public void println() { target().println(); }
+        @Override public void println(boolean x) { target().println(x); }
+        @Override public void println(char x) { target().println(x); }
+        @Override public void println(int x) { target().println(x); }
+        @Override public void println(long x) { target().println(x); }
+        @Override public void println(float x) { target().println(x); }
+        @Override public void println(double x) { target().println(x); }
+        @Override public void println(char[] x) { target().println(x); }
+        @Override public void println(String x) { target().println(x); }
+        @Override public void println(Object x) { target().println(x); }
+        @Override public PrintStream printf(String format, Object... args) { return target().printf(format, args); }
+        @Override public PrintStream printf(Locale l, String format, Object... args) { return target().printf(l, format, args); }
+        @Override public PrintStream format(String format, Object... args) { return target().format(format, args); }
+        @Override public PrintStream format(Locale l, String format, Object... args) { return target().format(l, format, args); }
+        @Override public PrintStream append(CharSequence csq) { return target().append(csq); }
+        @Override public PrintStream append(CharSequence csq, int start, int end) { return target().append(csq, start, end); }
+        @Override public PrintStream append(char c) { return target().append(c); }
+    }//end SessionPrintStream
+
+    /**
+     * Writes to a socket and tells how long the write in progress, if any,
+     * has been blocked.
+     */
+    private static class TimedOutputStream extends FilterOutputStream {
+        // System.nanoTime() when the write in progress started, 0 when none
+        private volatile long since = 0;
+
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long blockedMs() {
+            long s = since;
+            return s == 0 ? 0 : (System.nanoTime() - s) / 1000000;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            since = System.nanoTime() | 1;
+            try {
+                out.write(b);
+            } finally {
+                since = 0;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            since = System.nanoTime() | 1;
+            try {
+                out.write(b, off, len);
+            } finally {
+                since = 0;
+            }
+        }
+    }//end TimedOutputStream
+
+}//end SessionServer
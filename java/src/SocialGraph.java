@@ -0,0 +1,548 @@
+/*
+ * In-memory social graph
+ * ======================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * The accepted edges of CONNECTION_USR held in memory. User ids are interned
+ * to dense ints and every user keeps a sorted int array of the users it has
+ * accepted (out) and of the users that have accepted it (in), so
+ * "are friends" is a binary search and "within N hops" a BFS over primitive
+ * arrays, without a round trip to the database.
+ *
+ * Edges follow the table: a row (userId, connectionId, 'Accept') is an edge
+ * from userId to connectionId. The graph is loaded once at startup. The
+ * sessions of this process add the requests they accept right away, and
+ * refresh() applies what other clients and the loaders changed, from the
+ * log that sql/src/connection_changes.sql keeps of CONNECTION_USR.
+ */
+public class SocialGraph {
+
+    static final String SQL_ACCEPTED_EDGES =
+            "SELECT U.userId, F.userId FROM CONNECTION_USR C " +
+            "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid " +
+            "WHERE C.status = 'Accept'";
+    // every transaction with a lower id has ended
+    static final String SQL_HORIZON =
+            "SELECT txid_snapshot_xmin(txid_current_snapshot())";
+    static final String SQL_CHANGES =
+            "SELECT U.userId, F.userId, C.accepted FROM CONNECTION_CHANGES C " +
+            "JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid " +
+            "WHERE C.xid >= ? ORDER BY C.seq";
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private String[] names = new String[1024];
+    private int size = 0;
+
+    // adjacency: out[u][0 .. outDeg[u]) is sorted, likewise for in
+    private int[][] out = new int[1024][];
+    private int[] outDeg = new int[1024];
+    private int[][] in = new int[1024][];
+    private int[] inDeg = new int[1024];
+
+    // SQL_HORIZON taken before the last read of the table; the changes of
+    // transactions from this one on are read again by the next refresh(),
+    // which holds refreshing
+    private final ReentrantLock refreshing = new ReentrantLock();
+    private long horizon = 0;
+
+    /**
+     * BFS state of one query, sized to the graph and reused across queries.
+     * visited[v] == stamp marks v as seen in the current search, so the
+     * arrays never have to be cleared. withinHops only needs visited and
+     * queue; the other arrays, with the backward half of a bidirectional
+     * search, are allocated by ensurePath() on the first shortestPath.
+     */
+    static class Scratch {
+        int[] visited = EMPTY;
+        int[] queue = EMPTY;
+        int[] parent = EMPTY;
+        int[] dist = EMPTY;
+        int[] visitedBack = EMPTY;
+        int[] queueBack = EMPTY;
+        int[] parentBack = EMPTY;
+        int[] distBack = EMPTY;
+        int stamp = 0;
+
+        void ensure(int n) {
+            if (visited.length < n) {
+                int cap = n + n / 2;
+                visited = new int[cap];
+                queue = new int[cap];
+                // stamped under the old count, so dropped with it
+                parent = dist = visitedBack = queueBack = parentBack = distBack = EMPTY;
+                stamp = 0;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(visited, 0);
+                Arrays.fill(visitedBack, 0);
+                stamp = 1;
+            }
+        }
+
+        // after ensure(n); a new visitedBack holds no stamp, as stamp > 0
+        void ensurePath() {
+            int cap = visited.length;
+            if (parent.length < cap) {
+                parent = new int[cap];
+                dist = new int[cap];
+                visitedBack = new int[cap];
+                queueBack = new int[cap];
+                parentBack = new int[cap];
+                distBack = new int[cap];
+            }
+        }
+    }//end Scratch
+
+    // idle BFS state, about 48 MB per Scratch at 1M users with the path
+    // arrays, so at most SCRATCH_IDLE are kept
+    private static final ScratchPool<Scratch> scratch = new ScratchPool<Scratch>(ProfNetwork.SCRATCH_IDLE, Scratch::new);
+
+    /**
+     * Builds the graph from the accepted rows of CONNECTION_USR.
+     *
+     * @param esql the session used to read the table
+     * @return the loaded graph
+     * @throws java.sql.SQLException when the table cannot be read
+     */
+    public static SocialGraph load(ProfNetwork esql) throws SQLException {
+        SocialGraph g = new SocialGraph();
+        g.horizon = esql.executeQueryForObject(SQL_HORIZON, rs -> rs.getLong(1));
+        // edges are interned as they stream in, two ints per row
+        int[][] edges = {new int[1024], new int[1024]};
+        int[] count = {0};
+        esql.executeQueryAndStream(SQL_ACCEPTED_EDGES, 10000, rs -> {
+            int i = count[0]++;
+            if (i == edges[0].length) {
+                edges[0] = Arrays.copyOf(edges[0], i * 2);
+                edges[1] = Arrays.copyOf(edges[1], i * 2);
+            }
+            edges[0][i] = g.intern(rs.getString(1));
+            edges[1][i] = g.intern(rs.getString(2));
+        });
+        g.build(Arrays.copyOf(edges[0], count[0]), Arrays.copyOf(edges[1], count[0]));
+        return g;
+    }//end load
+
+    /**
+     * Applies the accepted edges added and removed since the last load or
+     * refresh, as logged in CONNECTION_CHANGES. The changes of transactions
+     * that were still open last time are read again, and all of them are
+     * applied in log order, so every edge ends in its latest state. Calls
+     * are serialized.
+     *
+     * @param esql the session used to read the log
+     * @return the accepting user of every change read, in log order
+     * @throws java.sql.SQLException when the log cannot be read
+     */
+    public List<String> refresh(ProfNetwork esql) throws SQLException {
+        refreshing.lock();
+        try {
+            long next = esql.executeQueryForObject(SQL_HORIZON, rs -> rs.getLong(1));
+            List<Object[]> changes = esql.executeQueryAndMap(SQL_CHANGES,
+                    rs -> new Object[] {rs.getString(1), rs.getString(2), rs.getBoolean(3)}, horizon);
+            List<String> from = new ArrayList<String>(changes.size());
+            lock.writeLock().lock();
+            try {
+                for (Object[] c : changes) {
+                    from.add((String) c[0]);
+                    if ((Boolean) c[2])
+                        link(intern((String) c[0]), intern((String) c[1]));
+                    else
+                        unlink(id((String) c[0]), id((String) c[1]));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            horizon = next;
+            return from;
+        } finally {
+            refreshing.unlock();
+        }
+    }//end refresh
+
+    /**
+     * Fills the adjacency arrays from an edge list in one pass: count the
+     * degrees, allocate exact arrays, fill and sort them.
+     */
+    void build(int[] src, int[] dst) {
+        int n = size;
+        for (int i = 0; i < src.length; ++i) {
+            outDeg[src[i]]++;
+            inDeg[dst[i]]++;
+        }
+        for (int u = 0; u < n; ++u) {
+            out[u] = outDeg[u] == 0 ? EMPTY : new int[outDeg[u]];
+            in[u] = inDeg[u] == 0 ? EMPTY : new int[inDeg[u]];
+        }
+        int[] o = new int[n];
+        int[] p = new int[n];
+        for (int i = 0; i < src.length; ++i) {
+            out[src[i]][o[src[i]]++] = dst[i];
+            in[dst[i]][p[dst[i]]++] = src[i];
+        }
+        for (int u = 0; u < n; ++u) {
+            Arrays.sort(out[u], 0, outDeg[u]);
+            Arrays.sort(in[u], 0, inDeg[u]);
+        }
+    }//end build
+
+    /**
+     * Builds a graph from an edge list over users named by nameOf, e.g. for
+     * synthetic benchmarks.
+     *
+     * @param n the number of users, ids 0 .. n-1
+     * @param src the accepting user of every edge
+     * @param dst the accepted user of every edge
+     */
+    public static SocialGraph fromEdges(int n, int[] src, int[] dst, IntFunction<String> nameOf) {
+        SocialGraph g = new SocialGraph();
+        for (int u = 0; u < n; ++u)
+            g.intern(nameOf.apply(u));
+        g.build(src, dst);
+        return g;
+    }//end fromEdges
+
+    /**
+     * @return the dense id of a user, assigning one if it is new
+     */
+    int intern(String userId) {
+        String key = userId.trim();
+        Integer id = ids.get(key);
+        if (id != null)
+            return id;
+        int u = size++;
+        if (u == names.length) {
+            int cap = names.length * 2;
+            names = Arrays.copyOf(names, cap);
+            out = Arrays.copyOf(out, cap);
+            outDeg = Arrays.copyOf(outDeg, cap);
+            in = Arrays.copyOf(in, cap);
+            inDeg = Arrays.copyOf(inDeg, cap);
+        }
+        names[u] = key;
+        out[u] = EMPTY;
+        in[u] = EMPTY;
+        ids.put(key, u);
+        return u;
+    }//end intern
+
+    /**
+     * @return the dense id of a user, or -1 if it has no accepted edges
+     */
+    int id(String userId) {
+        Integer id = ids.get(userId.trim());
+        return id == null ? -1 : id;
+    }//end id
+
+    /**
+     * @return true if from has accepted to as a connection
+     */
+    public boolean areFriends(String from, String to) {
+        lock.readLock().lock();
+        try {
+            int u = id(from), v = id(to);
+            return u >= 0 && v >= 0 && Arrays.binarySearch(out[u], 0, outDeg[u], v) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end areFriends
+
+    /**
+     * @return true if to can be reached from from over at most maxHops
+     *         accepted edges
+     */
+    public boolean withinHops(String from, String to, int maxHops) {
+        Scratch sc = null;
+        lock.readLock().lock();
+        try {
+            int s = id(from), t = id(to);
+            if (s < 0 || t < 0)
+                return false;
+            if (s == t)
+                return true;
+            sc = scratch.take();
+            sc.ensure(size);
+            int[] visited = sc.visited, queue = sc.queue;
+            int stamp = sc.stamp;
+            int head = 0, tail = 0;
+            queue[tail++] = s;
+            visited[s] = stamp;
+            for (int depth = 1; depth <= maxHops && head < tail; ++depth) {
+                int levelEnd = tail;
+                while (head < levelEnd) {
+                    int u = queue[head++];
+                    int[] adj = out[u];
+                    for (int i = 0, d = outDeg[u]; i < d; ++i) {
+                        int v = adj[i];
+                        if (v == t)
+                            return true;
+                        if (visited[v] != stamp) {
+                            visited[v] = stamp;
+                            queue[tail++] = v;
+                        }
+                    }
+                }
+            }
+            return false;
+        } finally {
+            scratch.give(sc);
+            lock.readLock().unlock();
+        }
+    }//end withinHops
+
+    /**
+     * Finds a shortest chain of accepted connections from one user to
+     * another with a bidirectional BFS: forward along out-edges from from,
+     * backward along in-edges from to, always growing the smaller frontier
+     * by one level. Apart from the returned list the search only uses the
+     * scratch arrays it takes from the free list.
+     *
+     * @param maxHops the longest chain to look for
+     * @return the user ids on the path, from first and to last, or null if
+     *         they are not connected within maxHops
+     */
+    public List<String> shortestPath(String from, String to, int maxHops) {
+        Scratch sc = null;
+        lock.readLock().lock();
+        try {
+            int s = id(from), t = id(to);
+            if (s < 0 || t < 0)
+                return null;
+            if (s == t) {
+                List<String> self = new ArrayList<String>(1);
+                self.add(names[s]);
+                return self;
+            }
+            sc = scratch.take();
+            sc.ensure(size);
+            sc.ensurePath();
+            int stamp = sc.stamp;
+            int[] vf = sc.visited, qf = sc.queue, pf = sc.parent, df = sc.dist;
+            int[] vb = sc.visitedBack, qb = sc.queueBack, pb = sc.parentBack, db = sc.distBack;
+
+            int headF = 0, tailF = 0, headB = 0, tailB = 0;
+            qf[tailF++] = s; vf[s] = stamp; pf[s] = -1; df[s] = 0;
+            qb[tailB++] = t; vb[t] = stamp; pb[t] = -1; db[t] = 0;
+            int depthF = 0, depthB = 0;
+            int meet = -1, best = Integer.MAX_VALUE;
+
+            while (depthF + depthB < maxHops && headF < tailF && headB < tailB) {
+                boolean forward = tailF - headF <= tailB - headB;
+                int levelEnd = forward ? tailF : tailB;
+                if (forward) {
+                    depthF++;
+                    while (headF < levelEnd) {
+                        int u = qf[headF++];
+                        int[] adj = out[u];
+                        for (int i = 0, d = outDeg[u]; i < d; ++i) {
+                            int v = adj[i];
+                            if (vf[v] == stamp)
+                                continue;
+                            vf[v] = stamp; pf[v] = u; df[v] = depthF;
+                            qf[tailF++] = v;
+                            if (vb[v] == stamp && depthF + db[v] < best) {
+                                best = depthF + db[v];
+                                meet = v;
+                            }
+                        }
+                    }
+                } else {
+                    depthB++;
+                    while (headB < levelEnd) {
+                        int u = qb[headB++];
+                        int[] adj = in[u];
+                        for (int i = 0, d = inDeg[u]; i < d; ++i) {
+                            int v = adj[i];
+                            if (vb[v] == stamp)
+                                continue;
+                            vb[v] = stamp; pb[v] = u; db[v] = depthB;
+                            qb[tailB++] = v;
+                            if (vf[v] == stamp && df[v] + depthB < best) {
+                                best = df[v] + depthB;
+                                meet = v;
+                            }
+                        }
+                    }
+                }
+                // a full level was expanded, so best is the shortest chain
+                if (meet >= 0)
+                    break;
+            }
+            if (meet < 0 || best > maxHops)
+                return null;
+
+            List<String> path = new ArrayList<String>(best + 1);
+            for (int v = meet; v >= 0; v = pf[v])
+                path.add(names[v]);
+            Collections.reverse(path);
+            for (int v = pb[meet]; v >= 0; v = pb[v])
+                path.add(names[v]);
+            return path;
+        } finally {
+            scratch.give(sc);
+            lock.readLock().unlock();
+        }
+    }//end shortestPath
+
+    /**
+     * @return the users that userId has accepted, in id order
+     */
+    public List<String> friends(String userId) {
+        lock.readLock().lock();
+        try {
+            int u = id(userId);
+            if (u < 0)
+                return new ArrayList<String>();
+            List<String> result = new ArrayList<String>(outDeg[u]);
+            for (int i = 0; i < outDeg[u]; ++i)
+                result.add(names[out[u][i]]);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end friends
+
+    /**
+     * @return the number of users userId has accepted
+     */
+    public int friendCount(String userId) {
+        lock.readLock().lock();
+        try {
+            int u = id(userId);
+            return u < 0 ? 0 : outDeg[u];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end friendCount
+
+    /**
+     * Records that from has accepted to.
+     */
+    public void addEdge(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            link(intern(from), intern(to));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }//end addEdge
+
+    /**
+     * Records that userId and every user in others have accepted each
+     * other, under one write lock.
+     */
+    public void addMutualEdges(String userId, Collection<String> others) {
+        lock.writeLock().lock();
+        try {
+            int u = intern(userId);
+            for (String other : others) {
+                int v = intern(other);
+                link(u, v);
+                link(v, u);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }//end addMutualEdges
+
+    /**
+     * Records that the edge from from to to is no longer accepted.
+     */
+    public void removeEdge(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            unlink(id(from), id(to));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }//end removeEdge
+
+    /**
+     * The adjacency arrays as they are while the read lock is held: rows
+     * of out and in are sorted up to outDeg and inDeg, names is indexed by
+     * dense id, and all of them are only valid until read() returns.
+     */
+    interface Reader<T> {
+        T read(int size, int[][] out, int[] outDeg, int[][] in, int[] inDeg, String[] names);
+    }
+
+    /**
+     * Runs reader under the read lock, for code in this package that scans
+     * many rows at once, such as ConnectionRecommender.
+     */
+    <T> T read(Reader<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.read(size, out, outDeg, in, inDeg, names);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end read
+
+    /**
+     * @return the number of users in the graph
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end size
+
+    // add or remove the edge u -> v; the write lock must be held
+    private void link(int u, int v) {
+        if (insert(out, outDeg, u, v))
+            insert(in, inDeg, v, u);
+    }//end link
+
+    private void unlink(int u, int v) {
+        if (u >= 0 && v >= 0 && remove(out, outDeg, u, v))
+            remove(in, inDeg, v, u);
+    }//end unlink
+
+    private static boolean insert(int[][] adj, int[] deg, int u, int v) {
+        int d = deg[u];
+        int pos = Arrays.binarySearch(adj[u], 0, d, v);
+        if (pos >= 0)
+            return false;
+        pos = -pos - 1;
+        if (d == adj[u].length)
+            adj[u] = Arrays.copyOf(adj[u], Math.max(4, d * 2));
+        System.arraycopy(adj[u], pos, adj[u], pos + 1, d - pos);
+        adj[u][pos] = v;
+        deg[u] = d + 1;
+        return true;
+    }//end insert
+
+    private static boolean remove(int[][] adj, int[] deg, int u, int v) {
+        int d = deg[u];
+        int pos = Arrays.binarySearch(adj[u], 0, d, v);
+        if (pos < 0)
+            return false;
+        System.arraycopy(adj[u], pos + 1, adj[u], pos, d - pos - 1);
+        deg[u] = d - 1;
+        return true;
+    }//end remove
+
+}//end SocialGraph
@@ -0,0 +1,830 @@
+/*
+ * In-memory user search index
+ * ===========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index over the words of every user's id, name, companies
+ * (WORK_EXPR) and institutions (EDUCATIONAL_DETAILS), for type-ahead search.
+ *
+ * Users are interned to dense ints like in SocialGraph. Every word (term)
+ * keeps a posting list of (user, field) pairs grouped by field, heaviest
+ * first. For each field the terms with postings in it are sorted by length,
+ * then text, so the terms of one length starting with a prefix are one range
+ * of the set. Each query word matches the terms it is a prefix of; a word
+ * with no such term is taken as misspelt and matches the terms sharing most
+ * of its trigrams instead. A user is a hit if every query word matches one of
+ * its terms, and is ranked by how closely and in which field each word
+ * matched.
+ *
+ * The query word with the fewest postings picks the candidates. Its postings
+ * are read in score order, closer terms and heavier fields first, so when a
+ * very common prefix is cut off at SCAN_LIMIT only lower scoring postings are
+ * left out. The other words are then checked against each candidate's own
+ * terms whenever that is cheaper than reading their posting lists, so a
+ * common word costs little once a rarer one has been typed.
+ *
+ * The index is loaded once at startup. CreateUser and the full name update
+ * of this process change it right away, and refresh() adds the users and
+ * names that other clients and the loaders changed, from the log that
+ * sql/src/user_changes.sql keeps of USR.
+ */
+public class UserSearchIndex {
+
+    static final String SQL_USERS =
+            "SELECT userId, name FROM USR";
+    static final String SQL_COMPANIES =
+            "SELECT U.userId, W.company FROM WORK_EXPR W JOIN USR U ON U.uid = W.userUid";
+    static final String SQL_INSTITUTIONS =
+            "SELECT U.userId, E.instituitionName FROM EDUCATIONAL_DETAILS E JOIN USR U ON U.uid = E.userUid";
+    static final String SQL_CHANGES =
+            "SELECT U.userId, U.name FROM USR_CHANGES C JOIN USR U ON U.uid = C.uid " +
+            "WHERE C.xid >= ? ORDER BY C.seq";
+    // the fields of the users in the log, for those new to the index
+    static final String SQL_CHANGED_COMPANIES =
+            SQL_COMPANIES + " WHERE W.userUid IN (SELECT C.uid FROM USR_CHANGES C WHERE C.xid >= ?)";
+    static final String SQL_CHANGED_INSTITUTIONS =
+            SQL_INSTITUTIONS + " WHERE E.userUid IN (SELECT C.uid FROM USR_CHANGES C WHERE C.xid >= ?)";
+
+    // the field a posting came from, kept in its two low bits
+    static final int USER_ID = 0;
+    static final int NAME = 1;
+    static final int COMPANY = 2;
+    static final int INSTITUTION = 3;
+    private static final float[] FIELD_WEIGHT = {1.5f, 2.0f, 1.0f, 1.0f};
+
+    // the posting groups of a term, heaviest field first, and the group of
+    // each field
+    static final int GROUPS = 4;
+    private static final int[] GROUP_FIELD = {NAME, USER_ID, COMPANY, INSTITUTION};
+    private static final int[] FIELD_GROUP = {1, 0, 2, 3};
+
+    // postings and terms read, best scoring first, for the word that picks
+    // the candidates; the lower scoring rest of a very common prefix is not
+    // considered. Each candidate costs a check of its other words, so this
+    // bounds the tail of a common first name followed by a one or two letter
+    // prefix (about 3 ms p99 at 1M users).
+    static final int SCAN_LIMIT = Integer.getInteger("profnetwork.search.scanLimit", 10000);
+
+    // least trigram similarity (Jaccard) for a misspelt word to match a term
+    static final float MIN_SIMILARITY = 0.25f;
+
+    private static final int[] EMPTY = new int[0];
+    private static final float[] EMPTY_SCORES = new float[0];
+
+    /**
+     * One indexed word and the users it occurs in, as user << 2 | field.
+     * The postings of group g (see GROUP_FIELD) are [start(g), ends[g]);
+     * within a group they are unordered, so a user is added or removed by
+     * moving one entry of each later group.
+     */
+    static final class Term {
+        final int id;
+        final String text;
+        // the first four characters, for prefix checks without the String
+        final long head;
+        int[] postings = EMPTY;
+        final int[] ends = new int[GROUPS];
+        int size = 0;
+
+        Term(int id, String text) {
+            this.id = id;
+            this.text = text;
+            this.head = head(text);
+        }
+
+        int start(int g) {
+            return g == 0 ? 0 : ends[g - 1];
+        }
+
+        /**
+         * @return true if p is the first posting of its group
+         */
+        boolean add(int p) {
+            int g = FIELD_GROUP[p & 3];
+            if (size == postings.length)
+                postings = Arrays.copyOf(postings, Math.max(4, size * 2));
+            // the first entry of each later group moves to that group's end
+            int at = size;
+            for (int h = GROUPS - 1; h > g; --h) {
+                int first = ends[h - 1];
+                postings[at] = postings[first];
+                at = first;
+                ends[h]++;
+            }
+            postings[at] = p;
+            ends[g]++;
+            size++;
+            return ends[g] - start(g) == 1;
+        }
+
+        /**
+         * Removes p, which must be present.
+         *
+         * @return true if p was the last posting of its group
+         */
+        boolean remove(int p) {
+            int g = FIELD_GROUP[p & 3];
+            int i = start(g);
+            while (postings[i] != p)
+                ++i;
+            // the last entry of the group fills the gap, then the last entry
+            // of each later group fills the one left at that group's start
+            int gap = ends[g] - 1;
+            postings[i] = postings[gap];
+            ends[g]--;
+            for (int h = g + 1; h < GROUPS; ++h) {
+                int last = ends[h] - 1;
+                postings[gap] = postings[last];
+                gap = last;
+                ends[h]--;
+            }
+            size--;
+            return ends[g] == start(g);
+        }
+    }//end Term
+
+    // terms by length, then text
+    private static final Comparator<Term> BY_LENGTH = (a, b) -> {
+        int c = Integer.compare(a.text.length(), b.text.length());
+        return c != 0 ? c : a.text.compareTo(b.text);
+    };
+
+    /**
+     * A search result, best first.
+     */
+    public static final class Hit {
+        public final String userId;
+        public final String name;
+        public final float score;
+
+        Hit(String userId, String name, float score) {
+            this.userId = userId;
+            this.name = name;
+            this.score = score;
+        }
+    }//end Hit
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private String[] userIds = new String[1024];
+    private String[] names = new String[1024];
+    // the terms of every user, as term id << 8 | tag << 2 | field (see entry)
+    private int[][] forward = new int[1024][];
+    private int[] forwardSize = new int[1024];
+    private int size = 0;
+
+    private final Map<String, Term> terms = new HashMap<String, Term>();
+    // per group, the terms with postings in it, and the longest such term
+    private final List<TreeSet<Term>> grouped = new ArrayList<TreeSet<Term>>(GROUPS);
+    private final int[] longest = new int[GROUPS];
+    private Term[] termsById = new Term[1024];
+    private int termCount = 0;
+    // padded trigram -> the terms containing it
+    private final Map<Long, List<Term>> trigrams = new HashMap<Long, List<Term>>();
+
+    // SocialGraph.SQL_HORIZON taken before the last read of USR; the changes
+    // of transactions from this one on are read again by the next
+    // refresh(), which holds refreshing
+    private final ReentrantLock refreshing = new ReentrantLock();
+    private long horizon = 0;
+
+    /**
+     * Scoring state of one query, sized to the index and reused across
+     * queries. User u owns the four ints at u << 2: the stamp of the query
+     * that made it a candidate, the number of query words it has matched,
+     * and its score for the current word and in total. Keeping them together
+     * costs one cache miss per posting, and the stamp means the array never
+     * has to be cleared.
+     */
+    static class Scratch {
+        static final int MARK = 0, MATCHED = 1, WORD = 2, TOTAL = 3;
+
+        int[] slots = EMPTY;
+        int[] candidates = EMPTY;
+        int stamp = 0;
+
+        void ensure(int n) {
+            if (candidates.length < n) {
+                int cap = n + n / 2;
+                slots = new int[cap << 2];
+                candidates = new int[cap];
+                stamp = 0;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(slots, 0);
+                stamp = 1;
+            }
+        }
+    }//end Scratch
+
+    // idle scoring state, most recently used first; a free list rather
+    // than a ThreadLocal, as in SocialGraph, for ApiServer's virtual threads
+    private static final ConcurrentLinkedDeque<Scratch> scratch = new ConcurrentLinkedDeque<Scratch>();
+
+    /**
+     * Creates an empty index.
+     */
+    public UserSearchIndex() {
+        for (int g = 0; g < GROUPS; ++g)
+            grouped.add(new TreeSet<Term>(BY_LENGTH));
+    }//end UserSearchIndex
+
+    /**
+     * Builds the index from USR, WORK_EXPR and EDUCATIONAL_DETAILS.
+     *
+     * @param esql the session used to read the tables
+     * @return the loaded index
+     * @throws java.sql.SQLException when a table cannot be read
+     */
+    public static UserSearchIndex load(ProfNetwork esql) throws SQLException {
+        UserSearchIndex idx = new UserSearchIndex();
+        idx.horizon = esql.executeQueryForObject(SocialGraph.SQL_HORIZON, rs -> rs.getLong(1));
+        esql.executeQueryAndStream(SQL_USERS, 10000,
+                rs -> idx.add(rs.getString(1), rs.getString(2)));
+        esql.executeQueryAndStream(SQL_COMPANIES, 10000,
+                rs -> idx.addField(rs.getString(1), COMPANY, rs.getString(2)));
+        esql.executeQueryAndStream(SQL_INSTITUTIONS, 10000,
+                rs -> idx.addField(rs.getString(1), INSTITUTION, rs.getString(2)));
+        return idx;
+    }//end load
+
+    /**
+     * Adds the users created and applies the names changed since the last
+     * load or refresh, as logged in USR_CHANGES, with the companies and
+     * institutions of the users new to the index. The changes of
+     * transactions that were still open last time are read again. Calls are
+     * serialized.
+     *
+     * @param esql the session used to read the log
+     * @return the number of users added or renamed
+     * @throws java.sql.SQLException when the log cannot be read
+     */
+    public int refresh(ProfNetwork esql) throws SQLException {
+        refreshing.lock();
+        try {
+            long next = esql.executeQueryForObject(SocialGraph.SQL_HORIZON, rs -> rs.getLong(1));
+            List<String[]> changes = esql.executeQueryAndMap(SQL_CHANGES,
+                    rs -> new String[] {rs.getString(1), rs.getString(2)}, horizon);
+            Set<String> added = new HashSet<String>();
+            for (String[] c : changes) {
+                if (add(c[0], c[1]))
+                    added.add(c[0].trim());
+            }
+            if (!added.isEmpty()) {
+                esql.executeQueryAndStream(SQL_CHANGED_COMPANIES, 10000, rs -> {
+                    if (added.contains(rs.getString(1).trim()))
+                        addField(rs.getString(1), COMPANY, rs.getString(2));
+                }, horizon);
+                esql.executeQueryAndStream(SQL_CHANGED_INSTITUTIONS, 10000, rs -> {
+                    if (added.contains(rs.getString(1).trim()))
+                        addField(rs.getString(1), INSTITUTION, rs.getString(2));
+                }, horizon);
+            }
+            horizon = next;
+            return changes.size();
+        } finally {
+            refreshing.unlock();
+        }
+    }//end refresh
+
+    /**
+     * Indexes a user by id and name. Adding a user that is already indexed
+     * only updates its name.
+     *
+     * @param name the full name, or null if not set
+     * @return true if the user was not indexed before
+     */
+    public boolean add(String userId, String name) {
+        lock.writeLock().lock();
+        try {
+            String key = userId.trim();
+            Integer id = ids.get(key);
+            if (id != null) {
+                setName(id, name);
+                return false;
+            }
+            int u = size++;
+            if (u == userIds.length) {
+                int cap = u * 2;
+                userIds = Arrays.copyOf(userIds, cap);
+                names = Arrays.copyOf(names, cap);
+                forward = Arrays.copyOf(forward, cap);
+                forwardSize = Arrays.copyOf(forwardSize, cap);
+            }
+            userIds[u] = key;
+            forward[u] = new int[4];
+            ids.put(key, u);
+            Set<String> words = words(key);
+            words.add(key.toLowerCase());
+            for (String w : words)
+                post(u, term(w), USER_ID);
+            setName(u, name);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }//end add
+
+    /**
+     * Indexes a company or institution of an already indexed user. Rows of
+     * unknown users are ignored.
+     *
+     * @param field COMPANY or INSTITUTION
+     */
+    public void addField(String userId, int field, String text) {
+        if (userId == null || text == null)
+            return;
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(userId.trim());
+            if (id == null)
+                return;
+            for (String w : words(text))
+                post(id, term(w), field);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }//end addField
+
+    /**
+     * Replaces the indexed name of a user, e.g. after a profile update.
+     */
+    public void rename(String userId, String name) {
+        add(userId, name);
+    }//end rename
+
+    // caller holds the write lock
+    private void setName(int u, String name) {
+        String clean = name == null ? null : name.trim();
+        if (names[u] != null) {
+            for (String w : words(names[u]))
+                unpost(u, terms.get(w), NAME);
+        }
+        names[u] = clean;
+        if (clean != null) {
+            for (String w : words(clean))
+                post(u, term(w), NAME);
+        }
+    }//end setName
+
+    // caller holds the write lock
+    private void post(int u, Term t, int field) {
+        if (t.add(u << 2 | field)) {
+            int g = FIELD_GROUP[field];
+            grouped.get(g).add(t);
+            longest[g] = Math.max(longest[g], t.text.length());
+        }
+        if (forwardSize[u] == forward[u].length)
+            forward[u] = Arrays.copyOf(forward[u], forwardSize[u] * 2);
+        forward[u][forwardSize[u]++] = entry(t, field);
+    }//end post
+
+    // caller holds the write lock
+    private void unpost(int u, Term t, int field) {
+        if (t.remove(u << 2 | field))
+            grouped.get(FIELD_GROUP[field]).remove(t);
+        remove(forward[u], forwardSize[u], entry(t, field));
+        forwardSize[u]--;
+    }//end unpost
+
+    /**
+     * A forward entry carries the low 6 bits of the term's first character,
+     * so checking a candidate's terms against a prefix skips most of them
+     * without loading the Term. That leaves 24 bits for the term id.
+     */
+    private static int entry(Term t, int field) {
+        if (t.id >= 1 << 24)
+            throw new IllegalStateException("Too many search terms");
+        return t.id << 8 | (t.text.charAt(0) & 0x3f) << 2 | field;
+    }//end entry
+
+    // replaces the entry with the last one; the entry must be present
+    private static void remove(int[] a, int n, int entry) {
+        for (int i = 0; i < n; ++i) {
+            if (a[i] == entry) {
+                a[i] = a[n - 1];
+                return;
+            }
+        }
+    }//end remove
+
+    // caller holds the write lock
+    private Term term(String w) {
+        Term t = terms.get(w);
+        if (t == null) {
+            t = new Term(termCount, w);
+            terms.put(w, t);
+            if (termCount == termsById.length)
+                termsById = Arrays.copyOf(termsById, termCount * 2);
+            termsById[termCount++] = t;
+            for (long g : trigramsOf(w)) {
+                List<Term> list = trigrams.get(g);
+                if (list == null) {
+                    list = new ArrayList<Term>(2);
+                    trigrams.put(g, list);
+                }
+                list.add(t);
+            }
+        }
+        return t;
+    }//end term
+
+    /**
+     * Finds the users best matching a query of one or more words; the last
+     * word may be incomplete.
+     *
+     * @param query the words typed so far
+     * @param k the maximum number of results
+     * @return up to k hits, best first
+     */
+    public List<Hit> search(String query, int k) {
+        Set<String> words = words(query);
+        if (words.isEmpty() || k <= 0)
+            return Collections.emptyList();
+        Scratch s = null;
+        lock.readLock().lock();
+        try {
+            List<Match> matches = new ArrayList<Match>(words.size());
+            for (String w : words) {
+                Match m = match(w);
+                if (m.count == 0)
+                    return Collections.emptyList();
+                matches.add(m);
+            }
+            matches.sort((a, b) -> Integer.compare(a.postings, b.postings));
+
+            s = scratch.pollFirst();
+            if (s == null)
+                s = new Scratch();
+            s.ensure(size);
+            int[] slot = s.slots;
+            int stamp = s.stamp;
+
+            // the rarest word picks the candidates from its postings
+            int n = candidates(matches.get(0), s);
+
+            // every other word keeps the candidates it matches, read from its
+            // postings or from the candidates' own terms, whichever is shorter
+            for (int t = 1; t < matches.size(); ++t) {
+                Match m = matches.get(t);
+                if (!m.truncated && m.postings < n * 4) {
+                    for (int i = 0; i < m.count; ++i) {
+                        Term term = m.terms[i];
+                        for (int j = 0; j < term.size; ++j) {
+                            int p = term.postings[j];
+                            int at = p >>> 2 << 2;
+                            if (slot[at + Scratch.MARK] == stamp)
+                                score(slot, at, t, m.scores[i] * FIELD_WEIGHT[p & 3]);
+                        }
+                    }
+                } else {
+                    int tag = m.fuzzy == null ? (m.word.charAt(0) & 0x3f) << 2 : -1;
+                    for (int i = 0; i < n; ++i) {
+                        int u = s.candidates[i];
+                        int[] fwd = forward[u];
+                        for (int j = forwardSize[u] - 1; j >= 0; --j) {
+                            int e = fwd[j];
+                            if (tag >= 0 && (e & 0xfc) != tag)
+                                continue;
+                            float closeness = m.closeness(termsById[e >>> 8]);
+                            if (closeness > 0)
+                                score(slot, u << 2, t, closeness * FIELD_WEIGHT[e & 3]);
+                        }
+                    }
+                }
+                int kept = 0;
+                for (int i = 0; i < n; ++i) {
+                    int u = s.candidates[i];
+                    int at = u << 2;
+                    if (slot[at + Scratch.MATCHED] == t + 1) {
+                        slot[at + Scratch.TOTAL] = Float.floatToRawIntBits(
+                                Float.intBitsToFloat(slot[at + Scratch.TOTAL]) + Float.intBitsToFloat(slot[at + Scratch.WORD]));
+                        s.candidates[kept++] = u;
+                    }
+                }
+                n = kept;
+            }
+
+            // keep the k best candidates; ties go to the earlier user
+            PriorityQueue<Integer> best = new PriorityQueue<Integer>(k + 1, (a, b) -> {
+                int c = Float.compare(total(slot, a), total(slot, b));
+                return c != 0 ? c : Integer.compare(b, a);
+            });
+            for (int i = 0; i < n; ++i) {
+                int u = s.candidates[i];
+                if (best.size() == k && total(slot, u) <= total(slot, best.peek()))
+                    continue;
+                best.add(u);
+                if (best.size() > k)
+                    best.poll();
+            }
+            Hit[] hits = new Hit[best.size()];
+            for (int i = hits.length - 1; i >= 0; --i) {
+                int u = best.poll();
+                hits[i] = new Hit(userIds[u], names[u], total(slot, u));
+            }
+            return Arrays.asList(hits);
+        } finally {
+            if (s != null)
+                scratch.offerFirst(s);
+            lock.readLock().unlock();
+        }
+    }//end search
+
+    /**
+     * Makes the users m matches candidates, reading the posting groups of
+     * its terms by descending closeness times field weight, until SCAN_LIMIT
+     * postings and terms have been read. A group's postings all score the
+     * same, so the cut only drops postings that score no higher than the
+     * ones read. Caller holds the read lock.
+     *
+     * @return the number of candidates
+     */
+    private int candidates(Match m, Scratch s) {
+        // closeness << 32 | length or term index << 2 | group, the best last;
+        // positive floats order like their bits
+        long[] levels = new long[16];
+        int count = 0;
+        if (m.fuzzy == null) {
+            for (int g = 0; g < GROUPS; ++g) {
+                for (int len = m.word.length(); len <= longest[g]; ++len) {
+                    if (count == levels.length)
+                        levels = Arrays.copyOf(levels, count * 2);
+                    float score = prefixCloseness(m.word.length(), len) * FIELD_WEIGHT[GROUP_FIELD[g]];
+                    levels[count++] = (long) Float.floatToRawIntBits(score) << 32 | len << 2 | g;
+                }
+            }
+        } else {
+            for (int i = 0; i < m.count; ++i) {
+                Term t = m.terms[i];
+                for (int g = 0; g < GROUPS; ++g) {
+                    if (t.ends[g] == t.start(g))
+                        continue;
+                    if (count == levels.length)
+                        levels = Arrays.copyOf(levels, count * 2);
+                    float score = m.scores[i] * FIELD_WEIGHT[GROUP_FIELD[g]];
+                    levels[count++] = (long) Float.floatToRawIntBits(score) << 32 | i << 2 | g;
+                }
+            }
+        }
+        Arrays.sort(levels, 0, count);
+
+        int[] slot = s.slots;
+        int stamp = s.stamp;
+        int n = 0;
+        int budget = SCAN_LIMIT;
+        for (int l = count - 1; l >= 0 && budget > 0; --l) {
+            float score = Float.intBitsToFloat((int) (levels[l] >>> 32));
+            int g = (int) levels[l] & 3;
+            int which = (int) levels[l] >>> 2;
+            Iterable<Term> level = m.fuzzy == null
+                    ? range(g, m.word, which) : Collections.singletonList(m.terms[which]);
+            for (Term term : level) {
+                if (budget <= 0)
+                    break;
+                int from = term.start(g);
+                int end = Math.min(term.ends[g], from + budget);
+                budget -= Math.max(1, end - from);
+                for (int j = from; j < end; ++j) {
+                    int p = term.postings[j];
+                    int at = p >>> 2 << 2;
+                    if (slot[at + Scratch.MARK] != stamp) {
+                        slot[at + Scratch.MARK] = stamp;
+                        slot[at + Scratch.MATCHED] = 1;
+                        slot[at + Scratch.TOTAL] = Float.floatToRawIntBits(score);
+                        s.candidates[n++] = p >>> 2;
+                    } else if (score > Float.intBitsToFloat(slot[at + Scratch.TOTAL])) {
+                        slot[at + Scratch.TOTAL] = Float.floatToRawIntBits(score);
+                    }
+                }
+            }
+        }
+        return n;
+    }//end candidates
+
+    // the terms of group g with the given length that start with word;
+    // caller holds the read lock
+    private NavigableSet<Term> range(int g, String word, int length) {
+        char[] low = Arrays.copyOf(word.toCharArray(), length);
+        char[] high = Arrays.copyOf(low, length);
+        Arrays.fill(high, word.length(), length, Character.MAX_VALUE);
+        return grouped.get(g).subSet(new Term(-1, new String(low)), true,
+                new Term(-1, new String(high)), true);
+    }//end range
+
+    // keeps the best score for word t of the candidate at slot[at]; a
+    // candidate that matched every earlier word moves on to t + 1
+    private static void score(int[] slot, int at, int t, float score) {
+        int matched = slot[at + Scratch.MATCHED];
+        if (matched == t) {
+            slot[at + Scratch.MATCHED] = t + 1;
+            slot[at + Scratch.WORD] = Float.floatToRawIntBits(score);
+        } else if (matched == t + 1 && score > Float.intBitsToFloat(slot[at + Scratch.WORD])) {
+            slot[at + Scratch.WORD] = Float.floatToRawIntBits(score);
+        }
+    }//end score
+
+    private static float total(int[] slot, int u) {
+        return Float.intBitsToFloat(slot[(u << 2) + Scratch.TOTAL]);
+    }//end total
+
+    /**
+     * The terms one query word matches, with how closely each matches it.
+     */
+    static final class Match {
+        final String word;
+        Term[] terms = new Term[8];
+        float[] scores = new float[8];
+        int count = 0;
+        int postings = 0;
+        // true when not every matching term was collected
+        boolean truncated = false;
+        // the matched terms of a misspelt word, null for a prefix
+        Map<Term, Float> fuzzy = null;
+
+        // the prefix check on Term.head
+        final long head;
+        final long headMask;
+
+        Match(String word) {
+            this.word = word;
+            this.head = head(word);
+            this.headMask = -1L << 16 * (4 - Math.min(4, word.length()));
+        }
+
+        void add(Term t, float score) {
+            if (count == terms.length) {
+                terms = Arrays.copyOf(terms, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            terms[count] = t;
+            scores[count++] = score;
+            postings += t.size;
+            if (fuzzy != null)
+                fuzzy.put(t, score);
+        }
+
+        float closeness(Term t) {
+            if (fuzzy != null) {
+                Float f = fuzzy.get(t);
+                return f == null ? 0f : f;
+            }
+            if ((t.head & headMask) != head
+                    || (word.length() > 4 && !t.text.startsWith(word)))
+                return 0f;
+            return prefixCloseness(word, t.text);
+        }
+    }//end Match
+
+    // the first four characters of w, 16 bits each, first one highest
+    static long head(String w) {
+        long h = 0;
+        for (int i = 0; i < 4; ++i)
+            h = h << 16 | (i < w.length() ? w.charAt(i) : 0);
+        return h;
+    }//end head
+
+    // an exact term scores 1, a longer term less the more it adds
+    static float prefixCloseness(String word, String term) {
+        return prefixCloseness(word.length(), term.length());
+    }//end prefixCloseness
+
+    static float prefixCloseness(int word, int term) {
+        return term == word ? 1f : 0.5f + 0.4f * word / term;
+    }//end prefixCloseness
+
+    // caller holds the read lock
+    private Match match(String w) {
+        Match m = new Match(w);
+        // the closest terms first, i.e. the shortest; a term is taken from
+        // the first group it has postings in
+        int longestTerm = 0;
+        for (int g = 0; g < GROUPS; ++g)
+            longestTerm = Math.max(longestTerm, longest[g]);
+        for (int len = w.length(); len <= longestTerm; ++len) {
+            for (int g = 0; g < GROUPS; ++g) {
+                if (len > longest[g])
+                    continue;
+                for (Term t : range(g, w, len)) {
+                    if (t.start(g) > 0)
+                        continue;
+                    if (m.postings >= SCAN_LIMIT) {
+                        m.truncated = true;
+                        return m;
+                    }
+                    m.add(t, prefixCloseness(w, t.text));
+                }
+            }
+        }
+        if (m.count > 0 || w.length() < 3)
+            return m;
+
+        // no term starts with w: take it as misspelt. A term within
+        // MIN_SIMILARITY shares at least need of its trigrams, so it contains
+        // one of the grams.length - need + 1 rarest ones.
+        m.fuzzy = new HashMap<Term, Float>();
+        long[] grams = trigramsOf(w);
+        int need = (int) Math.ceil(MIN_SIMILARITY * grams.length);
+        List<List<Term>> lists = new ArrayList<List<Term>>();
+        for (long g : grams) {
+            List<Term> list = trigrams.get(g);
+            lists.add(list == null ? Collections.<Term>emptyList() : list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<Term> seen = new HashSet<Term>();
+        for (List<Term> list : lists.subList(0, grams.length - need + 1)) {
+            for (Term t : list) {
+                if (t.size == 0 || !seen.add(t))
+                    continue;
+                long[] own = trigramsOf(t.text);
+                int common = 0;
+                for (long g : own) {
+                    for (long q : grams) {
+                        if (g == q) {
+                            common++;
+                            break;
+                        }
+                    }
+                }
+                float similarity = (float) common / (grams.length + own.length - common);
+                if (similarity >= MIN_SIMILARITY)
+                    m.add(t, 0.5f * similarity);
+            }
+        }
+        return m;
+    }//end match
+
+    /**
+     * @return the distinct lower case words of text, in order
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<String>();
+        if (text == null)
+            return words;
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean part = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (part && start < 0) {
+                start = i;
+            } else if (!part && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }//end words
+
+    /**
+     * @return the distinct trigrams of w padded with a blank on both sides,
+     *         packed into the low 48 bits of a long
+     */
+    static long[] trigramsOf(String w) {
+        String padded = " " + w + " ";
+        long[] grams = new long[padded.length() - 2];
+        int n = 0;
+        for (int i = 0; i + 3 <= padded.length(); ++i) {
+            long g = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+            boolean seen = false;
+            for (int j = 0; j < n && !seen; ++j)
+                seen = grams[j] == g;
+            if (!seen)
+                grams[n++] = g;
+        }
+        return n == grams.length ? grams : Arrays.copyOf(grams, n);
+    }//end trigramsOf
+
+    /**
+     * @return the number of indexed users
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }//end size
+
+}//end UserSearchIndex
@@ -0,0 +1,14 @@
+#!/bin/bash
+# Fails when any ProfNetwork menu query is planned with a sequential scan.
+# Run it on the bundled data and again after sql/src/scale_data.sql.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+export DB_NAME=$USER"_DB"
+
+plans=$(psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 < $DIR/../src/check_plans.sql) || exit 1
+
+echo "$plans" | awk '
+	/^== / { op = substr($0, 4); next }
+	# the default partition of MESSAGE is empty outside of bulk loads
+	/Seq Scan on message_default/ { next }
+	/Seq Scan/ { print "SEQ SCAN in " op ":" $0; bad = 1 }
+	END { if (bad) exit 1; print "All menu queries use index scans" }'
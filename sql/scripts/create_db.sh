@@ -2,6 +2,20 @@
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 export DB_NAME=$USER"_DB"
 
+# the schema needs PostgreSQL 11 or newer: identity columns, transition
+# tables (10), and a partitioned MESSAGE with a primary key and a default
+# partition (11)
+version=$(psql -h localhost -p $PGPORT $DB_NAME -tAc "SHOW server_version_num") || exit 1
+if [ "$version" -lt 110000 ]; then
+	echo "PostgreSQL 11 or newer is required, the server is $version" >&2
+	exit 1
+fi
+
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/message_partitions.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/connection_counts.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/connection_changes.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/user_changes.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/recommendations.sql
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/load_data.sql
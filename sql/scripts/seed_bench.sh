@@ -0,0 +1,13 @@
+#!/bin/bash
+# Recreates the database from data/*.csv and grows it for benchmarks, so
+# runs of java/scripts/bench.sh on different releases see the same data.
+#   ./seed_bench.sh [factor]      factor 1 keeps the bundled data only
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+export DB_NAME=$USER"_DB"
+FACTOR=${1:-100}
+
+$DIR/create_db.sh || exit 1
+if [ "$FACTOR" -gt 1 ]; then
+	psql -h localhost -p $PGPORT $DB_NAME -v ON_ERROR_STOP=1 -v factor=$FACTOR < $DIR/../src/scale_data.sql || exit 1
+fi
+$DIR/check_plans.sh
@@ -0,0 +1,125 @@
+-- Plans of every ProfNetwork menu query, with parameters taken from the
+-- loaded data. Run through sql/scripts/check_plans.sh, which fails when
+-- any of them uses a sequential scan. Each query is preceded by an
+-- '== <operation>' label that the script reports.
+
+\set QUIET on
+\pset pager off
+
+SELECT userId AS usr, password AS pwd FROM USR ORDER BY userId LIMIT 1 \gset
+SELECT U.userId AS cusr, F.userId AS cid FROM CONNECTION_USR C
+	JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid
+	WHERE C.status = 'Accept' ORDER BY U.userId LIMIT 1 \gset
+SELECT COALESCE(MAX(msgId), 0) AS mid, COALESCE(MAX(sendTime), now()) AS mtime FROM MESSAGE \gset
+-- start of the default three month window of the message boxes
+SELECT date_trunc('month', now()) - interval '2 months' AS since \gset
+
+\echo '== LogIn'
+EXPLAIN SELECT userId FROM USR WHERE userId = :'usr' AND password = :'pwd';
+
+\echo '== UpdateProfile'
+EXPLAIN UPDATE USR SET email = 'x@y.com' WHERE userId = :'usr';
+
+\echo '== FriendList'
+EXPLAIN SELECT F.userId AS connectionId FROM CONNECTION_USR C JOIN USR F ON F.uid = C.connectionUid
+	WHERE C.userUid = (SELECT uid FROM USR WHERE userId = :'cusr') AND C.status = 'Accept';
+
+\echo '== SendRequest user exists'
+EXPLAIN SELECT userId FROM USR WHERE userId = :'cid';
+
+\echo '== SendRequest already sent'
+EXPLAIN SELECT U.userId, F.userId AS connectionId, C.status FROM CONNECTION_USR C
+	JOIN USR U ON U.uid = C.userUid JOIN USR F ON F.uid = C.connectionUid
+	WHERE C.userUid = (SELECT uid FROM USR WHERE userId = :'cusr')
+	AND C.connectionUid = (SELECT uid FROM USR WHERE userId = :'cid');
+
+\echo '== SendRequest connection counts'
+EXPLAIN SELECT accepted, requested, requestedBy FROM CONNECTION_COUNTS
+	WHERE uid = (SELECT uid FROM USR WHERE userId = :'cusr');
+
+\echo '== ViewProfile (cache miss)'
+EXPLAIN SELECT CAST('U' AS text) AS kind, CAST(U.userid AS text), CAST(U.name AS text),
+	CAST(U.email AS text), CAST(U.dateofbirth AS text), CAST(NULL AS text)
+	FROM USR U WHERE U.userid = :'usr'
+UNION ALL
+SELECT 'W', CAST(W.company AS text), CAST(W.role AS text), CAST(W.location AS text),
+	CAST(W.startdate AS text), CAST(W.enddate AS text)
+	FROM WORK_EXPR W WHERE W.userUid = (SELECT uid FROM USR WHERE userId = :'usr')
+UNION ALL
+SELECT 'E', CAST(E.instituitionname AS text), CAST(E.major AS text), CAST(E.degree AS text),
+	CAST(E.startdate AS text), CAST(E.enddate AS text)
+	FROM EDUCATIONAL_DETAILS E WHERE E.userUid = (SELECT uid FROM USR WHERE userId = :'usr');
+
+\echo '== ViewMessages inbox'
+EXPLAIN SELECT M.msgid, O.userId AS senderid, M.contents, M.sendtime
+	FROM MESSAGE M JOIN USR O ON O.uid = M.senderUid
+	WHERE M.receiverUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND M.deleteStatus IN (0, 2) AND M.sendtime >= :'since'
+	ORDER BY M.sendtime DESC, M.msgid DESC LIMIT 20;
+EXPLAIN SELECT M.msgid, O.userId AS senderid, M.contents, M.sendtime
+	FROM MESSAGE M JOIN USR O ON O.uid = M.senderUid
+	WHERE M.receiverUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND M.deleteStatus IN (0, 2) AND M.sendtime >= :'since'
+	AND (M.sendtime, M.msgid) < (:'mtime', :mid)
+	ORDER BY M.sendtime DESC, M.msgid DESC LIMIT 20;
+
+\echo '== ViewMessages inbox, older messages'
+EXPLAIN SELECT M.msgid, O.userId AS senderid, M.contents, M.sendtime
+	FROM MESSAGE M JOIN USR O ON O.uid = M.senderUid
+	WHERE M.receiverUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND M.deleteStatus IN (0, 2) AND M.sendtime >= '1970-01-01'
+	ORDER BY M.sendtime DESC, M.msgid DESC LIMIT 20;
+
+\echo '== ViewMessages sent'
+EXPLAIN SELECT M.msgid, O.userId AS receiverid, M.contents, M.sendtime
+	FROM MESSAGE M JOIN USR O ON O.uid = M.receiverUid
+	WHERE M.senderUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND M.deleteStatus IN (0, 1) AND M.sendtime >= :'since'
+	ORDER BY M.sendtime DESC, M.msgid DESC LIMIT 20;
+EXPLAIN SELECT M.msgid, O.userId AS receiverid, M.contents, M.sendtime
+	FROM MESSAGE M JOIN USR O ON O.uid = M.receiverUid
+	WHERE M.senderUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND M.deleteStatus IN (0, 1) AND M.sendtime >= :'since'
+	AND (M.sendtime, M.msgid) < (:'mtime', :mid)
+	ORDER BY M.sendtime DESC, M.msgid DESC LIMIT 20;
+
+\echo '== DeleteMessage'
+EXPLAIN UPDATE MESSAGE SET deleteStatus = deleteStatus | 1
+	WHERE msgid = :mid AND sendTime = :'mtime' AND receiverUid = (SELECT uid FROM USR WHERE userId = :'usr')
+	AND deleteStatus & 1 = 0 RETURNING deleteStatus;
+
+\echo '== MessageCompactor'
+EXPLAIN WITH gone AS (DELETE FROM MESSAGE WHERE (msgId, sendTime) IN
+		(SELECT msgId, sendTime FROM MESSAGE WHERE deleteStatus = 3 LIMIT 1000 FOR UPDATE SKIP LOCKED)
+		RETURNING msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status)
+	INSERT INTO MESSAGE_ARCHIVE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status)
+	SELECT msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status FROM gone;
+
+\echo '== Recommendations'
+EXPLAIN SELECT C.userId, R.mutual[L.n], R.scores[L.n] FROM RECOMMENDATION R
+	CROSS JOIN unnest(R.candidates) WITH ORDINALITY L (uid, n) JOIN USR C ON C.uid = L.uid
+	WHERE R.uid = (SELECT uid FROM USR WHERE userId = :'cusr') AND NOT EXISTS (SELECT 1 FROM CONNECTION_USR A
+		WHERE A.userUid = R.uid AND A.connectionUid = L.uid AND A.status = 'Accept')
+	ORDER BY L.n;
+
+\echo '== IncomingRequests'
+EXPLAIN SELECT F.userId AS connectionid FROM CONNECTION_USR C JOIN USR F ON F.uid = C.userUid
+	WHERE C.connectionUid = (SELECT uid FROM USR WHERE userId = :'cusr') AND C.status = 'Request';
+
+\echo '== AcceptRequests'
+EXPLAIN WITH accepted AS (UPDATE CONNECTION_USR SET status = 'Accept'
+		WHERE connectionUid = (SELECT uid FROM USR WHERE userId = :'cusr') AND status = 'Request'
+		AND userUid <> connectionUid
+		AND userUid IN (SELECT uid FROM USR WHERE userId = ANY (string_to_array(:'cid', chr(10))))
+		RETURNING userUid, connectionUid),
+	reciprocal AS (INSERT INTO CONNECTION_USR (userUid, connectionUid, status)
+		SELECT connectionUid, userUid, 'Accept' FROM accepted
+		ON CONFLICT (userUid, connectionUid) DO UPDATE SET status = 'Accept'
+		WHERE CONNECTION_USR.status <> 'Accept')
+	SELECT F.userId FROM accepted A JOIN USR F ON F.uid = A.userUid;
+
+\echo '== RejectAllRequests'
+EXPLAIN UPDATE CONNECTION_USR C SET status = 'Reject' FROM USR F
+	WHERE F.uid = C.userUid AND C.connectionUid = (SELECT uid FROM USR WHERE userId = :'cusr')
+	AND C.status = 'Request'
+	RETURNING F.userId;
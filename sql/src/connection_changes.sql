@@ -0,0 +1,71 @@
+-- Log of the accepted connections added to or taken from CONNECTION_USR,
+-- so every client can bring its in-memory SocialGraph up to date with what
+-- other clients and the loaders changed, without reloading the table. Run
+-- after create_tables.sql.
+--
+-- A statement-level trigger appends one row per accepted edge a statement
+-- added or removed, read from its transition tables. A client remembers
+-- the xmin of the snapshot it took before its last read: every
+-- transaction with a lower id had ended by then, so its rows were read.
+-- The next read takes the rows of xid >= that xmin, rereading those of
+-- transactions that were still open, and applies them in seq order. Two
+-- statements changing the same edge are serialized by its row lock, so the
+-- later one logs the higher seq and the edge ends in its latest state.
+--
+-- Clients delete the rows older than profnetwork.refresh.retainMs.
+-- Needs PostgreSQL 10 or later.
+
+CREATE TABLE IF NOT EXISTS CONNECTION_CHANGES(
+	seq bigint GENERATED ALWAYS AS IDENTITY,
+	xid bigint NOT NULL DEFAULT txid_current(),
+	changedAt timestamp NOT NULL DEFAULT now(),
+	userUid integer NOT NULL,
+	connectionUid integer NOT NULL,
+	accepted boolean NOT NULL,
+	PRIMARY KEY(seq));
+
+-- the reads of the clients, and the pruning
+CREATE INDEX IF NOT EXISTS CONNECTION_CHANGES_XID_IDX
+	ON CONNECTION_CHANGES (xid);
+CREATE INDEX IF NOT EXISTS CONNECTION_CHANGES_TIME_IDX
+	ON CONNECTION_CHANGES (changedAt);
+
+-- Logs the (userUid, connectionUid) pairs that are accepted after the
+-- statement but were not before (accepted = true), and the other way
+-- round (false). Rows whose status changes between two other values are
+-- not edges of the graph and are not logged.
+CREATE OR REPLACE FUNCTION connection_changes_trigger() RETURNS trigger AS $$
+BEGIN
+	CASE TG_OP
+	WHEN 'INSERT' THEN
+		INSERT INTO CONNECTION_CHANGES (userUid, connectionUid, accepted)
+		SELECT userUid, connectionUid, true FROM new_rows WHERE status = 'Accept';
+	WHEN 'DELETE' THEN
+		INSERT INTO CONNECTION_CHANGES (userUid, connectionUid, accepted)
+		SELECT userUid, connectionUid, false FROM old_rows WHERE status = 'Accept';
+	ELSE
+		INSERT INTO CONNECTION_CHANGES (userUid, connectionUid, accepted)
+		SELECT o.userUid, o.connectionUid, false FROM old_rows o
+		WHERE o.status = 'Accept' AND NOT EXISTS (SELECT 1 FROM new_rows n
+			WHERE n.userUid = o.userUid AND n.connectionUid = o.connectionUid AND n.status = 'Accept')
+		UNION ALL
+		SELECT n.userUid, n.connectionUid, true FROM new_rows n
+		WHERE n.status = 'Accept' AND NOT EXISTS (SELECT 1 FROM old_rows o
+			WHERE o.userUid = n.userUid AND o.connectionUid = n.connectionUid AND o.status = 'Accept');
+	END CASE;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_changes_insert ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS connection_changes_update ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS connection_changes_delete ON CONNECTION_USR;
+CREATE TRIGGER connection_changes_insert AFTER INSERT ON CONNECTION_USR
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_changes_trigger();
+CREATE TRIGGER connection_changes_update AFTER UPDATE ON CONNECTION_USR
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_changes_trigger();
+CREATE TRIGGER connection_changes_delete AFTER DELETE ON CONNECTION_USR
+	REFERENCING OLD TABLE AS old_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_changes_trigger();
@@ -0,0 +1,90 @@
+-- Per-user counts of the CONNECTION_USR rows, so a user's number of
+-- accepted and pending connections is one primary key lookup instead of a
+-- scan of their rows. Run after create_tables.sql, or on an existing
+-- database, where it counts the rows already there.
+--
+-- Statement-level triggers on CONNECTION_USR add up the rows a statement
+-- inserted, changed or deleted through its transition tables and apply the
+-- difference with one upsert, in the same transaction. A bulk load costs
+-- one upsert per statement, not one per row. Counter rows are written in
+-- uid order, so two statements touching the same users do not deadlock.
+-- Needs PostgreSQL 10 or later.
+
+-- accepted and requested count the rows (uid, *, status), requestedBy the
+-- rows (*, uid, 'Request'). Users without a row have no connections.
+CREATE TABLE IF NOT EXISTS CONNECTION_COUNTS(
+	uid integer NOT NULL,
+	accepted integer NOT NULL DEFAULT 0,
+	requested integer NOT NULL DEFAULT 0,
+	requestedBy integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(uid));
+
+-- Adds the counts of the rows the statement inserted (new_rows) and
+-- subtracts those of the rows it deleted (old_rows); an UPDATE has both.
+-- The transition tables are only visible in the trigger function itself,
+-- so the query is put together here.
+CREATE OR REPLACE FUNCTION connection_counts_trigger() RETURNS trigger AS $$
+DECLARE
+	deltas text;
+BEGIN
+	CASE TG_OP
+	WHEN 'INSERT' THEN
+		deltas := 'SELECT userUid AS uid, 1 AS sign, status, true AS own FROM new_rows '
+			'UNION ALL SELECT connectionUid, 1, status, false FROM new_rows';
+	WHEN 'DELETE' THEN
+		deltas := 'SELECT userUid AS uid, -1 AS sign, status, true AS own FROM old_rows '
+			'UNION ALL SELECT connectionUid, -1, status, false FROM old_rows';
+	ELSE
+		deltas := 'SELECT userUid AS uid, 1 AS sign, status, true AS own FROM new_rows '
+			'UNION ALL SELECT connectionUid, 1, status, false FROM new_rows '
+			'UNION ALL SELECT userUid, -1, status, true FROM old_rows '
+			'UNION ALL SELECT connectionUid, -1, status, false FROM old_rows';
+	END CASE;
+	EXECUTE 'INSERT INTO CONNECTION_COUNTS AS C (uid, accepted, requested, requestedBy) '
+		'SELECT uid, '
+		'SUM(CASE WHEN own AND status = ''Accept'' THEN sign ELSE 0 END), '
+		'SUM(CASE WHEN own AND status = ''Request'' THEN sign ELSE 0 END), '
+		'SUM(CASE WHEN NOT own AND status = ''Request'' THEN sign ELSE 0 END) '
+		'FROM (' || deltas || ') d WHERE status IN (''Accept'', ''Request'') '
+		'GROUP BY uid ORDER BY uid '
+		'ON CONFLICT (uid) DO UPDATE SET accepted = C.accepted + EXCLUDED.accepted, '
+		'requested = C.requested + EXCLUDED.requested, requestedBy = C.requestedBy + EXCLUDED.requestedBy';
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_counts_insert ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS connection_counts_update ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS connection_counts_delete ON CONNECTION_USR;
+CREATE TRIGGER connection_counts_insert AFTER INSERT ON CONNECTION_USR
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_counts_trigger();
+CREATE TRIGGER connection_counts_update AFTER UPDATE ON CONNECTION_USR
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_counts_trigger();
+CREATE TRIGGER connection_counts_delete AFTER DELETE ON CONNECTION_USR
+	REFERENCING OLD TABLE AS old_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE connection_counts_trigger();
+
+-- Recounts every user from CONNECTION_USR, e.g. for a database loaded
+-- before the triggers existed. Writers to CONNECTION_USR wait meanwhile.
+-- Returns the number of users with connections.
+CREATE OR REPLACE FUNCTION connection_counts_rebuild() RETURNS bigint AS $$
+DECLARE
+	n bigint;
+BEGIN
+	LOCK TABLE CONNECTION_USR IN SHARE MODE;
+	DELETE FROM CONNECTION_COUNTS;
+	INSERT INTO CONNECTION_COUNTS (uid, accepted, requested, requestedBy)
+	SELECT uid, SUM(accepted), SUM(requested), SUM(requestedBy) FROM (
+		SELECT userUid AS uid, (status = 'Accept')::int AS accepted,
+			(status = 'Request')::int AS requested, 0 AS requestedBy FROM CONNECTION_USR
+		UNION ALL
+		SELECT connectionUid, 0, 0, (status = 'Request')::int FROM CONNECTION_USR) d
+	GROUP BY uid;
+	GET DIAGNOSTICS n = ROW_COUNT;
+	RETURN n;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT connection_counts_rebuild();
@@ -0,0 +1,55 @@
+-- Indexes for the access paths of the ProfNetwork menu operations.
+--
+-- Already covered by primary keys, so no extra index is created for:
+--   USR(uid)                                every join to a user's name
+--   USR(userId), unique                     LogIn, every lookup of a uid
+--   CONNECTION_USR(userUid, connectionUid)  SendRequest
+--   WORK_EXPR(userUid, ...)                 ViewProfile
+--   EDUCATIONAL_DETAILS(userUid, ...)       ViewProfile
+--   MESSAGE(msgId, sendTime)                DeleteMessage (per partition)
+--
+-- deleteStatus is a bit set: 1 = deleted by the receiver, 2 = deleted by
+-- the sender.
+--
+-- Partial index predicates are written exactly like the filters in
+-- ProfNetwork's SQL constants, which keep them as literals, so the planner
+-- can prove that the index applies.
+
+DROP INDEX IF EXISTS CONNECTION_USR_ACCEPT_IDX;
+DROP INDEX IF EXISTS CONNECTION_USR_REQUEST_IDX;
+DROP INDEX IF EXISTS CONNECTION_USR_REVERSE_IDX;
+DROP INDEX IF EXISTS MESSAGE_INBOX_IDX;
+DROP INDEX IF EXISTS MESSAGE_SENT_IDX;
+DROP INDEX IF EXISTS MESSAGE_DELETED_IDX;
+DROP INDEX IF EXISTS USR_NAME_IDX;
+
+-- FriendList, NewMessage: accepted connections of a user, index-only
+CREATE INDEX CONNECTION_USR_ACCEPT_IDX
+	ON CONNECTION_USR (userUid, connectionUid)
+	WHERE status = 'Accept';
+
+-- IncomingRequests: pending requests sent to a user, index-only
+CREATE INDEX CONNECTION_USR_REQUEST_IDX
+	ON CONNECTION_USR (connectionUid, userUid)
+	WHERE status = 'Request';
+
+-- reverse direction: who lists a user as a connection
+CREATE INDEX CONNECTION_USR_REVERSE_IDX
+	ON CONNECTION_USR (connectionUid, userUid);
+
+-- ViewMessages inbox: messages the receiver has not deleted, in page
+-- order; a backward scan serves ORDER BY sendTime DESC, msgId DESC and
+-- the (sendTime, msgId) < (?, ?) key of the following pages
+CREATE INDEX MESSAGE_INBOX_IDX
+	ON MESSAGE (receiverUid, sendTime, msgId)
+	WHERE deleteStatus IN (0, 2);
+
+-- ViewMessages sent box: messages the sender has not deleted, in page order
+CREATE INDEX MESSAGE_SENT_IDX
+	ON MESSAGE (senderUid, sendTime, msgId)
+	WHERE deleteStatus IN (0, 1);
+
+-- MessageCompactor: messages both sides deleted, waiting to be archived
+CREATE INDEX MESSAGE_DELETED_IDX
+	ON MESSAGE (msgId)
+	WHERE deleteStatus = 3;
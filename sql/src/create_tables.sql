@@ -1,53 +1,98 @@
 DROP TABLE WORK_EXPR;
 DROP TABLE EDUCATIONAL_DETAILS;
 DROP TABLE MESSAGE;
+DROP TABLE MESSAGE_ARCHIVE;
 DROP TABLE CONNECTION_USR;
+DROP TABLE IF EXISTS CONNECTION_COUNTS;
+DROP TABLE IF EXISTS CONNECTION_CHANGES;
+DROP TABLE IF EXISTS USR_CHANGES;
+DROP TABLE IF EXISTS RECOMMENDATION;
 DROP TABLE USR;
+DROP SEQUENCE MESSAGE_MSGID_SEQ;
+DROP SCHEMA MESSAGE_HISTORY CASCADE;
 
 
+-- Users are referenced everywhere by the integer uid; userId is the login
+-- name and is only looked up in USR. Text columns are varchar rather than
+-- char(n), so values are stored and compared without blank padding.
+-- sql/src/migrate_keys.sql converts a database of the earlier layout.
 CREATE TABLE USR(
+	uid integer GENERATED BY DEFAULT AS IDENTITY,
 	userId varchar(30) UNIQUE NOT NULL, 
 	password varchar(30) NOT NULL,
 	email text NOT NULL,
-	name char(50),
+	name varchar(50),
 	dateOfBirth date,
-	Primary Key(userId));
+	PRIMARY KEY(uid));
 
 CREATE TABLE WORK_EXPR(
-	userId char(30) NOT NULL, 
-	company char(50) NOT NULL, 
-	role char(50) NOT NULL,
-	location char(50),
+	userUid integer NOT NULL, 
+	company varchar(50) NOT NULL, 
+	role varchar(50) NOT NULL,
+	location varchar(50),
 	startDate date,
 	endDate date,
-	PRIMARY KEY(userId,company,role,startDate),
-	FOREIGN KEY(userId) REFERENCES USR(userId));
+	PRIMARY KEY(userUid,company,role,startDate),
+	FOREIGN KEY(userUid) REFERENCES USR(uid));
 
 CREATE TABLE EDUCATIONAL_DETAILS(
-	userId char(30) NOT NULL, 
-	instituitionName char(50) NOT NULL, 
-	major char(50) NOT NULL,
-	degree char(50) NOT NULL,
+	userUid integer NOT NULL, 
+	instituitionName varchar(50) NOT NULL, 
+	major varchar(50) NOT NULL,
+	degree varchar(50) NOT NULL,
 	startdate date,
 	enddate date,
-	PRIMARY KEY(userId,major,degree),
-	FOREIGN KEY(userId) REFERENCES USR(userId));
+	PRIMARY KEY(userUid,major,degree),
+	FOREIGN KEY(userUid) REFERENCES USR(uid));
 
+-- partitioned by month of sendTime, so the inbox and sent box queries only
+-- touch the partitions of their window; see message_partitions.sql for the
+-- functions that create and retire partitions. The primary key has to
+-- include sendTime, so msgId uniqueness is not enforced here: the live path
+-- takes every id from MESSAGE_MSGID_SEQ, which never hands one out twice,
+-- and the bulk loads, which set their own ids, finish with
+-- message_check_ids(). A unique index on msgId alone would have to be
+-- maintained on every partition without helping either path.
 CREATE TABLE MESSAGE(
-	msgId integer UNIQUE NOT NULL, 
-	senderId char(30) NOT NULL,
-	receiverId char(30) NOT NULL,
-	contents char(500) NOT NULL,
-	sendTime timestamp,
+	msgId integer NOT NULL, 
+	senderUid integer NOT NULL,
+	receiverUid integer NOT NULL,
+	contents varchar(500) NOT NULL,
+	sendTime timestamp NOT NULL,
 	deleteStatus integer,
-	status char(30) NOT NULL,
-	PRIMARY KEY(msgId),
-	FOREIGN KEY(senderId) REFERENCES USR(userId),
-	FOREIGN KEY(receiverId) REFERENCES USR(userId));
+	status varchar(30) NOT NULL,
+	PRIMARY KEY(msgId, sendTime),
+	FOREIGN KEY(senderUid) REFERENCES USR(uid),
+	FOREIGN KEY(receiverUid) REFERENCES USR(uid))
+	PARTITION BY RANGE (sendTime);
+
+-- rows of months that have no partition yet, e.g. during a bulk load
+CREATE TABLE MESSAGE_DEFAULT PARTITION OF MESSAGE DEFAULT;
+
+-- partitions of old months detached by message_archive_before()
+CREATE SCHEMA MESSAGE_HISTORY;
+
+-- messages both sides deleted (deleteStatus = 3), moved out of MESSAGE in
+-- batches by the client's MessageCompactor
+CREATE TABLE MESSAGE_ARCHIVE(
+	msgId integer NOT NULL,
+	senderUid integer NOT NULL,
+	receiverUid integer NOT NULL,
+	contents varchar(500) NOT NULL,
+	sendTime timestamp NOT NULL,
+	deleteStatus integer,
+	status varchar(30) NOT NULL,
+	archivedAt timestamp NOT NULL DEFAULT now(),
+	PRIMARY KEY(msgId));
+
+-- every nextval reserves a block of msgIds that the client hands out itself;
+-- INCREMENT BY must match MessageIdAllocator.BLOCK_SIZE
+CREATE SEQUENCE MESSAGE_MSGID_SEQ INCREMENT BY 100 START WITH 1;
 
 CREATE TABLE CONNECTION_USR(
-	userId char(30) NOT NULL, 
-	connectionId char(30) NOT NULL, 
-	status char(30) NOT NULL,
-	PRIMARY KEY(userId,connectionId),
-	FOREIGN KEY(userId) REFERENCES USR(userId));
+	userUid integer NOT NULL, 
+	connectionUid integer NOT NULL, 
+	status varchar(30) NOT NULL,
+	PRIMARY KEY(userUid,connectionUid),
+	FOREIGN KEY(userUid) REFERENCES USR(uid),
+	FOREIGN KEY(connectionUid) REFERENCES USR(uid));
@@ -1,19 +1,56 @@
+-- Server-side load; the files must be in $PGDATA (see createPostgreDB.sh).
+-- java/scripts/import.sh loads the same files from the client and
+-- validates them, writing bad rows to a reject file instead of failing.
+--
+-- The files name users by userId. The tables that reference USR store its
+-- uid, so they are copied into staging tables first and translated with a
+-- join; rows naming a user that does not exist are left out.
+
 COPY USR (userId,password,email,name,dateOfBirth)
 FROM 'USR.csv'
 DELIMITER ',' CSV HEADER;
 
-COPY WORK_EXPR (userId,company,role,location,startDate,endDate)
+CREATE TEMP TABLE WORK_EXPR_CSV (userId text, company text, role text, location text, startDate date, endDate date);
+COPY WORK_EXPR_CSV
 FROM 'Work_Ex.csv'
 DELIMITER ',' CSV HEADER;
+INSERT INTO WORK_EXPR (userUid,company,role,location,startDate,endDate)
+SELECT U.uid, rtrim(W.company), rtrim(W.role), rtrim(W.location), W.startDate, W.endDate
+FROM WORK_EXPR_CSV W JOIN USR U ON U.userId = rtrim(W.userId);
 
-COPY EDUCATIONAL_DETAILS (userId,instituitionName,major,degree,startdate,enddate)
+CREATE TEMP TABLE EDUCATIONAL_DETAILS_CSV (userId text, instituitionName text, major text, degree text, startdate date, enddate date);
+COPY EDUCATIONAL_DETAILS_CSV
 FROM 'Edu_Det.csv'
 DELIMITER ',' CSV HEADER;
+INSERT INTO EDUCATIONAL_DETAILS (userUid,instituitionName,major,degree,startdate,enddate)
+SELECT U.uid, rtrim(E.instituitionName), rtrim(E.major), rtrim(E.degree), E.startdate, E.enddate
+FROM EDUCATIONAL_DETAILS_CSV E JOIN USR U ON U.userId = rtrim(E.userId);
 
-COPY MESSAGE (msgId,senderId,receiverId,contents,sendTime,deleteStatus,status)
+CREATE TEMP TABLE MESSAGE_CSV (msgId integer, senderId text, receiverId text, contents text, sendTime timestamp, deleteStatus integer, status text);
+COPY MESSAGE_CSV
 FROM 'Message.csv'
 DELIMITER ',' CSV HEADER;
+INSERT INTO MESSAGE (msgId,senderUid,receiverUid,contents,sendTime,deleteStatus,status)
+SELECT M.msgId, S.uid, R.uid, rtrim(M.contents), M.sendTime, M.deleteStatus, rtrim(M.status)
+FROM MESSAGE_CSV M
+	JOIN USR S ON S.userId = rtrim(M.senderId)
+	JOIN USR R ON R.userId = rtrim(M.receiverId);
+
+-- the rows went to the default partition; give every month its own
+SELECT message_split_default();
+SELECT message_check_ids();
 
-COPY CONNECTION_USR (userId,connectionId,status)
+SELECT setval('MESSAGE_MSGID_SEQ', COALESCE(MAX(msgId), 0) + 1, false) FROM MESSAGE;
+
+CREATE TEMP TABLE CONNECTION_USR_CSV (userId text, connectionId text, status text);
+COPY CONNECTION_USR_CSV
 FROM 'Connection.csv'
 DELIMITER ',' CSV HEADER;
+INSERT INTO CONNECTION_USR (userUid,connectionUid,status)
+SELECT U.uid, C.uid, rtrim(S.status)
+FROM CONNECTION_USR_CSV S
+	JOIN USR U ON U.userId = rtrim(S.userId)
+	JOIN USR C ON C.userId = rtrim(S.connectionId);
+
+-- refresh planner statistics so the indexes are used right away
+ANALYZE;
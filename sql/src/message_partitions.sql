@@ -0,0 +1,94 @@
+-- Maintenance of the monthly partitions of MESSAGE (see create_tables.sql).
+-- The client's MessagePartitionManager calls message_partition() for the
+-- current and the next months and, if configured, message_archive_before();
+-- the loaders call message_split_default() and message_check_ids() after a
+-- bulk load.
+--
+-- Partitions are named message_YYYY_MM. Every function takes the same
+-- advisory lock, so clients running them at the same time do not race.
+-- Needs PostgreSQL 11 or later.
+
+-- Creates and attaches the partition of the month containing the given
+-- day, moving in any rows of that month the default partition holds.
+-- Returns false if the partition already exists.
+CREATE OR REPLACE FUNCTION message_partition(day date) RETURNS boolean AS $$
+DECLARE
+	month_start date := date_trunc('month', day);
+	month_end date := date_trunc('month', day) + interval '1 month';
+	part text := 'message_' || to_char(day, 'YYYY_MM');
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	IF to_regclass(part) IS NOT NULL THEN
+		RETURN false;
+	END IF;
+	EXECUTE format('CREATE TABLE %I (LIKE MESSAGE INCLUDING DEFAULTS)', part);
+	EXECUTE format('WITH moved AS (DELETE FROM MESSAGE_DEFAULT WHERE sendTime >= %L AND sendTime < %L RETURNING *) '
+		'INSERT INTO %I SELECT * FROM moved', month_start, month_end, part);
+	EXECUTE format('ALTER TABLE MESSAGE ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', part, month_start, month_end);
+	RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves every row of the default partition to the partition of its month,
+-- creating the partitions first. Bulk loads land in the default partition;
+-- this sorts them out in one pass. It locks MESSAGE exclusively, so run it
+-- after a load rather than under traffic. Returns the number of rows moved.
+CREATE OR REPLACE FUNCTION message_split_default() RETURNS bigint AS $$
+DECLARE
+	day date;
+	moved bigint;
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	-- swap in an empty default partition so message_partition() has
+	-- nothing to move and attaching does not scan the loaded rows
+	ALTER TABLE MESSAGE DETACH PARTITION MESSAGE_DEFAULT;
+	ALTER TABLE MESSAGE_DEFAULT RENAME TO MESSAGE_LOADED;
+	CREATE TABLE MESSAGE_DEFAULT PARTITION OF MESSAGE DEFAULT;
+	FOR day IN SELECT DISTINCT date_trunc('month', sendTime) FROM MESSAGE_LOADED LOOP
+		PERFORM message_partition(day);
+	END LOOP;
+	INSERT INTO MESSAGE SELECT * FROM MESSAGE_LOADED;
+	GET DIAGNOSTICS moved = ROW_COUNT;
+	DROP TABLE MESSAGE_LOADED;
+	RETURN moved;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The primary key of a partitioned table must include the partition key,
+-- so (msgId, sendTime) is all Postgres can enforce. Ids from
+-- MESSAGE_MSGID_SEQ never repeat; bulk loads set their own ids, so run this
+-- after a load to make sure none of them was used twice.
+CREATE OR REPLACE FUNCTION message_check_ids() RETURNS void AS $$
+DECLARE
+	dup integer;
+BEGIN
+	SELECT msgId INTO dup FROM MESSAGE GROUP BY msgId HAVING count(*) > 1 LIMIT 1;
+	IF FOUND THEN
+		RAISE EXCEPTION 'msgId % is used by more than one message', dup;
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches the partitions of the months that end on or before cutoff and
+-- moves them to the MESSAGE_HISTORY schema, where they stay queryable but
+-- are no longer part of MESSAGE. Returns the number of partitions moved.
+CREATE OR REPLACE FUNCTION message_archive_before(cutoff date) RETURNS integer AS $$
+DECLARE
+	part text;
+	n integer := 0;
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	FOR part IN
+		SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+		WHERE i.inhparent = 'message'::regclass
+			AND c.relname ~ '^message_[0-9]{4}_[0-9]{2}$'
+			AND to_date(substr(c.relname, 9), 'YYYY_MM') + interval '1 month' <= cutoff
+		ORDER BY c.relname
+	LOOP
+		EXECUTE format('ALTER TABLE MESSAGE DETACH PARTITION %I', part);
+		EXECUTE format('ALTER TABLE %I SET SCHEMA MESSAGE_HISTORY', part);
+		n := n + 1;
+	END LOOP;
+	RETURN n;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,488 @@
+-- Online conversion of a database created with the earlier layout, where
+-- users were referenced by their char(30) userId, to the integer uid keys
+-- and varchar columns of create_tables.sql. Driven by the client's
+-- KeyMigration (java/scripts/migrate.sh), which runs the phases:
+--
+--   migrate_keys_prepare()   creates the tables of the new layout beside
+--                            the old ones as *_NEW, with their indexes, and
+--                            triggers that copy every later change over
+--   migrate_keys_copy()      copies the existing rows a range of primary
+--                            keys at a time, so each transaction stays
+--                            short
+--   migrate_keys_verify()    counts the rows of both layouts
+--   migrate_keys_cutover()   swaps the new tables in, in one transaction,
+--                            and keeps the old ones as *_OLD
+--
+-- Until the cutover the application keeps running on the old tables. The
+-- cutover holds exclusive locks only for the renames. Rows referencing a
+-- userId that does not exist in USR, which the old layout allowed, are not
+-- copied; migrate_keys_verify() reports them. Partitions already moved to
+-- MESSAGE_HISTORY keep the old layout. migrate_keys_abort() drops
+-- everything prepare created. Once the new layout has been checked, the
+-- old tables go with
+--
+--   DROP TABLE WORK_EXPR_OLD, EDUCATIONAL_DETAILS_OLD, CONNECTION_USR_OLD,
+--       MESSAGE_OLD, MESSAGE_ARCHIVE_OLD, USR_OLD;
+-- Needs PostgreSQL 11 or later.
+
+-- the uid of a userId of the old layout, once its user is copied
+CREATE OR REPLACE FUNCTION migrate_uid(id text) RETURNS integer AS $$
+BEGIN
+	RETURN (SELECT uid FROM USR_NEW WHERE userId = rtrim(id));
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- The INSERT ... SELECT that copies the rows of one table of the old
+-- layout, read from src, which is the table or one of its partitions, as
+-- o. The %s left in it takes the WHERE condition. Rows of users not yet
+-- copied are left out: USR is copied before the other tables, so only
+-- rows referencing a userId that does not exist stay behind.
+CREATE OR REPLACE FUNCTION migrate_keys_select(tab text, src text) RETURNS text AS $$
+BEGIN
+	CASE lower(tab)
+	WHEN 'usr' THEN
+		RETURN format('INSERT INTO USR_NEW (userId, password, email, name, dateOfBirth) '
+			'SELECT rtrim(o.userId), rtrim(o.password), o.email, rtrim(o.name), o.dateOfBirth '
+			'FROM %s o WHERE %%s ON CONFLICT DO NOTHING', src);
+	WHEN 'work_expr' THEN
+		RETURN format('INSERT INTO WORK_EXPR_NEW SELECT u.uid, rtrim(o.company), rtrim(o.role), '
+			'rtrim(o.location), o.startDate, o.endDate '
+			'FROM %s o JOIN USR_NEW u ON u.userId = rtrim(o.userId) WHERE %%s '
+			'ON CONFLICT DO NOTHING', src);
+	WHEN 'educational_details' THEN
+		RETURN format('INSERT INTO EDUCATIONAL_DETAILS_NEW SELECT u.uid, rtrim(o.instituitionName), '
+			'rtrim(o.major), rtrim(o.degree), o.startdate, o.enddate '
+			'FROM %s o JOIN USR_NEW u ON u.userId = rtrim(o.userId) WHERE %%s '
+			'ON CONFLICT DO NOTHING', src);
+	WHEN 'connection_usr' THEN
+		RETURN format('INSERT INTO CONNECTION_USR_NEW SELECT u.uid, c.uid, rtrim(o.status) '
+			'FROM %s o JOIN USR_NEW u ON u.userId = rtrim(o.userId) '
+			'JOIN USR_NEW c ON c.userId = rtrim(o.connectionId) WHERE %%s '
+			'ON CONFLICT DO NOTHING', src);
+	WHEN 'message', 'message_archive' THEN
+		RETURN format('INSERT INTO %s_NEW (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status%s) '
+			'SELECT o.msgId, s.uid, r.uid, rtrim(o.contents), o.sendTime, o.deleteStatus, rtrim(o.status)%s '
+			'FROM %s o JOIN USR_NEW s ON s.userId = rtrim(o.senderId) '
+			'JOIN USR_NEW r ON r.userId = rtrim(o.receiverId) WHERE %%s '
+			'ON CONFLICT DO NOTHING', tab,
+			CASE WHEN lower(tab) = 'message_archive' THEN ', archivedAt' ELSE '' END,
+			CASE WHEN lower(tab) = 'message_archive' THEN ', o.archivedAt' ELSE '' END, src);
+	ELSE
+		RAISE EXCEPTION 'migrate_keys: unknown table %', tab;
+	END CASE;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- The primary key of a table of the old layout, by which the copy walks
+-- it: {column, ...}.
+CREATE OR REPLACE FUNCTION migrate_keys_key(tab text) RETURNS text[] AS $$
+BEGIN
+	CASE lower(tab)
+	WHEN 'usr' THEN RETURN ARRAY['userId'];
+	WHEN 'work_expr' THEN RETURN ARRAY['userId', 'company', 'role', 'startDate'];
+	WHEN 'educational_details' THEN RETURN ARRAY['userId', 'major', 'degree'];
+	WHEN 'connection_usr' THEN RETURN ARRAY['userId', 'connectionId'];
+	WHEN 'message' THEN RETURN ARRAY['msgId', 'sendTime'];
+	WHEN 'message_archive' THEN RETURN ARRAY['msgId'];
+	ELSE
+		RAISE EXCEPTION 'migrate_keys: unknown table %', tab;
+	END CASE;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- The rows of the new layout with the key of the old one, for a DELETE:
+-- {table as n, USING clause, join condition, key expression, ...}, the
+-- key expressions in the order of migrate_keys_key().
+CREATE OR REPLACE FUNCTION migrate_keys_new_key(tab text) RETURNS text[] AS $$
+BEGIN
+	CASE lower(tab)
+	WHEN 'usr' THEN
+		RETURN ARRAY['USR_NEW n', '', 'true', 'n.userId'];
+	WHEN 'work_expr' THEN
+		RETURN ARRAY['WORK_EXPR_NEW n', 'USING USR_NEW u', 'u.uid = n.userUid',
+			'u.userId', 'n.company', 'n.role', 'n.startDate'];
+	WHEN 'educational_details' THEN
+		RETURN ARRAY['EDUCATIONAL_DETAILS_NEW n', 'USING USR_NEW u', 'u.uid = n.userUid',
+			'u.userId', 'n.major', 'n.degree'];
+	WHEN 'connection_usr' THEN
+		RETURN ARRAY['CONNECTION_USR_NEW n', 'USING USR_NEW u, USR_NEW c',
+			'u.uid = n.userUid AND c.uid = n.connectionUid', 'u.userId', 'c.userId'];
+	WHEN 'message' THEN
+		RETURN ARRAY['MESSAGE_NEW n', '', 'true', 'n.msgId', 'n.sendTime'];
+	WHEN 'message_archive' THEN
+		RETURN ARRAY['MESSAGE_ARCHIVE_NEW n', '', 'true', 'n.msgId'];
+	ELSE
+		RAISE EXCEPTION 'migrate_keys: unknown table %', tab;
+	END CASE;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- Keeps the *_NEW tables in step with the old ones while the rows are
+-- copied: an update is a delete of the old key followed by an upsert of
+-- the new row, so it also works when the key changes. The copy of a row
+-- the trigger already wrote does nothing (ON CONFLICT DO NOTHING). The
+-- copy takes no row locks, so a row deleted while its batch is copied can
+-- be copied back in; each batch then deletes the rows of its key range
+-- that no longer exist in the old layout.
+CREATE OR REPLACE FUNCTION migrate_keys_trigger() RETURNS trigger AS $$
+DECLARE
+	tab text := lower(TG_ARGV[0]);
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		CASE tab
+		WHEN 'usr' THEN
+			IF TG_OP = 'DELETE' OR rtrim(OLD.userId) <> rtrim(NEW.userId) THEN
+				DELETE FROM USR_NEW WHERE userId = rtrim(OLD.userId);
+			END IF;
+		WHEN 'work_expr' THEN
+			DELETE FROM WORK_EXPR_NEW WHERE userUid = migrate_uid(OLD.userId)
+				AND company = rtrim(OLD.company) AND role = rtrim(OLD.role) AND startDate = OLD.startDate;
+		WHEN 'educational_details' THEN
+			DELETE FROM EDUCATIONAL_DETAILS_NEW WHERE userUid = migrate_uid(OLD.userId)
+				AND major = rtrim(OLD.major) AND degree = rtrim(OLD.degree);
+		WHEN 'connection_usr' THEN
+			DELETE FROM CONNECTION_USR_NEW WHERE userUid = migrate_uid(OLD.userId)
+				AND connectionUid = migrate_uid(OLD.connectionId);
+		WHEN 'message' THEN
+			DELETE FROM MESSAGE_NEW WHERE msgId = OLD.msgId AND sendTime = OLD.sendTime;
+		WHEN 'message_archive' THEN
+			DELETE FROM MESSAGE_ARCHIVE_NEW WHERE msgId = OLD.msgId;
+		END CASE;
+	END IF;
+	IF TG_OP = 'DELETE' THEN
+		RETURN NULL;
+	END IF;
+	IF tab = 'usr' THEN
+		INSERT INTO USR_NEW (userId, password, email, name, dateOfBirth)
+			VALUES (rtrim(NEW.userId), rtrim(NEW.password), NEW.email, rtrim(NEW.name), NEW.dateOfBirth)
+			ON CONFLICT (userId) DO UPDATE SET password = EXCLUDED.password, email = EXCLUDED.email,
+				name = EXCLUDED.name, dateOfBirth = EXCLUDED.dateOfBirth;
+	ELSE
+		EXECUTE format(migrate_keys_select(tab, '(SELECT ($1).*)'), 'true') USING NEW;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Phase 1: the tables, indexes and triggers of the new layout. MESSAGE_NEW
+-- gets a partition for every month partition of MESSAGE.
+CREATE OR REPLACE FUNCTION migrate_keys_prepare() RETURNS void AS $$
+DECLARE
+	part record;
+	tab text;
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	IF to_regclass('usr_new') IS NOT NULL THEN
+		RAISE EXCEPTION 'migrate_keys: already prepared';
+	END IF;
+	IF to_regclass('usr_old') IS NOT NULL THEN
+		RAISE EXCEPTION 'migrate_keys: USR_OLD exists, drop the tables of the last migration first';
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+			WHERE table_name = 'message' AND column_name = 'senderid') THEN
+		RAISE EXCEPTION 'migrate_keys: MESSAGE already has the new layout';
+	END IF;
+
+	CREATE TABLE USR_NEW(
+		uid integer GENERATED BY DEFAULT AS IDENTITY,
+		userId varchar(30) UNIQUE NOT NULL,
+		password varchar(30) NOT NULL,
+		email text NOT NULL,
+		name varchar(50),
+		dateOfBirth date,
+		PRIMARY KEY(uid));
+	CREATE TABLE WORK_EXPR_NEW(
+		userUid integer NOT NULL REFERENCES USR_NEW(uid),
+		company varchar(50) NOT NULL,
+		role varchar(50) NOT NULL,
+		location varchar(50),
+		startDate date,
+		endDate date,
+		PRIMARY KEY(userUid,company,role,startDate));
+	CREATE TABLE EDUCATIONAL_DETAILS_NEW(
+		userUid integer NOT NULL REFERENCES USR_NEW(uid),
+		instituitionName varchar(50) NOT NULL,
+		major varchar(50) NOT NULL,
+		degree varchar(50) NOT NULL,
+		startdate date,
+		enddate date,
+		PRIMARY KEY(userUid,major,degree));
+	CREATE TABLE CONNECTION_USR_NEW(
+		userUid integer NOT NULL REFERENCES USR_NEW(uid),
+		connectionUid integer NOT NULL REFERENCES USR_NEW(uid),
+		status varchar(30) NOT NULL,
+		PRIMARY KEY(userUid,connectionUid));
+	CREATE TABLE MESSAGE_NEW(
+		msgId integer NOT NULL,
+		senderUid integer NOT NULL REFERENCES USR_NEW(uid),
+		receiverUid integer NOT NULL REFERENCES USR_NEW(uid),
+		contents varchar(500) NOT NULL,
+		sendTime timestamp NOT NULL,
+		deleteStatus integer,
+		status varchar(30) NOT NULL,
+		PRIMARY KEY(msgId, sendTime))
+		PARTITION BY RANGE (sendTime);
+	CREATE TABLE MESSAGE_NEW_DEFAULT PARTITION OF MESSAGE_NEW DEFAULT;
+	FOR part IN
+		SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound
+		FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+		WHERE i.inhparent = 'message'::regclass AND c.relname ~ '^message_[0-9]{4}_[0-9]{2}$'
+	LOOP
+		EXECUTE format('CREATE TABLE %I PARTITION OF MESSAGE_NEW %s',
+			'message_new_' || substr(part.relname, 9), part.bound);
+	END LOOP;
+	CREATE TABLE MESSAGE_ARCHIVE_NEW(
+		msgId integer NOT NULL,
+		senderUid integer NOT NULL,
+		receiverUid integer NOT NULL,
+		contents varchar(500) NOT NULL,
+		sendTime timestamp NOT NULL,
+		deleteStatus integer,
+		status varchar(30) NOT NULL,
+		archivedAt timestamp NOT NULL DEFAULT now(),
+		PRIMARY KEY(msgId));
+
+	-- the indexes of create_index.sql, renamed at the cutover
+	CREATE INDEX CONNECTION_USR_ACCEPT_IDX_NEW ON CONNECTION_USR_NEW (userUid, connectionUid)
+		WHERE status = 'Accept';
+	CREATE INDEX CONNECTION_USR_REQUEST_IDX_NEW ON CONNECTION_USR_NEW (connectionUid, userUid)
+		WHERE status = 'Request';
+	CREATE INDEX CONNECTION_USR_REVERSE_IDX_NEW ON CONNECTION_USR_NEW (connectionUid, userUid);
+	CREATE INDEX MESSAGE_INBOX_IDX_NEW ON MESSAGE_NEW (receiverUid, sendTime, msgId)
+		WHERE deleteStatus IN (0, 2);
+	CREATE INDEX MESSAGE_SENT_IDX_NEW ON MESSAGE_NEW (senderUid, sendTime, msgId)
+		WHERE deleteStatus IN (0, 1);
+	CREATE INDEX MESSAGE_DELETED_IDX_NEW ON MESSAGE_NEW (msgId)
+		WHERE deleteStatus = 3;
+
+	FOREACH tab IN ARRAY ARRAY['USR', 'WORK_EXPR', 'EDUCATIONAL_DETAILS', 'CONNECTION_USR',
+			'MESSAGE', 'MESSAGE_ARCHIVE'] LOOP
+		EXECUTE format('CREATE TRIGGER migrate_keys AFTER INSERT OR UPDATE OR DELETE ON %s '
+			'FOR EACH ROW EXECUTE PROCEDURE migrate_keys_trigger(%L)', tab, tab);
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Phase 2: copies the next batch rows of src, which is tab or one of its
+-- partitions, in primary key order: those with a key above after, or all
+-- from the first if after is NULL. The rows are found through the primary
+-- key index and are not locked. Then deletes the rows of the new layout in
+-- the same key range that no longer exist in the old one, so a row deleted
+-- while its batch was copied does not stay, and running the copy again
+-- removes any the triggers missed. Returns the rows
+-- copied and the key of the last row of the batch, as text, to pass as the
+-- next after; last_key is NULL once src is done.
+CREATE OR REPLACE FUNCTION migrate_keys_copy(tab text, src regclass, after text[], batch integer,
+		OUT copied bigint, OUT last_key text[]) AS $$
+DECLARE
+	cols text[] := migrate_keys_key(tab);
+	n text[] := migrate_keys_new_key(tab);
+	types text[];
+	old_key text;
+	new_key text;
+	native_key text;
+	as_text text;
+	low text;
+	high text;
+	native_low text;
+	native_high text;
+	first_low text;
+	first_high text;
+	old_range text := 'true';
+	new_range text := 'true';
+	upto text[];
+BEGIN
+	SELECT array_agg(format_type(a.atttypid, a.atttypmod) ORDER BY k.i) INTO types
+	FROM unnest(cols) WITH ORDINALITY k (col, i)
+	JOIN pg_attribute a ON a.attrelid = src AND a.attname = lower(k.col);
+	-- the key as a row of the old layout's types, so its primary key index
+	-- is used, and as a row of the new layout's columns, whose text is
+	-- trimmed: varchar compares the trimmed text like char(n) the padded
+	FOR i IN 1 .. array_length(cols, 1) LOOP
+		old_key := concat_ws(', ', old_key, 'o.' || cols[i]);
+		new_key := concat_ws(', ', new_key, format('CAST(%s AS %s)', n[3 + i], types[i]));
+		native_key := concat_ws(', ', native_key, n[3 + i]);
+		as_text := concat_ws(', ', as_text, format('CAST(o.%s AS text)', cols[i]));
+		low := concat_ws(', ', low, format('CAST($1[%s] AS %s)', i, types[i]));
+		high := concat_ws(', ', high, format('CAST($2[%s] AS %s)', i, types[i]));
+		IF types[i] LIKE 'character%' THEN
+			native_low := concat_ws(', ', native_low, format('rtrim($1[%s])', i));
+			native_high := concat_ws(', ', native_high, format('rtrim($2[%s])', i));
+		ELSE
+			native_low := concat_ws(', ', native_low, format('CAST($1[%s] AS %s)', i, types[i]));
+			native_high := concat_ws(', ', native_high, format('CAST($2[%s] AS %s)', i, types[i]));
+		END IF;
+		IF i = 1 THEN
+			first_low := native_low;
+			first_high := native_high;
+		END IF;
+	END LOOP;
+
+	-- the range of the batch; the new layout is also bounded on its first
+	-- key column alone, which its indexes lead with
+	IF after IS NOT NULL THEN
+		old_range := format('(%s) > (%s)', old_key, low);
+		new_range := format('(%s) > (%s) AND %s >= %s', native_key, native_low, n[4], first_low);
+	END IF;
+	EXECUTE format('SELECT ARRAY[%s] FROM %s o WHERE %s ORDER BY %s OFFSET %s LIMIT 1',
+			as_text, src, old_range, old_key, greatest(batch, 1) - 1)
+		INTO last_key USING after;
+	IF last_key IS NOT NULL THEN
+		old_range := format('%s AND (%s) <= (%s)', old_range, old_key, high);
+		upto := last_key;
+	ELSE
+		-- the last batch copies to the end, and checks up to the last key,
+		-- as the key range of a partition may go on in the others
+		EXECUTE format('SELECT ARRAY[%s] FROM %s o WHERE %s ORDER BY %s DESC LIMIT 1',
+				as_text, src, old_range, replace(old_key, ', ', ' DESC, '))
+			INTO upto USING after;
+	END IF;
+	new_range := format('%s AND (%s) <= (%s) AND %s <= %s', new_range, native_key, native_high,
+		n[4], first_high);
+
+	EXECUTE format(migrate_keys_select(tab, src::text), old_range) USING after, last_key;
+	GET DIAGNOSTICS copied = ROW_COUNT;
+	IF upto IS NOT NULL THEN
+		EXECUTE format('DELETE FROM %s %s WHERE %s AND %s AND NOT EXISTS (SELECT 1 FROM %s o WHERE (%s) = (%s))',
+				n[1], n[2], n[3], new_range, tab, old_key, new_key)
+			USING after, upto;
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Checks the copy: for every table the rows of the old layout, those the
+-- copy leaves out because they reference a userId missing from USR, and
+-- the rows of the new layout. The counts come from one snapshot, and the
+-- triggers write both layouts in the same transaction, so once every row
+-- is copied new_rows = old_rows - skipped while the application keeps
+-- writing. Reads every table in full.
+CREATE OR REPLACE FUNCTION migrate_keys_verify()
+		RETURNS TABLE(tab text, old_rows bigint, skipped bigint, new_rows bigint) AS $$
+BEGIN
+	IF to_regclass('usr_new') IS NULL THEN
+		RAISE EXCEPTION 'migrate_keys: not prepared';
+	END IF;
+	RETURN QUERY
+	SELECT 'USR', (SELECT count(*) FROM USR), CAST(0 AS bigint),
+		(SELECT count(*) FROM USR_NEW)
+	UNION ALL
+	SELECT 'WORK_EXPR', (SELECT count(*) FROM WORK_EXPR),
+		(SELECT count(*) FROM WORK_EXPR o
+			WHERE NOT EXISTS (SELECT 1 FROM USR_NEW u WHERE u.userId = rtrim(o.userId))),
+		(SELECT count(*) FROM WORK_EXPR_NEW)
+	UNION ALL
+	SELECT 'EDUCATIONAL_DETAILS', (SELECT count(*) FROM EDUCATIONAL_DETAILS),
+		(SELECT count(*) FROM EDUCATIONAL_DETAILS o
+			WHERE NOT EXISTS (SELECT 1 FROM USR_NEW u WHERE u.userId = rtrim(o.userId))),
+		(SELECT count(*) FROM EDUCATIONAL_DETAILS_NEW)
+	UNION ALL
+	SELECT 'CONNECTION_USR', (SELECT count(*) FROM CONNECTION_USR),
+		(SELECT count(*) FROM CONNECTION_USR o
+			WHERE NOT EXISTS (SELECT 1 FROM USR_NEW u WHERE u.userId = rtrim(o.userId))
+			OR NOT EXISTS (SELECT 1 FROM USR_NEW c WHERE c.userId = rtrim(o.connectionId))),
+		(SELECT count(*) FROM CONNECTION_USR_NEW)
+	UNION ALL
+	SELECT 'MESSAGE', (SELECT count(*) FROM MESSAGE),
+		(SELECT count(*) FROM MESSAGE o
+			WHERE NOT EXISTS (SELECT 1 FROM USR_NEW s WHERE s.userId = rtrim(o.senderId))
+			OR NOT EXISTS (SELECT 1 FROM USR_NEW r WHERE r.userId = rtrim(o.receiverId))),
+		(SELECT count(*) FROM MESSAGE_NEW)
+	UNION ALL
+	SELECT 'MESSAGE_ARCHIVE', (SELECT count(*) FROM MESSAGE_ARCHIVE),
+		(SELECT count(*) FROM MESSAGE_ARCHIVE o
+			WHERE NOT EXISTS (SELECT 1 FROM USR_NEW s WHERE s.userId = rtrim(o.senderId))
+			OR NOT EXISTS (SELECT 1 FROM USR_NEW r WHERE r.userId = rtrim(o.receiverId))),
+		(SELECT count(*) FROM MESSAGE_ARCHIVE_NEW);
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- Phase 3: renames the old tables, their partitions and indexes to *_OLD
+-- and gives the new ones their names. Nothing is dropped, so the old rows
+-- stay at hand until the new layout has been checked. Writers wait on the
+-- table locks for the length of this transaction and then continue on the
+-- new tables; sessions that prepared statements against the old tables
+-- have to reconnect.
+CREATE OR REPLACE FUNCTION migrate_keys_cutover() RETURNS void AS $$
+DECLARE
+	part text;
+	idx text;
+	tab text;
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	IF to_regclass('usr_new') IS NULL THEN
+		RAISE EXCEPTION 'migrate_keys: not prepared';
+	END IF;
+	IF to_regclass('usr_old') IS NOT NULL THEN
+		RAISE EXCEPTION 'migrate_keys: USR_OLD exists, drop the tables of the last migration first';
+	END IF;
+	LOCK TABLE USR, WORK_EXPR, EDUCATIONAL_DETAILS, CONNECTION_USR, MESSAGE, MESSAGE_ARCHIVE
+		IN ACCESS EXCLUSIVE MODE;
+
+	-- the old tables stop feeding the new ones and step aside, with every
+	-- index whose name a new one takes
+	FOREACH tab IN ARRAY ARRAY['USR', 'WORK_EXPR', 'EDUCATIONAL_DETAILS', 'CONNECTION_USR',
+			'MESSAGE', 'MESSAGE_ARCHIVE'] LOOP
+		EXECUTE format('DROP TRIGGER migrate_keys ON %s', tab);
+	END LOOP;
+	FOREACH idx IN ARRAY ARRAY['usr_pkey', 'work_expr_pkey', 'educational_details_pkey',
+			'connection_usr_pkey', 'message_pkey', 'message_archive_pkey', 'usr_userid_key',
+			'connection_usr_accept_idx', 'connection_usr_request_idx', 'connection_usr_reverse_idx',
+			'message_inbox_idx', 'message_sent_idx', 'message_deleted_idx'] LOOP
+		IF to_regclass(idx) IS NOT NULL THEN
+			EXECUTE format('ALTER INDEX %I RENAME TO %I', idx, idx || '_old');
+		END IF;
+	END LOOP;
+	FOR part IN
+		SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+		WHERE i.inhparent = 'message'::regclass AND c.relname ~ '^message_([0-9]{4}_[0-9]{2}|default)$'
+	LOOP
+		EXECUTE format('ALTER TABLE %I RENAME TO %I', part, 'message_old_' || substr(part, 9));
+	END LOOP;
+	ALTER TABLE USR RENAME TO USR_OLD;
+	ALTER TABLE WORK_EXPR RENAME TO WORK_EXPR_OLD;
+	ALTER TABLE EDUCATIONAL_DETAILS RENAME TO EDUCATIONAL_DETAILS_OLD;
+	ALTER TABLE CONNECTION_USR RENAME TO CONNECTION_USR_OLD;
+	ALTER TABLE MESSAGE RENAME TO MESSAGE_OLD;
+	ALTER TABLE MESSAGE_ARCHIVE RENAME TO MESSAGE_ARCHIVE_OLD;
+
+	ALTER TABLE USR_NEW RENAME TO USR;
+	ALTER TABLE WORK_EXPR_NEW RENAME TO WORK_EXPR;
+	ALTER TABLE EDUCATIONAL_DETAILS_NEW RENAME TO EDUCATIONAL_DETAILS;
+	ALTER TABLE CONNECTION_USR_NEW RENAME TO CONNECTION_USR;
+	ALTER TABLE MESSAGE_NEW RENAME TO MESSAGE;
+	ALTER TABLE MESSAGE_NEW_DEFAULT RENAME TO MESSAGE_DEFAULT;
+	ALTER TABLE MESSAGE_ARCHIVE_NEW RENAME TO MESSAGE_ARCHIVE;
+	FOR part IN
+		SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+		WHERE i.inhparent = 'message'::regclass AND c.relname ~ '^message_new_[0-9]{4}_[0-9]{2}$'
+	LOOP
+		EXECUTE format('ALTER TABLE %I RENAME TO %I', part, 'message_' || substr(part, 13));
+	END LOOP;
+	FOREACH idx IN ARRAY ARRAY['usr', 'work_expr', 'educational_details', 'connection_usr',
+			'message', 'message_archive'] LOOP
+		EXECUTE format('ALTER INDEX %I RENAME TO %I', idx || '_new_pkey', idx || '_pkey');
+	END LOOP;
+	ALTER INDEX usr_new_userid_key RENAME TO usr_userid_key;
+	FOREACH idx IN ARRAY ARRAY['connection_usr_accept_idx', 'connection_usr_request_idx',
+			'connection_usr_reverse_idx', 'message_inbox_idx', 'message_sent_idx',
+			'message_deleted_idx'] LOOP
+		EXECUTE format('ALTER INDEX %I RENAME TO %I', idx || '_new', idx);
+	END LOOP;
+	ANALYZE USR, WORK_EXPR, EDUCATIONAL_DETAILS, CONNECTION_USR, MESSAGE, MESSAGE_ARCHIVE;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Undoes migrate_keys_prepare(), leaving the old tables as they were.
+CREATE OR REPLACE FUNCTION migrate_keys_abort() RETURNS void AS $$
+DECLARE
+	tab text;
+BEGIN
+	PERFORM pg_advisory_xact_lock(hashtext('message_partitions'));
+	FOREACH tab IN ARRAY ARRAY['USR', 'WORK_EXPR', 'EDUCATIONAL_DETAILS', 'CONNECTION_USR',
+			'MESSAGE', 'MESSAGE_ARCHIVE'] LOOP
+		EXECUTE format('DROP TRIGGER IF EXISTS migrate_keys ON %s', tab);
+	END LOOP;
+	DROP TABLE IF EXISTS WORK_EXPR_NEW, EDUCATIONAL_DETAILS_NEW, CONNECTION_USR_NEW,
+		MESSAGE_NEW, MESSAGE_ARCHIVE_NEW, USR_NEW;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,17 @@
+-- People-you-may-know lists, written by the batch job of
+-- java/scripts/recommend.sh (ConnectionRecommender) and read by the
+-- clients, so no client recomputes them. Run after create_tables.sql.
+--
+-- One row per user with at least one candidate: the candidates' uids
+-- best first, and their mutual connection counts and scores at the same
+-- positions. A full recompute replaces every row in one transaction; in
+-- between, the job rewrites the rows of the users whose connections the
+-- clients changed.
+
+CREATE TABLE IF NOT EXISTS RECOMMENDATION(
+	uid integer NOT NULL,
+	candidates integer[] NOT NULL,
+	mutual integer[] NOT NULL,
+	scores integer[] NOT NULL,
+	computedAt timestamp NOT NULL DEFAULT now(),
+	PRIMARY KEY(uid));
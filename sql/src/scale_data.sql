@@ -0,0 +1,56 @@
+-- Grows the loaded data set by a factor (default 100) for plan and load
+-- checks: every user is copied with '_<n>' appended to its userId, and
+-- every work/education row and connection with it, so the degree
+-- distribution stays the same. Afterwards every accepted connection gets
+-- two messages.
+--
+--   psql -v factor=100 $DB_NAME < scale_data.sql
+
+\if :{?factor}
+\else
+\set factor 100
+\endif
+
+-- the users loaded so far are the originals
+SELECT COALESCE(MAX(uid), 0) AS orig_max FROM USR \gset
+
+INSERT INTO USR (userId, password, email, name, dateOfBirth)
+SELECT U.userId || '_' || g, U.password, U.email, U.name, U.dateOfBirth
+FROM USR U, generate_series(1, :factor - 1) g;
+
+-- the copies of a user: (original uid, copy number, uid of the copy)
+CREATE TEMP TABLE USR_COPY AS
+SELECT O.uid AS orig, g, N.uid AS copy
+FROM USR O, generate_series(1, :factor - 1) g, USR N
+WHERE O.uid <= :orig_max AND N.userId = O.userId || '_' || g;
+CREATE INDEX ON USR_COPY (orig, g);
+ANALYZE USR_COPY;
+
+INSERT INTO WORK_EXPR (userUid, company, role, location, startDate, endDate)
+SELECT K.copy, W.company, W.role, W.location, W.startDate, W.endDate
+FROM WORK_EXPR W JOIN USR_COPY K ON K.orig = W.userUid;
+
+INSERT INTO EDUCATIONAL_DETAILS (userUid, instituitionName, major, degree, startdate, enddate)
+SELECT K.copy, E.instituitionName, E.major, E.degree, E.startdate, E.enddate
+FROM EDUCATIONAL_DETAILS E JOIN USR_COPY K ON K.orig = E.userUid;
+
+INSERT INTO CONNECTION_USR (userUid, connectionUid, status)
+SELECT K.copy, L.copy, C.status
+FROM CONNECTION_USR C
+	JOIN USR_COPY K ON K.orig = C.userUid
+	JOIN USR_COPY L ON L.orig = C.connectionUid AND L.g = K.g;
+
+INSERT INTO MESSAGE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status)
+SELECT base.m + row_number() OVER (), C.userUid, C.connectionUid,
+	'generated message ' || k, now() - (k || ' hours')::interval, (k - 1) * 2, 'Sent'
+FROM CONNECTION_USR C,
+	generate_series(1, 2) k,
+	(SELECT COALESCE(MAX(msgId), 0) AS m FROM MESSAGE) base
+WHERE C.status = 'Accept';
+
+SELECT message_split_default();
+SELECT message_check_ids();
+
+SELECT setval('MESSAGE_MSGID_SEQ', COALESCE(MAX(msgId), 0) + 1, false) FROM MESSAGE;
+
+ANALYZE;
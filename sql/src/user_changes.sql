@@ -0,0 +1,51 @@
+-- Log of the users added to USR and of the names changed in it, so every
+-- client can bring its in-memory UserSearchIndex up to date with what
+-- other clients and the loaders changed, without reloading the table. Run
+-- after create_tables.sql.
+--
+-- Read like CONNECTION_CHANGES (see connection_changes.sql): a client
+-- takes the rows of xid >= the xmin of the snapshot it took before its
+-- last read, so a user whose transaction was still open then is read
+-- again once it has committed. Only the uid is logged; the client reads
+-- the current userId and name from USR.
+--
+-- Clients delete the rows older than profnetwork.refresh.retainMs.
+-- Needs PostgreSQL 10 or later.
+
+CREATE TABLE IF NOT EXISTS USR_CHANGES(
+	seq bigint GENERATED ALWAYS AS IDENTITY,
+	xid bigint NOT NULL DEFAULT txid_current(),
+	changedAt timestamp NOT NULL DEFAULT now(),
+	uid integer NOT NULL,
+	PRIMARY KEY(seq));
+
+-- the reads of the clients, and the pruning
+CREATE INDEX IF NOT EXISTS USR_CHANGES_XID_IDX
+	ON USR_CHANGES (xid);
+CREATE INDEX IF NOT EXISTS USR_CHANGES_TIME_IDX
+	ON USR_CHANGES (changedAt);
+
+-- Logs every user inserted and every user whose name an update changed.
+-- Transition tables cannot be combined with UPDATE OF, so the update
+-- trigger compares the rows itself.
+CREATE OR REPLACE FUNCTION user_changes_trigger() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO USR_CHANGES (uid) SELECT uid FROM new_rows;
+	ELSE
+		INSERT INTO USR_CHANGES (uid)
+		SELECT n.uid FROM new_rows n JOIN old_rows o ON o.uid = n.uid
+		WHERE n.name IS DISTINCT FROM o.name;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS user_changes_insert ON USR;
+DROP TRIGGER IF EXISTS user_changes_update ON USR;
+CREATE TRIGGER user_changes_insert AFTER INSERT ON USR
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE user_changes_trigger();
+CREATE TRIGGER user_changes_update AFTER UPDATE ON USR
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE user_changes_trigger();